@@ -0,0 +1,104 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import net.digitaltsunami.tmeter.NamedTimeTracker;
+import net.digitaltsunami.tmeter.Timer;
+import net.digitaltsunami.tmeter.action.ActionChain;
+import net.digitaltsunami.tmeter.action.ActionChainOverflowPolicy;
+import net.digitaltsunami.tmeter.action.TimerStatsAction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end throughput of timers recorded by a {@link NamedTimeTracker} and
+ * processed by a {@link TimerStatsAction} within the {@link ActionChain}.
+ * <p>
+ * The action chain queue is bounded using
+ * {@link ActionChainOverflowPolicy#BLOCK} so that the recording threads are
+ * limited to the rate at which the chain processes the timers.
+ * 
+ * @author dhagberg
+ * 
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ActionChainBenchmark {
+
+    private static final String[] TASK_NAMES = { "Task0", "Task1", "Task2", "Task3" };
+
+    @Param({ "1024", "65536" })
+    public int queueCapacity;
+
+    @Param({ "1", "2" })
+    public int shardCount;
+
+    @Param({ "false", "true" })
+    public boolean poolTimers;
+
+    private NamedTimeTracker tracker;
+    private TimerStatsAction statsAction;
+
+    @Setup
+    public void setup() {
+        tracker = new NamedTimeTracker("ActionChainBenchmark");
+        tracker.setPoolTimers(poolTimers);
+        tracker.setActionChainQueue(queueCapacity, ActionChainOverflowPolicy.BLOCK);
+        tracker.setActionChainShards(shardCount);
+        statsAction = new TimerStatsAction();
+        tracker.addCompletionAction(statsAction);
+    }
+
+    @TearDown
+    public void tearDown() {
+        tracker.shutdown();
+    }
+
+    /**
+     * Task name used by each benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class ThreadTask {
+        private int next;
+
+        String nextTaskName() {
+            return TASK_NAMES[next++ & (TASK_NAMES.length - 1)];
+        }
+    }
+
+    @Benchmark
+    public void recordTimer(ThreadTask task) {
+        Timer timer = tracker.startRecording(task.nextTaskName());
+        timer.stop();
+    }
+}
@@ -0,0 +1,61 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter.benchmark;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point for the benchmark jar. Accepts the standard JMH command line
+ * options and always adds the {@link GCProfiler} so that each benchmark
+ * reports its allocation rate (gc.alloc.rate.norm) along with its timing.
+ * <p>
+ * Build and run using:
+ * 
+ * <pre>
+ * <code>
+ *     mvn install
+ *     mvn -f benchmarks/pom.xml package
+ *     java -jar benchmarks/target/benchmarks.jar [JMH options] [benchmark regex]
+ * </code>
+ * </pre>
+ * 
+ * @author dhagberg
+ * 
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException,
+            IOException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp() || commandLine.shouldList()
+                || commandLine.shouldListProfilers() || commandLine.shouldListResultFormats()) {
+            // Informational requests are handled by the standard JMH entry point.
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        Options options = new OptionsBuilder().parent(commandLine)
+                .addProfiler(GCProfiler.class).build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,105 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter.benchmark;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.digitaltsunami.tmeter.Timer;
+import net.digitaltsunami.tmeter.TimerLogType;
+import net.digitaltsunami.tmeter.record.FileTimeRecorder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of formatting and writing timers using {@link FileTimeRecorder}. Output
+ * is discarded so that the results reflect the recorder rather than the
+ * device.
+ * 
+ * @author dhagberg
+ * 
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FileTimeRecorderBenchmark {
+
+    private static final int BATCH_SIZE = 64;
+
+    @Param({ "TEXT", "CSV", "BINARY" })
+    public TimerLogType logType;
+
+    @Param({ "false", "true" })
+    public boolean withNotes;
+
+    private FileTimeRecorder recorder;
+    private Timer timer;
+    private List<Timer> batch;
+
+    @Setup
+    public void setup() {
+        recorder = new FileTimeRecorder(new PrintStream(new DiscardOutputStream()), logType);
+        batch = new ArrayList<Timer>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            Timer batchTimer = new Timer("FileTimeRecorderBenchmark" + (i & 3));
+            if (withNotes) {
+                batchTimer.stop("note", i);
+            } else {
+                batchTimer.stop();
+            }
+            batch.add(batchTimer);
+        }
+        timer = batch.get(0);
+    }
+
+    @Benchmark
+    public void record() {
+        recorder.record(timer);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void recordAll() {
+        recorder.recordAll(batch);
+    }
+
+    private static class DiscardOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import net.digitaltsunami.tmeter.StripedTimerBasicStatistics;
+import net.digitaltsunami.tmeter.Timer;
+import net.digitaltsunami.tmeter.TimerBasicStatistics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of {@link TimerBasicStatistics#addTimer(Timer)} when a single
+ * instance is updated by multiple threads. The number of threads may be
+ * changed using the JMH -t option.
+ * 
+ * @author dhagberg
+ * 
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class StatisticsBenchmark {
+
+    private static final String TASK_NAME = "StatisticsBenchmark";
+
+    @Param({ "basic", "striped" })
+    public String statisticsType;
+
+    private TimerBasicStatistics statistics;
+
+    @Setup
+    public void setup() {
+        statistics = "striped".equals(statisticsType) ? new StripedTimerBasicStatistics(
+                TASK_NAME) : new TimerBasicStatistics(TASK_NAME);
+    }
+
+    /**
+     * Completed timer owned by each benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class ThreadTimer {
+        Timer timer;
+
+        @Setup
+        public void setup() {
+            timer = new Timer(TASK_NAME);
+            timer.stop();
+        }
+    }
+
+    @Benchmark
+    public void addTimer(ThreadTimer threadTimer) {
+        statistics.addTimer(threadTimer.timer);
+    }
+}
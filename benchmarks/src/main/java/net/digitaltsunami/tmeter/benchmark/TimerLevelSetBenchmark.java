@@ -0,0 +1,97 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import net.digitaltsunami.tmeter.level.CategoryTimerLevel;
+import net.digitaltsunami.tmeter.level.TimerLevel;
+import net.digitaltsunami.tmeter.level.TimerLevelSet;
+import net.digitaltsunami.tmeter.level.TimerThreshold;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of {@link TimerLevelSet#isEnabled(TimerLevel)} as the number of
+ * enabled category levels grows.
+ * 
+ * @author dhagberg
+ * 
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TimerLevelSetBenchmark {
+
+    /**
+     * Categories used to populate the set.
+     */
+    public enum Category {
+        C00, C01, C02, C03, C04, C05, C06, C07, C08, C09, C10, C11, C12, C13, C14, C15,
+        C16, C17, C18, C19, C20, C21, C22, C23, C24, C25, C26, C27, C28, C29, C30, C31,
+        C32, C33, C34, C35, C36, C37, C38, C39, C40, C41, C42, C43, C44, C45, C46, C47,
+        C48, C49, C50, C51, C52, C53, C54, C55, C56, C57, C58, C59, C60, C61, C62, C63
+    }
+
+    @Param({ "1", "8", "32", "63" })
+    public int levelCount;
+
+    private TimerLevelSet levelSet;
+    private TimerLevel enabledLevel;
+    private TimerLevel disabledLevel;
+
+    @Setup
+    public void setup() {
+        levelSet = new TimerLevelSet();
+        Category[] categories = Category.values();
+        for (int i = 0; i < levelCount; i++) {
+            levelSet.addLevel(new CategoryTimerLevel<Category>(categories[i]));
+        }
+        levelSet.addLevel(TimerThreshold.MEDIUM);
+        // Last category added is the enabled level and the final category is
+        // never added.
+        enabledLevel = new CategoryTimerLevel<Category>(categories[levelCount - 1]);
+        disabledLevel = new CategoryTimerLevel<Category>(categories[categories.length - 1]);
+    }
+
+    @Benchmark
+    public boolean isEnabledCategory() {
+        return levelSet.isEnabled(enabledLevel);
+    }
+
+    @Benchmark
+    public boolean isEnabledCategoryMiss() {
+        return levelSet.isEnabled(disabledLevel);
+    }
+
+    @Benchmark
+    public boolean isEnabledThreshold() {
+        return levelSet.isEnabled(TimerThreshold.COURSE);
+    }
+}
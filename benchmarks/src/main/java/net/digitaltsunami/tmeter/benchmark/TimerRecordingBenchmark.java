@@ -0,0 +1,100 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import net.digitaltsunami.tmeter.NamedTimeTracker;
+import net.digitaltsunami.tmeter.Timer;
+import net.digitaltsunami.tmeter.level.TimerThreshold;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of timing a task using {@link NamedTimeTracker#startRecording} and
+ * {@link Timer#stop()} or {@link NamedTimeTracker#startTiming} and
+ * {@link NamedTimeTracker#stopTiming}.
+ * <p>
+ * Modes:
+ * <ul>
+ * <li>disabled - tracking is disabled.</li>
+ * <li>filtered - the timer level is not enabled.</li>
+ * <li>enabled - a new timer is created for each task.</li>
+ * <li>pooled - timers are recycled from the per-thread pool.</li>
+ * <li>concurrent - concurrent task counts are maintained.</li>
+ * </ul>
+ * 
+ * @author dhagberg
+ * 
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TimerRecordingBenchmark {
+
+    private static final String TASK_NAME = "RecordingBenchmark";
+
+    @Param({ "disabled", "filtered", "enabled", "pooled", "concurrent" })
+    public String trackingMode;
+
+    private NamedTimeTracker tracker;
+
+    @Setup
+    public void setup() {
+        tracker = new NamedTimeTracker("RecordingBenchmark");
+        if ("disabled".equals(trackingMode)) {
+            tracker.setTrackingDisabled(true);
+        } else if ("filtered".equals(trackingMode)) {
+            tracker.enableTimerLevel(TimerThreshold.COURSE);
+        } else {
+            tracker.enableTimerLevel(TimerThreshold.FINE);
+            tracker.setPoolTimers("pooled".equals(trackingMode));
+            tracker.setTrackConcurrent("concurrent".equals(trackingMode));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        tracker.shutdown();
+    }
+
+    @Benchmark
+    public Timer startRecordingStop() {
+        Timer timer = tracker.startRecording(TimerThreshold.FINE, TASK_NAME);
+        timer.stop();
+        return timer;
+    }
+
+    @Benchmark
+    public long startTimingStopTiming() {
+        long token = tracker.startTiming(TimerThreshold.FINE);
+        return tracker.stopTiming(TASK_NAME, token);
+    }
+}
@@ -0,0 +1,228 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Path of nested tasks from the outermost timer to a timer started within it,
+ * such as <code>request/service/dao</code>.
+ * <p>
+ * Paths are assigned to timers by a {@link NamedTimeTracker} that is tracking
+ * nesting (see {@link NamedTimeTracker#setTrackNesting(boolean)}) and are
+ * available using {@link Timer#getCallPath()}. Each tracker creates a single
+ * instance for each distinct path, so assigning a path does not allocate once
+ * the path has been seen. Paths created by different trackers are equal if
+ * they contain the same task names.
+ * <p>
+ * The number of paths created by a tracker is limited. Once the limit is
+ * reached, timers that would start a new path are assigned the
+ * {@link #OVERFLOW_TASK_NAME} path below their parent instead.
+ *
+ * @author dhagberg
+ *
+ * @see NamedTimeTracker#setMaxCallPaths(int)
+ */
+public final class CallPath {
+
+    /**
+     * Task name of the path assigned to timers once the number of paths has
+     * reached the limit.
+     */
+    public static final String OVERFLOW_TASK_NAME = "...";
+
+    /**
+     * Separator between task names in the string form of a path.
+     */
+    public static final char SEPARATOR = '/';
+
+    private final CallPath parent;
+    private final String taskName;
+    private final int depth;
+    private final int hash;
+
+    /**
+     * Paths started within this path by task name.
+     */
+    private final ConcurrentHashMap<String, CallPath> children =
+            new ConcurrentHashMap<String, CallPath>();
+
+    /**
+     * Path for children created once the limit has been reached. Created when
+     * first required.
+     */
+    private volatile CallPath overflow;
+
+    private String path;
+
+    /**
+     * Create the root of a set of paths. The root is the parent of outermost
+     * timers and is never assigned to a timer.
+     */
+    CallPath() {
+        this(null, null);
+    }
+
+    private CallPath(CallPath parent, String taskName) {
+        this.parent = parent;
+        this.taskName = taskName;
+        if (parent == null) {
+            this.depth = 0;
+            this.hash = 0;
+        } else {
+            this.depth = parent.depth + 1;
+            this.hash = 31 * parent.hash + taskName.hashCode();
+        }
+    }
+
+    /**
+     * Return the path for the task started within this path, creating it if
+     * not yet present and the limit has not been reached.
+     *
+     * @param taskName
+     *            name of task started within this path.
+     * @param pathCount
+     *            number of paths created so far.
+     * @param maxPaths
+     *            limit on the number of paths created.
+     * @return path of the task or the overflow path of this path if the limit
+     *         has been reached.
+     */
+    CallPath child(String taskName, AtomicInteger pathCount, int maxPaths) {
+        CallPath child = children.get(taskName);
+        if (child != null) {
+            return child;
+        }
+        if (isOverflow()) {
+            return this;
+        }
+        if (pathCount.incrementAndGet() > maxPaths) {
+            pathCount.decrementAndGet();
+            return getOverflow();
+        }
+        CallPath created = new CallPath(this, taskName);
+        child = children.putIfAbsent(taskName, created);
+        if (child != null) {
+            pathCount.decrementAndGet();
+            return child;
+        }
+        return created;
+    }
+
+    private CallPath getOverflow() {
+        CallPath result = overflow;
+        if (result == null) {
+            synchronized (this) {
+                result = overflow;
+                if (result == null) {
+                    result = new CallPath(this, OVERFLOW_TASK_NAME);
+                    overflow = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the path within which this path was started or null if this is
+     *         an outermost path.
+     */
+    public CallPath getParent() {
+        return parent == null || parent.parent == null ? null : parent;
+    }
+
+    /**
+     * @return name of the last task of this path.
+     */
+    public String getTaskName() {
+        return taskName;
+    }
+
+    /**
+     * @return number of tasks in this path. One for an outermost timer.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return true if this path was assigned because the limit on paths was
+     *         reached.
+     */
+    public boolean isOverflow() {
+        return parent != null && parent.overflow == this;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof CallPath)) {
+            return false;
+        }
+        CallPath a = this;
+        CallPath b = (CallPath) obj;
+        if (a.hash != b.hash || a.depth != b.depth) {
+            return false;
+        }
+        while (a != b && a.parent != null) {
+            if (!a.taskName.equals(b.taskName)) {
+                return false;
+            }
+            a = a.parent;
+            b = b.parent;
+        }
+        return true;
+    }
+
+    /**
+     * Return the task names of this path separated by {@link #SEPARATOR}.
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        String result = path;
+        if (result == null) {
+            if (parent == null) {
+                result = "";
+            } else if (parent.parent == null) {
+                result = taskName;
+            } else {
+                result = parent.toString() + SEPARATOR + taskName;
+            }
+            path = result;
+        }
+        return result;
+    }
+}
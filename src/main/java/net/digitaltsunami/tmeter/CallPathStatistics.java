@@ -0,0 +1,123 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter;
+
+/**
+ * Basic statistics for the timers of a single {@link CallPath}. Statistics are
+ * maintained for both the total elapsed time of each timer, including time
+ * spent in its child timers, and the self elapsed time, excluding time spent
+ * in its child timers.
+ * <p>
+ * The sum of the self elapsed times of all paths is the time spent within
+ * timers without counting nested time more than once.
+ *
+ * @author dhagberg
+ *
+ * @see Timer#getSelfElapsedNanos()
+ */
+public class CallPathStatistics {
+
+    private final CallPath callPath;
+    private final TimerBasicStatistics total;
+    private final TimerBasicStatistics self;
+
+    /**
+     * Create an empty instance for the path.
+     *
+     * @param callPath
+     *            path of the timers.
+     */
+    public CallPathStatistics(CallPath callPath) {
+        this(callPath, new TimerBasicStatistics(callPath.toString()),
+                new TimerBasicStatistics(callPath.toString()));
+    }
+
+    private CallPathStatistics(CallPath callPath, TimerBasicStatistics total,
+            TimerBasicStatistics self) {
+        this.callPath = callPath;
+        this.total = total;
+        this.self = self;
+    }
+
+    /**
+     * Add the total and self elapsed times of the timer to the statistics.
+     * Timers sampled by a {@link NamedTimeTracker} are scaled by their
+     * {@link Timer#getSampleWeight()}.
+     *
+     * @param timer
+     *            completed timer of this path.
+     */
+    public synchronized void addTimer(Timer timer) {
+        int weight = timer.getSampleWeight();
+        total.addElapsed(timer.getElapsedNanos(), weight);
+        self.addElapsed(timer.getSelfElapsedNanos(), weight);
+    }
+
+    /**
+     * @return the path of the timers.
+     */
+    public CallPath getCallPath() {
+        return callPath;
+    }
+
+    /**
+     * Return statistics of the total elapsed time of the timers, including
+     * time spent in child timers. The task name of the statistics is the
+     * string form of the path.
+     *
+     * @return live statistics of total elapsed times.
+     */
+    public TimerBasicStatistics getTotalStatistics() {
+        return total;
+    }
+
+    /**
+     * Return statistics of the self elapsed time of the timers, excluding
+     * time spent in child timers. The task name of the statistics is the
+     * string form of the path.
+     *
+     * @return live statistics of self elapsed times.
+     */
+    public TimerBasicStatistics getSelfStatistics() {
+        return self;
+    }
+
+    /**
+     * Creates a snapshot of the instance and returns as a new instance. These
+     * values will not be updated as more timers are processed.
+     *
+     * @return new instance that is a snapshot at the time returned.
+     */
+    public synchronized CallPathStatistics getSnapshot() {
+        return new CallPathStatistics(callPath, total.getSnapshot(), self.getSnapshot());
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(200);
+        sb.append("CallPathStatistics [path=").append(callPath);
+        sb.append(", count=").append(total.getCount());
+        sb.append(", total=").append(total.getTotalElapsedNanos());
+        sb.append(", self=").append(self.getTotalElapsedNanos());
+        sb.append("]");
+        return sb.toString();
+    }
+}
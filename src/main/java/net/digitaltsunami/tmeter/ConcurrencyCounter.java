@@ -0,0 +1,183 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count of the running timers of a single task along with the peak count and
+ * the time spent running by all timers of the task since the start of the
+ * current interval.
+ * <p>
+ * The count and running time are spread across a set of cells so that threads
+ * starting and stopping timers for the same task do not contend on a single
+ * value. Each thread is mapped to a cell and the cells are summed when the
+ * count is requested. Each cell occupies its own cache line. The peak is also
+ * tracked per cell, as the highest count of the cell itself, so starting a
+ * timer only reads and writes the cell of the starting thread. The peaks of
+ * the cells are summed when the peak is requested. With a single cell this is
+ * the exact peak; with several it is an upper bound, as the cells may not
+ * have reached their peaks at the same time.
+ * <p>
+ * The time spent running since the start of the interval divided by the
+ * length of the interval is the time-weighted average concurrency of the
+ * task. Only the time of timers that have stopped is included, so timers
+ * still running at the end of the interval are not counted until they stop.
+ *
+ * @author dhagberg
+ *
+ */
+class ConcurrencyCounter {
+
+    /**
+     * Number of longs between cells. Places each cell on its own cache line.
+     */
+    private static final int STRIDE = 8;
+    private static final int COUNT = 0;
+    private static final int RUNNING_NANOS = 1;
+    private static final int PEAK = 2;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+    private final boolean striped;
+    private volatile long intervalStartNanos;
+
+    /**
+     * Create a counter with the provided number of cells. The number will be
+     * rounded up to the next power of two.
+     *
+     * @param stripes
+     *            minimum number of cells used to count timers.
+     */
+    ConcurrencyCounter(int stripes) {
+        int size = Integer.highestOneBit(stripes);
+        if (size < stripes) {
+            size <<= 1;
+        }
+        cells = new AtomicLongArray(size * STRIDE);
+        mask = size - 1;
+        striped = size > 1;
+        intervalStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Count a timer that is about to start.
+     *
+     * @return the count of the cell of the current thread including the new
+     *         timer. This is the number of running timers unless the counter
+     *         is striped. See {@link #isStriped()}.
+     */
+    int increment() {
+        int index = cellIndex();
+        long count = cells.incrementAndGet(index + COUNT);
+        updatePeak(index, count);
+        return (int) count;
+    }
+
+    /**
+     * @return true if the count is spread across more than one cell.
+     */
+    boolean isStriped() {
+        return striped;
+    }
+
+    /**
+     * Raise the peak of the cell to the count if higher. Only contended by
+     * threads sharing the cell.
+     */
+    private void updatePeak(int index, long count) {
+        long max = cells.get(index + PEAK);
+        while (count > max) {
+            if (cells.compareAndSet(index + PEAK, max, count)) {
+                break;
+            }
+            max = cells.get(index + PEAK);
+        }
+    }
+
+    /**
+     * Remove a stopped timer from the count and add its running time within
+     * the current interval.
+     *
+     * @param startNanos
+     *            start time of the timer in nanoseconds.
+     * @param stopNanos
+     *            stop time of the timer in nanoseconds.
+     */
+    void decrement(long startNanos, long stopNanos) {
+        int index = cellIndex();
+        cells.decrementAndGet(index + COUNT);
+        long start = intervalStartNanos;
+        long running = stopNanos - (startNanos - start < 0 ? start : startNanos);
+        if (running > 0) {
+            cells.addAndGet(index + RUNNING_NANOS, running);
+        }
+    }
+
+    /**
+     * @return the number of running timers.
+     */
+    int getCurrent() {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += STRIDE) {
+            sum += cells.get(i + COUNT);
+        }
+        return (int) sum;
+    }
+
+    /**
+     * Return the concurrency of the task for the current interval and
+     * optionally start a new interval. A new interval has no running time and
+     * a peak equal to the current count.
+     *
+     * @param taskName
+     *            name of task counted.
+     * @param startInterval
+     *            true to start a new interval.
+     * @return concurrency for the interval ending now.
+     */
+    ConcurrencyStatistics getStatistics(String taskName, boolean startInterval) {
+        long now = System.nanoTime();
+        long runningNanos = 0;
+        long peak = 0;
+        for (int i = 0; i < cells.length(); i += STRIDE) {
+            if (startInterval) {
+                runningNanos += cells.getAndSet(i + RUNNING_NANOS, 0L);
+                // The new interval starts with a peak of the current count
+                // of the cell.
+                peak += cells.getAndSet(i + PEAK, cells.get(i + COUNT));
+            } else {
+                runningNanos += cells.get(i + RUNNING_NANOS);
+                peak += cells.get(i + PEAK);
+            }
+        }
+        int current = getCurrent();
+        long start = intervalStartNanos;
+        if (startInterval) {
+            intervalStartNanos = now;
+        }
+        return new ConcurrencyStatistics(taskName, current, (int) Math.max(peak, current),
+                runningNanos, now - start);
+    }
+
+    private int cellIndex() {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32));
+        // Spread the bits so that sequential ids do not share low order bits.
+        hash *= 0x9E3779B9;
+        return ((hash ^ (hash >>> 16)) & mask) * STRIDE;
+    }
+}
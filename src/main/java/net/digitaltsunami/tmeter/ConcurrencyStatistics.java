@@ -0,0 +1,137 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshot of the concurrency of a task over an interval as tracked by a
+ * {@link NamedTimeTracker}.
+ * <p>
+ * The average concurrency is time weighted: the time spent running by all
+ * timers of the task within the interval divided by the length of the
+ * interval. For example, a task that kept four threads busy for half of the
+ * interval has an average concurrency of two. Only timers stopped before the
+ * end of the interval are included in the running time.
+ *
+ * @author dhagberg
+ *
+ * @see NamedTimeTracker#getConcurrencyStatistics(String)
+ */
+public class ConcurrencyStatistics {
+
+    private final String taskName;
+    private final int current;
+    private final int peak;
+    private final long runningNanos;
+    private final long intervalNanos;
+
+    /**
+     * Create a snapshot of the concurrency of a task.
+     *
+     * @param taskName
+     *            name of task.
+     * @param current
+     *            number of running timers at the end of the interval.
+     * @param peak
+     *            highest number of running timers during the interval.
+     * @param runningNanos
+     *            time spent running by all timers within the interval.
+     * @param intervalNanos
+     *            length of the interval.
+     */
+    public ConcurrencyStatistics(String taskName, int current, int peak, long runningNanos,
+            long intervalNanos) {
+        this.taskName = taskName;
+        this.current = current;
+        this.peak = peak;
+        this.runningNanos = runningNanos;
+        this.intervalNanos = intervalNanos;
+    }
+
+    /**
+     * @return the name of the task.
+     */
+    public String getTaskName() {
+        return taskName;
+    }
+
+    /**
+     * @return the number of running timers at the end of the interval.
+     */
+    public int getCurrent() {
+        return current;
+    }
+
+    /**
+     * @return the highest number of running timers during the interval. With
+     *         striped counts, an upper bound of the highest number.
+     */
+    public int getPeak() {
+        return peak;
+    }
+
+    /**
+     * @return the time spent running by all timers of the task within the
+     *         interval in nanoseconds.
+     */
+    public long getRunningNanos() {
+        return runningNanos;
+    }
+
+    /**
+     * Return the length of the interval in the provided unit.
+     *
+     * @param timeUnit
+     *            unit of the value returned.
+     * @return length of the interval.
+     */
+    public long getInterval(TimeUnit timeUnit) {
+        return timeUnit.convert(intervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the length of the interval in nanoseconds.
+     */
+    public long getIntervalNanos() {
+        return intervalNanos;
+    }
+
+    /**
+     * @return the time-weighted average number of running timers during the
+     *         interval or zero if the interval is empty.
+     */
+    public double getAverage() {
+        return intervalNanos <= 0 ? 0.0 : (double) runningNanos / intervalNanos;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(100);
+        sb.append("ConcurrencyStatistics [taskName=").append(taskName);
+        sb.append(", current=").append(current);
+        sb.append(", peak=").append(peak);
+        sb.append(", average=").append(getAverage());
+        sb.append(", interval_ms=").append(getInterval(TimeUnit.MILLISECONDS));
+        sb.append("]");
+        return sb.toString();
+    }
+}
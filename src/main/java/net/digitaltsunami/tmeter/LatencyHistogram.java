@@ -0,0 +1,302 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed memory histogram of elapsed times used to provide percentiles.
+ * <p>
+ * Values are recorded into log-linear buckets. Each power of two range is
+ * divided into a fixed number of linear sub-buckets, which is determined by
+ * the number of significant digits requested. This provides a constant
+ * relative precision across the entire range of trackable values. For example,
+ * with two significant digits, a value of 1,000,000 nanoseconds will be
+ * reported within 1% (10,000 nanoseconds) of the actual value.
+ * <p>
+ * The memory used is determined at creation by the number of significant
+ * digits and the highest trackable value. Recording is constant time and does
+ * not allocate. Values above the highest trackable value are recorded as the
+ * highest trackable value and negative values are recorded as zero.
+ * <p>
+ * Instances are <strong>not</strong> thread safe. Synchronization is provided
+ * by the owning {@link TimerBasicStatistics}.
+ * 
+ * @author dhagberg
+ * 
+ */
+public class LatencyHistogram {
+
+    private final int significantDigits;
+    private final long highestTrackableValue;
+
+    private final int subBucketHalfCountMagnitude;
+    private final int subBucketHalfCount;
+    private final long subBucketMask;
+    private final int leadingZeroCountBase;
+
+    private final long[] counts;
+    private long totalCount;
+
+    /**
+     * Create a histogram able to record values from zero to the highest
+     * trackable value with the provided precision.
+     * 
+     * @param significantDigits
+     *            number of significant decimal digits maintained for each
+     *            value. Must be between 1 and 5.
+     * @param highestTrackableValue
+     *            highest value that can be recorded. Must be at least 2.
+     * @param timeUnit
+     *            unit of the highest trackable value. Values are recorded in
+     *            nanoseconds.
+     */
+    public LatencyHistogram(int significantDigits, long highestTrackableValue, TimeUnit timeUnit) {
+        if (significantDigits < 1 || significantDigits > 5) {
+            throw new IllegalArgumentException("Significant digits must be between 1 and 5");
+        }
+        long highestNanos = timeUnit.toNanos(highestTrackableValue);
+        if (highestNanos < 2) {
+            throw new IllegalArgumentException("Highest trackable value must be at least 2 nanoseconds");
+        }
+        this.significantDigits = significantDigits;
+        this.highestTrackableValue = highestNanos;
+
+        // Number of sub-buckets needed to distinguish values at the requested
+        // precision, rounded up to a power of two.
+        long largestSingleUnitValue = 2 * (long) Math.pow(10, significantDigits);
+        int subBucketCountMagnitude = (int) Math.ceil(Math.log(largestSingleUnitValue) / Math.log(2));
+        subBucketHalfCountMagnitude = subBucketCountMagnitude - 1;
+        int subBucketCount = 1 << subBucketCountMagnitude;
+        subBucketHalfCount = subBucketCount / 2;
+        subBucketMask = subBucketCount - 1;
+        leadingZeroCountBase = 64 - subBucketHalfCountMagnitude - 1;
+
+        int bucketCount = 1;
+        long smallestUntrackableValue = subBucketCount;
+        while (smallestUntrackableValue <= highestNanos) {
+            if (smallestUntrackableValue > Long.MAX_VALUE / 2) {
+                bucketCount++;
+                break;
+            }
+            smallestUntrackableValue <<= 1;
+            bucketCount++;
+        }
+        counts = new long[(bucketCount + 1) * subBucketHalfCount];
+    }
+
+    /**
+     * Create a copy of the provided histogram.
+     */
+    private LatencyHistogram(LatencyHistogram source) {
+        significantDigits = source.significantDigits;
+        highestTrackableValue = source.highestTrackableValue;
+        subBucketHalfCountMagnitude = source.subBucketHalfCountMagnitude;
+        subBucketHalfCount = source.subBucketHalfCount;
+        subBucketMask = source.subBucketMask;
+        leadingZeroCountBase = source.leadingZeroCountBase;
+        counts = source.counts.clone();
+        totalCount = source.totalCount;
+    }
+
+    /**
+     * Record an elapsed time.
+     * 
+     * @param elapsedNanos
+     *            elapsed time in nanoseconds.
+     */
+    public void record(long elapsedNanos) {
+        long value = elapsedNanos < 0 ? 0
+                : elapsedNanos > highestTrackableValue ? highestTrackableValue : elapsedNanos;
+        counts[countsIndex(value)]++;
+        totalCount++;
+    }
+
+    /**
+     * Record an elapsed time that occurred multiple times.
+     * 
+     * @param elapsedNanos
+     *            elapsed time in nanoseconds.
+     * @param count
+     *            number of occurrences of the elapsed time.
+     */
+    public void record(long elapsedNanos, long count) {
+        long value = elapsedNanos < 0 ? 0
+                : elapsedNanos > highestTrackableValue ? highestTrackableValue : elapsedNanos;
+        counts[countsIndex(value)] += count;
+        totalCount += count;
+    }
+
+    /**
+     * Return the number of values recorded.
+     * 
+     * @return the number of values recorded.
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Return the value at the provided percentile in nanoseconds. The value
+     * returned is the highest value that is equivalent, within the precision
+     * of the histogram, to the value at or below which the requested
+     * percentage of the recorded values fall.
+     * 
+     * @param percentile
+     *            percentile between 0.0 and 100.0.
+     * @return value at the percentile in nanoseconds or 0 if no values have
+     *         been recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0.0 || percentile > 100.0) {
+            throw new IllegalArgumentException("Percentile must be between 0.0 and 100.0");
+        }
+        if (totalCount == 0) {
+            return 0;
+        }
+        long countAtPercentile = (long) Math.ceil((percentile / 100.0) * totalCount);
+        countAtPercentile = Math.max(countAtPercentile, 1);
+        long runningCount = 0;
+        for (int i = 0; i < counts.length; i++) {
+            runningCount += counts[i];
+            if (runningCount >= countAtPercentile) {
+                return Math.min(highestEquivalentValue(valueFromIndex(i)), highestTrackableValue);
+            }
+        }
+        return highestTrackableValue;
+    }
+
+    /**
+     * Return the value at the provided percentile in the {@link TimeUnit}
+     * provided. See {@link #getValueAtPercentile(double)}.
+     * 
+     * @param percentile
+     *            percentile between 0.0 and 100.0.
+     * @param timeUnit
+     *            Desired time unit for returned value.
+     * @return value at the percentile.
+     */
+    public long getValueAtPercentile(double percentile, TimeUnit timeUnit) {
+        return timeUnit.convert(getValueAtPercentile(percentile), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Return the number of recorded values less than or equal to the provided
+     * value. Values equivalent to the provided value, within the precision of
+     * the histogram, are included.
+     *
+     * @param valueNanos
+     *            upper bound in nanoseconds.
+     * @return number of values recorded at or below the value.
+     */
+    public long getCountAtOrBelow(long valueNanos) {
+        if (valueNanos < 0) {
+            return 0;
+        }
+        if (valueNanos >= highestTrackableValue) {
+            return totalCount;
+        }
+        int index = countsIndex(valueNanos);
+        long runningCount = 0;
+        for (int i = 0; i <= index; i++) {
+            runningCount += counts[i];
+        }
+        return runningCount;
+    }
+
+    /**
+     * Add all values recorded in the provided histogram to this histogram.
+     * Both histograms must have been created with the same precision and
+     * highest trackable value.
+     * 
+     * @param other
+     *            histogram to add to this histogram.
+     */
+    public void add(LatencyHistogram other) {
+        if (other.counts.length != counts.length
+                || other.subBucketHalfCountMagnitude != subBucketHalfCountMagnitude) {
+            throw new IllegalArgumentException("Histograms must have the same configuration");
+        }
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+    }
+
+    /**
+     * Remove all recorded values.
+     */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+    }
+
+    /**
+     * Return a copy of this histogram.
+     * 
+     * @return new instance containing the values recorded in this histogram.
+     */
+    public LatencyHistogram copy() {
+        return new LatencyHistogram(this);
+    }
+
+    /**
+     * Return a new, empty histogram with the same configuration as this
+     * histogram.
+     * 
+     * @return new empty instance.
+     */
+    public LatencyHistogram newEmpty() {
+        return new LatencyHistogram(significantDigits, highestTrackableValue, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the number of significant decimal digits maintained.
+     */
+    public int getSignificantDigits() {
+        return significantDigits;
+    }
+
+    /**
+     * @return the highest trackable value in nanoseconds.
+     */
+    public long getHighestTrackableValue() {
+        return highestTrackableValue;
+    }
+
+    private int countsIndex(long value) {
+        int bucketIndex = leadingZeroCountBase - Long.numberOfLeadingZeros(value | subBucketMask);
+        int subBucketIndex = (int) (value >>> bucketIndex);
+        return ((bucketIndex + 1) << subBucketHalfCountMagnitude) + (subBucketIndex - subBucketHalfCount);
+    }
+
+    private long valueFromIndex(int index) {
+        int bucketIndex = (index >> subBucketHalfCountMagnitude) - 1;
+        int subBucketIndex = (index & (subBucketHalfCount - 1)) + subBucketHalfCount;
+        if (bucketIndex < 0) {
+            subBucketIndex -= subBucketHalfCount;
+            bucketIndex = 0;
+        }
+        return ((long) subBucketIndex) << bucketIndex;
+    }
+
+    private long highestEquivalentValue(long value) {
+        int bucketIndex = leadingZeroCountBase - Long.numberOfLeadingZeros(value | subBucketMask);
+        long lowestEquivalentValue = (value >>> bucketIndex) << bucketIndex;
+        return lowestEquivalentValue + (1L << bucketIndex) - 1;
+    }
+}
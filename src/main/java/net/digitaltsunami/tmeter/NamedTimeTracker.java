@@ -15,19 +15,32 @@
 __copyright_end__ */
 package net.digitaltsunami.tmeter;
 
+import java.lang.management.ManagementFactory;
 import java.lang.ref.PhantomReference;
 import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+
 import net.digitaltsunami.tmeter.action.ActionChain;
+import net.digitaltsunami.tmeter.action.ActionChainOverflowPolicy;
+import net.digitaltsunami.tmeter.action.ActionChainShutdownType;
+import net.digitaltsunami.tmeter.action.CallTreeStatsAction;
 import net.digitaltsunami.tmeter.action.TimerAction;
+import net.digitaltsunami.tmeter.action.TimerStatsAction;
 import net.digitaltsunami.tmeter.event.TimerStoppedEvent;
 import net.digitaltsunami.tmeter.event.TimerStoppedListener;
+import net.digitaltsunami.tmeter.jmx.TimeTrackerMonitor;
 import net.digitaltsunami.tmeter.level.TimerLevel;
 import net.digitaltsunami.tmeter.level.TimerLevelCollection;
 import net.digitaltsunami.tmeter.level.TimerLevelSet;
@@ -71,6 +84,35 @@ import net.digitaltsunami.tmeter.record.TimeRecorder;
  * provides a rudimentary concurrent count for all timers recording the same
  * task - as determined by task name. The count is based on the number of
  * currently running tasks for a task name at the time the Timer was created.
+ * Peak and time-weighted average concurrency are available for each task
+ * using {@link #getConcurrencyStatistics(String)} and counts can be striped to
+ * avoid contention using {@link #setConcurrencyStripes(int)}.
+ * <p>
+ * Pooling - Can recycle {@link Timer} instances from per-thread pools to avoid
+ * allocating a timer for each recording. Pooled timers are owned by the caller
+ * only until the timer is stopped. See {@link #setPoolTimers(boolean)}.
+ * <p>
+ * Timing tokens - For code that requires only counts and elapsed times, timing
+ * can be done without a {@link Timer} using {@link #startTiming()} and
+ * {@link #stopTiming(String, long)}. The elapsed times are provided to the
+ * {@link ActionChain} for use by actions such as statistics.
+ * <p>
+ * Sampling - High volume tasks can be sampled so that only one in every N
+ * executions is recorded. Sampling is configured per task using
+ * {@link #setTaskSampling(String, int, TimerSamplingMode)} or per level using
+ * {@link #setLevelSampling(TimerLevel, int, TimerSamplingMode)}. Executions
+ * that are not sampled receive the {@link TimerShell}. Sampled timers carry a
+ * {@link Timer#getSampleWeight()} so that statistics can be scaled to the full
+ * number of executions.
+ * <p>
+ * Nesting - Timers started while another timer is running on the same thread
+ * can be assigned a {@link CallPath} describing the enclosing tasks and the
+ * elapsed time of their children can be accumulated into the enclosing timer.
+ * See {@link #setTrackNesting(boolean)}.
+ * <p>
+ * Thread identity - The thread creating each timer is captured by name by
+ * default. Capturing only the id, deferring the name or capturing nothing can
+ * be configured using {@link #setThreadIdentityMode(ThreadIdentityMode)}.
  * 
  * 
  * @author dhagberg
@@ -100,10 +142,117 @@ public class NamedTimeTracker {
             Collections.synchronizedList(new ArrayList<Timer>());
 
     /**
-     * Current count of timers by task name.
+     * Current count of timers indexed by task id. Replaced when a task id
+     * beyond the end is first counted.
+     */
+    private volatile ConcurrencyCounter[] concurrentCounts = new ConcurrencyCounter[0];
+    /**
+     * Ids of the tasks of this tracker. Indexes concurrentCounts and
+     * taskSamplers.
+     */
+    private final TaskRegistry taskRegistry = new TaskRegistry();
+
+    /**
+     * Number of cells used by each concurrent count. Applied to counts created
+     * after the value is set.
+     */
+    private volatile int concurrencyStripes = 1;
+
+    /**
+     * Indicates whether or not timers of striped concurrent counts are set
+     * with the number of running timers when started.
+     */
+    private volatile boolean stampStripedConcurrent;
+
+    /**
+     * Indicates whether or not timers are recycled from per-thread pools.
+     */
+    private boolean poolTimers;
+
+    /**
+     * Number of timers in each per-thread pool. Applied to pools created
+     * after the value is set.
+     */
+    private volatile int timerPoolSize = DEFAULT_TIMER_POOL_SIZE;
+
+    /**
+     * Default number of timers in each per-thread pool.
+     */
+    public static final int DEFAULT_TIMER_POOL_SIZE = 256;
+
+    /**
+     * Indicates whether or not the nesting of timers started on the same
+     * thread is tracked.
+     */
+    private boolean trackNesting;
+
+    /**
+     * Maximum number of nested timers tracked for each thread. Applied to
+     * threads first tracked after the value is set.
+     */
+    private volatile int maxNestingDepth = DEFAULT_MAX_NESTING_DEPTH;
+
+    /**
+     * Default maximum number of nested timers tracked for each thread.
+     */
+    public static final int DEFAULT_MAX_NESTING_DEPTH = 32;
+
+    /**
+     * Maximum number of distinct call paths created by this tracker.
+     */
+    private volatile int maxCallPaths = DEFAULT_MAX_CALL_PATHS;
+
+    /**
+     * Default maximum number of distinct call paths created by this tracker.
+     */
+    public static final int DEFAULT_MAX_CALL_PATHS = 1024;
+
+    /**
+     * Parent of the paths of all outermost timers.
+     */
+    private final CallPath callPathRoot = new CallPath();
+
+    /**
+     * Number of call paths created by this tracker.
      */
-    private final ConcurrentHashMap<String, AtomicInteger> concurrentMap =
-            new ConcurrentHashMap<String, AtomicInteger>();
+    private final AtomicInteger callPathCount = new AtomicInteger();
+
+    /**
+     * Per-thread stacks of running timers used if nesting is tracked.
+     */
+    private final ThreadLocal<TimerNesting> timerNestings = new ThreadLocal<TimerNesting>() {
+        @Override
+        protected TimerNesting initialValue() {
+            return new TimerNesting(maxNestingDepth);
+        }
+    };
+
+    /**
+     * Monitor registered with the platform MBean server or null if none.
+     * Guarded by this.
+     */
+    private TimeTrackerMonitor monitor;
+
+    /**
+     * How the thread creating each timer is captured.
+     */
+    private volatile ThreadIdentityMode threadIdentityMode = ThreadIdentityMode.NAME;
+
+    /**
+     * Per-thread pools of timers used if pooling is enabled.
+     */
+    private final ThreadLocal<TimerPool> timerPools = new ThreadLocal<TimerPool>() {
+        @Override
+        protected TimerPool initialValue() {
+            return new TimerPool(timerPoolSize);
+        }
+    };
+
+    /**
+     * Token returned by {@link #startTiming(TimerLevel)} if timing is not
+     * enabled for the request.
+     */
+    public static final long TIMING_DISABLED = Long.MIN_VALUE;
 
     /**
      * Singleton {@link Timer} used when time tracking is turned off.
@@ -141,9 +290,27 @@ public class NamedTimeTracker {
     private final TimerLevelCollection filter = new TimerLevelSet();
     
     /**
-     * Manages post processing actions. 
+     * Manages post processing actions. Replaced only by
+     * {@link #setActionChainQueue(int, ActionChainOverflowPolicy)} and
+     * {@link #setActionChainShards(int)} prior to adding actions.
+     */
+    private volatile ActionChain actionChain = new ActionChain();
+
+    /**
+     * Samplers indexed by task id. Replaced when modified.
      */
-    private final ActionChain actionChain = new ActionChain();
+    private volatile TimerSampler[] taskSamplers = new TimerSampler[0];
+
+    /**
+     * Samplers keyed by timer level. Replaced when modified.
+     */
+    private volatile Map<TimerLevel, TimerSampler> levelSamplers = Collections.emptyMap();
+
+    /**
+     * Indicates if any task or level is sampled. Avoids the sampler lookups
+     * when sampling is not in use.
+     */
+    private volatile boolean samplingEnabled;
     
     /**
      * Name used to refer to this time tracker instance.
@@ -169,6 +336,13 @@ public class NamedTimeTracker {
      * If a timer level is provided, it will be checked against the current
      * filter. If not enabled, then an instance of {@link TimerShell} will be
      * returned.
+     * <p>
+     * If pooling is enabled, the returned timer must not be used after it has
+     * been stopped. See {@link #setPoolTimers(boolean)}.
+     * <p>
+     * If sampling is configured for the task or level and this execution is
+     * not sampled, then an instance of {@link TimerShell} will be returned.
+     * See {@link #setTaskSampling(String, int, TimerSamplingMode)}.
      * 
      * @param taskName
      *            Name used to represent a given task.
@@ -179,6 +353,65 @@ public class NamedTimeTracker {
      * @see #setTrackingDisabled(boolean)
      */
     public Timer startRecording(TimerLevel level, String taskName) {
+        return startRecording(level, taskName, TaskRegistry.UNREGISTERED);
+    }
+
+    /**
+     * Create and configure a {@link Timer} instance for a task registered
+     * using {@link #registerTask(String)}. Avoids looking up the task by name
+     * for each timer. See {@link #startRecording(TimerLevel, String)}.
+     * 
+     * @param level
+     *            {@link TimerLevel} of timer requested. Will be used to
+     *            determine if the timer is enabled for the request.
+     * @param taskId
+     *            id of the task returned by {@link #registerTask(String)}.
+     * @return instance of {@link Timer} configured based on current settings.
+     * @throws IllegalArgumentException
+     *             if no task is registered with the id.
+     */
+    public Timer startRecording(TimerLevel level, int taskId) {
+        String taskName = taskRegistry.getTaskName(taskId);
+        if (taskName == null) {
+            throw new IllegalArgumentException("No task registered with id " + taskId);
+        }
+        return startRecording(level, taskName, taskId);
+    }
+
+    /**
+     * Create and configure a {@link Timer} instance for a task registered
+     * using {@link #registerTask(String)}. See
+     * {@link #startRecording(TimerLevel, int)}.
+     * 
+     * @param taskId
+     *            id of the task returned by {@link #registerTask(String)}.
+     * @return instance of {@link Timer} configured based on current settings.
+     */
+    public Timer startRecording(int taskId) {
+        return startRecording(DEFAULT_LEVEL, taskId);
+    }
+
+    /**
+     * Register the task with the {@link TaskRegistry} of this tracker and
+     * return its id for use with {@link #startRecording(TimerLevel, int)}.
+     * The id is valid only for this tracker.
+     * 
+     * @param taskName
+     *            Name used to represent a given task.
+     * @return id of the task.
+     */
+    public int registerTask(String taskName) {
+        return taskRegistry.register(taskName);
+    }
+
+    /**
+     * Return the registry assigning ids to the tasks of this tracker.
+     */
+    public TaskRegistry getTaskRegistry() {
+        return taskRegistry;
+    }
+
+    private Timer startRecording(TimerLevel level, String taskName, int taskId) {
         // If not currently tracking time, return a shell so that invoking code
         // does not have to change.
         if (trackingDisabled) {
@@ -193,28 +426,57 @@ public class NamedTimeTracker {
             }
         }
 
-        Timer timer = new Timer(taskName, true, defaultTimeRecorder, level);
+        // Resolve the task id once for sampling and concurrent counts.
+        if (taskId == TaskRegistry.UNREGISTERED && (samplingEnabled || trackConcurrent)) {
+            taskId = taskRegistry.register(taskName);
+        }
+        int sampleWeight = 1;
+        if (samplingEnabled) {
+            TimerSampler sampler = getSampler(level, taskId);
+            if (sampler != null) {
+                if (!sampler.sample()) {
+                    return dummy;
+                }
+                sampleWeight = sampler.getSampleRate();
+            }
+        }
+
+        Timer timer;
+        // Timers placed on the list are retained, so they cannot be pooled.
+        if (poolTimers && !keepList) {
+            timer = timerPools.get().acquire(taskName, defaultTimeRecorder, level,
+                    threadIdentityMode);
+        } else {
+            timer = new Timer(taskName, true, defaultTimeRecorder, level, threadIdentityMode);
+        }
         // Do all time intensive settings prior to starting time
         // keeping list
         if (keepList) {
             timerList.add(timer);
         }
+        if (taskId != TaskRegistry.UNREGISTERED) {
+            timer.setTaskId(taskId);
+        }
+        if (sampleWeight != 1) {
+            timer.setSampleWeight(sampleWeight);
+        }
+        if (trackNesting) {
+            timerNestings.get().push(timer, callPathRoot, callPathCount, maxCallPaths);
+        }
         // tracking concurrent
-        if (trackConcurrent) {
-            AtomicInteger concurrent = concurrentMap.get(taskName);
+        if (trackConcurrent && taskId != TaskRegistry.UNREGISTERED) {
+            ConcurrencyCounter[] counts = concurrentCounts;
+            ConcurrencyCounter concurrent = taskId < counts.length ? counts[taskId] : null;
             if (concurrent == null) {
-                // Task not found in list. Create a new counter
-                concurrent = new AtomicInteger();
-                // Place it in the map
-                AtomicInteger entry = concurrentMap.putIfAbsent(taskName,
-                        concurrent);
-                // If the same entry was not returned, another thread created
-                // during setup. Use the existing entry.
-                if (entry != null && entry != concurrent) {
-                    concurrent = entry;
-                }
+                // Task not yet counted. Create a new counter
+                concurrent = createConcurrentCount(taskId);
+            }
+            int cellCount = concurrent.increment();
+            if (!concurrent.isStriped()) {
+                timer.setConcurrent(cellCount);
+            } else if (stampStripedConcurrent) {
+                timer.setConcurrent(concurrent.getCurrent());
             }
-            timer.setConcurrent(concurrent.incrementAndGet());
         }
         if (listenForCompletion) {
             timer.setCompletionListener(completionEventListener);
@@ -240,6 +502,67 @@ public class NamedTimeTracker {
         return startRecording(DEFAULT_LEVEL, taskName);
     }
 
+    /**
+     * Start timing a task without creating a {@link Timer}. The returned token
+     * must be provided to {@link #stopTiming(String, long)} when the task
+     * completes.
+     * <p>
+     * This is intended for high volume tasks where only counts and elapsed
+     * times are required. Notes, thread names, concurrent counts, the list of
+     * timers and {@link TimeRecorder}s are not supported on this path. Use
+     * {@link #startRecording(TimerLevel, String)} if any of these are required.
+     * <p>
+     * If tracking is disabled or the level is not enabled, then
+     * {@link #TIMING_DISABLED} will be returned.
+     * 
+     * @param level
+     *            {@link TimerLevel} of timing requested. Will be used to
+     *            determine if timing is enabled for the request.
+     * @return token representing the start time of the task.
+     */
+    public long startTiming(TimerLevel level) {
+        if (trackingDisabled) {
+            return TIMING_DISABLED;
+        }
+        if (level != DEFAULT_LEVEL) {
+            if (!filter.isEnabled(level)) {
+                return TIMING_DISABLED;
+            }
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Start timing a task without creating a {@link Timer}. See
+     * {@link #startTiming(TimerLevel)}.
+     * 
+     * @return token representing the start time of the task.
+     */
+    public long startTiming() {
+        return startTiming(DEFAULT_LEVEL);
+    }
+
+    /**
+     * Stop timing a task started using {@link #startTiming(TimerLevel)}. The
+     * elapsed time is submitted to the {@link ActionChain} if one is present.
+     * 
+     * @param taskName
+     *            Name used to represent a given task.
+     * @param token
+     *            value returned from {@link #startTiming(TimerLevel)}.
+     * @return the elapsed time in nanoseconds or 0 if timing was disabled.
+     */
+    public long stopTiming(String taskName, long token) {
+        if (token == TIMING_DISABLED) {
+            return 0;
+        }
+        long elapsedNanos = System.nanoTime() - token;
+        if (listenForCompletion) {
+            actionChain.submitElapsed(taskName, elapsedNanos);
+        }
+        return elapsedNanos;
+    }
+
     /**
      * Indicates whether or not we are keeping a list of all timers.
      * 
@@ -282,15 +605,492 @@ public class NamedTimeTracker {
     }
 
     /**
-     * Decrement the concurrent count for the provided task name.
+     * Indicates whether or not timers are recycled from per-thread pools.
+     * 
+     * @return the poolTimers
+     */
+    public boolean isPoolTimers() {
+        return poolTimers;
+    }
+
+    /**
+     * Indicates whether or not timers are recycled from per-thread pools.
+     * <p>
+     * When enabled, each thread starting timers maintains a pool of
+     * {@link Timer} instances that are reused once all processing of a timer
+     * has completed. This removes the allocation of a timer and its completion
+     * event from each recording. The following ownership rules apply:
+     * <ul>
+     * <li>The caller owns the timer until {@link Timer#stop()} returns and must
+     * not use it afterwards. Use the elapsed time returned by stop instead.</li>
+     * <li>{@link TimeRecorder} and {@link TimerAction} implementations own the
+     * timer for the duration of the call only. If a timer must be retained,
+     * {@link Timer#copy()} should be used.</li>
+     * <li>Queues processing the timer after it has stopped must use
+     * {@link Timer#retain()} and {@link Timer#release()}.
+     * {@link ActionChain} does so already.</li>
+     * </ul>
+     * Pooling is bypassed while keeping a list of timers as those timers are
+     * retained by this instance.
+     * <p>
+     * Default is disabled.
+     * 
+     * @param poolTimers
+     *            True to recycle timers, otherwise false.
+     */
+    public void setPoolTimers(boolean poolTimers) {
+        this.poolTimers = poolTimers;
+    }
+
+    /**
+     * Return the number of timers maintained in each per-thread pool.
+     * 
+     * @return the timerPoolSize
+     */
+    public int getTimerPoolSize() {
+        return timerPoolSize;
+    }
+
+    /**
+     * Set the number of timers maintained in each per-thread pool. If all
+     * timers within a pool are in use, new unpooled timers will be created.
+     * Applies only to pools created after this invocation.
+     * 
+     * @param timerPoolSize
+     *            number of timers per thread. Must be greater than zero.
+     */
+    public void setTimerPoolSize(int timerPoolSize) {
+        if (timerPoolSize < 1) {
+            throw new IllegalArgumentException("Pool size must be greater than zero");
+        }
+        this.timerPoolSize = timerPoolSize;
+    }
+
+    /**
+     * Indicates whether or not the nesting of timers started on the same
+     * thread is tracked.
+     * 
+     * @return the trackNesting
+     */
+    public boolean isTrackNesting() {
+        return trackNesting;
+    }
+
+    /**
+     * Indicates whether or not the nesting of timers started on the same
+     * thread is tracked.
+     * <p>
+     * When enabled, each thread starting timers maintains a stack of its
+     * running timers. Each new timer is assigned a {@link CallPath} made up of
+     * the tasks of the running timers and its own task, such as
+     * <code>request/service/dao</code>. When a timer is stopped by the thread
+     * that started it, its elapsed time is added to the
+     * {@link Timer#getChildElapsedNanos()} of the enclosing timer so that
+     * {@link Timer#getSelfElapsedNanos()} excludes time spent in child
+     * timers. Timers stopped by another thread are not added to their parent.
+     * <p>
+     * Memory is bounded by {@link #setMaxNestingDepth(int)} and
+     * {@link #setMaxCallPaths(int)}. See {@link CallTreeStatsAction} for
+     * statistics by call path.
+     * <p>
+     * Default is disabled.
+     * 
+     * @param trackNesting
+     *            True to track nesting, otherwise false.
+     */
+    public void setTrackNesting(boolean trackNesting) {
+        this.trackNesting = trackNesting;
+        // Timers are popped in the listener, so it must be enabled if
+        // tracking is enabled. Leave on if already on
+        listenForCompletion = (listenForCompletion | trackNesting);
+    }
+
+    /**
+     * Return the maximum number of nested timers tracked for each thread.
+     * 
+     * @return the maxNestingDepth
+     */
+    public int getMaxNestingDepth() {
+        return maxNestingDepth;
+    }
+
+    /**
+     * Set the maximum number of nested timers tracked for each thread. Timers
+     * nested more deeply are not assigned a path and are not added to their
+     * parent. Applies only to threads first tracked after this invocation.
+     * 
+     * @param maxNestingDepth
+     *            number of nested timers per thread. Must be greater than
+     *            zero.
+     */
+    public void setMaxNestingDepth(int maxNestingDepth) {
+        if (maxNestingDepth < 1) {
+            throw new IllegalArgumentException("Nesting depth must be greater than zero");
+        }
+        this.maxNestingDepth = maxNestingDepth;
+    }
+
+    /**
+     * Return the maximum number of distinct call paths created by this
+     * tracker.
+     * 
+     * @return the maxCallPaths
+     */
+    public int getMaxCallPaths() {
+        return maxCallPaths;
+    }
+
+    /**
+     * Set the maximum number of distinct call paths created by this tracker.
+     * Once reached, timers that would start a new path are assigned the
+     * overflow path of their parent. See {@link CallPath#isOverflow()}.
+     * 
+     * @param maxCallPaths
+     *            number of call paths. Must be greater than zero.
+     */
+    public void setMaxCallPaths(int maxCallPaths) {
+        if (maxCallPaths < 1) {
+            throw new IllegalArgumentException("Call paths must be greater than zero");
+        }
+        this.maxCallPaths = maxCallPaths;
+    }
+
+    /**
+     * Return how the thread creating each timer is captured.
+     * 
+     * @return the threadIdentityMode
+     */
+    public ThreadIdentityMode getThreadIdentityMode() {
+        return threadIdentityMode;
+    }
+
+    /**
+     * Set how the thread creating each timer is captured. Resolving the name
+     * of each thread can be avoided by using
+     * {@link ThreadIdentityMode#LAZY_NAME}, {@link ThreadIdentityMode#ID} or
+     * {@link ThreadIdentityMode#NONE}, which is useful when timing work run on
+     * many short lived or unnamed threads. See {@link ThreadIdentityMode} for
+     * the identity recorded by each mode.
+     * <p>
+     * Default is {@link ThreadIdentityMode#NAME}.
+     * 
+     * @param threadIdentityMode
+     *            how the thread creating each timer is captured. Must not be
+     *            null.
+     */
+    public void setThreadIdentityMode(ThreadIdentityMode threadIdentityMode) {
+        if (threadIdentityMode == null) {
+            throw new IllegalArgumentException("Thread identity mode must not be null");
+        }
+        this.threadIdentityMode = threadIdentityMode;
+    }
+
+    /**
+     * Return the sampler for the task or level. A task sampler takes
+     * precedence over a level sampler.
+     * 
+     * @return sampler or null if neither the task nor the level are sampled.
+     */
+    private TimerSampler getSampler(TimerLevel level, int taskId) {
+        TimerSampler[] samplers = taskSamplers;
+        if (taskId >= 0 && taskId < samplers.length && samplers[taskId] != null) {
+            return samplers[taskId];
+        }
+        if (level != DEFAULT_LEVEL) {
+            return levelSamplers.get(level);
+        }
+        return null;
+    }
+
+    /**
+     * Sample timers for the provided task so that only one in every
+     * <code>sampleRate</code> executions is recorded. Executions not sampled
+     * receive a {@link TimerShell}. Each sampled {@link Timer} has a
+     * {@link Timer#getSampleWeight()} of <code>sampleRate</code> which is used
+     * by {@link TimerBasicStatistics#addTimer(Timer)} to scale the count and
+     * totals.
+     * <p>
+     * Task sampling takes precedence over level sampling. Sampling applies to
+     * {@link #startRecording(TimerLevel, String)} and its variants, but not to
+     * {@link #startTiming(TimerLevel)}.
+     * 
+     * @param taskName
+     *            Name used to represent a given task.
+     * @param sampleRate
+     *            number of executions represented by each sampled execution.
+     *            A rate of 1 removes sampling for the task.
+     * @param mode
+     *            method used to select the executions to record.
+     * @throws IllegalArgumentException
+     *             if the task name or mode is null or the sample rate is less
+     *             than 1.
+     */
+    public synchronized void setTaskSampling(String taskName, int sampleRate,
+            TimerSamplingMode mode) {
+        if (taskName == null) {
+            throw new IllegalArgumentException("Task name must be provided");
+        }
+        TimerSampler sampler = createSampler(sampleRate, mode);
+        int taskId = taskRegistry.register(taskName);
+        TimerSampler[] samplers = taskSamplers;
+        if (taskId >= samplers.length) {
+            if (sampler == null) {
+                return;
+            }
+            TimerSampler[] grown = new TimerSampler[taskId + 1];
+            System.arraycopy(samplers, 0, grown, 0, samplers.length);
+            samplers = grown;
+        } else {
+            samplers = samplers.clone();
+        }
+        samplers[taskId] = sampler;
+        taskSamplers = samplers;
+        updateSamplingEnabled();
+    }
+
+    /**
+     * Return the sample rate configured for the task.
      * 
      * @param taskName
+     *            Name used to represent a given task.
+     * @return sample rate or 1 if the task is not sampled.
+     */
+    public int getTaskSampleRate(String taskName) {
+        int taskId = taskRegistry.getTaskId(taskName);
+        TimerSampler[] samplers = taskSamplers;
+        if (taskId >= 0 && taskId < samplers.length && samplers[taskId] != null) {
+            return samplers[taskId].getSampleRate();
+        }
+        return 1;
+    }
+
+    /**
+     * Sample timers for the provided level so that only one in every
+     * <code>sampleRate</code> executions is recorded. Levels are matched
+     * using equals, not using the filter semantics of the
+     * {@link TimerLevelCollection}. See
+     * {@link #setTaskSampling(String, int, TimerSamplingMode)}.
+     * 
+     * @param level
+     *            {@link TimerLevel} to sample.
+     * @param sampleRate
+     *            number of executions represented by each sampled execution.
+     *            A rate of 1 removes sampling for the level.
+     * @param mode
+     *            method used to select the executions to record.
+     * @throws IllegalArgumentException
+     *             if the level or mode is null or the sample rate is less
+     *             than 1.
+     */
+    public synchronized void setLevelSampling(TimerLevel level, int sampleRate,
+            TimerSamplingMode mode) {
+        if (level == null) {
+            throw new IllegalArgumentException("Timer level must be provided");
+        }
+        TimerSampler sampler = createSampler(sampleRate, mode);
+        Map<TimerLevel, TimerSampler> samplers =
+                new HashMap<TimerLevel, TimerSampler>(levelSamplers);
+        if (sampler == null) {
+            samplers.remove(level);
+        } else {
+            samplers.put(level, sampler);
+        }
+        levelSamplers = samplers;
+        updateSamplingEnabled();
+    }
+
+    /**
+     * Return the sample rate configured for the level.
+     * 
+     * @param level
+     *            {@link TimerLevel} to check.
+     * @return sample rate or 1 if the level is not sampled.
+     */
+    public int getLevelSampleRate(TimerLevel level) {
+        TimerSampler sampler = levelSamplers.get(level);
+        return sampler == null ? 1 : sampler.getSampleRate();
+    }
+
+    /**
+     * Remove sampling from all tasks and levels.
+     */
+    public synchronized void clearSampling() {
+        taskSamplers = new TimerSampler[0];
+        levelSamplers = Collections.emptyMap();
+        samplingEnabled = false;
+    }
+
+    /**
+     * Validate the sampling settings and return a sampler or null if the
+     * sample rate disables sampling.
+     */
+    private TimerSampler createSampler(int sampleRate, TimerSamplingMode mode) {
+        if (sampleRate < 1) {
+            throw new IllegalArgumentException("Sample rate must be at least 1: " + sampleRate);
+        }
+        if (mode == null) {
+            throw new IllegalArgumentException("Sampling mode must be provided");
+        }
+        return sampleRate == 1 ? null : new TimerSampler(sampleRate, mode);
+    }
+
+    /**
+     * Update the sampling indicator after a change to the samplers. Must be
+     * invoked while holding the lock on this instance.
      */
-    private void decrementConcurrent(String taskName) {
-        AtomicInteger current = concurrentMap.get(taskName);
+    private void updateSamplingEnabled() {
+        boolean enabled = !levelSamplers.isEmpty();
+        for (TimerSampler sampler : taskSamplers) {
+            enabled |= sampler != null;
+        }
+        samplingEnabled = enabled;
+    }
+
+    /**
+     * Return the concurrent count for the task id, creating it if another
+     * thread has not already done so.
+     * 
+     * @param taskId
+     */
+    private synchronized ConcurrencyCounter createConcurrentCount(int taskId) {
+        ConcurrencyCounter[] counts = concurrentCounts;
+        if (taskId >= counts.length) {
+            ConcurrencyCounter[] grown = new ConcurrencyCounter[Math.max(taskId + 1,
+                    counts.length * 2)];
+            System.arraycopy(counts, 0, grown, 0, counts.length);
+            counts = grown;
+        }
+        ConcurrencyCounter concurrent = counts[taskId];
+        if (concurrent == null) {
+            concurrent = new ConcurrencyCounter(concurrencyStripes);
+            counts[taskId] = concurrent;
+        }
+        concurrentCounts = counts;
+        return concurrent;
+    }
+
+    /**
+     * Decrement the concurrent count for the task of the provided timer.
+     * 
+     * @param timer
+     *            stopped timer.
+     */
+    private void decrementConcurrent(Timer timer) {
+        int taskId = timer.getTaskId();
+        ConcurrencyCounter[] counts = concurrentCounts;
+        ConcurrencyCounter current = taskId >= 0 && taskId < counts.length ? counts[taskId]
+                : null;
         if (current != null) {
-            current.decrementAndGet();
+            long startNanos = timer.getStartTimeNanos();
+            current.decrement(startNanos, startNanos + timer.getElapsedNanos());
+        }
+    }
+
+    /**
+     * Return the number of cells used by each concurrent count.
+     * 
+     * @return the concurrencyStripes
+     */
+    public int getConcurrencyStripes() {
+        return concurrencyStripes;
+    }
+
+    /**
+     * Set the number of cells used by each concurrent count. With more than
+     * one cell, threads starting and stopping timers for the same task update
+     * separate cells, avoiding contention on a single counter for popular
+     * tasks. The peak concurrency is then the sum of the peaks of the cells,
+     * an upper bound of the actual peak, and timers are not set with the
+     * number of running timers unless enabled using
+     * {@link #setStampStripedConcurrent(boolean)}. Applies
+     * only to counts created after this invocation; therefore, this should be
+     * invoked prior to tracking concurrent counts or followed by
+     * {@link #clear()}.
+     * <p>
+     * Default is 1.
+     * 
+     * @param concurrencyStripes
+     *            minimum number of cells per task. Rounded up to the next
+     *            power of two. Must be greater than zero.
+     */
+    public void setConcurrencyStripes(int concurrencyStripes) {
+        if (concurrencyStripes < 1) {
+            throw new IllegalArgumentException("Stripes must be greater than zero");
+        }
+        this.concurrencyStripes = concurrencyStripes;
+    }
+
+    /**
+     * Indicates whether or not timers of striped concurrent counts are set
+     * with the number of running timers when started.
+     * 
+     * @return the stampStripedConcurrent
+     */
+    public boolean isStampStripedConcurrent() {
+        return stampStripedConcurrent;
+    }
+
+    /**
+     * Set the number of running timers of the task on each timer started, as
+     * returned by {@link Timer#getConcurrent()}, when concurrent counts are
+     * striped. This requires summing the cells of the count, reading the
+     * cells updated by other threads, for each timer started. Has no effect
+     * with a single cell, for which timers are always set.
+     * <p>
+     * Default is false.
+     * 
+     * @param stampStripedConcurrent
+     *            True to set the number of running timers on each timer.
+     * @see #setConcurrencyStripes(int)
+     */
+    public void setStampStripedConcurrent(boolean stampStripedConcurrent) {
+        this.stampStripedConcurrent = stampStripedConcurrent;
+    }
+
+    /**
+     * Return the concurrency of the task since the start of the current
+     * interval, including the current and peak number of running timers and
+     * the time-weighted average number of running timers. Intervals start
+     * when the task is first counted and when
+     * {@link #getAllConcurrencyStatistics(boolean)} is invoked with a value of
+     * true. Concurrent counts must be tracked. See
+     * {@link #setTrackConcurrent(boolean)}.
+     * 
+     * @param taskName
+     *            name of task.
+     * @return concurrency of the task or null if the task has not been
+     *         counted.
+     */
+    public ConcurrencyStatistics getConcurrencyStatistics(String taskName) {
+        int taskId = taskRegistry.getTaskId(taskName);
+        ConcurrencyCounter[] counts = concurrentCounts;
+        ConcurrencyCounter counter = taskId >= 0 && taskId < counts.length ? counts[taskId]
+                : null;
+        return counter == null ? null : counter.getStatistics(taskName, false);
+    }
+
+    /**
+     * Return the concurrency of all counted tasks since the start of the
+     * current interval and optionally start a new interval. Invoking this
+     * method periodically with a value of true provides the peak and average
+     * concurrency of each task for each period.
+     * 
+     * @param startInterval
+     *            true to start a new interval for all tasks.
+     * @return concurrency of each counted task.
+     * @see #getConcurrencyStatistics(String)
+     */
+    public Collection<ConcurrencyStatistics> getAllConcurrencyStatistics(boolean startInterval) {
+        ConcurrencyCounter[] counts = concurrentCounts;
+        List<ConcurrencyStatistics> allStats = new ArrayList<ConcurrencyStatistics>();
+        for (int taskId = 0; taskId < counts.length; taskId++) {
+            ConcurrencyCounter counter = counts[taskId];
+            if (counter != null) {
+                allStats.add(counter.getStatistics(taskRegistry.getTaskName(taskId),
+                        startInterval));
+            }
         }
+        return allStats;
     }
 
     /**
@@ -325,10 +1125,15 @@ public class NamedTimeTracker {
      * will remain intact.</li>
      * </ul>
      * <p>
+     * Registered task ids remain valid, as they are part of the configuration
+     * of sampled tasks and may be retained by callers. See
+     * {@link #registerTask(String)}.
      */
     public void clear() {
         timerList.clear();
-        concurrentMap.clear();
+        synchronized (this) {
+            concurrentCounts = new ConcurrencyCounter[0];
+        }
         actionChain.reset();
     }
 
@@ -394,6 +1199,53 @@ public class NamedTimeTracker {
         listenForCompletion = true;
     }
 
+    /**
+     * Bound the queue of completed timers awaiting processing by the action
+     * chain. By default, the queue is unbounded. See {@link ActionChain} for
+     * more information regarding bounded queues.
+     * <p>
+     * This must be invoked prior to adding any completion actions.
+     * 
+     * @param queueCapacity
+     *            maximum number of timers awaiting processing. Zero for an
+     *            unbounded queue.
+     * @param overflowPolicy
+     *            action to take when a timer completes and the queue is full.
+     * @throws IllegalStateException
+     *             if completion actions have already been added.
+     */
+    public synchronized void setActionChainQueue(int queueCapacity,
+            ActionChainOverflowPolicy overflowPolicy) {
+        if (actionChain.hasActionList()) {
+            throw new IllegalStateException(
+                    "Action chain queue must be set prior to adding actions.");
+        }
+        actionChain = new ActionChain(ActionChainShutdownType.TERMINATE_AFTER_COMPLETION,
+                queueCapacity, overflowPolicy, actionChain.getShardCount());
+    }
+
+    /**
+     * Process completed timers using multiple threads, partitioning the timers
+     * by task name. By default, a single thread is used. See
+     * {@link ActionChain} for more information regarding sharded processing.
+     * <p>
+     * This must be invoked prior to adding any completion actions.
+     * 
+     * @param shardCount
+     *            number of queues and processing threads.
+     * @throws IllegalStateException
+     *             if completion actions have already been added.
+     */
+    public synchronized void setActionChainShards(int shardCount) {
+        if (actionChain.hasActionList()) {
+            throw new IllegalStateException(
+                    "Action chain shards must be set prior to adding actions.");
+        }
+        ActionChain current = actionChain;
+        actionChain = new ActionChain(ActionChainShutdownType.TERMINATE_AFTER_COMPLETION,
+                current.getQueueCapacity(), current.getOverflowPolicy(), shardCount);
+    }
+
     /**
      * Add an action to the chain of actions that will be performed upon each
      * timer completion.
@@ -478,6 +1330,15 @@ public class NamedTimeTracker {
         return disabled;
     }
 
+    /**
+     * Return the {@link TimerLevel}s currently enabled for recording.
+     * 
+     * @return a copy of the enabled levels.
+     */
+    public Set<TimerLevel> getEnabledTimerLevels() {
+        return filter.getLevels();
+    }
+
     /**
      * Disable all {@link TimerLevel}s for recording. Subsequent requests will
      * not be enabled for any levels and recording will not be started.
@@ -492,6 +1353,71 @@ public class NamedTimeTracker {
         filter.clear();
     }
 
+    /**
+     * Register a {@link TimeTrackerMonitor} for this tracker with the platform
+     * MBean server. The monitor exposes the statistics of the provided action
+     * and allows timer levels to be enabled and disabled, tracking to be
+     * disabled and statistics to be reset. Replaces any monitor previously
+     * registered by this tracker.
+     * <p>
+     * The action is not added to the action chain of this tracker. It must be
+     * added separately, such as using {@link #addCompletionAction(TimerAction)}.
+     * 
+     * @param statsAction
+     *            source of the statistics exposed.
+     * @param knownLevels
+     *            levels, in addition to the
+     *            {@link net.digitaltsunami.tmeter.level.TimerThreshold} values,
+     *            that may be enabled by name.
+     * @return the registered monitor.
+     * @throws IllegalStateException
+     *             if the monitor cannot be registered.
+     */
+    public synchronized TimeTrackerMonitor registerMBean(TimerStatsAction statsAction,
+            TimerLevel... knownLevels) {
+        unregisterMBean();
+        TimeTrackerMonitor newMonitor = new TimeTrackerMonitor(this, statsAction, knownLevels);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(newMonitor.getObjectName())) {
+                // Left by another tracker with the same name.
+                server.unregisterMBean(newMonitor.getObjectName());
+            }
+            server.registerMBean(newMonitor, newMonitor.getObjectName());
+        } catch (JMException e) {
+            throw new IllegalStateException("Unable to register MBean for tracker " + name, e);
+        }
+        monitor = newMonitor;
+        return newMonitor;
+    }
+
+    /**
+     * Unregister the monitor registered using
+     * {@link #registerMBean(TimerStatsAction, TimerLevel...)}. Has no effect if
+     * none is registered.
+     */
+    public synchronized void unregisterMBean() {
+        if (monitor == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(monitor.getObjectName());
+        } catch (InstanceNotFoundException e) {
+            // Already unregistered.
+        } catch (JMException e) {
+            throw new IllegalStateException("Unable to unregister MBean for tracker " + name, e);
+        } finally {
+            monitor = null;
+        }
+    }
+
+    /**
+     * @return the monitor registered for this tracker or null if none.
+     */
+    public synchronized TimeTrackerMonitor getMBean() {
+        return monitor;
+    }
+
     /**
      * Clear out the action chain. This will cause the action chain to complete
      * processing and then terminate.
@@ -510,7 +1436,10 @@ public class NamedTimeTracker {
         public void timerStopped(TimerStoppedEvent event) {
             Timer timer = event.getTimer();
             if (isTrackConcurrent()) {
-                decrementConcurrent(timer.getTaskName());
+                decrementConcurrent(timer);
+            }
+            if (timer.getCallPath() != null) {
+                timerNestings.get().pop(timer);
             }
             if (listenForCompletion) {
                 actionChain.submitCompletedTimer(timer);
@@ -0,0 +1,103 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import net.digitaltsunami.tmeter.event.TimerStoppedEvent;
+
+/**
+ * {@link Timer} that is owned by a {@link TimerPool} and recycled once all
+ * owners have released it.
+ * <p>
+ * Ownership is tracked with a reference count. The timed thread holds the
+ * initial reference, which is released when the timer is stopped. Queues such
+ * as the {@link net.digitaltsunami.tmeter.action.ActionChain} retain the timer
+ * while it is queued and release it once processing is complete. When the
+ * count reaches zero, the timer is marked as free and may be acquired again
+ * from its {@link TimerPool}.
+ * 
+ * @author dhagberg
+ * 
+ */
+class PooledTimer extends Timer {
+
+    private static final long serialVersionUID = 6815337402791470562L;
+
+    private static final AtomicIntegerFieldUpdater<PooledTimer> REF_COUNT_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(PooledTimer.class, "refCount");
+
+    /**
+     * Event fired on completion. Source is always this timer so a single
+     * instance can be reused.
+     */
+    private final transient TimerStoppedEvent stoppedEvent;
+
+    /**
+     * Number of current owners of this timer.
+     */
+    private volatile int refCount;
+
+    /**
+     * Indicates whether or not this timer is available for use. Written by
+     * the last owner to release the timer and read by the pool owner thread.
+     */
+    private volatile boolean free = true;
+
+    PooledTimer() {
+        super(null, true, null, null);
+        this.stoppedEvent = new TimerStoppedEvent(this);
+    }
+
+    /**
+     * Mark this timer as in use by the pool owner thread.
+     */
+    void acquire() {
+        free = false;
+        refCount = 1;
+    }
+
+    /**
+     * Returns true if this timer may be acquired from the pool.
+     */
+    boolean isFree() {
+        return free;
+    }
+
+    @Override
+    TimerStoppedEvent getStoppedEvent() {
+        return stoppedEvent;
+    }
+
+    @Override
+    public boolean isPooled() {
+        return true;
+    }
+
+    @Override
+    public void retain() {
+        REF_COUNT_UPDATER.incrementAndGet(this);
+    }
+
+    @Override
+    public void release() {
+        if (REF_COUNT_UPDATER.decrementAndGet(this) == 0) {
+            // Drop references so that they can be collected while pooled.
+            reinitialize(null, ThreadIdentityMode.NONE, null, null);
+            free = true;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Keyed {@link TimerNotes} that store primitive values without boxing.
+ * <p>
+ * Notes are added to a {@link Timer} one at a time using
+ * {@link Timer#addNote(String, long)} and its variants. Each note occupies a
+ * slot holding the key, the kind of value and either the primitive value or,
+ * for object values, a reference to the value. No varargs array is created,
+ * no primitive is boxed and no {@link String} is formatted while the timed
+ * thread adds the notes. Values are boxed or formatted only when read using
+ * the {@link TimerNotes} accessors.
+ * <p>
+ * The accessors return the same values as {@link KeyedTimerNotes} created with
+ * the same keys and values. For example, a note added as an <code>int</code>
+ * is returned as an {@link Integer} by {@link #getValue(String)}.
+ * <p>
+ * Notes may only be added by the owning {@link Timer} prior to it being
+ * stopped, after which instances are effectively immutable.
+ *
+ * @author dhagberg
+ *
+ */
+public class PrimitiveTimerNotes implements Serializable, TimerNotes {
+
+    private static final long serialVersionUID = 6071582437620498315L;
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private static final byte LONG = 0;
+    private static final byte INT = 1;
+    private static final byte DOUBLE = 2;
+    private static final byte OBJECT = 3;
+
+    private String[] keys = new String[INITIAL_CAPACITY];
+    private byte[] kinds = new byte[INITIAL_CAPACITY];
+    /**
+     * Primitive values. Doubles are stored as their raw long bits.
+     */
+    private long[] values = new long[INITIAL_CAPACITY];
+    /**
+     * Object values. Created only when an object value is added.
+     */
+    private Object[] objects;
+    private int length;
+
+    PrimitiveTimerNotes() {
+        super();
+    }
+
+    void add(String key, long value) {
+        int slot = nextSlot(key, LONG);
+        values[slot] = value;
+    }
+
+    void add(String key, int value) {
+        int slot = nextSlot(key, INT);
+        values[slot] = value;
+    }
+
+    void add(String key, double value) {
+        int slot = nextSlot(key, DOUBLE);
+        values[slot] = Double.doubleToRawLongBits(value);
+    }
+
+    void add(String key, Object value) {
+        int slot = nextSlot(key, OBJECT);
+        if (objects == null) {
+            objects = new Object[keys.length];
+        }
+        objects[slot] = value;
+    }
+
+    /**
+     * Reserve the next slot for the key, growing the slots if required.
+     */
+    private int nextSlot(String key, byte kind) {
+        if (length == keys.length) {
+            int capacity = length * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            kinds = Arrays.copyOf(kinds, capacity);
+            values = Arrays.copyOf(values, capacity);
+            if (objects != null) {
+                objects = Arrays.copyOf(objects, capacity);
+            }
+        }
+        keys[length] = key;
+        kinds[length] = kind;
+        return length++;
+    }
+
+    /**
+     * Append the value at the index without boxing primitive values.
+     */
+    private void appendValue(StringBuilder sb, int index) {
+        switch (kinds[index]) {
+        case LONG:
+            sb.append(values[index]);
+            break;
+        case INT:
+            sb.append((int) values[index]);
+            break;
+        case DOUBLE:
+            sb.append(Double.longBitsToDouble(values[index]));
+            break;
+        default:
+            sb.append(objects[index]);
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= length) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see net.digitaltsunami.tmeter.TimerNotes#getStringValue(int)
+     */
+    @Override
+    public String getStringValue(int index) {
+        checkIndex(index);
+        StringBuilder sb = new StringBuilder(20);
+        appendValue(sb, index);
+        return sb.toString();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * net.digitaltsunami.tmeter.TimerNotes#getStringValue(java.lang.String)
+     */
+    @Override
+    public String getStringValue(String key) {
+        int index = getIndexForKey(key);
+        return index < 0 ? String.valueOf((Object) null) : getStringValue(index);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see net.digitaltsunami.tmeter.TimerNotes#getValue(int)
+     */
+    @Override
+    public Object getValue(int index) {
+        checkIndex(index);
+        switch (kinds[index]) {
+        case LONG:
+            return Long.valueOf(values[index]);
+        case INT:
+            return Integer.valueOf((int) values[index]);
+        case DOUBLE:
+            return Double.valueOf(Double.longBitsToDouble(values[index]));
+        default:
+            return objects[index];
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see net.digitaltsunami.tmeter.TimerNotes#getValue(java.lang.String)
+     */
+    @Override
+    public Object getValue(String key) {
+        int index = getIndexForKey(key);
+        return index < 0 ? null : getValue(index);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see net.digitaltsunami.tmeter.TimerNotes#isKeyed()
+     */
+    @Override
+    public boolean isKeyed() {
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * net.digitaltsunami.tmeter.TimerNotes#getIndexForKey(java.lang.String)
+     */
+    @Override
+    public int getIndexForKey(String key) {
+        for (int i = 0; i < length; i++) {
+            if (key.equalsIgnoreCase(keys[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see net.digitaltsunami.tmeter.TimerNotes#getKeys()
+     */
+    @Override
+    public String[] getKeys() {
+        return Arrays.copyOf(keys, length);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see net.digitaltsunami.tmeter.TimerNotes#getNotes()
+     */
+    @Override
+    public Object[] getNotes() {
+        Object[] notes = new Object[length];
+        for (int i = 0; i < length; i++) {
+            notes[i] = getValue(i);
+        }
+        return notes;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see net.digitaltsunami.tmeter.TimerNotes#getLength()
+     */
+    @Override
+    public int getLength() {
+        return length;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see net.digitaltsunami.tmeter.TimerNotes#getFormattedNote(int)
+     */
+    @Override
+    public String getFormattedNote(int index) {
+        checkIndex(index);
+        StringBuilder sb = new StringBuilder(100);
+        sb.append(keys[index]).append("=");
+        appendValue(sb, index);
+        return sb.toString();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see net.digitaltsunami.tmeter.TimerNotes#toSingleValue()
+     */
+    @Override
+    public String toSingleValue() {
+        return toSingleValue(TimerNotes.NOTE_DELIMITER, TimerNotes.KEY_VALUE_DELIMITER);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see net.digitaltsunami.tmeter.TimerNotes#toSingleValue(char)
+     */
+    @Override
+    public String toSingleValue(char noteDelimiter) {
+        return toSingleValue(noteDelimiter, TimerNotes.KEY_VALUE_DELIMITER);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see net.digitaltsunami.tmeter.TimerNotes#toSingleValue(char, char)
+     */
+    @Override
+    public String toSingleValue(char noteDelimiter, char keyValueDelimiter) {
+        StringBuilder sb = new StringBuilder(100);
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                sb.append(noteDelimiter);
+            }
+            sb.append(keys[i]).append(keyValueDelimiter);
+            appendValue(sb, i);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,414 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maintains basic statistics for a given task over a rolling window of time.
+ * <p>
+ * Elapsed times are accumulated into a ring of fixed duration buckets. Each
+ * bucket maintains its own {@link TimerBasicStatistics} with, optionally, a
+ * {@link LatencyHistogram}. When time moves past a bucket's interval, the
+ * bucket is cleared and reused for the new interval, so memory is fixed at
+ * creation and individual elapsed times are not retained.
+ * <p>
+ * Statistics for any window up to the full span of the ring (bucket count
+ * times bucket duration) are provided as a {@link TimerBasicStatistics}
+ * snapshot using {@link #getStatistics(long, TimeUnit)}. The window always
+ * includes the current, partially filled, bucket and is therefore accurate to
+ * within one bucket duration.
+ * <p>
+ * Times are taken from {@link System#nanoTime()} when each elapsed time is
+ * added. Variants accepting an explicit time are provided for replaying
+ * recorded timers, but must use the same time base.
+ *
+ * @author dhagberg
+ *
+ */
+public class RollingTimerBasicStatistics {
+
+    private final String taskName;
+    private final long bucketNanos;
+    private final Bucket[] buckets;
+    /**
+     * Empty histogram used as the template for each snapshot or null if
+     * percentiles are not maintained.
+     */
+    private final LatencyHistogram histogramTemplate;
+
+    /**
+     * Create an empty statistics instance for the task.
+     *
+     * @param taskName
+     * @param bucketCount
+     *            number of buckets retained.
+     * @param bucketDuration
+     *            duration of the interval accumulated by each bucket.
+     * @param timeUnit
+     *            unit of the bucket duration.
+     */
+    public RollingTimerBasicStatistics(String taskName, int bucketCount, long bucketDuration,
+            TimeUnit timeUnit) {
+        this(taskName, bucketCount, bucketDuration, timeUnit, null);
+    }
+
+    /**
+     * Create an empty statistics instance for the task that also records
+     * elapsed times in a {@link LatencyHistogram} for each bucket to provide
+     * percentiles. Memory used is the size of a single histogram times the
+     * number of buckets.
+     *
+     * @param taskName
+     * @param bucketCount
+     *            number of buckets retained.
+     * @param bucketDuration
+     *            duration of the interval accumulated by each bucket.
+     * @param timeUnit
+     *            unit of the bucket duration.
+     * @param significantDigits
+     *            number of significant decimal digits maintained for each
+     *            elapsed time. Must be between 1 and 5.
+     * @param highestTrackableValue
+     *            highest elapsed time that can be recorded precisely.
+     * @param highestTrackableUnit
+     *            unit of the highest trackable value.
+     */
+    public RollingTimerBasicStatistics(String taskName, int bucketCount, long bucketDuration,
+            TimeUnit timeUnit, int significantDigits, long highestTrackableValue,
+            TimeUnit highestTrackableUnit) {
+        this(taskName, bucketCount, bucketDuration, timeUnit, new LatencyHistogram(
+                significantDigits, highestTrackableValue, highestTrackableUnit));
+    }
+
+    private RollingTimerBasicStatistics(String taskName, int bucketCount, long bucketDuration,
+            TimeUnit timeUnit, LatencyHistogram histogramTemplate) {
+        if (bucketCount < 1) {
+            throw new IllegalArgumentException("Bucket count must be greater than zero");
+        }
+        long nanos = timeUnit.toNanos(bucketDuration);
+        if (nanos < 1) {
+            throw new IllegalArgumentException("Bucket duration must be greater than zero");
+        }
+        this.taskName = taskName;
+        this.bucketNanos = nanos;
+        this.histogramTemplate = histogramTemplate;
+        buckets = new Bucket[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = new Bucket(new TimerBasicStatistics(taskName,
+                    histogramTemplate == null ? null : histogramTemplate.newEmpty()));
+        }
+    }
+
+    /**
+     * Add the results of a timer to the current bucket.
+     *
+     * @param timer
+     * @throws IllegalArgumentException
+     *             if the {@link Timer#getTaskName()} does not match the task
+     *             of this instance.
+     */
+    public void addTimer(Timer timer) {
+        addTimer(timer, System.nanoTime());
+    }
+
+    /**
+     * Add the results of a timer to the bucket for the time provided.
+     *
+     * @param timer
+     * @param timeNanos
+     *            time in nanoseconds, using the time base of
+     *            {@link System#nanoTime()}, at which the timer completed.
+     * @throws IllegalArgumentException
+     *             if the {@link Timer#getTaskName()} does not match the task
+     *             of this instance.
+     */
+    public void addTimer(Timer timer, long timeNanos) {
+        if (!taskName.equals(timer.getTaskName())) {
+            throw new IllegalArgumentException(
+                    "Task Statistics belong to a different task than provided timer");
+        }
+        addElapsed(timer.getElapsedNanos(), timer.getSampleWeight(), timeNanos);
+    }
+
+    /**
+     * Add an elapsed time to the current bucket. The caller is responsible
+     * for ensuring that the elapsed time was recorded for this task.
+     *
+     * @param elapsedNanos
+     *            elapsed time in nanoseconds.
+     */
+    public void addElapsed(long elapsedNanos) {
+        addElapsed(elapsedNanos, 1, System.nanoTime());
+    }
+
+    /**
+     * Add an elapsed time representing <code>weight</code> occurrences of the
+     * task to the bucket for the time provided. Elapsed times older than the
+     * span of the ring are ignored.
+     *
+     * @param elapsedNanos
+     *            elapsed time in nanoseconds.
+     * @param weight
+     *            number of occurrences represented by the elapsed time.
+     * @param timeNanos
+     *            time in nanoseconds, using the time base of
+     *            {@link System#nanoTime()}, at which the task completed.
+     * @throws IllegalArgumentException
+     *             if weight is less than 1.
+     */
+    public void addElapsed(long elapsedNanos, int weight, long timeNanos) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Weight must be at least 1: " + weight);
+        }
+        long interval = intervalOf(timeNanos);
+        Bucket bucket = buckets[bucketIndex(interval)];
+        synchronized (bucket) {
+            if (bucket.interval != interval) {
+                if (bucket.interval > interval) {
+                    // Replaced by a more recent interval.
+                    return;
+                }
+                bucket.clear(interval);
+            }
+            if (weight == 1) {
+                bucket.stats.addElapsed(elapsedNanos);
+            } else {
+                bucket.stats.addElapsed(elapsedNanos, weight);
+            }
+        }
+    }
+
+    /**
+     * Merge the statistics of the provided instance into this instance,
+     * bucket by bucket. Buckets of the other instance for intervals older
+     * than the corresponding bucket of this instance are ignored, as they
+     * would have been when adding elapsed times. Used to combine the
+     * statistics of the same task accumulated separately, such as by the
+     * shards of an action chain.
+     * <p>
+     * Histograms are merged if both instances maintain one. See
+     * {@link TimerBasicStatistics#merge(TimerBasicStatistics)}.
+     *
+     * @param other
+     *            statistics to merge into this instance. Not modified.
+     * @throws IllegalArgumentException
+     *             if the instances do not have the same number and duration
+     *             of buckets.
+     */
+    public void merge(RollingTimerBasicStatistics other) {
+        if (other.buckets.length != buckets.length || other.bucketNanos != bucketNanos) {
+            throw new IllegalArgumentException(
+                    "Rolling statistics must have the same number and duration of buckets");
+        }
+        for (int i = 0; i < buckets.length; i++) {
+            Bucket source = other.buckets[i];
+            long interval;
+            TimerBasicStatistics snapshot;
+            synchronized (source) {
+                interval = source.interval;
+                if (interval == Long.MIN_VALUE) {
+                    continue;
+                }
+                snapshot = source.stats.getSnapshot();
+            }
+            Bucket bucket = buckets[i];
+            synchronized (bucket) {
+                if (bucket.interval != interval) {
+                    if (bucket.interval > interval) {
+                        continue;
+                    }
+                    bucket.clear(interval);
+                }
+                bucket.stats.combine(snapshot);
+            }
+        }
+    }
+
+    /**
+     * Merge the provided statistics into a new instance. See
+     * {@link #merge(RollingTimerBasicStatistics)}. The new instance maintains a
+     * histogram if any of the provided statistics do.
+     *
+     * @param taskName
+     *            task name of the new instance.
+     * @param stats
+     *            statistics to merge. Not modified. Must not be empty.
+     * @return new instance containing the merged statistics.
+     * @throws IllegalArgumentException
+     *             if the provided statistics do not have the same number and
+     *             duration of buckets.
+     */
+    public static RollingTimerBasicStatistics merge(String taskName,
+            Collection<RollingTimerBasicStatistics> stats) {
+        RollingTimerBasicStatistics first = stats.iterator().next();
+        LatencyHistogram template = null;
+        for (RollingTimerBasicStatistics stat : stats) {
+            if (stat.histogramTemplate != null) {
+                template = stat.histogramTemplate;
+                break;
+            }
+        }
+        RollingTimerBasicStatistics merged = new RollingTimerBasicStatistics(taskName,
+                first.buckets.length, first.bucketNanos, TimeUnit.NANOSECONDS,
+                template == null ? null : template.newEmpty());
+        for (RollingTimerBasicStatistics stat : stats) {
+            merged.merge(stat);
+        }
+        return merged;
+    }
+
+    /**
+     * Return the statistics accumulated over the most recent window of time.
+     * See {@link #getStatistics(long, TimeUnit, long)}.
+     *
+     * @param window
+     *            duration of the window.
+     * @param timeUnit
+     *            unit of the window.
+     * @return new instance of {@link TimerBasicStatistics} for the window.
+     */
+    public TimerBasicStatistics getStatistics(long window, TimeUnit timeUnit) {
+        return getStatistics(window, timeUnit, System.nanoTime());
+    }
+
+    /**
+     * Return the statistics accumulated over the window of time ending at the
+     * time provided. The window is rounded up to a whole number of buckets and
+     * includes the bucket containing the end time. The statistics are merged
+     * from the buckets within the window in O(buckets) and will not be updated
+     * as more elapsed times are added.
+     *
+     * @param window
+     *            duration of the window.
+     * @param timeUnit
+     *            unit of the window.
+     * @param timeNanos
+     *            end of the window in nanoseconds, using the time base of
+     *            {@link System#nanoTime()}.
+     * @return new instance of {@link TimerBasicStatistics} for the window.
+     * @throws IllegalArgumentException
+     *             if the window is not positive or exceeds the span of the
+     *             ring.
+     */
+    public TimerBasicStatistics getStatistics(long window, TimeUnit timeUnit, long timeNanos) {
+        long windowNanos = timeUnit.toNanos(window);
+        if (windowNanos < 1 || windowNanos > getSpanNanos()) {
+            throw new IllegalArgumentException("Window must be between 1 and " + getSpanNanos()
+                    + " nanoseconds: " + windowNanos);
+        }
+        long windowBuckets = (windowNanos + bucketNanos - 1) / bucketNanos;
+        long newest = intervalOf(timeNanos);
+        long oldest = newest - windowBuckets + 1;
+
+        TimerBasicStatistics merged = new TimerBasicStatistics(taskName,
+                histogramTemplate == null ? null : histogramTemplate.newEmpty());
+        for (Bucket bucket : buckets) {
+            synchronized (bucket) {
+                if (bucket.interval >= oldest && bucket.interval <= newest) {
+                    merged.combine(bucket.stats);
+                }
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Remove all accumulated statistics.
+     */
+    public void clear() {
+        for (Bucket bucket : buckets) {
+            synchronized (bucket) {
+                bucket.clear(Long.MIN_VALUE);
+            }
+        }
+    }
+
+    /**
+     * Return the task name for which the statistics are being tracked.
+     */
+    public String getTaskName() {
+        return taskName;
+    }
+
+    /**
+     * Return the number of buckets retained.
+     */
+    public int getBucketCount() {
+        return buckets.length;
+    }
+
+    /**
+     * Return the duration of each bucket in nanoseconds.
+     */
+    public long getBucketNanos() {
+        return bucketNanos;
+    }
+
+    /**
+     * Return the longest window available in nanoseconds.
+     */
+    public long getSpanNanos() {
+        return bucketNanos * buckets.length;
+    }
+
+    /**
+     * Returns true if a histogram of elapsed times is maintained and
+     * percentiles are available.
+     */
+    public boolean hasHistogram() {
+        return histogramTemplate != null;
+    }
+
+    /**
+     * Return the interval number containing the time. Rounds towards negative
+     * infinity as {@link System#nanoTime()} may be negative.
+     */
+    private long intervalOf(long timeNanos) {
+        long interval = timeNanos / bucketNanos;
+        if (timeNanos % bucketNanos < 0) {
+            interval--;
+        }
+        return interval;
+    }
+
+    private int bucketIndex(long interval) {
+        int index = (int) (interval % buckets.length);
+        return index < 0 ? index + buckets.length : index;
+    }
+
+    /**
+     * Accumulated statistics for a single interval.
+     */
+    private static final class Bucket {
+        private long interval = Long.MIN_VALUE;
+        private final TimerBasicStatistics stats;
+
+        private Bucket(TimerBasicStatistics stats) {
+            this.stats = stats;
+        }
+
+        /**
+         * Clear the accumulated values and assign the bucket to a new
+         * interval. Caller must hold the lock for this bucket.
+         */
+        private void clear(long newInterval) {
+            interval = newInterval;
+            stats.clear();
+        }
+    }
+}
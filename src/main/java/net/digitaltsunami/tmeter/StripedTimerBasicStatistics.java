@@ -0,0 +1,357 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link TimerBasicStatistics} that spreads updates across a set of cells to
+ * avoid contention when multiple threads add timers for the same task.
+ * <p>
+ * Each thread is mapped to a cell, which maintains its own count, total,
+ * minimum, maximum and running mean and variance under its own lock. The
+ * cells are merged only when a value is requested. Each getter merges all of
+ * the cells on every call, although the getters for counts and elapsed times
+ * do not merge the histograms. Callers requiring several values should use
+ * {@link #getSnapshot()} once and query the returned instance.
+ * <p>
+ * Values returned are consistent for each cell, but cells may be updated while
+ * merging. As such, a snapshot may not include elapsed times added while it
+ * was being created.
+ * 
+ * @author dhagberg
+ * 
+ */
+public class StripedTimerBasicStatistics extends TimerBasicStatistics {
+
+    private final Cell[] cells;
+    private final int mask;
+    /**
+     * Empty histogram used as the template for each cell and snapshot or null
+     * if percentiles are not maintained.
+     */
+    private final LatencyHistogram histogramTemplate;
+
+    /**
+     * Create an empty statistics instance for the task with one cell per
+     * available processor.
+     * 
+     * @param taskName
+     */
+    public StripedTimerBasicStatistics(String taskName) {
+        this(taskName, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create an empty statistics instance for the task with the provided
+     * number of cells. The number will be rounded up to the next power of two.
+     * 
+     * @param taskName
+     * @param stripes
+     *            minimum number of cells used to accumulate statistics.
+     */
+    public StripedTimerBasicStatistics(String taskName, int stripes) {
+        this(taskName, stripes, null);
+    }
+
+    /**
+     * Create an empty statistics instance for the task with the provided
+     * number of cells that also records elapsed times in a
+     * {@link LatencyHistogram} to provide percentiles. Each cell maintains its
+     * own histogram.
+     * 
+     * @param taskName
+     * @param stripes
+     *            minimum number of cells used to accumulate statistics.
+     * @param significantDigits
+     *            number of significant decimal digits maintained for each
+     *            elapsed time. Must be between 1 and 5.
+     * @param highestTrackableValue
+     *            highest elapsed time that can be recorded precisely.
+     * @param timeUnit
+     *            unit of the highest trackable value.
+     */
+    public StripedTimerBasicStatistics(String taskName, int stripes, int significantDigits,
+            long highestTrackableValue, TimeUnit timeUnit) {
+        this(taskName, stripes, new LatencyHistogram(significantDigits, highestTrackableValue,
+                timeUnit));
+    }
+
+    private StripedTimerBasicStatistics(String taskName, int stripes,
+            LatencyHistogram histogramTemplate) {
+        super(taskName, histogramTemplate);
+        this.histogramTemplate = histogramTemplate;
+        if (stripes < 1) {
+            throw new IllegalArgumentException("Stripes must be greater than zero");
+        }
+        int size = Integer.highestOneBit(stripes);
+        if (size < stripes) {
+            size <<= 1;
+        }
+        cells = new Cell[size];
+        for (int i = 0; i < size; i++) {
+            cells[i] = new Cell(histogramTemplate == null ? null : histogramTemplate.newEmpty());
+        }
+        mask = size - 1;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see net.digitaltsunami.tmeter.TimerBasicStatistics#addElapsed(long)
+     */
+    @Override
+    public void addElapsed(long elapsedNanos) {
+        Cell cell = cells[cellIndex()];
+        synchronized (cell) {
+            cell.add(elapsedNanos);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see net.digitaltsunami.tmeter.TimerBasicStatistics#addElapsed(long, int)
+     */
+    @Override
+    public void addElapsed(long elapsedNanos, int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Weight must be at least 1: " + weight);
+        }
+        Cell cell = cells[cellIndex()];
+        synchronized (cell) {
+            cell.add(elapsedNanos, weight);
+        }
+    }
+
+    /**
+     * Merge the statistics into the cell of the current thread.
+     * 
+     * @see net.digitaltsunami.tmeter.TimerBasicStatistics#merge(net.digitaltsunami.tmeter.TimerBasicStatistics)
+     */
+    @Override
+    public void merge(TimerBasicStatistics other) {
+        TimerBasicStatistics source = other.getSnapshot();
+        LatencyHistogram sourceHistogram = histogramTemplate == null ? null : source
+                .getHistogram();
+        Cell cell = cells[cellIndex()];
+        synchronized (cell) {
+            cell.combine(source.getCount(), source.getTotalElapsedNanos(),
+                    source.getMinElapsedNanos(), source.getMaxElapsedNanos(),
+                    source.getAverageElapsedNanos(), source.getSumOfDeltasElapsedNanos(),
+                    sourceHistogram);
+        }
+    }
+
+    /**
+     * Return the cell index for the current thread.
+     */
+    private int cellIndex() {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32));
+        // Spread the bits so that sequential ids do not share low order bits
+        // with ids from other trackers.
+        hash *= 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * Merges all cells and returns the result as a new instance. These values
+     * will not be updated as more timers are processed.
+     * 
+     * @see net.digitaltsunami.tmeter.TimerBasicStatistics#getSnapshot()
+     */
+    @Override
+    public TimerBasicStatistics getSnapshot() {
+        return mergeCells(histogramTemplate != null);
+    }
+
+    /**
+     * Merge all cells into a new instance.
+     * 
+     * @param includeHistogram
+     *            true to merge the histograms of the cells as well as the
+     *            counts and elapsed times.
+     */
+    private TimerBasicStatistics mergeCells(boolean includeHistogram) {
+        TimerBasicStatistics merged = new TimerBasicStatistics(getTaskName(),
+                includeHistogram ? histogramTemplate.newEmpty() : null);
+        for (Cell cell : cells) {
+            synchronized (cell) {
+                merged.combine(cell.count, cell.totalElapsedNanos, cell.minElapsedNanos,
+                        cell.maxElapsedNanos, cell.meanElapsedNanos, cell.sumOfDeltasElapsedNanos,
+                        includeHistogram ? cell.histogram : null);
+            }
+        }
+        return merged;
+    }
+
+    @Override
+    public int getCount() {
+        return mergeCells(false).getCount();
+    }
+
+    @Override
+    public long getTotalElapsedNanos() {
+        return mergeCells(false).getTotalElapsedNanos();
+    }
+
+    @Override
+    public long getMinElapsedNanos() {
+        return mergeCells(false).getMinElapsedNanos();
+    }
+
+    @Override
+    public long getMaxElapsedNanos() {
+        return mergeCells(false).getMaxElapsedNanos();
+    }
+
+    @Override
+    public double getAverageElapsedNanos() {
+        return mergeCells(false).getAverageElapsedNanos();
+    }
+
+    @Override
+    public double getVarianceElapsedNanos() {
+        return mergeCells(false).getVarianceElapsedNanos();
+    }
+
+    @Override
+    public LatencyHistogram getHistogram() {
+        return getSnapshot().getHistogram();
+    }
+
+    @Override
+    public long getPercentileNanos(double percentile) {
+        return getSnapshot().getPercentileNanos(percentile);
+    }
+
+    /**
+     * Formats a single snapshot rather than merging the cells for each value.
+     * 
+     * @see net.digitaltsunami.tmeter.TimerBasicStatistics#toString()
+     */
+    @Override
+    public String toString() {
+        return getSnapshot().toString();
+    }
+
+    /**
+     * Padding placed before the values of a cell. The fields of a superclass
+     * are laid out before those of its subclasses, which is not guaranteed
+     * for fields declared within a single class.
+     */
+    private static class CellPadding {
+        @SuppressWarnings("unused")
+        long p0, p1, p2, p3, p4, p5, p6;
+    }
+
+    /**
+     * Accumulated statistics for the threads mapped to a single stripe.
+     */
+    private static class CellValues extends CellPadding {
+        int count;
+        long totalElapsedNanos;
+        long minElapsedNanos = Long.MAX_VALUE;
+        long maxElapsedNanos = Long.MIN_VALUE;
+        double meanElapsedNanos;
+        double sumOfDeltasElapsedNanos;
+        final LatencyHistogram histogram;
+
+        CellValues(LatencyHistogram histogram) {
+            this.histogram = histogram;
+        }
+
+        /**
+         * Add an elapsed time. Caller must hold the lock for this cell.
+         */
+        void add(long elapsedNanos) {
+            count++;
+            totalElapsedNanos += elapsedNanos;
+            if (elapsedNanos < minElapsedNanos) {
+                minElapsedNanos = elapsedNanos;
+            }
+            if (elapsedNanos > maxElapsedNanos) {
+                maxElapsedNanos = elapsedNanos;
+            }
+            double previousMean = meanElapsedNanos;
+            meanElapsedNanos += (elapsedNanos - previousMean) / count;
+            sumOfDeltasElapsedNanos += (elapsedNanos - previousMean)
+                    * (elapsedNanos - meanElapsedNanos);
+            if (histogram != null) {
+                histogram.record(elapsedNanos);
+            }
+        }
+
+        /**
+         * Combine accumulated values using the parallel algorithm for
+         * variance. Caller must hold the lock for this cell.
+         */
+        void combine(int oCount, long oTotalElapsedNanos, long oMinElapsedNanos,
+                long oMaxElapsedNanos, double oMeanElapsedNanos,
+                double oSumOfDeltasElapsedNanos, LatencyHistogram oHistogram) {
+            if (oCount == 0) {
+                return;
+            }
+            if (histogram != null && oHistogram != null) {
+                histogram.add(oHistogram);
+            }
+            int combinedCount = count + oCount;
+            double delta = oMeanElapsedNanos - meanElapsedNanos;
+            meanElapsedNanos += delta * oCount / combinedCount;
+            sumOfDeltasElapsedNanos += oSumOfDeltasElapsedNanos
+                    + delta * delta * ((double) count * oCount / combinedCount);
+            count = combinedCount;
+            totalElapsedNanos += oTotalElapsedNanos;
+            minElapsedNanos = Math.min(minElapsedNanos, oMinElapsedNanos);
+            maxElapsedNanos = Math.max(maxElapsedNanos, oMaxElapsedNanos);
+        }
+
+        /**
+         * Add an elapsed time representing <code>weight</code> occurrences.
+         * Caller must hold the lock for this cell.
+         */
+        void add(long elapsedNanos, int weight) {
+            count += weight;
+            totalElapsedNanos += elapsedNanos * weight;
+            if (elapsedNanos < minElapsedNanos) {
+                minElapsedNanos = elapsedNanos;
+            }
+            if (elapsedNanos > maxElapsedNanos) {
+                maxElapsedNanos = elapsedNanos;
+            }
+            double delta = elapsedNanos - meanElapsedNanos;
+            meanElapsedNanos += delta * weight / count;
+            sumOfDeltasElapsedNanos += delta * weight * (elapsedNanos - meanElapsedNanos);
+            if (histogram != null) {
+                histogram.record(elapsedNanos, weight);
+            }
+        }
+    }
+
+    /**
+     * Cell of accumulated statistics padded on both sides to keep cells
+     * updated by different threads on separate cache lines.
+     */
+    private static final class Cell extends CellValues {
+        @SuppressWarnings("unused")
+        long q0, q1, q2, q3, q4, q5, q6;
+
+        Cell(LatencyHistogram histogram) {
+            super(histogram);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.digitaltsunami.tmeter.action.TimerAction;
+
+/**
+ * Assigns each task name a dense integer id starting at zero. The id of a
+ * timer's task is available using {@link Timer#getTaskId()} so that per task
+ * state, such as concurrent counts and statistics, can be kept in arrays
+ * indexed by id rather than in maps keyed by task name.
+ * <p>
+ * Each {@link NamedTimeTracker} has its own registry, so arrays indexed by id
+ * are sized by the tasks of that tracker and the registry is released along
+ * with the tracker. As the same id may be assigned to different tasks by
+ * different trackers, a {@link TimerAction} processing timers from several
+ * trackers must confirm the task name of an entry located by id. Ids are
+ * never reused or removed, as they may be retained by callers of
+ * {@link NamedTimeTracker#registerTask(String)}; therefore, task names should
+ * be drawn from a bounded set.
+ * 
+ * @author dhagberg
+ * 
+ */
+public final class TaskRegistry {
+
+    /**
+     * Id of a task that has not been registered.
+     */
+    public static final int UNREGISTERED = -1;
+
+    private final ConcurrentHashMap<String, Integer> idsByName =
+            new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * Task names indexed by id. Replaced when full.
+     */
+    private volatile String[] names = new String[64];
+
+    /**
+     * Number of ids assigned. Guarded by this.
+     */
+    private int size;
+
+    /**
+     * Create an empty registry.
+     */
+    public TaskRegistry() {
+        super();
+    }
+
+    /**
+     * Return the id of the task, assigning a new id if the task has not yet
+     * been registered.
+     * 
+     * @param taskName
+     *            name of the task.
+     * @return id of the task or {@link #UNREGISTERED} if the name is null.
+     * @ThreadSafe
+     */
+    public int register(String taskName) {
+        if (taskName == null) {
+            return UNREGISTERED;
+        }
+        Integer id = idsByName.get(taskName);
+        if (id == null) {
+            id = assignId(taskName);
+        }
+        return id.intValue();
+    }
+
+    private synchronized Integer assignId(String taskName) {
+        Integer id = idsByName.get(taskName);
+        if (id == null) {
+            String[] current = names;
+            if (size == current.length) {
+                String[] grown = new String[current.length * 2];
+                System.arraycopy(current, 0, grown, 0, size);
+                current = grown;
+            }
+            current[size] = taskName;
+            // Publish the name prior to the id.
+            names = current;
+            id = Integer.valueOf(size++);
+            idsByName.put(taskName, id);
+        }
+        return id;
+    }
+
+    /**
+     * Return the id of the task without registering it.
+     * 
+     * @param taskName
+     *            name of the task.
+     * @return id of the task or {@link #UNREGISTERED} if not registered.
+     */
+    public int getTaskId(String taskName) {
+        Integer id = taskName == null ? null : idsByName.get(taskName);
+        return id == null ? UNREGISTERED : id.intValue();
+    }
+
+    /**
+     * Return the name of the task registered with the id.
+     * 
+     * @param taskId
+     *            id returned by {@link #register(String)}.
+     * @return name of the task or null if no task has the id.
+     */
+    public String getTaskName(int taskId) {
+        String[] current = names;
+        return taskId >= 0 && taskId < current.length ? current[taskId] : null;
+    }
+
+    /**
+     * Return the number of registered tasks. Ids range from zero to one less
+     * than this value.
+     */
+    public int size() {
+        return idsByName.size();
+    }
+}
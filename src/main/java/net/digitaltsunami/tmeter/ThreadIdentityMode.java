@@ -0,0 +1,49 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter;
+
+/**
+ * Identifies how the thread creating a {@link Timer} is captured and
+ * reported.
+ * <li> {@link #NAME}: The thread name is captured when the timer is created.
+ * This is the default.
+ * <li> {@link #LAZY_NAME}: The thread id is captured when the timer is created
+ * and the thread name is not resolved until it is first requested, usually by
+ * a {@link net.digitaltsunami.tmeter.record.TimeRecorder} or
+ * {@link net.digitaltsunami.tmeter.action.TimerAction}. The name reported is
+ * the name of the thread at that time.
+ * <li> {@link #ID}: Only the thread id is captured. The thread is reported as
+ * <code>#&lt;id&gt;</code>, for example <code>#42</code>.
+ * <li> {@link #NONE}: The thread is not captured. The thread is reported as an
+ * empty value.
+ * <li> {@link #CARRIER}: As {@link #NAME} for platform threads. For virtual
+ * threads, which are usually unnamed, the thread is reported as
+ * <code>&lt;name&gt;#&lt;id&gt;@&lt;carrier&gt;</code>, for example
+ * <code>#42@ForkJoinPool-1-worker-3</code>, where carrier is the platform
+ * thread the virtual thread was mounted on when the timer was created. The
+ * carrier is read from the virtual thread and is omitted unless the
+ * <code>java.lang</code> package is opened to this library, for example
+ * using <code>--add-opens java.base/java.lang=ALL-UNNAMED</code>.
+ * 
+ * @author dhagberg
+ * 
+ * @see NamedTimeTracker#setThreadIdentityMode(ThreadIdentityMode)
+ * @see Timer#getThreadName()
+ * @see Timer#getThreadId()
+ */
+public enum ThreadIdentityMode {
+    NAME, LAZY_NAME, ID, NONE, CARRIER;
+}
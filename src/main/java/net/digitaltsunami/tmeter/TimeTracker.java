@@ -15,11 +15,15 @@
 __copyright_end__ */
 package net.digitaltsunami.tmeter;
 
+import java.util.Collection;
 import java.util.concurrent.ConcurrentHashMap;
 
 import net.digitaltsunami.tmeter.action.ActionChain;
+import net.digitaltsunami.tmeter.action.ActionChainOverflowPolicy;
 import net.digitaltsunami.tmeter.action.ActionChainShutdownType;
 import net.digitaltsunami.tmeter.action.TimerAction;
+import net.digitaltsunami.tmeter.action.TimerStatsAction;
+import net.digitaltsunami.tmeter.jmx.TimeTrackerMonitor;
 import net.digitaltsunami.tmeter.level.TimerLevel;
 import net.digitaltsunami.tmeter.level.TimerLevelCollection;
 import net.digitaltsunami.tmeter.record.NullTimeRecorder;
@@ -151,6 +155,84 @@ public class TimeTracker {
         return common.startRecording(taskName);
     }
 
+    /**
+     * Create and configure a {@link Timer} instance for a task registered
+     * using {@link #registerTask(String)}. See
+     * {@link NamedTimeTracker#startRecording(TimerLevel, int)}.
+     * 
+     * @param level
+     *            {@link TimerLevel} of timer requested. Will be used to
+     *            determine if the timer is enabled for the request.
+     * @param taskId
+     *            id of the task returned by {@link #registerTask(String)}.
+     * @return instance of {@link Timer} configured based on current settings.
+     */
+    public static Timer startRecording(TimerLevel level, int taskId) {
+        return common.startRecording(level, taskId);
+    }
+
+    /**
+     * Create and configure a {@link Timer} instance for a task registered
+     * using {@link #registerTask(String)}. See
+     * {@link NamedTimeTracker#startRecording(int)}.
+     * 
+     * @param taskId
+     *            id of the task returned by {@link #registerTask(String)}.
+     * @return instance of {@link Timer} configured based on current settings.
+     */
+    public static Timer startRecording(int taskId) {
+        return common.startRecording(taskId);
+    }
+
+    /**
+     * Register the task and return its id for use with
+     * {@link #startRecording(TimerLevel, int)}. See {@link TaskRegistry}.
+     * 
+     * @param taskName
+     *            Name used to represent a given task.
+     * @return id of the task.
+     */
+    public static int registerTask(String taskName) {
+        return common.registerTask(taskName);
+    }
+
+    /**
+     * Start timing a task without creating a {@link Timer}. See
+     * {@link NamedTimeTracker#startTiming(TimerLevel)}.
+     * 
+     * @param level
+     *            {@link TimerLevel} of timing requested. Will be used to
+     *            determine if timing is enabled for the request.
+     * @return token representing the start time of the task.
+     */
+    public static long startTiming(TimerLevel level) {
+        return common.startTiming(level);
+    }
+
+    /**
+     * Start timing a task without creating a {@link Timer}. See
+     * {@link NamedTimeTracker#startTiming(TimerLevel)}.
+     * 
+     * @return token representing the start time of the task.
+     */
+    public static long startTiming() {
+        return common.startTiming();
+    }
+
+    /**
+     * Stop timing a task started using {@link #startTiming()}. See
+     * {@link NamedTimeTracker#stopTiming(String, long)}.
+     * 
+     * @param taskName
+     *            Name used to represent a given task.
+     * @param token
+     *            value returned from {@link #startTiming()}.
+     * @return the elapsed time in nanoseconds or 0 if timing was disabled.
+     */
+    public static long stopTiming(String taskName, long token) {
+        return common.stopTiming(taskName, token);
+    }
+
     /**
      * Indicates whether or not we are keeping a list of all timers.
      * 
@@ -189,6 +271,93 @@ public class TimeTracker {
         common.setTrackConcurrent(trackConcurrent);
     }
 
+    /**
+     * Return the concurrency of the task since the start of the current
+     * interval. See {@link NamedTimeTracker#getConcurrencyStatistics(String)}.
+     *
+     * @param taskName
+     *            name of task.
+     * @return concurrency of the task or null if the task has not been
+     *         counted.
+     */
+    public static ConcurrencyStatistics getConcurrencyStatistics(String taskName) {
+        return common.getConcurrencyStatistics(taskName);
+    }
+
+    /**
+     * Return the concurrency of all counted tasks and optionally start a new
+     * interval. See
+     * {@link NamedTimeTracker#getAllConcurrencyStatistics(boolean)}.
+     *
+     * @param startInterval
+     *            true to start a new interval for all tasks.
+     * @return concurrency of each counted task.
+     */
+    public static Collection<ConcurrencyStatistics> getAllConcurrencyStatistics(
+            boolean startInterval) {
+        return common.getAllConcurrencyStatistics(startInterval);
+    }
+
+    /**
+     * Indicates whether or not timers are recycled from per-thread pools.
+     * 
+     * @return the poolTimers
+     */
+    public static boolean isPoolTimers() {
+        return common.isPoolTimers();
+    }
+
+    /**
+     * Indicates whether or not timers are recycled from per-thread pools. See
+     * {@link NamedTimeTracker#setPoolTimers(boolean)} for the ownership rules
+     * of pooled timers.
+     * 
+     * @param poolTimers
+     *            True to recycle timers, otherwise false.
+     */
+    public static void setPoolTimers(boolean poolTimers) {
+        common.setPoolTimers(poolTimers);
+    }
+
+    /**
+     * Indicates whether or not the nesting of timers started on the same
+     * thread is tracked.
+     *
+     * @return the trackNesting
+     */
+    public static boolean isTrackNesting() {
+        return common.isTrackNesting();
+    }
+
+    /**
+     * Indicates whether or not the nesting of timers started on the same
+     * thread is tracked. See {@link NamedTimeTracker#setTrackNesting(boolean)}.
+     *
+     * @param trackNesting
+     *            True to track nesting, otherwise false.
+     */
+    public static void setTrackNesting(boolean trackNesting) {
+        common.setTrackNesting(trackNesting);
+    }
+
+    /**
+     * @return how the thread creating each timer is captured.
+     */
+    public static ThreadIdentityMode getThreadIdentityMode() {
+        return common.getThreadIdentityMode();
+    }
+
+    /**
+     * Set how the thread creating each timer is captured. See
+     * {@link NamedTimeTracker#setThreadIdentityMode(ThreadIdentityMode)}.
+     *
+     * @param threadIdentityMode
+     *            how the thread creating each timer is captured.
+     */
+    public static void setThreadIdentityMode(ThreadIdentityMode threadIdentityMode) {
+        common.setThreadIdentityMode(threadIdentityMode);
+    }
+
     /**
      * @return the default {@link TimeRecorder} used to populate the
      *         corresponding field when creating {@link Timer}s
@@ -288,6 +457,28 @@ public class TimeTracker {
         common.setActionChain(newActionChain);
     }
 
+    /**
+     * Bound the queue of completed timers awaiting processing by the action
+     * chain. This must be invoked prior to adding any completion actions.
+     * 
+     * @see NamedTimeTracker#setActionChainQueue(int, ActionChainOverflowPolicy)
+     */
+    public static void setActionChainQueue(int queueCapacity,
+            ActionChainOverflowPolicy overflowPolicy) {
+        common.setActionChainQueue(queueCapacity, overflowPolicy);
+    }
+
+    /**
+     * Process completed timers using multiple threads, partitioning the timers
+     * by task name. This must be invoked prior to adding any completion
+     * actions.
+     * 
+     * @see NamedTimeTracker#setActionChainShards(int)
+     */
+    public static void setActionChainShards(int shardCount) {
+        common.setActionChainShards(shardCount);
+    }
+
     /**
      * Add an action to the chain of actions that will be performed upon each
      * timer completion.
@@ -381,6 +572,69 @@ public class TimeTracker {
         common.clearTimerLevels();
     }
 
+    /**
+     * Sample timers for the provided task so that only one in every
+     * <code>sampleRate</code> executions is recorded. See
+     * {@link NamedTimeTracker#setTaskSampling(String, int, TimerSamplingMode)}.
+     * 
+     * @param taskName
+     *            Name used to represent a given task.
+     * @param sampleRate
+     *            number of executions represented by each sampled execution.
+     *            A rate of 1 removes sampling for the task.
+     * @param mode
+     *            method used to select the executions to record.
+     */
+    public static void setTaskSampling(String taskName, int sampleRate, TimerSamplingMode mode) {
+        common.setTaskSampling(taskName, sampleRate, mode);
+    }
+
+    /**
+     * Return the sample rate configured for the task.
+     * 
+     * @param taskName
+     *            Name used to represent a given task.
+     * @return sample rate or 1 if the task is not sampled.
+     */
+    public static int getTaskSampleRate(String taskName) {
+        return common.getTaskSampleRate(taskName);
+    }
+
+    /**
+     * Sample timers for the provided level so that only one in every
+     * <code>sampleRate</code> executions is recorded. See
+     * {@link NamedTimeTracker#setLevelSampling(TimerLevel, int, TimerSamplingMode)}.
+     * 
+     * @param level
+     *            {@link TimerLevel} to sample.
+     * @param sampleRate
+     *            number of executions represented by each sampled execution.
+     *            A rate of 1 removes sampling for the level.
+     * @param mode
+     *            method used to select the executions to record.
+     */
+    public static void setLevelSampling(TimerLevel level, int sampleRate, TimerSamplingMode mode) {
+        common.setLevelSampling(level, sampleRate, mode);
+    }
+
+    /**
+     * Return the sample rate configured for the level.
+     * 
+     * @param level
+     *            {@link TimerLevel} to check.
+     * @return sample rate or 1 if the level is not sampled.
+     */
+    public static int getLevelSampleRate(TimerLevel level) {
+        return common.getLevelSampleRate(level);
+    }
+
+    /**
+     * Remove sampling from all tasks and levels.
+     */
+    public static void clearSampling() {
+        common.clearSampling();
+    }
+
     /**
      * Clear out the action chain. This will cause the action chain to complete
      * processing and then terminate.
@@ -388,4 +642,28 @@ public class TimeTracker {
     public static void clearActionChain() {
         common.clearActionChain();
     }
+
+    /**
+     * Register a monitor for the common tracker with the platform MBean
+     * server. See
+     * {@link NamedTimeTracker#registerMBean(TimerStatsAction, TimerLevel...)}.
+     *
+     * @param statsAction
+     *            source of the statistics exposed.
+     * @param knownLevels
+     *            additional levels that may be enabled by name.
+     * @return the registered monitor.
+     */
+    public static TimeTrackerMonitor registerMBean(TimerStatsAction statsAction,
+            TimerLevel... knownLevels) {
+        return common.registerMBean(statsAction, knownLevels);
+    }
+
+    /**
+     * Unregister the monitor of the common tracker. See
+     * {@link NamedTimeTracker#unregisterMBean()}.
+     */
+    public static void unregisterMBean() {
+        common.unregisterMBean();
+    }
 }
\ No newline at end of file
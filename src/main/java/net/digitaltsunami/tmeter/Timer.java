@@ -16,10 +16,15 @@
 __copyright_end__ */
 package net.digitaltsunami.tmeter;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.lang.reflect.Field;
 import java.util.Date;
 
 import net.digitaltsunami.tmeter.action.ActionChain;
+import net.digitaltsunami.tmeter.action.TimerAction;
 import net.digitaltsunami.tmeter.event.TimerStoppedEvent;
 import net.digitaltsunami.tmeter.event.TimerStoppedListener;
 import net.digitaltsunami.tmeter.level.TimerLevel;
@@ -64,6 +69,17 @@ import net.digitaltsunami.tmeter.record.TimeRecorder;
  * <li>Status - Once stopped, cannot be set to any previous state.</li>
  * </ul>
  * 
+ * <strong>Pooled Timers</strong>
+ * <p>
+ * Timers returned by {@link NamedTimeTracker} with pooling enabled are
+ * recycled once all processing of the timer has completed. The caller owns a
+ * pooled timer only until {@link #stop()} returns and must not use the
+ * instance after that point. {@link TimeRecorder} and {@link TimerAction}
+ * implementations own the timer only for the duration of the call and must
+ * retain a {@link #copy()} if the timer is needed afterwards. See
+ * {@link #isPooled()}.
+ * <p>
+ * 
  * <strong>Usage:</strong>
  * 
  * <p>
@@ -113,7 +129,13 @@ public class Timer implements Serializable {
     /**
      * The name of the task for which the time is being recorded.
      */
-    private final String taskName;
+    private String taskName;
+    /**
+     * Id of the task within the {@link TaskRegistry} of the tracker that
+     * created this timer. Ids are not valid outside of the VM in which they
+     * were assigned.
+     */
+    private transient int taskId = TaskRegistry.UNREGISTERED;
     /**
      * Wall clock start time for task. Time is recorded in milliseconds
      * (1.0E-3).
@@ -144,6 +166,25 @@ public class Timer implements Serializable {
      */
     private int concurrent;
 
+    /**
+     * Number of task executions represented by this timer. Greater than one
+     * when the timer was sampled from a task or level configured for sampling.
+     */
+    private int sampleWeight = 1;
+
+    /**
+     * Path of nested tasks ending with this timer if assigned by a tracker
+     * tracking nesting. Paths are specific to a tracker, so are not
+     * serialized.
+     */
+    private transient CallPath callPath;
+
+    /**
+     * Elapsed time of the timers started and stopped within this timer by the
+     * same thread.
+     */
+    private long childElapsedNanos;
+
     /**
      * Current status of timer.
      */
@@ -155,9 +196,38 @@ public class Timer implements Serializable {
     private transient TimeRecorder timeRecorder;
 
     /**
-     * Name of thread under which the timer creation was running.
+     * Value returned by {@link #getThreadId()} if the thread id was not
+     * captured or recorded.
+     */
+    public static final long UNKNOWN_THREAD_ID = -1L;
+
+    /**
+     * Class of virtual threads or null if not available on this runtime.
+     */
+    private static final Class<?> VIRTUAL_THREAD_CLASS = findVirtualThreadClass();
+
+    /**
+     * Field of a virtual thread referencing its current carrier thread or null
+     * if not accessible.
+     */
+    private static final Field CARRIER_THREAD = findCarrierThreadField();
+
+    /**
+     * Name of thread under which the timer creation was running. Null if not
+     * captured or not yet resolved.
      */
-    private final String threadName;
+    private String threadName;
+
+    /**
+     * Id of thread under which the timer creation was running.
+     */
+    private long threadId = UNKNOWN_THREAD_ID;
+
+    /**
+     * Thread under which the timer creation was running if the name is to be
+     * resolved when first requested. Cleared once resolved.
+     */
+    private transient Thread thread;
 
     /**
      * Optional list of domain specific objects provided by user. These will be
@@ -168,7 +238,7 @@ public class Timer implements Serializable {
     /**
      * Optional level for this timer. May be used to filter or control processing of timers.
      */
-    private final TimerLevel timerLevel;
+    private TimerLevel timerLevel;
 
     /**
 	 * Listener to notify when this timer is stopped.
@@ -227,10 +297,25 @@ public class Timer implements Serializable {
      * @param timerLevel filter level of this timer.
      */
     public Timer(String taskName, boolean delayStart, TimeRecorder timeRecorder, TimerLevel timerLevel) {
+        this(taskName, delayStart, timeRecorder, timerLevel, ThreadIdentityMode.NAME);
+    }
+
+    /**
+     * Construct an instance of Timer for the given task capturing the current
+     * thread using the provided mode.
+     * 
+     * @param taskName name of task being timed. 
+     * @param delayStart true if starting of timer should be delayed.  Will not start recording until {@link #start()} is invoked.
+     * @param timeRecorder instance used to record this timer upon completion.
+     * @param timerLevel filter level of this timer.
+     * @param threadIdentityMode how the current thread is captured.
+     */
+    Timer(String taskName, boolean delayStart, TimeRecorder timeRecorder, TimerLevel timerLevel,
+            ThreadIdentityMode threadIdentityMode) {
         this.status = TimerStatus.INITIALIZED;
         this.taskName = taskName;
         this.timeRecorder = timeRecorder;
-        this.threadName = Thread.currentThread().getName();
+        captureThread(threadIdentityMode);
         this.timerLevel = timerLevel;
         if (!delayStart) {
             start();
@@ -260,6 +345,101 @@ public class Timer implements Serializable {
         this.timerLevel = timerLevel;
     }
 
+    /**
+     * Capture the current thread using the provided mode.
+     * 
+     * @param threadIdentityMode how the current thread is captured.
+     */
+    private void captureThread(ThreadIdentityMode threadIdentityMode) {
+        Thread current = Thread.currentThread();
+        this.thread = null;
+        switch (threadIdentityMode) {
+        case NONE:
+            this.threadName = null;
+            this.threadId = UNKNOWN_THREAD_ID;
+            break;
+        case ID:
+            this.threadName = null;
+            this.threadId = current.getId();
+            break;
+        case LAZY_NAME:
+            this.threadName = null;
+            this.threadId = current.getId();
+            this.thread = current;
+            break;
+        case CARRIER:
+            this.threadId = current.getId();
+            this.threadName = isVirtual(current) ? getVirtualThreadName(current)
+                    : current.getName();
+            break;
+        default:
+            this.threadName = current.getName();
+            this.threadId = current.getId();
+        }
+    }
+
+    /**
+     * Return true if the thread is a virtual thread. Checked by class name as
+     * virtual threads are not available on all supported runtimes.
+     */
+    private static boolean isVirtual(Thread thread) {
+        return thread.getClass() == VIRTUAL_THREAD_CLASS;
+    }
+
+    /**
+     * Return the name of the virtual thread in the form name#id@carrier. The
+     * carrier is read from the virtual thread and omitted if it cannot be
+     * read. See {@link ThreadIdentityMode#CARRIER}.
+     */
+    private static String getVirtualThreadName(Thread thread) {
+        StringBuilder sb = new StringBuilder(50);
+        sb.append(thread.getName()).append('#').append(thread.getId());
+        if (CARRIER_THREAD != null) {
+            try {
+                Thread carrier = (Thread) CARRIER_THREAD.get(thread);
+                if (carrier != null) {
+                    sb.append('@').append(carrier.getName());
+                }
+            } catch (IllegalAccessException e) {
+                // Accessible once resolved. Omit the carrier.
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Return the class of virtual threads or null if not available on this
+     * runtime.
+     */
+    private static Class<?> findVirtualThreadClass() {
+        try {
+            return Class.forName("java.lang.VirtualThread");
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Return the field of a virtual thread referencing its carrier or null if
+     * not available or not accessible, such as when the java.lang package is
+     * not opened to this library.
+     */
+    private static Field findCarrierThreadField() {
+        if (VIRTUAL_THREAD_CLASS == null) {
+            return null;
+        }
+        try {
+            Field field = VIRTUAL_THREAD_CLASS.getDeclaredField("carrierThread");
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException e) {
+            return null;
+        } catch (RuntimeException e) {
+            // Not accessible.
+            return null;
+        }
+    }
+
     /**
      * Start the time recording if not already started.
      */
@@ -290,8 +470,12 @@ public class Timer implements Serializable {
             }
 
             if (completionListener != null) {
-                completionListener.timerStopped(new TimerStoppedEvent(this));
+                completionListener.timerStopped(getStoppedEvent());
             }
+            long elapsedNanos = stopTimeNanos - startTimeNanos;
+            // Caller's ownership ends here. Pooled timers may be recycled.
+            release();
+            return elapsedNanos;
         }
 
         return stopTimeNanos - startTimeNanos;
@@ -355,6 +539,9 @@ public class Timer implements Serializable {
      * this could affect the measurements. If the notes are not needed for post
      * processing/logging, adding of notes should be done using
      * {@link #setNotes(Object...)} or {@link #setKeyedNotes(Object...)}.
+     * Keyed primitive notes can be added without boxing using
+     * {@link #addNote(String, long)} and its variants prior to invoking
+     * {@link #stop()}.
      * <p>
      * <strong>Note:</strong> This method will overwrite any current notes
      * already present.
@@ -378,8 +565,12 @@ public class Timer implements Serializable {
             }
 
             if (completionListener != null) {
-                completionListener.timerStopped(new TimerStoppedEvent(this));
+                completionListener.timerStopped(getStoppedEvent());
             }
+            long elapsedNanos = stopTimeNanos - startTimeNanos;
+            // Caller's ownership ends here. Pooled timers may be recycled.
+            release();
+            return elapsedNanos;
         }
 
         return stopTimeNanos - startTimeNanos;
@@ -406,14 +597,154 @@ public class Timer implements Serializable {
     }
 
     /**
-     * Return the name of the thread under which this timer was created.
+     * Return the id of the task associated with this timer within the
+     * {@link TaskRegistry} of the {@link NamedTimeTracker} that created it.
+     * Ids are assigned by the tracker when it requires them, such as for
+     * sampling and concurrent counts, or when the timer is started using a
+     * registered task id; otherwise, no id is assigned.
      * 
-     * @return the taskName
+     * @return the taskId or {@link TaskRegistry#UNREGISTERED} if not assigned.
+     */
+    public int getTaskId() {
+        return taskId;
+    }
+
+    /**
+     * Set the id of the task when already known to avoid looking it up.
+     * 
+     * @param taskId
+     *            id registered for the task name of this timer.
+     */
+    void setTaskId(int taskId) {
+        this.taskId = taskId;
+    }
+
+    /**
+     * Return the number of task executions represented by this timer. Timers
+     * created while sampling is configured for the task or level stand in for
+     * the unsampled executions and statistics should be scaled accordingly.
+     * 
+     * @return the sample weight, 1 if the timer was not sampled.
+     * @see NamedTimeTracker#setTaskSampling(String, int, TimerSamplingMode)
+     */
+    public int getSampleWeight() {
+        return sampleWeight;
+    }
+
+    /**
+     * Set the number of task executions represented by this timer.
+     * 
+     * @param sampleWeight
+     *            sample weight, 1 if not sampled.
+     */
+    void setSampleWeight(int sampleWeight) {
+        this.sampleWeight = sampleWeight;
+    }
+
+    /**
+     * Return the path of nested tasks ending with this timer. Paths are
+     * assigned only by a {@link NamedTimeTracker} tracking nesting.
+     * 
+     * @return the path or null if not assigned.
+     * @see NamedTimeTracker#setTrackNesting(boolean)
+     */
+    public CallPath getCallPath() {
+        return callPath;
+    }
+
+    /**
+     * Set the path of nested tasks ending with this timer.
+     * 
+     * @param callPath
+     *            path assigned by the tracker.
+     */
+    void setCallPath(CallPath callPath) {
+        this.callPath = callPath;
+    }
+
+    /**
+     * Return the elapsed time of timers started and stopped within this timer
+     * by the same thread. Available once this timer has stopped and only if
+     * nesting was tracked when it was created, otherwise zero.
+     * 
+     * @return elapsed time of child timers in nanoseconds.
+     * @see NamedTimeTracker#setTrackNesting(boolean)
+     */
+    public long getChildElapsedNanos() {
+        return childElapsedNanos;
+    }
+
+    /**
+     * Set the elapsed time of the child timers of this timer.
+     * 
+     * @param childElapsedNanos
+     *            elapsed time of child timers in nanoseconds.
+     */
+    void setChildElapsedNanos(long childElapsedNanos) {
+        this.childElapsedNanos = childElapsedNanos;
+    }
+
+    /**
+     * Return the elapsed time of this timer excluding the elapsed time of its
+     * child timers. Equal to {@link #getElapsedNanos()} if nesting was not
+     * tracked.
+     * 
+     * @return elapsed time excluding child timers in nanoseconds or -1 if the
+     *         timer is not yet complete.
+     * @see #getChildElapsedNanos()
+     */
+    public long getSelfElapsedNanos() {
+        long elapsed = getElapsedNanos();
+        return elapsed < 0 ? elapsed : elapsed - childElapsedNanos;
+    }
+
+    /**
+     * Return the name of the thread under which this timer was created. If the
+     * thread was captured using {@link ThreadIdentityMode#LAZY_NAME}, the name
+     * is resolved on the first invocation. If captured using
+     * {@link ThreadIdentityMode#CARRIER} on a virtual thread, the carrier
+     * aware identity is returned.
+     * 
+     * @return the thread name or null if the name was not captured.
+     * @see ThreadIdentityMode
      */
     public String getThreadName() {
+        Thread owner = thread;
+        if (owner != null) {
+            threadName = owner.getName();
+            thread = null;
+        }
         return threadName;
     }
 
+    /**
+     * Return the id of the thread under which this timer was created.
+     * 
+     * @return the thread id or {@link #UNKNOWN_THREAD_ID} if not captured.
+     */
+    public long getThreadId() {
+        return threadId;
+    }
+
+    /**
+     * Return the identity of the thread as written by {@link #toCsv()}: the
+     * thread name if captured, otherwise <code>#&lt;id&gt;</code> if the id
+     * was captured, otherwise an empty string.
+     * 
+     * @return identity of the thread under which this timer was created.
+     * @see ThreadIdentityMode
+     */
+    public String getThreadIdentity() {
+        String name = getThreadName();
+        if (name != null) {
+            return name;
+        }
+        if (threadId != UNKNOWN_THREAD_ID) {
+            return "#" + threadId;
+        }
+        return "";
+    }
+
     /**
      * Return the start time in milliseconds. This time represents wall clock
      * time. Timer must be be running or stopped prior to invoking this method.
@@ -506,7 +837,7 @@ public class Timer implements Serializable {
 
     /**
      * Return a CSV format of the current timer in the format: start time in
-     * milliseconds, task name, thread name, elapsed milliseconds, elapsed
+     * milliseconds, task name, thread identity, elapsed milliseconds, elapsed
      * nanoseconds, concurrent count, and any associated notes. If the timer has
      * not yet completed, a value of -1 will be returned for the elapsed time.
      * 
@@ -517,7 +848,7 @@ public class Timer implements Serializable {
         StringBuilder sb = new StringBuilder(100);
         sb.append(startTimeMillis);
         sb.append(",").append(taskName);
-        sb.append(",").append(threadName);
+        sb.append(",").append(getThreadIdentity());
         sb.append(",").append(getElapsedMillis());
         sb.append(",").append(getElapsedNanos());
         sb.append(",").append(getConcurrent());
@@ -558,17 +889,102 @@ public class Timer implements Serializable {
      */
     public static Timer fromCsv(String timerAsCsv) {
         String[] values = timerAsCsv.split(",");
-        Timer timer = new Timer(values[1], values[2]);
-        timer.status = TimerStatus.STOPPED;
-        timer.startTimeMillis = Long.parseLong(values[0].trim());
-        timer.startTimeNanos = 0L; // nanoseconds start and stop are relative to
-                                   // each other, not the wall clock.
-        timer.stopTimeNanos = Long.parseLong(values[4].trim());
-        timer.concurrent = Integer.parseInt(values[5].trim());
+        TimerNotes notes = null;
         if (values.length > 6) {
-	        timer.notes = TimerNotesParser.parse(values[6]);
+	        notes = TimerNotesParser.parse(values[6]);
+        }
+        return fromRecordedValues(Long.parseLong(values[0].trim()), values[1], values[2],
+                Long.parseLong(values[4].trim()), Integer.parseInt(values[5].trim()), notes);
+    }
+
+    /**
+     * Set the thread name and id from an identity as returned by
+     * {@link #getThreadIdentity()}.
+     * 
+     * @param identity
+     *            thread name, <code>#&lt;id&gt;</code>,
+     *            <code>name#id@carrier</code>, an empty string or null.
+     */
+    private void setThreadIdentity(String identity) {
+        this.thread = null;
+        this.threadName = null;
+        this.threadId = UNKNOWN_THREAD_ID;
+        if (identity == null || identity.length() == 0) {
+            return;
+        }
+        if (identity.charAt(0) == '#') {
+            long id = parseThreadId(identity, 1, identity.length());
+            if (id != UNKNOWN_THREAD_ID) {
+                // Id only.
+                this.threadId = id;
+                return;
+            }
+        }
+        // The id is only taken from a carrier aware identity, as thread names
+        // may themselves contain '#'. The carrier never contains '@'.
+        int carrier = identity.lastIndexOf('@');
+        if (carrier > 0) {
+            int idStart = identity.lastIndexOf('#', carrier);
+            if (idStart >= 0) {
+                this.threadId = parseThreadId(identity, idStart + 1, carrier);
+            }
+        }
+        this.threadName = identity;
+    }
+
+    /**
+     * Parse the digits between start and end as a thread id.
+     * 
+     * @return thread id or {@link #UNKNOWN_THREAD_ID} if not all digits.
+     */
+    private static long parseThreadId(String value, int start, int end) {
+        if (start == end || end - start > 18) {
+            return UNKNOWN_THREAD_ID;
+        }
+        long id = 0;
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return UNKNOWN_THREAD_ID;
+            }
+            id = id * 10 + (c - '0');
         }
+        return id;
+    }
 
+    /**
+     * Create a {@link Timer} populated using values previously recorded for a
+     * completed timer, such as by a {@link TimeRecorder}. This {@link Timer}
+     * will be in a {@link TimerStatus#STOPPED} state. Also, no handlers or
+     * completion listeners will be added.
+     * 
+     * @param startTimeMillis
+     *            wall clock start time in milliseconds.
+     * @param taskName
+     *            name of task that was timed.
+     * @param threadName
+     *            identity of thread in which timer was created as returned by
+     *            {@link #getThreadIdentity()}. The thread id is also set if
+     *            present in the identity.
+     * @param elapsedNanos
+     *            elapsed time in nanoseconds.
+     * @param concurrent
+     *            number of concurrent timers for the task.
+     * @param notes
+     *            notes recorded with the timer or null if none.
+     * @return stopped timer with the provided values.
+     */
+    public static Timer fromRecordedValues(long startTimeMillis, String taskName,
+            String threadName, long elapsedNanos, int concurrent, TimerNotes notes) {
+        Timer timer = new Timer(taskName, (String) null);
+        timer.setThreadIdentity(threadName);
+        timer.status = TimerStatus.STOPPED;
+        timer.startTimeMillis = startTimeMillis;
+        timer.startTimeNanos = 0L; // nanoseconds start and stop are relative to
+                                   // each other, not the wall clock.
+        timer.stopTimeNanos = elapsedNanos;
+        timer.concurrent = concurrent;
+        timer.notes = notes;
         return timer;
     }
 
@@ -667,6 +1083,102 @@ public class Timer implements Serializable {
         this.notes = new KeyedTimerNotes(notes);
     }
 
+    /**
+     * Add a keyed note with a <code>long</code> value without boxing the
+     * value. Notes added using this method and its variants are stored in a
+     * single {@link PrimitiveTimerNotes} instance and are formatted only when
+     * read. Calls may be chained prior to stopping the timer, for example:
+     * <code>timer.addNote("rows", rows).addNote("ratio", ratio).stop();</code>
+     * <p>
+     * Notes set using {@link #setNotes(Object...)},
+     * {@link #setKeyedNotes(Object...)} or {@link #stop(Object...)} replace
+     * the added notes and are replaced by the next added note. Has no effect
+     * after the timer has been stopped.
+     * 
+     * @param key
+     *            key used to retrieve the note.
+     * @param value
+     *            value of the note.
+     * @return this timer.
+     */
+    public Timer addNote(String key, long value) {
+        PrimitiveTimerNotes primitiveNotes = getPrimitiveNotes();
+        if (primitiveNotes != null) {
+            primitiveNotes.add(key, value);
+        }
+        return this;
+    }
+
+    /**
+     * Add a keyed note with an <code>int</code> value without boxing the
+     * value. See {@link #addNote(String, long)}.
+     * 
+     * @param key
+     *            key used to retrieve the note.
+     * @param value
+     *            value of the note.
+     * @return this timer.
+     */
+    public Timer addNote(String key, int value) {
+        PrimitiveTimerNotes primitiveNotes = getPrimitiveNotes();
+        if (primitiveNotes != null) {
+            primitiveNotes.add(key, value);
+        }
+        return this;
+    }
+
+    /**
+     * Add a keyed note with a <code>double</code> value without boxing the
+     * value. See {@link #addNote(String, long)}.
+     * 
+     * @param key
+     *            key used to retrieve the note.
+     * @param value
+     *            value of the note.
+     * @return this timer.
+     */
+    public Timer addNote(String key, double value) {
+        PrimitiveTimerNotes primitiveNotes = getPrimitiveNotes();
+        if (primitiveNotes != null) {
+            primitiveNotes.add(key, value);
+        }
+        return this;
+    }
+
+    /**
+     * Add a keyed note with an object value. See
+     * {@link #addNote(String, long)}.
+     * 
+     * @param key
+     *            key used to retrieve the note.
+     * @param value
+     *            value of the note.
+     * @return this timer.
+     */
+    public Timer addNote(String key, Object value) {
+        PrimitiveTimerNotes primitiveNotes = getPrimitiveNotes();
+        if (primitiveNotes != null) {
+            primitiveNotes.add(key, value);
+        }
+        return this;
+    }
+
+    /**
+     * Return the notes to which added notes are appended, replacing the
+     * current notes if not created by {@link #addNote(String, long)}.
+     * 
+     * @return the notes or null if the timer has been stopped.
+     */
+    private PrimitiveTimerNotes getPrimitiveNotes() {
+        if (status == TimerStatus.STOPPED) {
+            return null;
+        }
+        if (!(notes instanceof PrimitiveTimerNotes)) {
+            notes = new PrimitiveTimerNotes();
+        }
+        return (PrimitiveTimerNotes) notes;
+    }
+
     public static enum TimerStatus {
         INITIALIZED, RUNNING, STOPPED;
     }
@@ -706,6 +1218,99 @@ public class Timer implements Serializable {
         this.completionListener = completionListener;
     }
 
+    /**
+     * Return the event fired to the completion listener when this timer is
+     * stopped.
+     * 
+     * @return event for this timer.
+     */
+    TimerStoppedEvent getStoppedEvent() {
+        return new TimerStoppedEvent(this);
+    }
+
+    /**
+     * Reinitialize this timer so that it may be reused for another recording.
+     * All recorded values are cleared and the status is returned to
+     * {@link TimerStatus#INITIALIZED}.
+     * 
+     * @param taskName name of task being timed.
+     * @param threadIdentityMode how the current thread is captured.
+     * @param timeRecorder instance used to record this timer upon completion.
+     * @param timerLevel filter level of this timer.
+     */
+    void reinitialize(String taskName, ThreadIdentityMode threadIdentityMode,
+            TimeRecorder timeRecorder, TimerLevel timerLevel) {
+        this.status = TimerStatus.INITIALIZED;
+        this.taskName = taskName;
+        this.taskId = TaskRegistry.UNREGISTERED;
+        captureThread(threadIdentityMode);
+        this.timeRecorder = timeRecorder;
+        this.timerLevel = timerLevel;
+        this.startTimeMillis = 0L;
+        this.startTimeNanos = 0L;
+        this.stopTimeNanos = 0L;
+        this.concurrent = 0;
+        this.sampleWeight = 1;
+        this.callPath = null;
+        this.childElapsedNanos = 0L;
+        this.notes = null;
+        this.completionListener = null;
+    }
+
+    /**
+     * Return a detached copy of this timer. The copy contains all recorded
+     * values, but no {@link TimeRecorder} or completion listener and is never
+     * pooled. Use this method to retain a timer beyond the processing of a
+     * {@link TimeRecorder} or {@link TimerAction}.
+     * 
+     * @return a new, unpooled instance with the same values as this timer.
+     */
+    public Timer copy() {
+        Timer copy = new Timer(taskName, getThreadName(), timerLevel);
+        copy.threadId = threadId;
+        copy.taskId = taskId;
+        copy.status = status;
+        copy.startTimeMillis = startTimeMillis;
+        copy.startTimeNanos = startTimeNanos;
+        copy.stopTimeNanos = stopTimeNanos;
+        copy.concurrent = concurrent;
+        copy.sampleWeight = sampleWeight;
+        copy.callPath = callPath;
+        copy.childElapsedNanos = childElapsedNanos;
+        copy.notes = notes;
+        return copy;
+    }
+
+    /**
+     * Returns true if this timer was obtained from a pool and will be recycled
+     * once all processing has completed. Pooled timers must not be retained
+     * after processing. Use {@link #copy()} instead.
+     * 
+     * @return true if pooled, false otherwise.
+     */
+    public boolean isPooled() {
+        return false;
+    }
+
+    /**
+     * Indicate that an additional owner, such as a queue, will be using this
+     * timer after it is stopped. Each invocation must be matched with an
+     * invocation of {@link #release()} once processing is complete. Has no
+     * effect on timers that are not pooled.
+     */
+    public void retain() {
+        // Only applicable to pooled timers.
+    }
+
+    /**
+     * Indicate that an owner has completed processing of this timer. Once all
+     * owners have released the timer, a pooled timer will be returned to its
+     * pool. Has no effect on timers that are not pooled.
+     */
+    public void release() {
+        // Only applicable to pooled timers.
+    }
+
     /**
      * Update the status subject to state constraints.
      * 
@@ -739,4 +1344,30 @@ public class Timer implements Serializable {
     public TimerLevel getTimerLevel() {
         return timerLevel;
     }
+
+    /**
+     * A lazily captured thread name is resolved prior to serialization as the
+     * thread itself is not serialized.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        getThreadName();
+        out.defaultWriteObject();
+    }
+
+    /**
+     * Task ids are assigned per VM and must be resolved again after
+     * deserialization. Timers serialized before sample weights were added are
+     * treated as unsampled and those serialized before thread ids were added
+     * have an unknown thread id.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        taskId = TaskRegistry.UNREGISTERED;
+        if (sampleWeight < 1) {
+            sampleWeight = 1;
+        }
+        if (threadId == 0L) {
+            threadId = UNKNOWN_THREAD_ID;
+        }
+    }
 }
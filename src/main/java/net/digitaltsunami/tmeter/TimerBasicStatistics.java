@@ -15,6 +15,11 @@
 __copyright_end__ */
 package net.digitaltsunami.tmeter;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -28,7 +33,15 @@ import java.util.concurrent.TimeUnit;
  * <li>Max Elapsed Time</li>
  * <li>Total Elapsed Time</li>
  * <li>Average Elapsed Time</li>
+ * <li>Variance and Standard Deviation of Elapsed Time</li>
+ * <li>Percentiles of Elapsed Time - Optional. See {@link LatencyHistogram}.</li>
  * </ul>
+ * <p>
+ * Instances may be combined using {@link #merge(TimerBasicStatistics)}, or
+ * {@link #merge(String, Collection)} and {@link #mergeByTask(Collection)} for
+ * collections, to aggregate statistics accumulated separately, such as by
+ * multiple threads, shards, log files or virtual machines. The result is the
+ * same as if every elapsed time had been added to a single instance.
  * 
  * @author dhagberg
  * 
@@ -44,6 +57,10 @@ public class TimerBasicStatistics implements Comparable<TimerBasicStatistics> {
     // Used to calculate variance and standard deviation
     private volatile double sumOfDeltasElapsedNanos;
     private TimeUnit reportingUnit = TimeUnit.MILLISECONDS;
+    /**
+     * Optional histogram of elapsed times used to provide percentiles.
+     */
+    private final LatencyHistogram histogram;
 
     /**
      * Create an empty statistics instance for the task.
@@ -52,6 +69,40 @@ public class TimerBasicStatistics implements Comparable<TimerBasicStatistics> {
      */
     public TimerBasicStatistics(String taskName) {
         this.taskName = taskName;
+        this.histogram = null;
+    }
+
+    /**
+     * Create an empty statistics instance for the task that also records
+     * elapsed times in a {@link LatencyHistogram} to provide percentiles.
+     * 
+     * @param taskName
+     * @param significantDigits
+     *            number of significant decimal digits maintained for each
+     *            elapsed time. Must be between 1 and 5.
+     * @param highestTrackableValue
+     *            highest elapsed time that can be recorded precisely.
+     * @param timeUnit
+     *            unit of the highest trackable value.
+     * @see LatencyHistogram
+     */
+    public TimerBasicStatistics(String taskName, int significantDigits,
+            long highestTrackableValue, TimeUnit timeUnit) {
+        this(taskName, new LatencyHistogram(significantDigits, highestTrackableValue, timeUnit));
+    }
+
+    /**
+     * Create an empty statistics instance for the task using the provided
+     * histogram.
+     * 
+     * @param taskName
+     * @param histogram
+     *            histogram to record elapsed times or null if percentiles are
+     *            not required.
+     */
+    TimerBasicStatistics(String taskName, LatencyHistogram histogram) {
+        this.taskName = taskName;
+        this.histogram = histogram;
     }
 
     /**
@@ -62,9 +113,42 @@ public class TimerBasicStatistics implements Comparable<TimerBasicStatistics> {
      */
     public TimerBasicStatistics(Timer timer) {
         this.taskName = timer.getTaskName();
+        this.histogram = null;
         addTimer(timer);
     }
 
+    /**
+     * Create a statistics instance initialized with accumulated values.
+     * 
+     * @param taskName
+     * @param count
+     *            number of elapsed times accumulated.
+     * @param totalElapsedNanos
+     *            sum of elapsed times.
+     * @param minElapsedNanos
+     *            minimum elapsed time.
+     * @param maxElapsedNanos
+     *            maximum elapsed time.
+     * @param meanElapsedNanos
+     *            mean of elapsed times.
+     * @param sumOfDeltasElapsedNanos
+     *            sum of squared deviations from the mean.
+     * @param histogram
+     *            histogram of elapsed times or null if not maintained.
+     */
+    TimerBasicStatistics(String taskName, int count, long totalElapsedNanos,
+            long minElapsedNanos, long maxElapsedNanos, double meanElapsedNanos,
+            double sumOfDeltasElapsedNanos, LatencyHistogram histogram) {
+        this.taskName = taskName;
+        this.histogram = histogram;
+        this.count = count;
+        this.totalElapsedNanos = totalElapsedNanos;
+        this.minElapsedNanos = minElapsedNanos;
+        this.maxElapsedNanos = maxElapsedNanos;
+        this.meanElapsedNanos = meanElapsedNanos;
+        this.sumOfDeltasElapsedNanos = sumOfDeltasElapsedNanos;
+    }
+
     /**
      * Add the results of a timer to the currently tracked statistics for this
      * timer.
@@ -79,9 +163,25 @@ public class TimerBasicStatistics implements Comparable<TimerBasicStatistics> {
             throw new IllegalArgumentException(
                     "Task Statistics belong to a different task than provided timer");
         }
+        int sampleWeight = timer.getSampleWeight();
+        if (sampleWeight == 1) {
+            addElapsed(timer.getElapsedNanos());
+        } else {
+            addElapsed(timer.getElapsedNanos(), sampleWeight);
+        }
+    }
+
+    /**
+     * Add an elapsed time to the currently tracked statistics for this task.
+     * The caller is responsible for ensuring that the elapsed time was
+     * recorded for this task.
+     * 
+     * @param elapsedNanos
+     *            elapsed time in nanoseconds.
+     */
+    public void addElapsed(long elapsedNanos) {
         synchronized (this) {
             count++;
-            long elapsedNanos = timer.getElapsedNanos();
             totalElapsedNanos += elapsedNanos;
             minElapsedNanos = Math.min(minElapsedNanos, elapsedNanos);
             maxElapsedNanos = Math.max(maxElapsedNanos, elapsedNanos);
@@ -89,9 +189,208 @@ public class TimerBasicStatistics implements Comparable<TimerBasicStatistics> {
             double previousMean = meanElapsedNanos;
             meanElapsedNanos += (elapsedNanos - previousMean) / count;
             sumOfDeltasElapsedNanos += ((double)elapsedNanos - previousMean) * ((double)elapsedNanos - meanElapsedNanos);
+            if (histogram != null) {
+                histogram.record(elapsedNanos);
+            }
+        }
+    }
+
+    /**
+     * Add an elapsed time that represents multiple occurrences of the task.
+     * Used for sampled timers where a single recorded timer stands in for
+     * <code>weight</code> executions. The count, total, mean, variance and
+     * histogram are updated as if the elapsed time had been added
+     * <code>weight</code> times.
+     * 
+     * @param elapsedNanos
+     *            elapsed time in nanoseconds.
+     * @param weight
+     *            number of occurrences represented by the elapsed time.
+     * @throws IllegalArgumentException
+     *             if weight is less than 1.
+     */
+    public void addElapsed(long elapsedNanos, int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Weight must be at least 1: " + weight);
+        }
+        synchronized (this) {
+            combine(weight, elapsedNanos * weight, elapsedNanos, elapsedNanos, elapsedNanos, 0.0,
+                    null);
+            if (histogram != null) {
+                histogram.record(elapsedNanos, weight);
+            }
+        }
+    }
+
+    /**
+     * Combine accumulated values into the statistics for this instance. The
+     * mean and the sum of squared deviations are combined using the parallel
+     * algorithm for variance so that the result is the same as if each
+     * elapsed time had been added to this instance.
+     * 
+     * @param oCount
+     *            number of elapsed times accumulated.
+     * @param oTotalElapsedNanos
+     *            sum of elapsed times.
+     * @param oMinElapsedNanos
+     *            minimum elapsed time.
+     * @param oMaxElapsedNanos
+     *            maximum elapsed time.
+     * @param oMeanElapsedNanos
+     *            mean of elapsed times.
+     * @param oSumOfDeltasElapsedNanos
+     *            sum of squared deviations from the mean.
+     * @param oHistogram
+     *            histogram of elapsed times or null if not maintained.
+     */
+    synchronized void combine(int oCount, long oTotalElapsedNanos, long oMinElapsedNanos,
+            long oMaxElapsedNanos, double oMeanElapsedNanos, double oSumOfDeltasElapsedNanos,
+            LatencyHistogram oHistogram) {
+        if (oCount == 0) {
+            return;
+        }
+        if (histogram != null && oHistogram != null) {
+            histogram.add(oHistogram);
+        }
+        int combinedCount = count + oCount;
+        double delta = oMeanElapsedNanos - meanElapsedNanos;
+        meanElapsedNanos += delta * oCount / combinedCount;
+        sumOfDeltasElapsedNanos += oSumOfDeltasElapsedNanos
+                + delta * delta * ((double) count * oCount / combinedCount);
+        count = combinedCount;
+        totalElapsedNanos += oTotalElapsedNanos;
+        minElapsedNanos = Math.min(minElapsedNanos, oMinElapsedNanos);
+        maxElapsedNanos = Math.max(maxElapsedNanos, oMaxElapsedNanos);
+    }
+
+    /**
+     * Combine the statistics of the provided instance into this instance
+     * without taking a snapshot. See {@link #merge(TimerBasicStatistics)}.
+     * The provided instance must not be a subclass that accumulates its
+     * values separately, such as {@link StripedTimerBasicStatistics}.
+     * 
+     * @param other
+     *            statistics to combine into this instance. Not modified.
+     */
+    void combine(TimerBasicStatistics other) {
+        synchronized (other) {
+            combine(other.count, other.totalElapsedNanos, other.minElapsedNanos,
+                    other.maxElapsedNanos, other.meanElapsedNanos,
+                    other.sumOfDeltasElapsedNanos, other.histogram);
+        }
+    }
+
+    /**
+     * Remove all accumulated statistics, including the histogram if
+     * maintained. Used to reuse an instance rather than creating a new one.
+     */
+    synchronized void clear() {
+        count = 0;
+        totalElapsedNanos = 0;
+        minElapsedNanos = Long.MAX_VALUE;
+        maxElapsedNanos = Long.MIN_VALUE;
+        meanElapsedNanos = 0.0;
+        sumOfDeltasElapsedNanos = 0.0;
+        if (histogram != null) {
+            histogram.reset();
         }
     }
 
+    /**
+     * Merge the statistics of the provided instance into this instance. The
+     * count, total, minimum and maximum are combined directly and the mean and
+     * sum of squared deviations are combined using the parallel algorithm for
+     * variance, so the result is the same as if each elapsed time added to the
+     * other instance had been added to this instance. The task name of this
+     * instance is retained.
+     * <p>
+     * Histograms are merged if both instances maintain one. Percentiles of an
+     * instance maintaining a histogram do not include values merged from an
+     * instance that does not.
+     * 
+     * @param other
+     *            statistics to merge into this instance. Not modified.
+     * @throws IllegalArgumentException
+     *             if both instances maintain histograms with different
+     *             configurations.
+     */
+    public void merge(TimerBasicStatistics other) {
+        TimerBasicStatistics source = other.getSnapshot();
+        combine(source.count, source.totalElapsedNanos, source.minElapsedNanos,
+                source.maxElapsedNanos, source.meanElapsedNanos, source.sumOfDeltasElapsedNanos,
+                source.histogram);
+    }
+
+    /**
+     * Merge the provided statistics into a new instance. See
+     * {@link #merge(TimerBasicStatistics)}. The new instance maintains a
+     * histogram if any of the provided statistics do.
+     * 
+     * @param taskName
+     *            task name of the new instance.
+     * @param stats
+     *            statistics to merge. Not modified.
+     * @return new instance containing the merged statistics.
+     * @throws IllegalArgumentException
+     *             if the provided statistics maintain histograms with
+     *             different configurations.
+     */
+    public static TimerBasicStatistics merge(String taskName,
+            Collection<? extends TimerBasicStatistics> stats) {
+        List<TimerBasicStatistics> snapshots = new ArrayList<TimerBasicStatistics>(stats.size());
+        LatencyHistogram histogram = null;
+        for (TimerBasicStatistics stat : stats) {
+            TimerBasicStatistics snapshot = stat.getSnapshot();
+            if (histogram == null && snapshot.histogram != null) {
+                histogram = snapshot.histogram.newEmpty();
+            }
+            snapshots.add(snapshot);
+        }
+        TimerBasicStatistics merged = new TimerBasicStatistics(taskName, histogram);
+        for (TimerBasicStatistics snapshot : snapshots) {
+            merged.combine(snapshot.count, snapshot.totalElapsedNanos, snapshot.minElapsedNanos,
+                    snapshot.maxElapsedNanos, snapshot.meanElapsedNanos,
+                    snapshot.sumOfDeltasElapsedNanos, snapshot.histogram);
+        }
+        return merged;
+    }
+
+    /**
+     * Merge the provided statistics by task name into a new instance for each
+     * task. See {@link #merge(String, Collection)}. Used to combine the
+     * statistics of all tasks from multiple sources, such as the snapshots of
+     * several actions.
+     * 
+     * @param stats
+     *            statistics of any number of tasks. Not modified.
+     * @return new instance for each task, keyed and sorted by task name.
+     */
+    public static Map<String, TimerBasicStatistics> mergeByTask(
+            Collection<? extends TimerBasicStatistics> stats) {
+        Map<String, List<TimerBasicStatistics>> byTask =
+                new TreeMap<String, List<TimerBasicStatistics>>();
+        for (TimerBasicStatistics stat : stats) {
+            List<TimerBasicStatistics> taskStats = byTask.get(stat.getTaskName());
+            if (taskStats == null) {
+                taskStats = new ArrayList<TimerBasicStatistics>();
+                byTask.put(stat.getTaskName(), taskStats);
+            }
+            taskStats.add(stat);
+        }
+        Map<String, TimerBasicStatistics> merged = new TreeMap<String, TimerBasicStatistics>();
+        for (Map.Entry<String, List<TimerBasicStatistics>> entry : byTask.entrySet()) {
+            merged.put(entry.getKey(), merge(entry.getKey(), entry.getValue()));
+        }
+        return merged;
+    }
+
+    /**
+     * @return the sum of squared deviations from the mean.
+     */
+    double getSumOfDeltasElapsedNanos() {
+        return sumOfDeltasElapsedNanos;
+    }
+
     /**
      * Return the task name for which the statistics are being tracked.
      * 
@@ -130,7 +429,7 @@ public class TimerBasicStatistics implements Comparable<TimerBasicStatistics> {
      * @return
      */
     public long getTotalElapsed(TimeUnit timeUnit) {
-        return timeUnit.convert(totalElapsedNanos, TimeUnit.NANOSECONDS);
+        return timeUnit.convert(getTotalElapsedNanos(), TimeUnit.NANOSECONDS);
     }
 
     /**
@@ -152,7 +451,7 @@ public class TimerBasicStatistics implements Comparable<TimerBasicStatistics> {
      * @return
      */
     public long getMinElapsed(TimeUnit timeUnit) {
-        return timeUnit.convert(minElapsedNanos, TimeUnit.NANOSECONDS);
+        return timeUnit.convert(getMinElapsedNanos(), TimeUnit.NANOSECONDS);
     }
 
     /**
@@ -174,7 +473,7 @@ public class TimerBasicStatistics implements Comparable<TimerBasicStatistics> {
      * @return
      */
     public long getMaxElapsed(TimeUnit timeUnit) {
-        return timeUnit.convert(maxElapsedNanos, TimeUnit.NANOSECONDS);
+        return timeUnit.convert(getMaxElapsedNanos(), TimeUnit.NANOSECONDS);
     }
 
     /**
@@ -197,7 +496,7 @@ public class TimerBasicStatistics implements Comparable<TimerBasicStatistics> {
      * @return average elapsed time in {@link TimeUnit} provided.
      */
     public double getAverageElapsed(TimeUnit timeUnit) {
-            return timeUnit.convert((long)meanElapsedNanos, TimeUnit.NANOSECONDS);
+            return timeUnit.convert((long)getAverageElapsedNanos(), TimeUnit.NANOSECONDS);
     }
 
     /**
@@ -246,6 +545,66 @@ public class TimerBasicStatistics implements Comparable<TimerBasicStatistics> {
             return timeUnit.convert((long)getStdDevElapsedNanos(), TimeUnit.NANOSECONDS);
     }
 
+    /**
+     * Returns true if a histogram of elapsed times is maintained and
+     * percentiles are available.
+     * 
+     * @return true if percentiles are available.
+     */
+    public boolean hasHistogram() {
+        return histogram != null;
+    }
+
+    /**
+     * Return a copy of the histogram of elapsed times recorded for this task.
+     * 
+     * @return copy of histogram or null if a histogram is not maintained.
+     */
+    public LatencyHistogram getHistogram() {
+        if (histogram == null) {
+            return null;
+        }
+        synchronized (this) {
+            return histogram.copy();
+        }
+    }
+
+    /**
+     * Return the elapsed time at the provided percentile in nanoseconds. See
+     * {@link LatencyHistogram#getValueAtPercentile(double)}.
+     * 
+     * @param percentile
+     *            percentile between 0.0 and 100.0.
+     * @return elapsed time at percentile in nanoseconds or 0 if no timers have
+     *         yet been recorded.
+     * @throws IllegalStateException
+     *             if a histogram is not maintained for this instance.
+     */
+    public long getPercentileNanos(double percentile) {
+        if (histogram == null) {
+            throw new IllegalStateException("Histogram not maintained for " + taskName);
+        }
+        synchronized (this) {
+            return histogram.getValueAtPercentile(percentile);
+        }
+    }
+
+    /**
+     * Return the elapsed time at the provided percentile. The time will be
+     * returned in the {@link TimeUnit} provided.
+     * 
+     * @param percentile
+     *            percentile between 0.0 and 100.0.
+     * @param timeUnit
+     *            Desired time unit for returned value.
+     * @return elapsed time at percentile in {@link TimeUnit} provided.
+     * @throws IllegalStateException
+     *             if a histogram is not maintained for this instance.
+     */
+    public long getPercentile(double percentile, TimeUnit timeUnit) {
+        return timeUnit.convert(getPercentileNanos(percentile), TimeUnit.NANOSECONDS);
+    }
+
     /**
      * Creates a snapshot of the instance and returns as a new instance. These
      * values will not be updated as more timers are processed.
@@ -254,16 +613,11 @@ public class TimerBasicStatistics implements Comparable<TimerBasicStatistics> {
      *         at the time returned.
      */
     public TimerBasicStatistics getSnapshot() {
-        TimerBasicStatistics copy = new TimerBasicStatistics(taskName);
         synchronized (this) {
-            copy.count = count;
-            copy.minElapsedNanos = minElapsedNanos;
-            copy.maxElapsedNanos = maxElapsedNanos;
-            copy.totalElapsedNanos = totalElapsedNanos;
-            copy.meanElapsedNanos = meanElapsedNanos;
-            copy.sumOfDeltasElapsedNanos = sumOfDeltasElapsedNanos;
+            return new TimerBasicStatistics(taskName, count, totalElapsedNanos, minElapsedNanos,
+                    maxElapsedNanos, meanElapsedNanos, sumOfDeltasElapsedNanos,
+                    histogram == null ? null : histogram.copy());
         }
-        return copy;
     }
 
     @Override
@@ -326,6 +680,10 @@ public class TimerBasicStatistics implements Comparable<TimerBasicStatistics> {
         sb.append(", max=").append(getMaxElapsed(reportingUnit)); 
         sb.append(", mean=").append(getAverageElapsed(reportingUnit)); 
         sb.append(", std_dev=").append(getStdDevElapsed(reportingUnit));
+        if (hasHistogram()) {
+            sb.append(", p50=").append(getPercentile(50.0, reportingUnit));
+            sb.append(", p99=").append(getPercentile(99.0, reportingUnit));
+        }
         sb.append("]");
         return sb.toString();
     }
@@ -34,9 +34,14 @@ public enum TimerLogType {
     /**
      * Log as comma separated values.
      */
-    CSV;
+    CSV,
+    /**
+     * Log in compact binary format. See
+     * {@link net.digitaltsunami.tmeter.record.TimerJournalReader} for reading.
+     */
+    BINARY;
 
     public boolean isLoggingEnabled() {
-        return this == TEXT || this == CSV;
+        return this == TEXT || this == CSV || this == BINARY;
     }
 }
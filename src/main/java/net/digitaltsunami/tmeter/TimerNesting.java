@@ -0,0 +1,138 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.digitaltsunami.tmeter.Timer.TimerStatus;
+
+/**
+ * Stack of the running timers started by a single thread, used to assign each
+ * new timer its {@link CallPath} and to accumulate the elapsed time of
+ * completed child timers into their parent.
+ * <p>
+ * Timers are pushed when started and popped when stopped by the same thread.
+ * Timers stopped by another thread, or never stopped, remain on the stack
+ * until found to be no longer running when a timer is started or a timer
+ * below them is stopped.
+ *
+ * @author dhagberg
+ *
+ */
+class TimerNesting {
+
+    private final Timer[] timers;
+    private final CallPath[] paths;
+    /**
+     * Elapsed time of completed children of each timer.
+     */
+    private final long[] childNanos;
+    private int size;
+
+    /**
+     * Create a stack holding at most maxDepth timers.
+     *
+     * @param maxDepth
+     *            maximum number of nested timers tracked.
+     */
+    TimerNesting(int maxDepth) {
+        timers = new Timer[maxDepth];
+        paths = new CallPath[maxDepth];
+        childNanos = new long[maxDepth];
+    }
+
+    /**
+     * Assign the timer its path below the innermost running timer and push
+     * it. Timers nested beyond the maximum depth are not assigned a path.
+     *
+     * @param timer
+     *            timer about to be started.
+     * @param root
+     *            root of the paths of the tracker.
+     * @param pathCount
+     *            number of paths created by the tracker.
+     * @param maxPaths
+     *            limit on the number of paths created by the tracker.
+     */
+    void push(Timer timer, CallPath root, AtomicInteger pathCount, int maxPaths) {
+        discardStale();
+        if (size == timers.length) {
+            return;
+        }
+        CallPath parent = size == 0 ? root : paths[size - 1];
+        CallPath path = parent.child(timer.getTaskName(), pathCount, maxPaths);
+        timer.setCallPath(path);
+        timers[size] = timer;
+        paths[size] = path;
+        childNanos[size] = 0L;
+        size++;
+    }
+
+    /**
+     * Pop the timer and any timers started within it that are still on the
+     * stack. The elapsed time of the children of the timer is set on the
+     * timer and its elapsed time is added to its parent. Has no effect if the
+     * timer is not on this stack.
+     *
+     * @param timer
+     *            timer stopped by the thread owning this stack.
+     */
+    void pop(Timer timer) {
+        CallPath path = timer.getCallPath();
+        for (int i = size - 1; i >= 0; i--) {
+            if (timers[i] == timer && paths[i] == path) {
+                timer.setChildElapsedNanos(childNanos[i]);
+                truncate(i);
+                if (i > 0) {
+                    childNanos[i - 1] += timer.getElapsedNanos();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return number of timers currently on the stack.
+     */
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * Remove timers that are no longer running from the top of the stack.
+     * Pooled timers may have been recycled, so the path is checked as well.
+     */
+    private void discardStale() {
+        int top = size;
+        while (top > 0) {
+            Timer timer = timers[top - 1];
+            if (timer.getStatus() == TimerStatus.RUNNING
+                    && timer.getCallPath() == paths[top - 1]) {
+                break;
+            }
+            top--;
+        }
+        truncate(top);
+    }
+
+    private void truncate(int newSize) {
+        for (int i = newSize; i < size; i++) {
+            timers[i] = null;
+            paths[i] = null;
+        }
+        size = newSize;
+    }
+}
@@ -0,0 +1,109 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter;
+
+import net.digitaltsunami.tmeter.level.TimerLevel;
+import net.digitaltsunami.tmeter.record.TimeRecorder;
+
+/**
+ * Fixed size pool of {@link Timer} instances owned by a single thread.
+ * <p>
+ * Only the owning thread acquires timers from the pool, but timers may be
+ * released from any thread. Each timer carries its own availability flag so
+ * that releasing a timer does not require any coordination with the pool. If
+ * all timers in the pool are in use, a new unpooled timer is returned.
+ * <p>
+ * The owning thread is captured as each timer is acquired using the
+ * {@link ThreadIdentityMode} provided.
+ * 
+ * @author dhagberg
+ * 
+ */
+class TimerPool {
+
+    private final PooledTimer[] timers;
+    /**
+     * Position of the next timer to check for availability.
+     */
+    private int cursor;
+
+    /**
+     * Create a pool of the provided size for the current thread.
+     * 
+     * @param size
+     *            number of timers to maintain within the pool.
+     */
+    TimerPool(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Pool size must be greater than zero");
+        }
+        this.timers = new PooledTimer[size];
+        for (int i = 0; i < size; i++) {
+            timers[i] = new PooledTimer();
+        }
+    }
+
+    /**
+     * Return an initialized timer that has not yet been started. Must only be
+     * invoked by the thread that created the pool.
+     * 
+     * @param taskName
+     *            name of task being timed.
+     * @param timeRecorder
+     *            instance used to record this timer upon completion.
+     * @param timerLevel
+     *            filter level of this timer.
+     * @param threadIdentityMode
+     *            how the current thread is captured.
+     * @return a pooled timer if one is available or a new timer if not.
+     */
+    Timer acquire(String taskName, TimeRecorder timeRecorder, TimerLevel timerLevel,
+            ThreadIdentityMode threadIdentityMode) {
+        for (int i = 0; i < timers.length; i++) {
+            PooledTimer timer = timers[cursor];
+            if (++cursor == timers.length) {
+                cursor = 0;
+            }
+            if (timer.isFree()) {
+                timer.reinitialize(taskName, threadIdentityMode, timeRecorder, timerLevel);
+                timer.acquire();
+                return timer;
+            }
+        }
+        // All timers currently in flight.
+        return new Timer(taskName, true, timeRecorder, timerLevel, threadIdentityMode);
+    }
+
+    /**
+     * @return the number of timers maintained by this pool.
+     */
+    int getSize() {
+        return timers.length;
+    }
+
+    /**
+     * @return the number of timers currently available.
+     */
+    int getAvailable() {
+        int available = 0;
+        for (PooledTimer timer : timers) {
+            if (timer.isFree()) {
+                available++;
+            }
+        }
+        return available;
+    }
+}
@@ -0,0 +1,100 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether a single execution of a sampled task is recorded. See
+ * {@link TimerSamplingMode} for the available methods.
+ * 
+ * @author dhagberg
+ * 
+ */
+final class TimerSampler {
+
+    /**
+     * Per thread state for {@link TimerSamplingMode#RANDOM}. Shared by all
+     * samplers as the generator carries no per sampler state.
+     */
+    private static final ThreadLocal<XorShiftRandom> random = new ThreadLocal<XorShiftRandom>() {
+        @Override
+        protected XorShiftRandom initialValue() {
+            return new XorShiftRandom(System.nanoTime() ^ Thread.currentThread().getId());
+        }
+    };
+
+    private final int sampleRate;
+    private final TimerSamplingMode mode;
+    private final AtomicLong counter = new AtomicLong();
+
+    /**
+     * Create a sampler recording one in every <code>sampleRate</code>
+     * executions.
+     * 
+     * @param sampleRate
+     *            must be greater than 1.
+     * @param mode
+     *            method used to select the executions to record.
+     */
+    TimerSampler(int sampleRate, TimerSamplingMode mode) {
+        this.sampleRate = sampleRate;
+        this.mode = mode;
+    }
+
+    /**
+     * Returns true if the current execution should be recorded.
+     */
+    boolean sample() {
+        if (mode == TimerSamplingMode.COUNTER) {
+            return counter.getAndIncrement() % sampleRate == 0;
+        }
+        return random.get().nextInt(sampleRate) == 0;
+    }
+
+    /**
+     * Return the number of executions represented by each recorded execution.
+     */
+    int getSampleRate() {
+        return sampleRate;
+    }
+
+    TimerSamplingMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Marsaglia xorshift generator. Much cheaper than {@link java.util.Random}
+     * as it is only used by a single thread and requires no atomic updates.
+     */
+    private static final class XorShiftRandom {
+        private long seed;
+
+        private XorShiftRandom(long seed) {
+            this.seed = seed == 0 ? 0x9E3779B97F4A7C15L : seed;
+        }
+
+        private int nextInt(int bound) {
+            long x = seed;
+            x ^= x << 13;
+            x ^= x >>> 7;
+            x ^= x << 17;
+            seed = x;
+            // Use the high order bits as they are the most random.
+            return (int) (((x >>> 33) * bound) >>> 31);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter;
+
+/**
+ * Method used to select which task executions are recorded when sampling is
+ * configured for a task or timer level. In both modes, one in every
+ * <code>sampleRate</code> executions is recorded on average and each recorded
+ * {@link Timer} carries a {@link Timer#getSampleWeight()} of
+ * <code>sampleRate</code>.
+ * <li> {@link #COUNTER}: Exactly one of every <code>sampleRate</code>
+ * executions is recorded using a counter shared by all threads. Results are
+ * deterministic, but threads recording the same task contend on the counter.
+ * <li> {@link #RANDOM}: Each execution is recorded with a probability of
+ * <code>1 / sampleRate</code> using a random number generator local to the
+ * thread. Avoids contention between threads at the cost of an approximate
+ * rate.
+ * 
+ * @author dhagberg
+ * 
+ * @see NamedTimeTracker#setTaskSampling(String, int, TimerSamplingMode)
+ * @see NamedTimeTracker#setLevelSampling(net.digitaltsunami.tmeter.level.TimerLevel,
+ *      int, TimerSamplingMode)
+ */
+public enum TimerSamplingMode {
+    COUNTER, RANDOM;
+}
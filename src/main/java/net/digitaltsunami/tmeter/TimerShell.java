@@ -65,6 +65,26 @@ public class TimerShell extends Timer {
         return 0L;
     }
 
+    @Override
+    public Timer addNote(String key, long value) {
+        return this;
+    }
+
+    @Override
+    public Timer addNote(String key, int value) {
+        return this;
+    }
+
+    @Override
+    public Timer addNote(String key, double value) {
+        return this;
+    }
+
+    @Override
+    public Timer addNote(String key, Object value) {
+        return this;
+    }
+
     @Override
     public int getConcurrent() {
         return 0;
@@ -0,0 +1,391 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter.action;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import net.digitaltsunami.tmeter.LatencyHistogram;
+import net.digitaltsunami.tmeter.TaskRegistry;
+import net.digitaltsunami.tmeter.Timer;
+
+/**
+ * Base class for actions that accumulate statistics for each task, such as
+ * {@link TimerStatsAction} and {@link RollingTimerStatsAction}.
+ * <p>
+ * Statistics are created on demand for each task and located using the task
+ * id of each timer (see {@link TaskRegistry}) and by task name. As trackers
+ * assign ids separately, the task name of an entry located by id is confirmed
+ * and timers without an id are located by name. The optional
+ * {@link LatencyHistogram} configuration applies to statistics created after
+ * it is changed.
+ * <p>
+ * When used by an {@link ActionChain} with multiple shards, each shard
+ * accumulates statistics for its tasks using its own instance of the action,
+ * created using {@link #newShard()}. Once a shard is released by the action
+ * chain, its statistics are merged into this instance. As a task may then
+ * have statistics in more than one instance, such as after the actions of the
+ * chain are cleared and added again, the statistics of each task are merged
+ * when queried using {@link #findStatistics(String)} and
+ * {@link #findAllStatistics()}.
+ * 
+ * @param <S>
+ *            type of statistics maintained for each task.
+ * @author dhagberg
+ * 
+ */
+public abstract class AbstractTimerStatsAction<S> extends TimerAction {
+
+    private final ConcurrentHashMap<String, S> statsByTask = new ConcurrentHashMap<String, S>();
+
+    /**
+     * Statistics indexed by task id. Contains the same instances as
+     * statsByTask and is replaced when a task id beyond the end is first
+     * processed. Each entry is the first task processed with the id.
+     */
+    private volatile IndexedStatistics<?>[] statsById = new IndexedStatistics<?>[0];
+
+    /**
+     * Number of significant digits for histograms or zero if histograms are
+     * not maintained.
+     */
+    private volatile int histogramSignificantDigits;
+
+    /**
+     * Highest trackable value in nanoseconds for histograms.
+     */
+    private volatile long histogramHighestTrackableNanos;
+
+    /**
+     * Instances created for each shard of a sharded {@link ActionChain} and
+     * not yet released.
+     */
+    private final CopyOnWriteArrayList<AbstractTimerStatsAction<S>> shards =
+            new CopyOnWriteArrayList<AbstractTimerStatsAction<S>>();
+
+    /**
+     * Create an empty statistics instance for the task based on the current
+     * histogram configuration. See {@link #getHistogramSignificantDigits()}.
+     * 
+     * @param taskName
+     *            name of task.
+     * @return new instance of the statistics.
+     */
+    protected abstract S createStatistics(String taskName);
+
+    /**
+     * Merge the statistics of a released shard into the statistics of this
+     * instance for the same task.
+     * 
+     * @param target
+     *            live statistics of this instance.
+     * @param source
+     *            statistics of the released shard.
+     */
+    protected abstract void mergeInto(S target, S source);
+
+    /**
+     * Return a new instance containing the merged statistics of a task held
+     * by more than one instance of this action.
+     * 
+     * @param taskName
+     *            name of task.
+     * @param stats
+     *            statistics to merge. Must not be modified.
+     * @return new instance of the statistics.
+     */
+    protected abstract S merge(String taskName, List<S> stats);
+
+    /**
+     * Create an empty instance of this action with the same configuration,
+     * other than the histogram configuration which is copied by
+     * {@link #createShard()}. Subclasses must return an instance of the
+     * subclass.
+     */
+    protected abstract AbstractTimerStatsAction<S> newShard();
+
+    /**
+     * Maintain a {@link LatencyHistogram} of elapsed times for each task so
+     * that percentiles are available. Applies to statistics for tasks first
+     * processed after this invocation; therefore, this should be invoked prior
+     * to processing timers or followed by {@link #reset()}.
+     * <p>
+     * Each histogram uses a fixed amount of memory determined by the
+     * precision and highest trackable value. For example, two significant
+     * digits and a highest trackable value of one hour requires approximately
+     * 36KB per histogram.
+     * 
+     * @param significantDigits
+     *            number of significant decimal digits maintained for each
+     *            elapsed time. Must be between 1 and 5.
+     * @param highestTrackableValue
+     *            highest elapsed time that can be recorded precisely.
+     * @param timeUnit
+     *            unit of the highest trackable value.
+     */
+    public void enableHistogram(int significantDigits, long highestTrackableValue,
+            TimeUnit timeUnit) {
+        // Validate the configuration prior to creating statistics.
+        new LatencyHistogram(significantDigits, highestTrackableValue, timeUnit);
+        histogramHighestTrackableNanos = timeUnit.toNanos(highestTrackableValue);
+        histogramSignificantDigits = significantDigits;
+        for (AbstractTimerStatsAction<S> shard : shards) {
+            shard.enableHistogram(significantDigits, highestTrackableValue, timeUnit);
+        }
+    }
+
+    /**
+     * Stop maintaining histograms for tasks first processed after this
+     * invocation.
+     */
+    public void disableHistogram() {
+        histogramSignificantDigits = 0;
+        for (AbstractTimerStatsAction<S> shard : shards) {
+            shard.disableHistogram();
+        }
+    }
+
+    /**
+     * @return the number of significant digits of the histograms of
+     *         statistics created now or zero if histograms are not
+     *         maintained.
+     */
+    protected int getHistogramSignificantDigits() {
+        return histogramSignificantDigits;
+    }
+
+    /**
+     * @return the highest trackable value in nanoseconds of the histograms of
+     *         statistics created now.
+     */
+    protected long getHistogramHighestTrackableNanos() {
+        return histogramHighestTrackableNanos;
+    }
+
+    /**
+     * Create an instance to accumulate statistics for the tasks processed by
+     * a single shard. The statistics of the shard are included when querying
+     * this instance.
+     * 
+     * @see net.digitaltsunami.tmeter.action.TimerAction#createShard()
+     */
+    @Override
+    protected TimerAction createShard() {
+        AbstractTimerStatsAction<S> shard = newShard();
+        shard.histogramHighestTrackableNanos = histogramHighestTrackableNanos;
+        shard.histogramSignificantDigits = histogramSignificantDigits;
+        shards.add(shard);
+        return shard;
+    }
+
+    /**
+     * Merge the statistics of the released shard into this instance and stop
+     * including the shard when querying this instance.
+     * 
+     * @see net.digitaltsunami.tmeter.action.TimerAction#releaseShard(net.digitaltsunami.tmeter.action.TimerAction)
+     */
+    @Override
+    protected void releaseShard(TimerAction shard) {
+        synchronized (this) {
+            if (!shards.remove(shard)) {
+                return;
+            }
+            @SuppressWarnings("unchecked")
+            AbstractTimerStatsAction<S> released = (AbstractTimerStatsAction<S>) shard;
+            for (Map.Entry<String, S> entry : released.statsByTask.entrySet()) {
+                S stat = entry.getValue();
+                S current = statsByTask.putIfAbsent(entry.getKey(), stat);
+                if (current != null) {
+                    mergeInto(current, stat);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the live statistics for the task of the timer, creating them if
+     * not yet present.
+     * 
+     * @param timer
+     * @return Live statistics for the task.
+     */
+    protected final S getOrCreateStatistics(Timer timer) {
+        int taskId = timer.getTaskId();
+        String taskName = timer.getTaskName();
+        if (taskId >= 0) {
+            IndexedStatistics<?>[] stats = statsById;
+            if (taskId < stats.length) {
+                @SuppressWarnings("unchecked")
+                IndexedStatistics<S> indexed = (IndexedStatistics<S>) stats[taskId];
+                if (indexed != null
+                        && (indexed.taskName == taskName || indexed.taskName.equals(taskName))) {
+                    return indexed.stats;
+                }
+            }
+        }
+        S stat = getOrCreateStatistics(taskName);
+        if (taskId >= 0) {
+            indexStatistics(taskId, taskName, stat);
+        }
+        return stat;
+    }
+
+    /**
+     * Place the statistics within statsById unless they were removed by a
+     * concurrent reset.
+     */
+    private synchronized void indexStatistics(int taskId, String taskName, S stat) {
+        if (statsByTask.get(taskName) != stat) {
+            return;
+        }
+        IndexedStatistics<?>[] stats = statsById;
+        if (taskId >= stats.length) {
+            IndexedStatistics<?>[] grown = new IndexedStatistics<?>[Math.max(taskId + 1,
+                    stats.length * 2)];
+            System.arraycopy(stats, 0, grown, 0, stats.length);
+            stats = grown;
+        } else if (stats[taskId] != null) {
+            // Id assigned to another task by a different tracker.
+            return;
+        }
+        stats[taskId] = new IndexedStatistics<S>(taskName, stat);
+        statsById = stats;
+    }
+
+    /**
+     * Return the live statistics for the task, creating them if not yet
+     * present.
+     * 
+     * @param taskName
+     * @return Live statistics for the task.
+     */
+    protected final S getOrCreateStatistics(String taskName) {
+        S stat = statsByTask.get(taskName);
+        if (stat == null) {
+            stat = createStatistics(taskName);
+            S currentStat = statsByTask.putIfAbsent(taskName, stat);
+            // Another thread created the entry first. Use the existing entry.
+            if (currentStat != null) {
+                stat = currentStat;
+            }
+        }
+        return stat;
+    }
+
+    /**
+     * Clears all accumulated statistics, including those of the shards.
+     * 
+     * @see net.digitaltsunami.tmeter.action.TimerAction#reset()
+     */
+    @Override
+    protected void reset() {
+        synchronized (this) {
+            statsByTask.clear();
+            statsById = new IndexedStatistics<?>[0];
+        }
+        for (AbstractTimerStatsAction<S> shard : shards) {
+            shard.reset();
+        }
+    }
+
+    /**
+     * Return the statistics of the task accumulated by this instance and its
+     * shards. If held by more than one instance, a new instance containing
+     * the merged statistics is returned. See {@link #merge(String, List)}.
+     * 
+     * @param taskName
+     *            name of task.
+     * @return Live statistics, merged statistics or null if that task has not
+     *         yet been processed by this action.
+     */
+    protected final S findStatistics(String taskName) {
+        S stat;
+        List<S> split = null;
+        synchronized (this) {
+            stat = statsByTask.get(taskName);
+            for (AbstractTimerStatsAction<S> shard : shards) {
+                S shardStat = shard.statsByTask.get(taskName);
+                if (shardStat == null) {
+                    continue;
+                }
+                if (stat == null) {
+                    stat = shardStat;
+                } else {
+                    if (split == null) {
+                        split = new ArrayList<S>();
+                        split.add(stat);
+                    }
+                    split.add(shardStat);
+                }
+            }
+        }
+        return split == null ? stat : merge(taskName, split);
+    }
+
+    /**
+     * Return the statistics of each task accumulated by this instance and its
+     * shards. See {@link #findStatistics(String)}.
+     * 
+     * @return Live or merged statistics of each task.
+     */
+    protected final Collection<S> findAllStatistics() {
+        Map<String, List<S>> byTask = new HashMap<String, List<S>>();
+        synchronized (this) {
+            groupByTask(byTask, statsByTask);
+            for (AbstractTimerStatsAction<S> shard : shards) {
+                groupByTask(byTask, shard.statsByTask);
+            }
+        }
+        List<S> allStats = new ArrayList<S>(byTask.size());
+        for (Map.Entry<String, List<S>> entry : byTask.entrySet()) {
+            List<S> taskStats = entry.getValue();
+            allStats.add(taskStats.size() == 1 ? taskStats.get(0) : merge(entry.getKey(),
+                    taskStats));
+        }
+        return allStats;
+    }
+
+    private void groupByTask(Map<String, List<S>> byTask, Map<String, S> stats) {
+        for (Map.Entry<String, S> entry : stats.entrySet()) {
+            List<S> taskStats = byTask.get(entry.getKey());
+            if (taskStats == null) {
+                taskStats = new ArrayList<S>(1);
+                byTask.put(entry.getKey(), taskStats);
+            }
+            taskStats.add(entry.getValue());
+        }
+    }
+
+    /**
+     * Statistics located by task id along with the task name used to confirm
+     * the task of the timer.
+     */
+    private static final class IndexedStatistics<S> {
+        private final String taskName;
+        private final S stats;
+
+        private IndexedStatistics(String taskName, S stats) {
+            this.taskName = taskName;
+            this.stats = stats;
+        }
+    }
+}
@@ -15,14 +15,26 @@
 __copyright_end__ */
 package net.digitaltsunami.tmeter.action;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import net.digitaltsunami.tmeter.LatencyHistogram;
 import net.digitaltsunami.tmeter.Timer;
+import net.digitaltsunami.tmeter.TimerBasicStatistics;
 import net.digitaltsunami.tmeter.TimerShell;
 
 /**
@@ -61,29 +73,92 @@ import net.digitaltsunami.tmeter.TimerShell;
  * block shutdown of the virtual machine until instructed to shutdown. Use
  * {@link #shutdown()} or {@link #clearActions()} to manually terminate chain
  * processing. At this point, the thread will attempt to clear its queue prior
- * to terminating. If the queue contents should be discarded and the thread
- * terminated immediately, invoke {@link #shutdownNow()} with a value of true to
- * force immediate termination.
+ * to terminating. Once the queue has been cleared, each action is notified
+ * using {@link TimerAction#shutdown()}. If the queue contents should be
+ * discarded and the thread terminated immediately, invoke
+ * {@link #shutdownNow()} with a value of true to force immediate termination.
  * <li> {@link ActionChainShutdownType#TERMINATE_IMMEDIATELY}: The thread will
  * terminate immediately and will not complete processing. This includes actions
  * in mid processing.
  * <p>
+ * <strong>Batch Processing</strong>
+ * <p>
+ * When multiple timers are queued, the processing thread removes up to
+ * {@link #getBatchSize()} timers at once and provides them to each action as a
+ * batch. See {@link TimerAction#processTimers(List)}.
+ * <p>
+ * <strong>Bounded Queues</strong>
+ * <p>
+ * By default, the queue of timers awaiting processing is unbounded. If timers
+ * are completed faster than the actions can process them, the queue will grow
+ * without limit. An action chain created with a queue capacity instead uses a
+ * pre-allocated ring buffer of that size and an
+ * {@link ActionChainOverflowPolicy} to determine what happens when the buffer
+ * is full. Timers discarded due to overflow are counted and available using
+ * {@link #getDroppedCount()}. With {@link ActionChainOverflowPolicy#BLOCK}, a
+ * submitting thread that is interrupted while waiting for space stops waiting;
+ * its timer is discarded and counted as dropped.
+ * <p>
+ * An unchecked exception thrown by an action is logged and the timers are
+ * still provided to the remaining actions. Processing continues with the next
+ * batch so that a failing action can not stop the queue from being consumed.
+ * <p>
+ * <strong>Sharded Processing</strong>
+ * <p>
+ * A single processing thread limits post processing to one core. An action
+ * chain created with a shard count greater than one partitions submitted timers
+ * by task name across that many queues, each with its own processing thread.
+ * All timers for a given task are processed by the same shard and in the order
+ * submitted.
+ * <p>
+ * Each shard uses its own instance of each action, obtained using
+ * {@link TimerAction#createShard()}. Actions that do not provide shard
+ * instances are shared by all shards and must be thread safe. Stateful actions,
+ * such as {@link TimerStatsAction}, combine the results of their shards when
+ * queried.
+ * <p>
+ * <strong>Statistics</strong>
+ * <p>
+ * The action chain maintains statistics of its own processing: the number of
+ * timers queued and processed and, once enabled using
+ * {@link #setStatisticsEnabled(boolean)}, the lag from each timer being
+ * stopped until it is processed and the time spent by each action processing
+ * each batch. These are available using {@link #getStatistics()}. They are
+ * maintained by the processing threads and are only combined when requested,
+ * so the timed threads are not affected. The lag and processing times are off
+ * by default as they require reading the clock for each action and recording
+ * the lag of each timer.
+ * <p>
  * 
  * @author dhagberg
  * 
  */
 public class ActionChain {
 
+    private static final Logger LOG = Logger.getLogger(ActionChain.class.getName());
+
     /**
-     * Queued timer instances to be processed by TimerAction list.
+     * Queues of timer instances and elapsed samples to be processed by
+     * TimerAction list, one per shard.
      */
-    private LinkedBlockingQueue<Timer> actionQueue;
+    private volatile Shard[] shards;
 
     /**
-     * Executor to process actionQueue
+     * Executor to process the shard queues.
      */
     private ExecutorService queueProcessor;
 
+    /**
+     * Number of queues and processing threads.
+     */
+    private final int shardCount;
+
+    /**
+     * Incremented whenever the actions in the chain change so that shards may
+     * refresh their action instances.
+     */
+    private volatile int actionsVersion;
+
     /**
      * Root action in potential chain of actions.
      */
@@ -91,6 +166,57 @@ public class ActionChain {
 
     private final ActionChainShutdownType shutdownType;
 
+    /**
+     * Default number of submissions per accepted submission when using
+     * {@link ActionChainOverflowPolicy#SAMPLE}.
+     */
+    public static final int DEFAULT_OVERFLOW_SAMPLE_RATE = 10;
+
+    /**
+     * Maximum number of queued timers. Zero for an unbounded queue.
+     */
+    private final int queueCapacity;
+
+    private final ActionChainOverflowPolicy overflowPolicy;
+
+    private volatile int overflowSampleRate = DEFAULT_OVERFLOW_SAMPLE_RATE;
+
+    /**
+     * Default maximum number of queued timers processed as a single batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+
+    /**
+     * Set once shutdown has been requested. Timers submitted after this point
+     * will not be queued.
+     */
+    private volatile boolean shutdownRequested;
+
+    /**
+     * Indicates whether or not the lag and processing time of each action are
+     * recorded.
+     */
+    private volatile boolean statisticsEnabled;
+
+    /**
+     * Number of significant digits of the lag and processing time histograms.
+     */
+    private static final int STATISTICS_SIGNIFICANT_DIGITS = 2;
+
+    /**
+     * Highest lag and processing time, in hours, recorded precisely.
+     */
+    private static final long STATISTICS_HIGHEST_HOURS = 1;
+
+    /**
+     * Processing time statistics of each action, keyed by the action in the
+     * chain and shared by all shards.
+     */
+    private final ConcurrentHashMap<TimerAction, TimerBasicStatistics> actionStatistics =
+            new ConcurrentHashMap<TimerAction, TimerBasicStatistics>();
+
     /**
      * Create an instance of an action chain with the default shutdown behavior,
      * which to attempt to clear all currently queued timers prior to shutting
@@ -109,7 +235,63 @@ public class ActionChain {
      *            chain.
      */
     public ActionChain(ActionChainShutdownType shutdownType) {
+        this(shutdownType, 0, ActionChainOverflowPolicy.BLOCK);
+    }
+
+    /**
+     * Create an instance of an action chain with a bounded queue.
+     * 
+     * @param shutdownType
+     *            type of processing to complete when shutting down the action
+     *            chain.
+     * @param queueCapacity
+     *            maximum number of timers awaiting processing. Rounded up to
+     *            the next power of two. Zero for an unbounded queue.
+     * @param overflowPolicy
+     *            action to take when a timer is submitted and the queue is
+     *            full.
+     * @throws IllegalArgumentException
+     *             if the capacity is negative.
+     */
+    public ActionChain(ActionChainShutdownType shutdownType, int queueCapacity,
+            ActionChainOverflowPolicy overflowPolicy) {
+        this(shutdownType, queueCapacity, overflowPolicy, 1);
+    }
+
+    /**
+     * Create an instance of an action chain that processes timers using
+     * multiple threads. Timers are partitioned by task name across the
+     * provided number of shards, each with its own queue and processing thread.
+     * 
+     * @param shutdownType
+     *            type of processing to complete when shutting down the action
+     *            chain.
+     * @param queueCapacity
+     *            maximum number of timers awaiting processing by each shard.
+     *            Rounded up to the next power of two. Zero for unbounded
+     *            queues.
+     * @param overflowPolicy
+     *            action to take when a timer is submitted and the queue is
+     *            full.
+     * @param shardCount
+     *            number of queues and processing threads.
+     * @throws IllegalArgumentException
+     *             if the capacity is negative or the shard count is less than
+     *             one.
+     */
+    public ActionChain(ActionChainShutdownType shutdownType, int queueCapacity,
+            ActionChainOverflowPolicy overflowPolicy, int shardCount) {
+        if (queueCapacity < 0) {
+            throw new IllegalArgumentException("Queue capacity must not be negative: "
+                    + queueCapacity);
+        }
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be at least 1: " + shardCount);
+        }
         this.shutdownType = shutdownType;
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = overflowPolicy;
+        this.shardCount = shardCount;
     }
 
     /**
@@ -135,18 +317,115 @@ public class ActionChain {
      *            chain.
      */
     public ActionChain(TimerAction action, ActionChainShutdownType shutdownType) {
-        this.shutdownType = shutdownType;
-        this.rootAction = action;
+        this(action, shutdownType, 0, ActionChainOverflowPolicy.BLOCK);
+    }
+
+    /**
+     * Create an instance of an action chain with a bounded queue.
+     * 
+     * @param action
+     *            initial action in the chain.
+     * @param shutdownType
+     *            type of processing to complete when shutting down the action
+     *            chain.
+     * @param queueCapacity
+     *            maximum number of timers awaiting processing. Rounded up to
+     *            the next power of two. Zero for an unbounded queue.
+     * @param overflowPolicy
+     *            action to take when a timer is submitted and the queue is
+     *            full.
+     * @throws IllegalArgumentException
+     *             if the capacity is negative.
+     */
+    public ActionChain(TimerAction action, ActionChainShutdownType shutdownType,
+            int queueCapacity, ActionChainOverflowPolicy overflowPolicy) {
+        this(action, shutdownType, queueCapacity, overflowPolicy, 1);
+    }
+
+    /**
+     * Create an instance of an action chain that processes timers using
+     * multiple threads.
+     * 
+     * @param action
+     *            initial action in the chain.
+     * @param shutdownType
+     *            type of processing to complete when shutting down the action
+     *            chain.
+     * @param queueCapacity
+     *            maximum number of timers awaiting processing by each shard.
+     *            Rounded up to the next power of two. Zero for unbounded
+     *            queues.
+     * @param overflowPolicy
+     *            action to take when a timer is submitted and the queue is
+     *            full.
+     * @param shardCount
+     *            number of queues and processing threads.
+     * @see #ActionChain(ActionChainShutdownType, int, ActionChainOverflowPolicy,
+     *      int)
+     */
+    public ActionChain(TimerAction action, ActionChainShutdownType shutdownType,
+            int queueCapacity, ActionChainOverflowPolicy overflowPolicy, int shardCount) {
+        this(shutdownType, queueCapacity, overflowPolicy, shardCount);
         createQueueProcessor();
+        this.rootAction = action;
     }
 
     /**
      * Submit a completed timer for post processing. If the timer has not yet
      * completed, it will not be submitted.
+     * <p>
+     * The timer is retained while queued and released once all actions have
+     * processed it. See {@link Timer#retain()}. If the queue is bounded and
+     * the timer is discarded due to overflow, it is released immediately.
      */
     public void submitCompletedTimer(Timer completedTimer) {
-        if (hasActionList() && completedTimer.isStopped()) {
-            actionQueue.add(completedTimer);
+        if (hasActionList() && completedTimer.isStopped() && !shutdownRequested) {
+            Shard[] currentShards = shards;
+            if (completedTimer instanceof TimerShell) {
+                // Shutdown request applies to every shard and, as with
+                // shutdown(), is queued regardless of the overflow policy.
+                try {
+                    for (Shard shard : currentShards) {
+                        if (!shard.terminated) {
+                            shard.queue.put(completedTimer);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return;
+            }
+            Shard shard = currentShards.length == 1 ? currentShards[0] : shardFor(
+                    currentShards, completedTimer.getTaskName());
+            if (shard.terminated) {
+                // No longer consumed; queuing would fill a bounded queue.
+                return;
+            }
+            completedTimer.retain();
+            if (!shard.queue.offer(completedTimer)) {
+                completedTimer.release();
+            }
+        }
+    }
+
+    /**
+     * Submit an elapsed time recorded without a {@link Timer} for post
+     * processing. Each action in the chain will be provided the elapsed time
+     * via {@link TimerAction#processElapsed(String, long)}.
+     * 
+     * @param taskName
+     *            name of the task that was timed.
+     * @param elapsedNanos
+     *            elapsed time in nanoseconds.
+     */
+    public void submitElapsed(String taskName, long elapsedNanos) {
+        if (hasActionList() && !shutdownRequested) {
+            Shard[] currentShards = shards;
+            Shard shard = currentShards.length == 1 ? currentShards[0] : shardFor(
+                    currentShards, taskName);
+            if (!shard.terminated) {
+                shard.queue.offer(taskName, elapsedNanos);
+            }
         }
     }
 
@@ -165,10 +444,13 @@ public class ActionChain {
 
     /**
      * Shutdown processing of the action chain, discarding all timers currently
-     * on the queue.
+     * on the queue. Timers submitted after this call are not queued. Each
+     * processing thread releases the timers remaining on its queue as it
+     * terminates. See {@link Timer#release()}.
      */
     public void shutdownNow() {
         if (queueProcessor != null) {
+            shutdownRequested = true;
 	        queueProcessor.shutdownNow();
         }
     }
@@ -182,10 +464,183 @@ public class ActionChain {
      * See the class comments for more information regarding shutdown
      * processing. and the virtual machine is shutdown.
      */
-    public void shutdown() {
+    public synchronized void shutdown() {
+        if (!hasActionList() || shutdownRequested) {
+            return;
+        }
+        shutdownRequested = true;
+        ExecutorService processor = queueProcessor;
+        if (processor == null || processor.isShutdown()) {
+            return;
+        }
         Timer t = new TimerShell("EndProcesing");
         t.stop();
-        submitCompletedTimer(t);
+        // The shutdown request is queued regardless of the overflow policy.
+        try {
+            for (Shard shard : shards) {
+                if (!shard.terminated) {
+                    shard.queue.put(t);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Return the number of queues and processing threads used by this action
+     * chain.
+     */
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * Return the maximum number of queued timers processed as a single batch.
+     * 
+     * @see TimerAction#processTimers(List)
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set the maximum number of queued timers processed as a single batch.
+     * When timers are available, the processing thread removes up to this
+     * many from the queue at once and provides them to each action using
+     * {@link TimerAction#processTimers(List)}. A batch size of 1 provides each
+     * timer individually.
+     * 
+     * @param batchSize
+     *            maximum number of timers per batch. Must be at least 1.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Return the number of timers discarded due to queue overflow since the
+     * queue was created. Always zero for an unbounded queue.
+     * 
+     * @return number of discarded timers and elapsed samples.
+     */
+    public long getDroppedCount() {
+        Shard[] currentShards = shards;
+        long dropped = 0;
+        if (currentShards != null) {
+            for (Shard shard : currentShards) {
+                dropped += shard.queue.getDroppedCount();
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * Return a snapshot of the statistics of the processing performed by this
+     * action chain, summed across all shards.
+     * 
+     * @return statistics of the processing performed since the action chain
+     *         was created.
+     */
+    public ActionChainStatistics getStatistics() {
+        Shard[] currentShards = shards;
+        LatencyHistogram lag = newStatisticsHistogram();
+        int queueDepth = 0;
+        long dequeued = 0;
+        long batches = 0;
+        long maxLag = 0;
+        long now = System.nanoTime();
+        if (currentShards != null) {
+            for (Shard shard : currentShards) {
+                queueDepth += shard.queue.size();
+                dequeued += shard.dequeuedCount;
+                batches += shard.batchCount;
+                synchronized (shard) {
+                    maxLag = Math.max(maxLag, shard.maxLagNanos);
+                    lag.add(shard.lagHistogram);
+                }
+            }
+        }
+        Map<TimerAction, TimerBasicStatistics> actionStats =
+                new LinkedHashMap<TimerAction, TimerBasicStatistics>();
+        for (TimerAction action = rootAction; action != null; action = action.nextAction) {
+            TimerBasicStatistics stats = actionStatistics.get(action);
+            if (stats != null) {
+                actionStats.put(action, stats.getSnapshot());
+            }
+        }
+        return new ActionChainStatistics(now, queueDepth, dequeued, getDroppedCount(),
+                batches, maxLag, lag, actionStats);
+    }
+
+    /**
+     * Returns true if the lag of each timer and the processing time of each
+     * action are recorded. See {@link #setStatisticsEnabled(boolean)}.
+     */
+    public boolean isStatisticsEnabled() {
+        return statisticsEnabled;
+    }
+
+    /**
+     * Record the lag of each timer and the processing time of each action for
+     * inclusion in {@link #getStatistics()}. Counts of the timers queued and
+     * processed are always maintained.
+     * <p>
+     * Default is false.
+     * 
+     * @param statisticsEnabled
+     *            true to record the lag and processing times, false otherwise.
+     */
+    public void setStatisticsEnabled(boolean statisticsEnabled) {
+        this.statisticsEnabled = statisticsEnabled;
+    }
+
+    /**
+     * Return the maximum number of timers that may be queued for each shard,
+     * or zero if the queue is unbounded.
+     */
+    public int getQueueCapacity() {
+        Shard[] currentShards = shards;
+        if (currentShards != null && currentShards[0].queue instanceof RingBufferActionQueue) {
+            return ((RingBufferActionQueue) currentShards[0].queue).getCapacity();
+        }
+        return queueCapacity;
+    }
+
+    /**
+     * Return the policy applied when a bounded queue is full.
+     */
+    public ActionChainOverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Return the number of submissions per accepted submission once a bounded
+     * queue using {@link ActionChainOverflowPolicy#SAMPLE} is half full.
+     */
+    public int getOverflowSampleRate() {
+        return overflowSampleRate;
+    }
+
+    /**
+     * Set the number of submissions per accepted submission once a bounded
+     * queue using {@link ActionChainOverflowPolicy#SAMPLE} is half full. The
+     * rate is applied when the queue is created; therefore, this should be set
+     * prior to adding the first action.
+     * 
+     * @param overflowSampleRate
+     *            accept one of every overflowSampleRate submissions. Must be at
+     *            least 1.
+     */
+    public void setOverflowSampleRate(int overflowSampleRate) {
+        if (overflowSampleRate < 1) {
+            throw new IllegalArgumentException("Sample rate must be at least 1: "
+                    + overflowSampleRate);
+        }
+        this.overflowSampleRate = overflowSampleRate;
     }
 
     /**
@@ -193,9 +648,11 @@ public class ActionChain {
      * prior to clearing the actions. As the actions will be cleared, timers
      * currently in the queue will not be processed.
      */
-    public void clearActions() {
+    public synchronized void clearActions() {
         shutdownNow();
         rootAction = null;
+        actionsVersion++;
+        actionStatistics.clear();
     }
 
     /**
@@ -209,12 +666,18 @@ public class ActionChain {
      * execution as the setup should be completed prior to starting tasks.
      */
     public synchronized TimerAction addAction(TimerAction action) {
-        if (rootAction == null) {
-            rootAction = action;
-            createQueueProcessor();
-            return action;
+        try {
+            if (rootAction == null) {
+                // Create the queues prior to publishing the root so that
+                // submissions always find a queue.
+                createQueueProcessor();
+                rootAction = action;
+                return action;
+            }
+            return rootAction.addAction(action);
+        } finally {
+            actionsVersion++;
         }
-        return rootAction.addAction(action);
     }
 
     /**
@@ -227,13 +690,25 @@ public class ActionChain {
     }
 
     /**
-     * Create the queue and queue processor thread. The thread will continue
-     * until an instance of {@link TimerShell} is found on the queue at which
+     * Create the queues and queue processor threads. Each thread will continue
+     * until an instance of {@link TimerShell} is found on its queue at which
      * point it will terminate.
      */
     private void createQueueProcessor() {
-        actionQueue = new LinkedBlockingQueue<Timer>();
-        queueProcessor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        Shard[] newShards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            ActionQueue queue;
+            if (queueCapacity > 0) {
+                queue = new RingBufferActionQueue(queueCapacity, overflowPolicy,
+                        overflowSampleRate);
+            } else {
+                queue = new LinkedActionQueue();
+            }
+            newShards[i] = new Shard(queue);
+        }
+        shutdownRequested = false;
+        final ExecutorService processor = Executors.newFixedThreadPool(shardCount,
+                new ThreadFactory() {
             @Override
             public Thread newThread(Runnable target) {
                 final Thread thread = new Thread(target);
@@ -248,7 +723,6 @@ public class ActionChain {
 
                         @Override
                         public void run() {
-                            // System.out.printf("In shutdown hook.  %d remaining in queue\n", actionQueue.size());
                             ActionChain.this.shutdown();
                             try { thread.join(); } catch (InterruptedException ignore) { }
                         }
@@ -262,33 +736,59 @@ public class ActionChain {
                 return thread;
             }
         });
-        queueProcessor.execute(new Runnable() {
+        AtomicInteger activeShards = new AtomicInteger(shardCount);
+        for (Shard shard : newShards) {
+            shard.start(processor, activeShards);
+        }
+        queueProcessor = processor;
+        shards = newShards;
+    }
 
-            @Override
-            public void run() {
-                while (true) {
-                    Timer timer;
-                    try {
-                        timer = actionQueue.take();
-                        if (timer instanceof TimerShell) {
-                            // Shut down queue processor if TimerShell is placed
-                            // on queue.
-                            queueProcessor.shutdownNow();
-                            return;
-                        }
-                    } catch (InterruptedException e) {
-                        Thread.interrupted();
-                        return;
-                    }
-                    // Place the instance in another variable to prevent it
-                    // being cleared in between checking and using.
-                    TimerAction currentRoot = rootAction;
-                    if (currentRoot != null) {
-                        currentRoot.timerComplete(timer);
-                    }
-                }
+    /**
+     * Return the shard responsible for processing the provided task. Tasks are
+     * assigned by the hash of the task name rather than by task id, as ids are
+     * assigned separately by each tracker submitting timers to the chain. The
+     * hash is spread as task names often differ only in their last
+     * characters.
+     */
+    private static Shard shardFor(Shard[] currentShards, String taskName) {
+        if (taskName == null) {
+            return currentShards[0];
+        }
+        int hash = taskName.hashCode();
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        return currentShards[(hash & 0x7fffffff) % currentShards.length];
+    }
+
+    private static LatencyHistogram newStatisticsHistogram() {
+        return new LatencyHistogram(STATISTICS_SIGNIFICANT_DIGITS, STATISTICS_HIGHEST_HOURS,
+                TimeUnit.HOURS);
+    }
+
+    /**
+     * Return the processing time statistics of the action in the chain,
+     * creating them if necessary.
+     */
+    private TimerBasicStatistics statisticsFor(TimerAction action) {
+        TimerBasicStatistics stats = actionStatistics.get(action);
+        if (stats == null) {
+            stats = new TimerBasicStatistics(action.getClass().getSimpleName(),
+                    STATISTICS_SIGNIFICANT_DIGITS, STATISTICS_HIGHEST_HOURS, TimeUnit.HOURS);
+            TimerBasicStatistics current = actionStatistics.putIfAbsent(action, stats);
+            if (current != null) {
+                stats = current;
             }
-        });
+        }
+        return stats;
+    }
+
+    private static ActionQueue.Entry[] createEntries(int size) {
+        ActionQueue.Entry[] entries = new ActionQueue.Entry[size];
+        for (int i = 0; i < size; i++) {
+            entries[i] = new ActionQueue.Entry();
+        }
+        return entries;
     }
 
     /**
@@ -306,4 +806,285 @@ public class ActionChain {
         return actions;
     }
 
+    /**
+     * Queue and processing for a subset of the tasks.
+     */
+    private final class Shard implements Runnable {
+        private final ActionQueue queue;
+
+        /**
+         * Shard instances of each action, keyed by the action in the chain.
+         * With a single shard, each action is its own instance.
+         */
+        private final Map<TimerAction, TimerAction> shardActions =
+                new IdentityHashMap<TimerAction, TimerAction>();
+        private TimerAction[] actions = new TimerAction[0];
+        private TimerBasicStatistics[] actionStats = new TimerBasicStatistics[0];
+        private int version = -1;
+        private int linkVersion = -1;
+
+        /*
+         * Processing counts. Written only by the processing thread.
+         */
+        private volatile long dequeuedCount;
+        private volatile long batchCount;
+
+        /*
+         * Lag statistics. Written by the processing thread once per batch if
+         * statistics are enabled. Guarded by this.
+         */
+        private long maxLagNanos;
+        private final LatencyHistogram lagHistogram = newStatisticsHistogram();
+
+        private ExecutorService processor;
+        private AtomicInteger activeShards;
+        private volatile boolean terminated;
+
+        private Shard(ActionQueue queue) {
+            this.queue = queue;
+        }
+
+        private void start(ExecutorService processor, AtomicInteger activeShards) {
+            this.processor = processor;
+            this.activeShards = activeShards;
+            processor.execute(this);
+        }
+
+        @Override
+        public void run() {
+            boolean shutdownReceived = false;
+            try {
+                shutdownReceived = processQueue();
+            } finally {
+                terminated = true;
+                releaseShardActions();
+                discardQueued();
+            }
+            if (shutdownReceived && activeShards.decrementAndGet() == 0) {
+                // Shut down queue processor once a TimerShell has been
+                // processed by each shard.
+                for (TimerAction action = rootAction; action != null; action = action.nextAction) {
+                    action.shutdown();
+                }
+                processor.shutdownNow();
+            }
+        }
+
+        /**
+         * Process the queue until a {@link TimerShell} is found or the thread
+         * is interrupted.
+         * 
+         * @return true if a {@link TimerShell} was found.
+         */
+        private boolean processQueue() {
+            ActionQueue.Entry[] entries = createEntries(batchSize);
+            List<Timer> batch = new ArrayList<Timer>(entries.length);
+            List<Timer> batchView = Collections.unmodifiableList(batch);
+            while (true) {
+                int count;
+                try {
+                    int size = batchSize;
+                    if (entries.length != size) {
+                        entries = createEntries(size);
+                    }
+                    queue.take(entries[0]);
+                    count = 1 + queue.poll(entries, 1, size - 1);
+                } catch (InterruptedException e) {
+                    Thread.interrupted();
+                    return false;
+                }
+                if (processEntries(entries, count, batch, batchView)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Remove and release the timers remaining on the queue once this shard
+         * will no longer process timers. Only invoked by the processing thread
+         * as it is the only consumer of the queue.
+         */
+        private void discardQueued() {
+            ActionQueue.Entry[] entries = createEntries(batchSize);
+            int count;
+            while ((count = queue.poll(entries, 0, entries.length)) > 0) {
+                for (int i = 0; i < count; i++) {
+                    Timer timer = entries[i].timer;
+                    if (timer != null) {
+                        timer.release();
+                    }
+                    entries[i].clear();
+                }
+            }
+        }
+
+        /**
+         * Release the shard instances of each action once this shard will no
+         * longer process timers. See {@link TimerAction#releaseShard(TimerAction)}.
+         */
+        private void releaseShardActions() {
+            for (Map.Entry<TimerAction, TimerAction> entry : shardActions.entrySet()) {
+                if (entry.getValue() != entry.getKey()) {
+                    entry.getKey().releaseShard(entry.getValue());
+                }
+            }
+            shardActions.clear();
+        }
+
+        /**
+         * Process the entries drained from the queue. Consecutive timers are
+         * provided to the actions as a single batch. Processing stops at the
+         * first {@link TimerShell}. All timers are released once processing
+         * has completed.
+         * 
+         * @return true if a {@link TimerShell} was found and the shard should
+         *         terminate.
+         */
+        private boolean processEntries(ActionQueue.Entry[] entries, int count,
+                List<Timer> batch, List<Timer> batchView) {
+            recordDequeued(entries, count);
+            // Place the instance in another variable to prevent it
+            // being cleared in between checking and using.
+            TimerAction[] currentActions = resolveActions(rootAction);
+            boolean terminate = false;
+            try {
+                for (int i = 0; i < count && !terminate; i++) {
+                    ActionQueue.Entry entry = entries[i];
+                    Timer timer = entry.timer;
+                    if (timer == null) {
+                        dispatchBatch(currentActions, batch, batchView);
+                        for (TimerAction action : currentActions) {
+                            try {
+                                action.processElapsed(entry.taskName, entry.elapsedNanos);
+                            } catch (RuntimeException e) {
+                                logFailure(action, e);
+                            }
+                        }
+                    } else if (timer instanceof TimerShell) {
+                        terminate = true;
+                    } else {
+                        batch.add(timer);
+                    }
+                }
+                dispatchBatch(currentActions, batch, batchView);
+            } finally {
+                batch.clear();
+                for (int i = 0; i < count; i++) {
+                    Timer timer = entries[i].timer;
+                    if (timer != null) {
+                        timer.release();
+                    }
+                    entries[i].clear();
+                }
+            }
+            return terminate;
+        }
+
+        /**
+         * Count the entries removed from the queue and, if statistics are
+         * enabled, record the lag of each timer using a single reading of the
+         * clock.
+         */
+        private void recordDequeued(ActionQueue.Entry[] entries, int count) {
+            int dequeued = 0;
+            for (int i = 0; i < count; i++) {
+                if (!(entries[i].timer instanceof TimerShell)) {
+                    dequeued++;
+                }
+            }
+            dequeuedCount += dequeued;
+            batchCount++;
+            if (!statisticsEnabled) {
+                return;
+            }
+            long now = System.nanoTime();
+            synchronized (this) {
+                for (int i = 0; i < count; i++) {
+                    Timer timer = entries[i].timer;
+                    if (timer != null && !(timer instanceof TimerShell)) {
+                        long lag = Math.max(0L, now - timer.getStopTimeNanos());
+                        lagHistogram.record(lag);
+                        if (lag > maxLagNanos) {
+                            maxLagNanos = lag;
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Provide the batch to each action, recording the time spent by each
+         * if statistics are enabled.
+         */
+        private void dispatchBatch(TimerAction[] currentActions, List<Timer> batch,
+                List<Timer> batchView) {
+            if (batch.isEmpty()) {
+                return;
+            }
+            if (statisticsEnabled) {
+                TimerBasicStatistics[] currentStats = actionStats;
+                long start = System.nanoTime();
+                for (int i = 0; i < currentActions.length; i++) {
+                    processTimers(currentActions[i], batchView);
+                    long stop = System.nanoTime();
+                    currentStats[i].addElapsed(stop - start);
+                    start = stop;
+                }
+            } else {
+                for (TimerAction action : currentActions) {
+                    processTimers(action, batchView);
+                }
+            }
+            batch.clear();
+        }
+
+        /**
+         * Provide the batch to the action. An unchecked exception is logged
+         * rather than terminating this shard.
+         */
+        private void processTimers(TimerAction action, List<Timer> batchView) {
+            try {
+                action.processTimers(batchView);
+            } catch (RuntimeException e) {
+                logFailure(action, e);
+            }
+        }
+
+        private void logFailure(TimerAction action, RuntimeException e) {
+            LOG.log(Level.WARNING, "Timer action " + action.getClass().getName()
+                    + " failed; continuing with the remaining actions.", e);
+        }
+
+        /**
+         * Return this shard's instance of each action in the chain, creating
+         * instances for actions added since the last invocation. Actions
+         * provide shard instances only when there is more than one shard.
+         */
+        private TimerAction[] resolveActions(TimerAction currentRoot) {
+            int currentVersion = actionsVersion;
+            // Read prior to walking the chain so that later links are found.
+            int currentLinkVersion = currentRoot == null ? 0 : currentRoot.getLinkVersion();
+            if (currentVersion != version || currentLinkVersion != linkVersion) {
+                List<TimerAction> resolved = new ArrayList<TimerAction>();
+                List<TimerBasicStatistics> stats = new ArrayList<TimerBasicStatistics>();
+                for (TimerAction action = currentRoot; action != null; action = action.nextAction) {
+                    TimerAction instance = shardActions.get(action);
+                    if (instance == null) {
+                        instance = shardCount > 1 ? action.createShard() : action;
+                        if (instance == null) {
+                            instance = action;
+                        }
+                        shardActions.put(action, instance);
+                    }
+                    resolved.add(instance);
+                    stats.add(statisticsFor(action));
+                }
+                actions = resolved.toArray(new TimerAction[resolved.size()]);
+                actionStats = stats.toArray(new TimerBasicStatistics[stats.size()]);
+                version = currentVersion;
+                linkVersion = currentLinkVersion;
+            }
+            return actions;
+        }
+    }
 }
@@ -0,0 +1,45 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter.action;
+
+/**
+ * Behavior of a bounded {@link ActionChain} queue when a timer is submitted and
+ * the queue is full.
+ * <p>
+ * Overflow policies only apply to action chains created with a queue capacity.
+ * The default, unbounded, action chain never rejects a submission.
+ * <li> {@link #BLOCK}: The submitting thread waits until space is available.
+ * No timers are lost, but the timed thread may be delayed. If the submitting
+ * thread is interrupted while waiting, the timer is discarded.
+ * <li> {@link #DROP_NEWEST}: The submitted timer is discarded.
+ * <li> {@link #DROP_OLDEST}: The oldest queued timer is discarded to make room
+ * for the submitted timer.
+ * <li> {@link #SAMPLE}: Once the queue is half full, only one of every
+ * {@link ActionChain#getOverflowSampleRate()} submissions is accepted. If the
+ * queue is full, the submitted timer is discarded.
+ * <p>
+ * Discarded timers are counted and available using
+ * {@link ActionChain#getDroppedCount()}.
+ * 
+ * @author dhagberg
+ * 
+ */
+public enum ActionChainOverflowPolicy {
+    BLOCK,
+    DROP_NEWEST,
+    DROP_OLDEST,
+    SAMPLE
+}
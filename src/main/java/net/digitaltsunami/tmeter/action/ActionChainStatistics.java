@@ -0,0 +1,254 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter.action;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.digitaltsunami.tmeter.LatencyHistogram;
+import net.digitaltsunami.tmeter.TimerBasicStatistics;
+
+/**
+ * Snapshot of the processing performed by an {@link ActionChain}, obtained
+ * using {@link ActionChain#getStatistics()}. Values are summed across all
+ * shards.
+ * <p>
+ * Counts are totals since the action chain was created. Rates are determined
+ * by comparing two snapshots, see {@link #getSubmitRate(ActionChainStatistics)}.
+ * <p>
+ * The lag of a timer is the time from the timer being stopped until its batch
+ * is removed from the queue for processing. Elapsed times submitted without a
+ * timer have no stop time and are not included in the lag.
+ * <p>
+ * The processing time of each action is recorded once per batch of timers,
+ * so the count of the statistics of an action is the number of batches it
+ * processed. The task name of the statistics is the simple class name of the
+ * action.
+ * <p>
+ * The lag and processing times are recorded only while enabled using
+ * {@link ActionChain#setStatisticsEnabled(boolean)}.
+ * 
+ * @author dhagberg
+ * 
+ */
+public class ActionChainStatistics {
+
+    private final long snapshotNanos;
+    private final int queueDepth;
+    private final long dequeuedCount;
+    private final long droppedCount;
+    private final long batchCount;
+    private final long maxLagNanos;
+    private final LatencyHistogram lagHistogram;
+    private final Map<TimerAction, TimerBasicStatistics> actionStatistics;
+
+    /**
+     * Create a snapshot.
+     * 
+     * @param snapshotNanos
+     *            time of the snapshot in nanoseconds.
+     * @param queueDepth
+     *            number of timers and elapsed times awaiting processing.
+     * @param dequeuedCount
+     *            number of timers and elapsed times removed from the queues.
+     * @param droppedCount
+     *            number of timers and elapsed times discarded due to overflow.
+     * @param batchCount
+     *            number of batches processed.
+     * @param maxLagNanos
+     *            longest lag of any timer.
+     * @param lagHistogram
+     *            histogram of the lag of the timers processed.
+     * @param actionStatistics
+     *            processing time statistics of each action in the chain.
+     */
+    ActionChainStatistics(long snapshotNanos, int queueDepth, long dequeuedCount,
+            long droppedCount, long batchCount, long maxLagNanos, LatencyHistogram lagHistogram,
+            Map<TimerAction, TimerBasicStatistics> actionStatistics) {
+        this.snapshotNanos = snapshotNanos;
+        this.queueDepth = queueDepth;
+        this.dequeuedCount = dequeuedCount;
+        this.droppedCount = droppedCount;
+        this.batchCount = batchCount;
+        this.maxLagNanos = maxLagNanos;
+        this.lagHistogram = lagHistogram;
+        this.actionStatistics = Collections.unmodifiableMap(actionStatistics);
+    }
+
+    /**
+     * @return the time of the snapshot in nanoseconds. This time does not
+     *         represent wall clock time and is used only to determine rates.
+     */
+    public long getSnapshotNanos() {
+        return snapshotNanos;
+    }
+
+    /**
+     * @return the number of timers and elapsed times awaiting processing.
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * Return the number of timers and elapsed times submitted to the action
+     * chain while it was processing: those removed for processing, those
+     * awaiting processing and those discarded due to overflow. Determined
+     * from the other counts so that submitting does not update a shared
+     * count.
+     * 
+     * @return the number of timers and elapsed times submitted.
+     */
+    public long getSubmittedCount() {
+        return dequeuedCount + queueDepth + droppedCount;
+    }
+
+    /**
+     * @return the number of timers and elapsed times removed from the queues
+     *         for processing.
+     */
+    public long getDequeuedCount() {
+        return dequeuedCount;
+    }
+
+    /**
+     * @return the number of timers and elapsed times discarded due to queue
+     *         overflow.
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * @return the number of batches removed from the queues.
+     */
+    public long getBatchCount() {
+        return batchCount;
+    }
+
+    /**
+     * Return the number of timers and elapsed times submitted per second,
+     * including those discarded due to overflow, between the provided,
+     * earlier, snapshot and this snapshot. See {@link #getSubmittedCount()}.
+     * 
+     * @param earlier
+     *            snapshot taken prior to this snapshot.
+     * @return submitted per second or zero if no time has elapsed.
+     */
+    public double getSubmitRate(ActionChainStatistics earlier) {
+        return rate(getSubmittedCount() - earlier.getSubmittedCount(), earlier);
+    }
+
+    /**
+     * Return the number of timers and elapsed times processed per second
+     * between the provided, earlier, snapshot and this snapshot.
+     * 
+     * @param earlier
+     *            snapshot taken prior to this snapshot.
+     * @return processed per second or zero if no time has elapsed.
+     */
+    public double getDequeueRate(ActionChainStatistics earlier) {
+        return rate(dequeuedCount - earlier.dequeuedCount, earlier);
+    }
+
+    /**
+     * @return the longest lag of any timer in nanoseconds or zero if no timers
+     *         have been processed.
+     */
+    public long getMaxLagNanos() {
+        return maxLagNanos;
+    }
+
+    /**
+     * Return the lag at the provided percentile in nanoseconds.
+     * 
+     * @param percentile
+     *            percentile between 0.0 and 100.0.
+     * @return lag at the percentile or zero if no timers have been processed.
+     */
+    public long getLagPercentileNanos(double percentile) {
+        return lagHistogram.getValueAtPercentile(percentile);
+    }
+
+    /**
+     * Return the lag at the provided percentile in the {@link TimeUnit}
+     * provided.
+     * 
+     * @param percentile
+     *            percentile between 0.0 and 100.0.
+     * @param timeUnit
+     *            Desired time unit for returned value.
+     * @return lag at the percentile.
+     */
+    public long getLagPercentile(double percentile, TimeUnit timeUnit) {
+        return lagHistogram.getValueAtPercentile(percentile, timeUnit);
+    }
+
+    /**
+     * @return a copy of the histogram of the lag of the timers processed.
+     */
+    public LatencyHistogram getLagHistogram() {
+        return lagHistogram.copy();
+    }
+
+    /**
+     * Return the processing time statistics of each action in the chain,
+     * keyed by the action added to the chain. Statistics of shard instances of
+     * an action are included in the statistics of the action.
+     * 
+     * @return snapshot statistics of each action.
+     */
+    public Map<TimerAction, TimerBasicStatistics> getActionStatistics() {
+        return actionStatistics;
+    }
+
+    /**
+     * Return the processing time statistics of the provided action.
+     * 
+     * @param action
+     *            action added to the chain.
+     * @return snapshot statistics or null if the action has not processed a
+     *         batch.
+     */
+    public TimerBasicStatistics getActionStatistics(TimerAction action) {
+        return actionStatistics.get(action);
+    }
+
+    private double rate(long delta, ActionChainStatistics earlier) {
+        long elapsed = snapshotNanos - earlier.snapshotNanos;
+        return elapsed <= 0 ? 0.0 : delta * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(200);
+        sb.append("ActionChainStatistics [queueDepth=").append(queueDepth);
+        sb.append(", submitted=").append(getSubmittedCount());
+        sb.append(", dequeued=").append(dequeuedCount);
+        sb.append(", dropped=").append(droppedCount);
+        sb.append(", batches=").append(batchCount);
+        sb.append(", p99Lag_ms=").append(getLagPercentile(99.0, TimeUnit.MILLISECONDS));
+        sb.append(", maxLag_ms=").append(TimeUnit.NANOSECONDS.toMillis(maxLagNanos));
+        sb.append("]");
+        return sb.toString();
+    }
+}
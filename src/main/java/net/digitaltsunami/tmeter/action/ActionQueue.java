@@ -0,0 +1,93 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter.action;
+
+import net.digitaltsunami.tmeter.Timer;
+
+/**
+ * Queue of completed timers and elapsed samples awaiting processing by an
+ * {@link ActionChain}.
+ * <p>
+ * Implementations must support multiple producers and a single consumer.
+ * 
+ * @author dhagberg
+ * 
+ */
+interface ActionQueue {
+
+    /**
+     * Offer a completed timer to the queue, applying the queue's overflow
+     * policy if the queue is full.
+     * 
+     * @return true if the timer was queued, false if it was discarded.
+     */
+    boolean offer(Timer timer);
+
+    /**
+     * Offer an elapsed time to the queue, applying the queue's overflow policy
+     * if the queue is full.
+     * 
+     * @return true if the sample was queued, false if it was discarded.
+     */
+    boolean offer(String taskName, long elapsedNanos);
+
+    /**
+     * Place the timer on the queue, waiting for space if necessary, regardless
+     * of the overflow policy. Used for control timers that must not be
+     * discarded.
+     */
+    void put(Timer timer) throws InterruptedException;
+
+    /**
+     * Remove the next element from the queue, waiting if necessary, and copy
+     * it into the provided entry.
+     */
+    void take(Entry entry) throws InterruptedException;
+
+    /**
+     * Remove up to maxCount elements that are immediately available, without
+     * waiting, copying them into the provided entries starting at offset.
+     * 
+     * @return number of elements removed.
+     */
+    int poll(Entry[] entries, int offset, int maxCount);
+
+    /**
+     * Return the number of elements currently queued.
+     */
+    int size();
+
+    /**
+     * Return the number of timers and samples discarded due to overflow.
+     */
+    long getDroppedCount();
+
+    /**
+     * Holder for a queued element. Either timer is set or taskName and
+     * elapsedNanos are set. Instances are reused by the consumer.
+     */
+    static final class Entry {
+        Timer timer;
+        String taskName;
+        long elapsedNanos;
+
+        void clear() {
+            timer = null;
+            taskName = null;
+            elapsedNanos = 0;
+        }
+    }
+}
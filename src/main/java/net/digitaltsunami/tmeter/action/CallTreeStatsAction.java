@@ -0,0 +1,177 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter.action;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import net.digitaltsunami.tmeter.CallPath;
+import net.digitaltsunami.tmeter.CallPathStatistics;
+import net.digitaltsunami.tmeter.NamedTimeTracker;
+import net.digitaltsunami.tmeter.Timer;
+
+/**
+ * An implementation of {@link TimerAction} that provides total and self
+ * elapsed time statistics for each {@link CallPath}, such as
+ * <code>request/service/dao</code>.
+ * <p>
+ * Only timers assigned a path by a {@link NamedTimeTracker} tracking nesting
+ * are processed. See {@link NamedTimeTracker#setTrackNesting(boolean)}. Other
+ * timers and elapsed times recorded without a timer are ignored. The number
+ * of paths, and therefore the memory used by this action, is bounded by
+ * {@link NamedTimeTracker#setMaxCallPaths(int)}.
+ * <p>
+ * When used by an {@link ActionChain} with multiple shards, each shard
+ * accumulates statistics for its paths using its own instance of this action.
+ * The statistics of all shards are included when querying this instance.
+ *
+ * @author dhagberg
+ *
+ */
+public class CallTreeStatsAction extends TimerAction {
+
+    private final ConcurrentHashMap<CallPath, CallPathStatistics> statsByPath =
+            new ConcurrentHashMap<CallPath, CallPathStatistics>();
+
+    /**
+     * Instances created for each shard of a sharded {@link ActionChain}.
+     */
+    private final CopyOnWriteArrayList<CallTreeStatsAction> shards =
+            new CopyOnWriteArrayList<CallTreeStatsAction>();
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see net.digitaltsunami.tmeter.action.TimerAction#processTimer(net.digitaltsunami.tmeter.Timer)
+     */
+    @Override
+    protected void processTimer(Timer timer) {
+        CallPath path = timer.getCallPath();
+        if (path == null) {
+            return;
+        }
+        CallPathStatistics stat = statsByPath.get(path);
+        if (stat == null) {
+            stat = new CallPathStatistics(path);
+            CallPathStatistics currentStat = statsByPath.putIfAbsent(path, stat);
+            if (currentStat != null) {
+                stat = currentStat;
+            }
+        }
+        stat.addTimer(timer);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see net.digitaltsunami.tmeter.action.TimerAction#createShard()
+     */
+    @Override
+    protected TimerAction createShard() {
+        CallTreeStatsAction shard = new CallTreeStatsAction();
+        shards.add(shard);
+        return shard;
+    }
+
+    /**
+     * Clears all accumulated statistics.
+     *
+     * @see net.digitaltsunami.tmeter.action.TimerAction#reset()
+     */
+    @Override
+    protected void reset() {
+        statsByPath.clear();
+        for (CallTreeStatsAction shard : shards) {
+            shard.reset();
+        }
+    }
+
+    /**
+     * Return a live instance of {@link CallPathStatistics} for the provided
+     * path.
+     *
+     * @param callPath
+     *            path of the timers.
+     * @return live statistics or null if the path has not yet been processed
+     *         by this action.
+     */
+    public CallPathStatistics getCallPathStatistics(CallPath callPath) {
+        CallPathStatistics stat = statsByPath.get(callPath);
+        if (stat == null) {
+            // Each path is processed by a single shard.
+            for (CallTreeStatsAction shard : shards) {
+                stat = shard.getCallPathStatistics(callPath);
+                if (stat != null) {
+                    break;
+                }
+            }
+        }
+        return stat;
+    }
+
+    /**
+     * Return a live instance of {@link CallPathStatistics} for the path with
+     * the provided string form, such as <code>request/service/dao</code>.
+     *
+     * @param callPath
+     *            task names of the path separated by
+     *            {@link CallPath#SEPARATOR}.
+     * @return live statistics or null if the path has not yet been processed
+     *         by this action.
+     */
+    public CallPathStatistics getCallPathStatistics(String callPath) {
+        for (CallPathStatistics stat : getAllCallPathStatistics()) {
+            if (stat.getCallPath().toString().equals(callPath)) {
+                return stat;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return live instances of {@link CallPathStatistics} for all paths
+     * processed up to the point of invoking this method.
+     *
+     * @return live statistics of all paths.
+     */
+    public Collection<CallPathStatistics> getAllCallPathStatistics() {
+        List<CallPathStatistics> allStats = new ArrayList<CallPathStatistics>(
+                statsByPath.values());
+        for (CallTreeStatsAction shard : shards) {
+            allStats.addAll(shard.getAllCallPathStatistics());
+        }
+        return allStats;
+    }
+
+    /**
+     * Return snapshots of {@link CallPathStatistics} for all paths processed
+     * up to the point of invoking this method.
+     *
+     * @return snapshot statistics of all paths.
+     */
+    public Collection<CallPathStatistics> getAllCallPathStatisticsSnapshot() {
+        Collection<CallPathStatistics> workingCopy = getAllCallPathStatistics();
+        List<CallPathStatistics> snapshots = new ArrayList<CallPathStatistics>(
+                workingCopy.size());
+        for (CallPathStatistics stat : workingCopy) {
+            snapshots.add(stat.getSnapshot());
+        }
+        return snapshots;
+    }
+}
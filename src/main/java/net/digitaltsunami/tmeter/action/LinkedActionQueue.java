@@ -0,0 +1,104 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter.action;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import net.digitaltsunami.tmeter.Timer;
+
+/**
+ * Unbounded {@link ActionQueue} backed by a {@link LinkedBlockingQueue}. Offers
+ * are never rejected.
+ * 
+ * @author dhagberg
+ * 
+ */
+class LinkedActionQueue implements ActionQueue {
+
+    private final LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<Object>();
+
+    /**
+     * Holds elements drained from the queue. Used only by the consumer.
+     */
+    private final List<Object> drained = new ArrayList<Object>();
+
+    @Override
+    public boolean offer(Timer timer) {
+        return queue.add(timer);
+    }
+
+    @Override
+    public boolean offer(String taskName, long elapsedNanos) {
+        return queue.add(new ElapsedSample(taskName, elapsedNanos));
+    }
+
+    @Override
+    public void put(Timer timer) throws InterruptedException {
+        queue.put(timer);
+    }
+
+    @Override
+    public void take(Entry entry) throws InterruptedException {
+        copy(queue.take(), entry);
+    }
+
+    @Override
+    public int poll(Entry[] entries, int offset, int maxCount) {
+        // Drain under a single lock acquisition.
+        int count = queue.drainTo(drained, maxCount);
+        for (int i = 0; i < count; i++) {
+            copy(drained.get(i), entries[offset + i]);
+        }
+        drained.clear();
+        return count;
+    }
+
+    private void copy(Object element, Entry entry) {
+        entry.clear();
+        if (element instanceof ElapsedSample) {
+            ElapsedSample sample = (ElapsedSample) element;
+            entry.taskName = sample.taskName;
+            entry.elapsedNanos = sample.elapsedNanos;
+        } else {
+            entry.timer = (Timer) element;
+        }
+    }
+
+    @Override
+    public int size() {
+        return queue.size();
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return 0;
+    }
+
+    /**
+     * Elapsed time for a task recorded without a {@link Timer}.
+     */
+    private static final class ElapsedSample {
+        private final String taskName;
+        private final long elapsedNanos;
+
+        private ElapsedSample(String taskName, long elapsedNanos) {
+            this.taskName = taskName;
+            this.elapsedNanos = elapsedNanos;
+        }
+    }
+}
@@ -0,0 +1,363 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter.action;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import net.digitaltsunami.tmeter.Timer;
+import net.digitaltsunami.tmeter.TimerShell;
+
+/**
+ * Bounded {@link ActionQueue} backed by a pre-allocated ring buffer.
+ * <p>
+ * Each slot holds either a timer reference or the task name and elapsed time of
+ * a sample, so queuing does not allocate. Slots are claimed using a per-slot
+ * sequence number, allowing multiple producers to publish without locking.
+ * When the queue is full, the {@link ActionChainOverflowPolicy} determines
+ * whether the producer waits or an element is discarded. Discarded timers are
+ * released (see {@link Timer#release()}).
+ * <p>
+ * The capacity is rounded up to the next power of two.
+ * 
+ * @author dhagberg
+ * 
+ */
+class RingBufferActionQueue implements ActionQueue {
+
+    /**
+     * Number of times the consumer polls an empty queue before parking.
+     */
+    private static final int SPIN_LIMIT = 64;
+
+    /**
+     * Time a blocked producer waits between attempts to publish.
+     */
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final int capacity;
+    private final int mask;
+    private final Timer[] timers;
+    private final String[] taskNames;
+    private final long[] elapsedNanos;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    private final ActionChainOverflowPolicy overflowPolicy;
+    private final int sampleRate;
+    private final int sampleThreshold;
+    private final AtomicLong sampleCounter = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private volatile Thread consumer;
+    private volatile boolean consumerWaiting;
+
+    /**
+     * Create a ring buffer queue.
+     * 
+     * @param capacity
+     *            maximum number of queued elements. Rounded up to the next
+     *            power of two.
+     * @param overflowPolicy
+     *            action to take when the queue is full.
+     * @param sampleRate
+     *            for {@link ActionChainOverflowPolicy#SAMPLE}, accept one of
+     *            every sampleRate submissions once the queue is half full.
+     */
+    RingBufferActionQueue(int capacity, ActionChainOverflowPolicy overflowPolicy,
+            int sampleRate) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30: "
+                    + capacity);
+        }
+        if (sampleRate < 1) {
+            throw new IllegalArgumentException("Sample rate must be at least 1: " + sampleRate);
+        }
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.capacity = size;
+        this.mask = size - 1;
+        this.timers = new Timer[size];
+        this.taskNames = new String[size];
+        this.elapsedNanos = new long[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.overflowPolicy = overflowPolicy;
+        this.sampleRate = sampleRate;
+        this.sampleThreshold = Math.max(1, size / 2);
+    }
+
+    @Override
+    public boolean offer(Timer timer) {
+        return offer(timer, null, 0);
+    }
+
+    @Override
+    public boolean offer(String taskName, long elapsed) {
+        return offer(null, taskName, elapsed);
+    }
+
+    @Override
+    public void put(Timer timer) throws InterruptedException {
+        while (!tryPublish(timer, null, 0)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            LockSupport.parkNanos(BLOCK_PARK_NANOS);
+        }
+    }
+
+    @Override
+    public void take(Entry entry) throws InterruptedException {
+        // As with a blocking queue, an interrupt is reported even if elements
+        // are available so that shutdownNow() stops processing.
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        consumer = Thread.currentThread();
+        int spins = 0;
+        while (!tryConsume(entry)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (spins < SPIN_LIMIT) {
+                spins++;
+                Thread.yield();
+                continue;
+            }
+            consumerWaiting = true;
+            if (tryConsume(entry)) {
+                consumerWaiting = false;
+                return;
+            }
+            LockSupport.park(this);
+            consumerWaiting = false;
+        }
+    }
+
+    @Override
+    public int poll(Entry[] entries, int offset, int maxCount) {
+        int count = 0;
+        while (count < maxCount && tryConsume(entries[offset + count])) {
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public int size() {
+        long size = tail.get() - head.get();
+        if (size < 0) {
+            return 0;
+        }
+        return (int) Math.min(size, capacity);
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Return the capacity of the ring buffer.
+     */
+    int getCapacity() {
+        return capacity;
+    }
+
+    private boolean offer(Timer timer, String taskName, long elapsed) {
+        switch (overflowPolicy) {
+        case DROP_NEWEST:
+            if (tryPublish(timer, taskName, elapsed)) {
+                return true;
+            }
+            droppedCount.incrementAndGet();
+            return false;
+
+        case DROP_OLDEST:
+            Timer displacedShell = null;
+            while (!tryPublish(timer, taskName, elapsed)) {
+                Timer displaced = discardOldest();
+                if (displaced != null) {
+                    displacedShell = displaced;
+                }
+            }
+            if (displacedShell != null) {
+                // Shutdown requests may not be discarded; requeue behind
+                // this element.
+                forcePublish(displacedShell);
+            }
+            return true;
+
+        case SAMPLE:
+            if (size() >= sampleThreshold
+                    && sampleCounter.incrementAndGet() % sampleRate != 0) {
+                droppedCount.incrementAndGet();
+                return false;
+            }
+            if (tryPublish(timer, taskName, elapsed)) {
+                return true;
+            }
+            droppedCount.incrementAndGet();
+            return false;
+
+        case BLOCK:
+        default:
+            while (!tryPublish(timer, taskName, elapsed)) {
+                if (Thread.currentThread().isInterrupted()) {
+                    droppedCount.incrementAndGet();
+                    return false;
+                }
+                LockSupport.parkNanos(BLOCK_PARK_NANOS);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Publish, waiting uninterruptibly for space. The interrupt status of the
+     * calling thread is preserved.
+     */
+    private void forcePublish(Timer timer) {
+        boolean interrupted = false;
+        while (!tryPublish(timer, null, 0)) {
+            if (Thread.interrupted()) {
+                interrupted = true;
+            }
+            LockSupport.parkNanos(BLOCK_PARK_NANOS);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Remove and discard the oldest element on the queue. A {@link TimerShell}
+     * is not discarded, but returned so that it may be requeued.
+     * 
+     * @return the removed shell if the oldest element was a shutdown request,
+     *         otherwise null.
+     */
+    private Timer discardOldest() {
+        long position = claimHead();
+        if (position < 0) {
+            return null;
+        }
+        int index = (int) (position & mask);
+        Timer discarded = timers[index];
+        freeSlot(index, position);
+        if (discarded instanceof TimerShell) {
+            return discarded;
+        }
+        if (discarded != null) {
+            discarded.release();
+        }
+        droppedCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Attempt to claim the next slot and publish the element.
+     * 
+     * @return false if the queue is full.
+     */
+    private boolean tryPublish(Timer timer, String taskName, long elapsed) {
+        long position = tail.get();
+        int index;
+        while (true) {
+            index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+        timers[index] = timer;
+        taskNames[index] = taskName;
+        elapsedNanos[index] = elapsed;
+        sequences.set(index, position + 1);
+        if (consumerWaiting) {
+            Thread waiting = consumer;
+            if (waiting != null) {
+                LockSupport.unpark(waiting);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Attempt to remove the next element, copying it into the provided entry.
+     * 
+     * @return false if the queue is empty.
+     */
+    private boolean tryConsume(Entry entry) {
+        long position = claimHead();
+        if (position < 0) {
+            return false;
+        }
+        int index = (int) (position & mask);
+        entry.timer = timers[index];
+        entry.taskName = taskNames[index];
+        entry.elapsedNanos = elapsedNanos[index];
+        freeSlot(index, position);
+        return true;
+    }
+
+    /**
+     * Attempt to claim the next published slot for removal.
+     * 
+     * @return the position of the claimed slot, or -1 if the queue is empty.
+     */
+    private long claimHead() {
+        long position = head.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    return position;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                return -1;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    /**
+     * Clear the claimed slot and make it available to producers.
+     */
+    private void freeSlot(int index, long position) {
+        timers[index] = null;
+        taskNames[index] = null;
+        sequences.set(index, position + capacity);
+    }
+}
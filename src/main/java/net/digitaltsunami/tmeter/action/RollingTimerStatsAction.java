@@ -0,0 +1,248 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter.action;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.digitaltsunami.tmeter.RollingTimerBasicStatistics;
+import net.digitaltsunami.tmeter.Timer;
+import net.digitaltsunami.tmeter.TimerBasicStatistics;
+
+/**
+ * An implementation of {@link TimerAction} that provides basic statistics for
+ * the timers processed by this action over a rolling window of time. Unlike
+ * {@link TimerStatsAction}, statistics reflect recent behavior without
+ * requiring a {@link #reset()}.
+ * <p>
+ * Each task is tracked using a {@link RollingTimerBasicStatistics} with a
+ * ring of fixed duration buckets. By default, 180 buckets of 5 seconds are
+ * retained so that statistics for the last 1, 5 and 15 minutes are available
+ * using {@link #getTimerStatistics(String, long, TimeUnit)}. Timers are placed
+ * in buckets based on the time they are processed by this action.
+ * <p>
+ * Percentiles of elapsed times may be maintained for each task by enabling
+ * histograms using {@link #enableHistogram(int, long, TimeUnit)}. Each bucket
+ * maintains its own histogram, so the memory used per task is the size of a
+ * histogram times the number of buckets.
+ * <p>
+ * When used by an {@link ActionChain} with multiple shards, each shard
+ * accumulates statistics for its tasks using its own instance of this action.
+ * The statistics of all shards are included when querying this instance and
+ * are merged using {@link RollingTimerBasicStatistics#merge(String, Collection)}
+ * when a task has statistics in more than one instance. See
+ * {@link AbstractTimerStatsAction}.
+ *
+ * @author dhagberg
+ *
+ */
+public class RollingTimerStatsAction extends
+        AbstractTimerStatsAction<RollingTimerBasicStatistics> {
+
+    /**
+     * Default number of buckets retained for each task.
+     */
+    public static final int DEFAULT_BUCKET_COUNT = 180;
+    /**
+     * Default duration of each bucket in seconds.
+     */
+    public static final long DEFAULT_BUCKET_SECONDS = 5;
+
+    private final int bucketCount;
+    private final long bucketDuration;
+    private final TimeUnit bucketUnit;
+
+    /**
+     * Create an instance retaining the default of 180 buckets of 5 seconds
+     * for each task.
+     */
+    public RollingTimerStatsAction() {
+        this(DEFAULT_BUCKET_COUNT, DEFAULT_BUCKET_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Create an instance retaining the provided number of buckets for each
+     * task. The longest window available is the bucket count times the bucket
+     * duration, and each window is accurate to within one bucket duration.
+     *
+     * @param bucketCount
+     *            number of buckets retained for each task.
+     * @param bucketDuration
+     *            duration of the interval accumulated by each bucket.
+     * @param timeUnit
+     *            unit of the bucket duration.
+     */
+    public RollingTimerStatsAction(int bucketCount, long bucketDuration, TimeUnit timeUnit) {
+        super();
+        // Validate the configuration prior to creating statistics.
+        new RollingTimerBasicStatistics(null, bucketCount, bucketDuration, timeUnit);
+        this.bucketCount = bucketCount;
+        this.bucketDuration = bucketDuration;
+        this.bucketUnit = timeUnit;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see net.digitaltsunami.tmeter.action.TimerAction#processTimer(net.digitaltsunami.tmeter.Timer)
+     */
+    @Override
+    protected void processTimer(Timer timer) {
+        getOrCreateStatistics(timer).addTimer(timer);
+    }
+
+    /**
+     * Add each timer to the statistics for its task. The time and statistics
+     * are looked up once for each run of timers with the same task.
+     *
+     * @see net.digitaltsunami.tmeter.action.TimerAction#processTimers(java.util.List)
+     */
+    @Override
+    protected void processTimers(List<Timer> timers) {
+        long now = System.nanoTime();
+        String currentTask = null;
+        RollingTimerBasicStatistics stat = null;
+        for (int i = 0, size = timers.size(); i < size; i++) {
+            Timer timer = timers.get(i);
+            String taskName = timer.getTaskName();
+            if (stat == null || !taskName.equals(currentTask)) {
+                stat = getOrCreateStatistics(timer);
+                currentTask = taskName;
+            }
+            stat.addTimer(timer, now);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see net.digitaltsunami.tmeter.action.TimerAction#processElapsed(java.lang.String, long)
+     */
+    @Override
+    protected void processElapsed(String taskName, long elapsedNanos) {
+        getOrCreateStatistics(taskName).addElapsed(elapsedNanos);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see net.digitaltsunami.tmeter.action.AbstractTimerStatsAction#newShard()
+     */
+    @Override
+    protected RollingTimerStatsAction newShard() {
+        return new RollingTimerStatsAction(bucketCount, bucketDuration, bucketUnit);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see net.digitaltsunami.tmeter.action.AbstractTimerStatsAction#createStatistics(java.lang.String)
+     */
+    @Override
+    protected RollingTimerBasicStatistics createStatistics(String taskName) {
+        int digits = getHistogramSignificantDigits();
+        if (digits == 0) {
+            return new RollingTimerBasicStatistics(taskName, bucketCount, bucketDuration,
+                    bucketUnit);
+        }
+        return new RollingTimerBasicStatistics(taskName, bucketCount, bucketDuration, bucketUnit,
+                digits, getHistogramHighestTrackableNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see net.digitaltsunami.tmeter.action.AbstractTimerStatsAction#mergeInto(java.lang.Object, java.lang.Object)
+     */
+    @Override
+    protected void mergeInto(RollingTimerBasicStatistics target,
+            RollingTimerBasicStatistics source) {
+        target.merge(source);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see net.digitaltsunami.tmeter.action.AbstractTimerStatsAction#merge(java.lang.String, java.util.List)
+     */
+    @Override
+    protected RollingTimerBasicStatistics merge(String taskName,
+            List<RollingTimerBasicStatistics> stats) {
+        return RollingTimerBasicStatistics.merge(taskName, stats);
+    }
+
+    /**
+     * Return the live {@link RollingTimerBasicStatistics} for the provided
+     * task name.
+     * <p>
+     * If the statistics of the task are held by more than one instance of
+     * this action (see the class comments regarding shards), a merged
+     * instance is returned that will not be modified.
+     *
+     * @param taskName
+     * @return Live instance of {@link RollingTimerBasicStatistics} or null if
+     *         that task has not yet been processed by this action.
+     */
+    public RollingTimerBasicStatistics getRollingStatistics(String taskName) {
+        return findStatistics(taskName);
+    }
+
+    /**
+     * Return a snapshot of the statistics for the provided task over the most
+     * recent window of time. For example, <code>getTimerStatistics(task, 5,
+     * TimeUnit.MINUTES)</code> returns the statistics for the last five
+     * minutes.
+     *
+     * @param taskName
+     * @param window
+     *            duration of the window. Must not exceed the bucket count
+     *            times the bucket duration.
+     * @param timeUnit
+     *            unit of the window.
+     * @return Snapshot of {@link TimerBasicStatistics} for the window or null
+     *         if that task has not yet been processed by this action.
+     */
+    public TimerBasicStatistics getTimerStatistics(String taskName, long window,
+            TimeUnit timeUnit) {
+        RollingTimerBasicStatistics stat = getRollingStatistics(taskName);
+        return stat == null ? null : stat.getStatistics(window, timeUnit);
+    }
+
+    /**
+     * Return a snapshot of the statistics for each task processed by this
+     * action over the most recent window of time. Tasks without any timers in
+     * the window are included with a count of zero.
+     *
+     * @param window
+     *            duration of the window. Must not exceed the bucket count
+     *            times the bucket duration.
+     * @param timeUnit
+     *            unit of the window.
+     * @return Snapshot of {@link TimerBasicStatistics} for each task.
+     */
+    public Collection<TimerBasicStatistics> getAllTimerStatistics(long window, TimeUnit timeUnit) {
+        long now = System.nanoTime();
+        Collection<RollingTimerBasicStatistics> workingCopy = findAllStatistics();
+        List<TimerBasicStatistics> allStats = new ArrayList<TimerBasicStatistics>(
+                workingCopy.size());
+        for (RollingTimerBasicStatistics stat : workingCopy) {
+            allStats.add(stat.getStatistics(window, timeUnit, now));
+        }
+        return allStats;
+    }
+}
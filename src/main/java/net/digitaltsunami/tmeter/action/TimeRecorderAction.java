@@ -1,7 +1,10 @@
 package net.digitaltsunami.tmeter.action;
 
+import java.util.List;
+
 import net.digitaltsunami.tmeter.TimeTracker;
 import net.digitaltsunami.tmeter.Timer;
+import net.digitaltsunami.tmeter.record.BatchTimeRecorder;
 import net.digitaltsunami.tmeter.record.NullTimeRecorder;
 import net.digitaltsunami.tmeter.record.QueuedTimeRecorder;
 import net.digitaltsunami.tmeter.record.TimeRecorder;
@@ -49,4 +52,17 @@ public class TimeRecorderAction extends TimerAction {
         recorder.record(timer);
     }
 
+    /**
+     * Record the batch of timers, using {@link BatchTimeRecorder#recordAll(List)}
+     * if supported by the recorder.
+     */
+    @Override
+    protected void processTimers(List<Timer> timers) {
+        if (recorder instanceof BatchTimeRecorder) {
+            ((BatchTimeRecorder) recorder).recordAll(timers);
+        } else {
+            super.processTimers(timers);
+        }
+    }
+
 }
@@ -18,6 +18,9 @@ __copyright_end__ */
  */
 package net.digitaltsunami.tmeter.action;
 
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import net.digitaltsunami.tmeter.Timer;
 
 /**
@@ -26,11 +29,24 @@ import net.digitaltsunami.tmeter.Timer;
  * Provides for a chain of actions to be defined that will execute upon the
  * timer being stopped. Each action should be non-destructive in that it should
  * not change the attributes of the {@link Timer}.
+ * <p>
+ * Timers may be recycled once processing by all actions has completed (see
+ * {@link Timer#isPooled()}). Actions that retain a timer beyond
+ * {@link #processTimer(Timer)} must retain a copy obtained using
+ * {@link Timer#copy()}.
  * 
  * @author dhagberg
  * 
  */
 public abstract class TimerAction {
+    /**
+     * Incremented whenever an action is linked into the chain of this action
+     * using {@link #addAction(TimerAction)}, so that an {@link ActionChain}
+     * can detect actions added directly to its actions without walking the
+     * chain. Shared by the actions of a chain.
+     */
+    private volatile AtomicInteger linkVersion = new AtomicInteger();
+
     protected TimerAction nextAction;
 
     /**
@@ -71,9 +87,22 @@ public abstract class TimerAction {
             action.nextAction = nextAction;
         } 
         nextAction = action;
+        AtomicInteger version = linkVersion;
+        for (TimerAction curr = action; curr != null; curr = curr.nextAction) {
+            curr.linkVersion = version;
+        }
+        version.incrementAndGet();
         return action;
     }
 
+    /**
+     * Return the number of times an action has been linked into the chain of
+     * this action.
+     */
+    int getLinkVersion() {
+        return linkVersion.get();
+    }
+
     public final void timerComplete(Timer timer) {
         processTimer(timer);
         if (nextAction != null) {
@@ -81,6 +110,37 @@ public abstract class TimerAction {
         }
     }
 
+    /**
+     * Drives the processing of a batch of timers for all {@link TimerAction}
+     * instances. The {@link ActionChain} provides batches to the resolved
+     * action instances of each shard directly rather than through the chain.
+     * 
+     * @param timers
+     *            completed timers in the order submitted.
+     */
+    final void timersComplete(List<Timer> timers) {
+        processTimers(timers);
+        if (nextAction != null) {
+            nextAction.timersComplete(timers);
+        }
+    }
+
+    /**
+     * Drives the processing of an elapsed time recorded without a
+     * {@link Timer} for all {@link TimerAction} instances.
+     * 
+     * @param taskName
+     *            name of the task that was timed.
+     * @param elapsedNanos
+     *            elapsed time in nanoseconds.
+     */
+    final void elapsedComplete(String taskName, long elapsedNanos) {
+        processElapsed(taskName, elapsedNanos);
+        if (nextAction != null) {
+            nextAction.elapsedComplete(taskName, elapsedNanos);
+        }
+    }
+
     /**
      * Perform any applicable processing specific to the actions. This method
      * will be invoked when a completed timer is submitted for processing.
@@ -93,6 +153,80 @@ public abstract class TimerAction {
      */
     protected abstract void processTimer(Timer timer);
 
+    /**
+     * Perform any applicable processing for a batch of completed timers. This
+     * method will be invoked by the {@link ActionChain} with all timers removed
+     * from the queue at once. See {@link ActionChain#setBatchSize(int)}.
+     * <p>
+     * The default is to invoke {@link #processTimer(Timer)} for each timer.
+     * Concrete classes may override this method to amortize per timer costs,
+     * such as lookups or I/O, over the batch. The list is only valid for the
+     * duration of this call and may not be modified.
+     * 
+     * @param timers
+     *            completed timers in the order submitted.
+     */
+    protected void processTimers(List<Timer> timers) {
+        for (int i = 0, size = timers.size(); i < size; i++) {
+            processTimer(timers.get(i));
+        }
+    }
+
+    /**
+     * Perform any applicable processing for an elapsed time that was recorded
+     * without a {@link Timer}. This method will be invoked when an elapsed
+     * time is submitted for processing using
+     * {@link ActionChain#submitElapsed(String, long)}.
+     * <p>
+     * Concrete classes that only require the task name and elapsed time, such
+     * as those maintaining statistics, should override this method. The
+     * default is to do nothing as there is no timer to process.
+     * 
+     * @param taskName
+     *            name of the task that was timed.
+     * @param elapsedNanos
+     *            elapsed time in nanoseconds.
+     */
+    protected void processElapsed(String taskName, long elapsedNanos) {
+        // No action
+    }
+
+    /**
+     * Create an instance of this action for use by a single shard of an
+     * {@link ActionChain} that processes timers using multiple threads. Each
+     * shard processes a distinct subset of the tasks using its own instance.
+     * <p>
+     * The default is to return this instance, which will then be shared by all
+     * shards and must be thread safe. Concrete classes that maintain state
+     * should override this method to return a new instance and combine the
+     * results of their shard instances when queried. The action is responsible
+     * for resetting its shard instances when {@link #reset()} is invoked.
+     * 
+     * @return instance of this action for a single shard.
+     * @see ActionChain#getShardCount()
+     */
+    protected TimerAction createShard() {
+        return this;
+    }
+
+    /**
+     * Release an instance created using {@link #createShard()} once the
+     * {@link ActionChain} no longer uses it, such as when the shard's
+     * processing thread terminates after {@link ActionChain#clearActions()}
+     * or {@link ActionChain#shutdown()}. The shard will not process any further
+     * timers.
+     * <p>
+     * The default is to do nothing. Concrete classes that retain their shard
+     * instances should override this method to stop retaining the shard,
+     * keeping any results it has accumulated.
+     * 
+     * @param shard
+     *            instance previously returned by {@link #createShard()}.
+     */
+    protected void releaseShard(TimerAction shard) {
+        // No action
+    }
+
     /**
      * Perform any processing specific to the action for reset. This method will
      * be invoked to reset the state of the action and may indicate that a
@@ -105,6 +239,19 @@ public abstract class TimerAction {
         // No action
     }
 
+    /**
+     * Perform any processing specific to the action once the
+     * {@link ActionChain} has stopped processing timers, such as publishing or
+     * flushing output that has been deferred. This method will be invoked by
+     * the action chain after the last queued timer has been processed during
+     * an orderly shutdown. See {@link ActionChain#shutdown()}.
+     * <p>
+     * The default is to do nothing.
+     */
+    protected void shutdown() {
+        // No action
+    }
+
     /**
      * Drives the reset processing for all {@link TimerAction} instances.
      */
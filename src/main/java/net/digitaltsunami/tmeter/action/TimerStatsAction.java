@@ -18,11 +18,13 @@ __copyright_end__ */
  */
 package net.digitaltsunami.tmeter.action;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+import net.digitaltsunami.tmeter.StripedTimerBasicStatistics;
+import net.digitaltsunami.tmeter.TaskRegistry;
 import net.digitaltsunami.tmeter.Timer;
 import net.digitaltsunami.tmeter.TimerBasicStatistics;
 
@@ -30,16 +32,56 @@ import net.digitaltsunami.tmeter.TimerBasicStatistics;
  * An implementation of {@link TimerAction} that provides basic statistics for all
  * timers processed by this action.  Basic statistics may be retrieved for a specific
  * task or the entire set of tasks. 
+ * <p>
+ * If the statistics are updated by multiple threads, such as when the action is
+ * invoked directly from timed threads, striped statistics can be used to avoid
+ * contention. See {@link StripedTimerBasicStatistics}.
+ * <p>
+ * Percentiles of elapsed times may be maintained for each task by enabling
+ * histograms using {@link #enableHistogram(int, long, TimeUnit)}. Snapshots
+ * include a copy of the histogram and {@link #reset()} discards it along with
+ * the other statistics.
+ * <p>
+ * Statistics are located using the task id of each timer (see
+ * {@link TaskRegistry}) and are also available by task name.
+ * <p>
+ * Timers sampled by a {@link net.digitaltsunami.tmeter.NamedTimeTracker} are
+ * scaled by their {@link Timer#getSampleWeight()} so that counts and totals
+ * estimate all executions of the task, not only those recorded.
+ * <p>
+ * When used by an {@link ActionChain} with multiple shards, each shard
+ * accumulates statistics for its tasks using its own instance of this action.
+ * The statistics of all shards are included when querying this instance. Once
+ * a shard is released by the action chain, its statistics are merged into
+ * this instance. As a task may then have statistics in more than one
+ * instance, such as after the actions of the chain are cleared and added
+ * again, the statistics of each task are merged using
+ * {@link TimerBasicStatistics#merge(String, Collection)} when queried.
  * @author dhagberg 
  * 
  */
-public class TimerStatsAction extends TimerAction {
+public class TimerStatsAction extends AbstractTimerStatsAction<TimerBasicStatistics> {
 
-    private final ConcurrentHashMap<String, TimerBasicStatistics> statsByTask;
+    /**
+     * Indicates whether or not statistics are accumulated using
+     * {@link StripedTimerBasicStatistics}.
+     */
+    private final boolean striped;
 
     public TimerStatsAction() {
+        this(false);
+    }
+
+    /**
+     * Create an instance with the option of accumulating statistics using
+     * {@link StripedTimerBasicStatistics}.
+     * 
+     * @param striped
+     *            true to use striped statistics, false otherwise.
+     */
+    public TimerStatsAction(boolean striped) {
         super();
-        statsByTask = new ConcurrentHashMap<String, TimerBasicStatistics>();
+        this.striped = striped;
     }
 
     /*
@@ -49,30 +91,96 @@ public class TimerStatsAction extends TimerAction {
      */
     @Override
     protected void processTimer(Timer timer) {
-        TimerBasicStatistics stat = statsByTask.get(timer.getTaskName());
-        if (stat == null) {
-            // Task not found in list. Create a new entry
-            stat = new TimerBasicStatistics(timer.getTaskName());
-            // Place it in the map
-            TimerBasicStatistics currentStat = statsByTask.putIfAbsent(timer.getTaskName(),
-                        stat);
-            // If the same entry was not returned, another thread created
-            // during setup. Use the existing entry.
-            if (currentStat != null && currentStat != stat) {
-                stat = currentStat;
+        getOrCreateStatistics(timer).addTimer(timer);
+    }
+
+    /**
+     * Add each timer to the statistics for its task. The statistics are looked
+     * up once for each run of timers with the same task.
+     * 
+     * @see net.digitaltsunami.tmeter.action.TimerAction#processTimers(java.util.List)
+     */
+    @Override
+    protected void processTimers(List<Timer> timers) {
+        String currentTask = null;
+        TimerBasicStatistics stat = null;
+        for (int i = 0, size = timers.size(); i < size; i++) {
+            Timer timer = timers.get(i);
+            String taskName = timer.getTaskName();
+            if (stat == null || !taskName.equals(currentTask)) {
+                stat = getOrCreateStatistics(timer);
+                currentTask = taskName;
             }
+            stat.addTimer(timer);
         }
-        stat.addTimer(timer);
     }
-    
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see net.digitaltsunami.tmeter.action.TimerAction#processElapsed(java.lang.String, long)
+     */
+    @Override
+    protected void processElapsed(String taskName, long elapsedNanos) {
+        getOrCreateStatistics(taskName).addElapsed(elapsedNanos);
+    }
+
+    /**
+     * Returns true if statistics are accumulated using
+     * {@link StripedTimerBasicStatistics}.
+     */
+    public boolean isStriped() {
+        return striped;
+    }
+
     /**
-     * Clears all accumulated statistics.
+     * Create an empty instance of this action with the same configuration.
+     * Subclasses must override this method to return an instance of the
+     * subclass.
      * 
-     * @see net.digitaltsunami.tmeter.TimeAction#reset()
+     * @see net.digitaltsunami.tmeter.action.AbstractTimerStatsAction#newShard()
      */
     @Override
-    protected void reset() {
-        statsByTask.clear();
+    protected TimerStatsAction newShard() {
+        return new TimerStatsAction(striped);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see net.digitaltsunami.tmeter.action.AbstractTimerStatsAction#createStatistics(java.lang.String)
+     */
+    @Override
+    protected TimerBasicStatistics createStatistics(String taskName) {
+        int digits = getHistogramSignificantDigits();
+        if (digits == 0) {
+            return striped ? new StripedTimerBasicStatistics(taskName)
+                    : new TimerBasicStatistics(taskName);
+        }
+        long highest = getHistogramHighestTrackableNanos();
+        return striped ? new StripedTimerBasicStatistics(taskName, Runtime.getRuntime()
+                .availableProcessors(), digits, highest, TimeUnit.NANOSECONDS)
+                : new TimerBasicStatistics(taskName, digits, highest, TimeUnit.NANOSECONDS);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see net.digitaltsunami.tmeter.action.AbstractTimerStatsAction#mergeInto(java.lang.Object, java.lang.Object)
+     */
+    @Override
+    protected void mergeInto(TimerBasicStatistics target, TimerBasicStatistics source) {
+        target.merge(source);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see net.digitaltsunami.tmeter.action.AbstractTimerStatsAction#merge(java.lang.String, java.util.List)
+     */
+    @Override
+    protected TimerBasicStatistics merge(String taskName, List<TimerBasicStatistics> stats) {
+        return TimerBasicStatistics.merge(taskName, stats);
     }
 
     /**
@@ -80,12 +188,17 @@ public class TimerStatsAction extends TimerAction {
      * task name. Internal values will be modified as this action processes
      * timers.
      * 
+     * <p>
+     * If the statistics of the task are held by more than one instance of
+     * this action (see the class comments regarding shards), a merged
+     * instance is returned that will not be modified.
+     * 
      * @param taskName
      * @return Live instance of {@link TimerBasicStatistics} or null if that
      *         task has not yet been processed by this action.
      */
     public TimerBasicStatistics getTimerStatistics(String taskName) {
-        return statsByTask.get(taskName);
+        return findStatistics(taskName);
     }
 
     /**
@@ -98,20 +211,21 @@ public class TimerStatsAction extends TimerAction {
      *         that task has not yet been processed by this action.
      */
     public TimerBasicStatistics getTimerStatisticsSnapshot(String taskName) {
-        TimerBasicStatistics stat = statsByTask.get(taskName);
+        TimerBasicStatistics stat = getTimerStatistics(taskName);
         return stat == null ? null : stat.getSnapshot();
     }
     
     /**
      * Return a collection of live instances of {@link TimerBasicStatistics} for
      * all tasks processed up to the point of invoking this method. Internal
-     * values will be modified as this action processes timers.
+     * values will be modified as this action processes timers. Tasks with
+     * statistics held by more than one instance of this action are merged as
+     * described in {@link #getTimerStatistics(String)}.
      * 
      * @return Live instance of {@link TimerBasicStatistics}
      */
     public Collection<TimerBasicStatistics> getAllTimerStatistics() {
-        return new HashSet<TimerBasicStatistics>(statsByTask.values());
-
+        return findAllStatistics();
     }
 
     /**
@@ -123,12 +237,12 @@ public class TimerStatsAction extends TimerAction {
      */
     public Collection<TimerBasicStatistics> getAllTimerStatisticsSnapshot() {
         // Create a working copy to avoid concurrent modification exception while building copy.
-        Set<TimerBasicStatistics> workingCopy = new HashSet<TimerBasicStatistics>(statsByTask.values());
-        Set<TimerBasicStatistics> snapshotSet = new HashSet<TimerBasicStatistics>(workingCopy.size());
+        Collection<TimerBasicStatistics> workingCopy = getAllTimerStatistics();
+        List<TimerBasicStatistics> snapshots = new ArrayList<TimerBasicStatistics>(workingCopy.size());
         for(TimerBasicStatistics stat : workingCopy) {
-            snapshotSet.add(stat.getSnapshot());
+            snapshots.add(stat.getSnapshot());
         }
-        return snapshotSet;
+        return snapshots;
     }
 
 }
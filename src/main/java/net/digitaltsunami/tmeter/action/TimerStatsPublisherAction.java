@@ -4,6 +4,17 @@
 package net.digitaltsunami.tmeter.action;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import net.digitaltsunami.tmeter.Timer;
 import net.digitaltsunami.tmeter.TimerBasicStatistics;
@@ -12,15 +23,52 @@ import net.digitaltsunami.tmeter.TimerBasicStatistics;
  * Timer statistics action that publishes all accumulated statistics to the
  * provided {@link TimerStatsPublisher}.
  * <p>
- * Note: This action is defined to accumulate and publish statistic with each
- * completion of a timer. As such, the publisher may come under heavy load.
+ * Note: By default, this action is defined to accumulate and publish statistic
+ * with each completion of a timer. As such, the publisher may come under heavy
+ * load.
+ * <p>
+ * <strong>Interval Publishing</strong>
+ * <p>
+ * An action created with a publish interval instead records the names of the
+ * tasks whose statistics have changed and publishes a single snapshot of each
+ * changed task once per interval from a separate thread. The processing of
+ * timers then only accumulates the statistics. Changed tasks are also
+ * published prior to a reset, when the {@link ActionChain} processing this
+ * action shuts down and when {@link #close()} is invoked, so that the final
+ * values are not lost.
+ * <p>
+ * An exception thrown by the publisher while publishing an interval is logged
+ * and the tasks not yet published are published with the next interval.
  * 
  * @author dhagberg
  * 
  */
 public class TimerStatsPublisherAction extends TimerStatsAction {
+    private static final Logger LOG = Logger.getLogger(TimerStatsPublisherAction.class
+            .getName());
+
     private final TimerStatsPublisher publisher;
 
+    /**
+     * Milliseconds between publishing changed tasks or zero to publish upon
+     * completion of every timer.
+     */
+    private final long publishIntervalMillis;
+
+    /**
+     * Names of the tasks changed since last published. Shared with the shard
+     * instances of this action.
+     */
+    private final Set<String> changedTasks;
+
+    /**
+     * Action publishing the changed tasks. This instance unless this is a
+     * shard instance.
+     */
+    private final TimerStatsPublisherAction root;
+
+    private final ScheduledExecutorService scheduler;
+
     /**
      * Create an instance with the required publisher.
      * 
@@ -28,11 +76,95 @@ public class TimerStatsPublisherAction extends TimerStatsAction {
      *            Publisher to which all events will be sent.
      */
     public TimerStatsPublisherAction(TimerStatsPublisher publisher) {
-        super();
+        this(publisher, false);
+    }
+
+    /**
+     * Create an instance with the required publisher and the option of
+     * accumulating statistics using striped statistics.
+     * 
+     * @param publisher
+     *            Publisher to which all events will be sent.
+     * @param striped
+     *            true to use striped statistics, false otherwise.
+     * @see TimerStatsAction#TimerStatsAction(boolean)
+     */
+    public TimerStatsPublisherAction(TimerStatsPublisher publisher, boolean striped) {
+        this(publisher, striped, 0L);
+    }
+
+    /**
+     * Create an instance that publishes the statistics of changed tasks once
+     * per interval.
+     * 
+     * @param publisher
+     *            Publisher to which all events will be sent.
+     * @param striped
+     *            true to use striped statistics, false otherwise.
+     * @param publishIntervalMillis
+     *            milliseconds between publishing changed tasks or zero to
+     *            publish upon completion of every timer.
+     */
+    public TimerStatsPublisherAction(TimerStatsPublisher publisher, boolean striped,
+            long publishIntervalMillis) {
+        super(striped);
         if (publisher == null) {
             throw new IllegalArgumentException("Publisher cannot be null");
         }
+        if (publishIntervalMillis < 0) {
+            throw new IllegalArgumentException("Publish interval must not be negative");
+        }
         this.publisher = publisher;
+        this.publishIntervalMillis = publishIntervalMillis;
+        this.root = this;
+        if (publishIntervalMillis > 0) {
+            changedTasks = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable target) {
+                    Thread thread = new Thread(target, "TimerStatsPublisherAction-publish");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        publishChanged();
+                    } catch (RuntimeException e) {
+                        // An exception would cancel all later intervals. Tasks
+                        // not yet published remain changed for the next one.
+                        LOG.log(Level.WARNING, "Unable to publish timer statistics.", e);
+                    }
+                }
+            }, publishIntervalMillis, publishIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            changedTasks = null;
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Create a shard instance that accumulates statistics for its tasks while
+     * the provided action publishes them. When publishing once per interval,
+     * changed tasks are recorded in the set of the provided action.
+     */
+    private TimerStatsPublisherAction(TimerStatsPublisherAction root) {
+        super(root.isStriped());
+        this.publisher = root.publisher;
+        this.publishIntervalMillis = root.publishIntervalMillis;
+        this.changedTasks = root.changedTasks;
+        this.root = root;
+        this.scheduler = null;
+    }
+
+    /**
+     * @return milliseconds between publishing changed tasks or zero if
+     *         statistics are published upon completion of every timer.
+     */
+    public long getPublishIntervalMillis() {
+        return publishIntervalMillis;
     }
 
     /*
@@ -45,16 +177,136 @@ public class TimerStatsPublisherAction extends TimerStatsAction {
     @Override
     protected void processTimer(Timer timer) {
         super.processTimer(timer);
-        publisher.publish(getTimerStatisticsSnapshot(timer.getTaskName()));
+        if (changedTasks != null) {
+            changedTasks.add(timer.getTaskName());
+        } else {
+            publisher.publish(root.getTimerStatisticsSnapshot(timer.getTaskName()));
+        }
+    }
+
+    /**
+     * Process each timer individually so that statistics are published upon
+     * completion of every timer. When publishing once per interval, the batch
+     * is accumulated as a whole and each task in the batch is recorded as
+     * changed.
+     * 
+     * @see net.digitaltsunami.tmeter.action.TimerStatsAction#processTimers(java.util.List)
+     */
+    @Override
+    protected void processTimers(List<Timer> timers) {
+        if (changedTasks != null) {
+            super.processTimers(timers);
+            String currentTask = null;
+            for (int i = 0, size = timers.size(); i < size; i++) {
+                String taskName = timers.get(i).getTaskName();
+                if (i == 0 || !taskName.equals(currentTask)) {
+                    changedTasks.add(taskName);
+                    currentTask = taskName;
+                }
+            }
+            return;
+        }
+        for (int i = 0, size = timers.size(); i < size; i++) {
+            processTimer(timers.get(i));
+        }
     }
 
     /*
      * (non-Javadoc)
      * 
+     * @see
+     * net.digitaltsunami.tmeter.action.TimerStatsAction#processElapsed(java.
+     * lang.String, long)
+     */
+    @Override
+    protected void processElapsed(String taskName, long elapsedNanos) {
+        super.processElapsed(taskName, elapsedNanos);
+        if (changedTasks != null) {
+            changedTasks.add(taskName);
+        } else {
+            publisher.publish(root.getTimerStatisticsSnapshot(taskName));
+        }
+    }
+
+    /**
+     * Publish a snapshot of each task changed since last published. Has no
+     * effect unless publishing once per interval.
+     */
+    public void publishChanged() {
+        if (changedTasks == null) {
+            return;
+        }
+        if (root != this) {
+            root.publishChanged();
+            return;
+        }
+        synchronized (changedTasks) {
+            for (Iterator<String> iter = changedTasks.iterator(); iter.hasNext();) {
+                String taskName = iter.next();
+                // Remove prior to the snapshot so that later changes are
+                // published by the next interval.
+                iter.remove();
+                TimerBasicStatistics stats = getTimerStatisticsSnapshot(taskName);
+                if (stats != null) {
+                    publisher.publish(stats);
+                }
+            }
+        }
+    }
+
+    /**
+     * Publish the changed tasks and stop publishing once per interval. Timers
+     * processed afterward are accumulated but not published until the next
+     * reset or invocation of {@link #publishChanged()}.
+     */
+    public void close() {
+        if (root != this) {
+            root.close();
+            return;
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        publishChanged();
+    }
+
+    /**
+     * Create an instance for a single shard using the same publisher. Only
+     * this instance resets the publisher. When publishing once per interval,
+     * the shard records its changed tasks with this instance, which publishes
+     * them.
+     * 
+     * @see net.digitaltsunami.tmeter.action.TimerStatsAction#newShard()
+     */
+    @Override
+    protected TimerStatsAction newShard() {
+        return new TimerStatsPublisherAction(this);
+    }
+
+    /**
+     * Publish the changed tasks so that no values are lost.
+     * 
+     * @see net.digitaltsunami.tmeter.action.TimerAction#shutdown()
+     */
+    @Override
+    protected void shutdown() {
+        close();
+    }
+
+    /**
+     * Publish the changed tasks, if publishing once per interval, followed by
+     * the statistics prior to the reset.
+     * 
      * @see net.digitaltsunami.tmeter.action.TimerStatsAction#reset()
      */
     @Override
     protected void reset() {
+        if (root != this) {
+            // Published by the root instance.
+            super.reset();
+            return;
+        }
+        publishChanged();
         Collection<TimerBasicStatistics> stats = getAllTimerStatisticsSnapshot();
         super.reset();
         publisher.reset(stats);
@@ -0,0 +1,478 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import net.digitaltsunami.tmeter.ConcurrencyStatistics;
+import net.digitaltsunami.tmeter.LatencyHistogram;
+import net.digitaltsunami.tmeter.NamedTimeTracker;
+import net.digitaltsunami.tmeter.TimerBasicStatistics;
+import net.digitaltsunami.tmeter.action.TimerStatsAction;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Exports the statistics of one or more {@link NamedTimeTracker}s in the
+ * Prometheus text exposition format. The statistics can be served over HTTP
+ * using the HTTP server built into the JDK, see {@link #start(int)}, or
+ * retrieved using {@link #getMetrics()} and served by the application.
+ * <p>
+ * The statistics of each tracker are provided by a {@link TimerStatsAction}
+ * and labeled with the name of the tracker and the task. The following
+ * families are exported:
+ * <ul>
+ * <li><code>tmeter_task_duration_seconds</code>: summary of the elapsed time
+ * of each task. Quantiles are included if the statistics maintain a
+ * histogram. See {@link TimerStatsAction#enableHistogram(int, long, TimeUnit)}.
+ * </li>
+ * <li><code>tmeter_task_duration_histogram_seconds</code>: histogram of the
+ * elapsed time of each task maintaining a histogram. The upper bounds of the
+ * buckets are set using {@link #setBuckets(double...)}.</li>
+ * <li><code>tmeter_task_duration_min_seconds</code> and
+ * <code>tmeter_task_duration_max_seconds</code>: minimum and maximum elapsed
+ * time of each task.</li>
+ * <li><code>tmeter_task_concurrent</code>: number of running timers of each
+ * task for trackers counting concurrent timers. See
+ * {@link NamedTimeTracker#setTrackConcurrent(boolean)}.</li>
+ * </ul>
+ * <p>
+ * The rendered output is cached and regenerated at most once per scrape
+ * interval. Snapshots of the statistics are taken only when regenerating, so
+ * any number of scrapers within the interval share a single rendering and do
+ * not add to the work of the threads updating the statistics. The default
+ * interval is {@link #DEFAULT_SCRAPE_INTERVAL_MILLIS}.
+ * 
+ * @author dhagberg
+ * 
+ */
+public class PrometheusExporter {
+
+    /**
+     * Content type of the text exposition format.
+     */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * Path served by the HTTP server.
+     */
+    public static final String METRICS_PATH = "/metrics";
+
+    /**
+     * Default number of milliseconds the rendered output is reused.
+     */
+    public static final long DEFAULT_SCRAPE_INTERVAL_MILLIS = 1000L;
+
+    /**
+     * Default upper bounds, in seconds, of the histogram buckets.
+     */
+    public static final double[] DEFAULT_BUCKETS = { 0.0005, 0.001, 0.0025, 0.005, 0.01,
+            0.025, 0.05, 0.1, 0.25, 0.5, 1.0, 2.5, 5.0, 10.0 };
+
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+    private static final String DURATION = "tmeter_task_duration_seconds";
+    private static final String HISTOGRAM = "tmeter_task_duration_histogram_seconds";
+    private static final String MIN = "tmeter_task_duration_min_seconds";
+    private static final String MAX = "tmeter_task_duration_max_seconds";
+    private static final String CONCURRENT = "tmeter_task_concurrent";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Sources by tracker name. Guarded by this.
+     */
+    private final Map<String, Source> sources = new TreeMap<String, Source>();
+
+    private volatile long scrapeIntervalNanos = TimeUnit.MILLISECONDS
+            .toNanos(DEFAULT_SCRAPE_INTERVAL_MILLIS);
+    private volatile double[] buckets = DEFAULT_BUCKETS.clone();
+
+    /**
+     * Buffer reused for each rendering. Guarded by this.
+     */
+    private final StringBuilder buffer = new StringBuilder(4096);
+
+    /**
+     * Last rendered output. Guarded by this.
+     */
+    private byte[] metrics;
+
+    /**
+     * Time of the last rendering. Guarded by this.
+     */
+    private long renderedNanos;
+
+    /**
+     * Server started by {@link #start(InetSocketAddress)}. Guarded by this.
+     */
+    private HttpServer server;
+
+    /**
+     * Export the statistics of the tracker. Replaces the statistics of any
+     * tracker previously added with the same name.
+     * 
+     * @param tracker
+     *            tracker providing the name and the concurrent counts.
+     * @param statsAction
+     *            source of the statistics of the tracker.
+     */
+    public synchronized void addTracker(NamedTimeTracker tracker, TimerStatsAction statsAction) {
+        if (tracker == null || statsAction == null) {
+            throw new IllegalArgumentException("Tracker and statistics action must not be null");
+        }
+        sources.put(tracker.getName(), new Source(tracker, statsAction));
+        metrics = null;
+    }
+
+    /**
+     * Stop exporting the statistics of the tracker with the provided name.
+     * 
+     * @param trackerName
+     *            name of tracker.
+     * @return true if the tracker was exported.
+     */
+    public synchronized boolean removeTracker(String trackerName) {
+        metrics = null;
+        return sources.remove(trackerName) != null;
+    }
+
+    /**
+     * @return the number of milliseconds the rendered output is reused.
+     */
+    public long getScrapeIntervalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(scrapeIntervalNanos);
+    }
+
+    /**
+     * Set the number of milliseconds the rendered output is reused. A value of
+     * zero renders the output for every request.
+     * 
+     * @param scrapeIntervalMillis
+     *            number of milliseconds.
+     */
+    public void setScrapeIntervalMillis(long scrapeIntervalMillis) {
+        if (scrapeIntervalMillis < 0) {
+            throw new IllegalArgumentException("Scrape interval must not be negative");
+        }
+        scrapeIntervalNanos = TimeUnit.MILLISECONDS.toNanos(scrapeIntervalMillis);
+    }
+
+    /**
+     * @return a copy of the upper bounds, in seconds, of the histogram buckets.
+     */
+    public double[] getBuckets() {
+        return buckets.clone();
+    }
+
+    /**
+     * Set the upper bounds, in seconds, of the histogram buckets. A bucket
+     * with an upper bound of +Inf is always included. Providing no bounds
+     * disables the histogram family.
+     * 
+     * @param upperBounds
+     *            increasing upper bounds in seconds.
+     */
+    public synchronized void setBuckets(double... upperBounds) {
+        for (int i = 1; i < upperBounds.length; i++) {
+            if (!(upperBounds[i] > upperBounds[i - 1])) {
+                throw new IllegalArgumentException("Bucket bounds must be increasing");
+            }
+        }
+        buckets = upperBounds.clone();
+        metrics = null;
+    }
+
+    /**
+     * Return the statistics of all trackers in the text exposition format.
+     * The output is regenerated if the scrape interval has elapsed since it was
+     * last generated.
+     * 
+     * @return UTF-8 encoded output. The array is shared and must not be
+     *         modified.
+     */
+    public synchronized byte[] getMetrics() {
+        long now = System.nanoTime();
+        if (metrics == null || now - renderedNanos >= scrapeIntervalNanos) {
+            buffer.setLength(0);
+            render(buffer);
+            metrics = buffer.toString().getBytes(UTF8);
+            renderedNanos = now;
+        }
+        return metrics;
+    }
+
+    /**
+     * Start serving the statistics at {@link #METRICS_PATH} on all interfaces.
+     * 
+     * @param port
+     *            port to listen on or 0 to use any available port.
+     * @return address the server is listening on.
+     */
+    public InetSocketAddress start(int port) {
+        return start(new InetSocketAddress(port));
+    }
+
+    /**
+     * Start serving the statistics at {@link #METRICS_PATH}. Requests are
+     * handled by a single thread. As the output is cached, concurrent scrapers
+     * are served without waiting on the statistics.
+     * 
+     * @param address
+     *            address to listen on.
+     * @return address the server is listening on.
+     */
+    public synchronized InetSocketAddress start(InetSocketAddress address) {
+        if (server != null) {
+            throw new IllegalStateException("Exporter already started");
+        }
+        try {
+            server = HttpServer.create(address, 0);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to listen on " + address, e);
+        }
+        server.createContext(METRICS_PATH, new MetricsHandler());
+        server.start();
+        return server.getAddress();
+    }
+
+    /**
+     * Stop serving the statistics. Has no effect if not started.
+     */
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    /**
+     * @return the address the server is listening on or null if not started.
+     */
+    public synchronized InetSocketAddress getAddress() {
+        return server == null ? null : server.getAddress();
+    }
+
+    /**
+     * Render all families. Snapshots are taken once and used by each family.
+     */
+    private void render(StringBuilder out) {
+        List<String> trackerNames = new ArrayList<String>(sources.size());
+        List<Collection<TimerBasicStatistics>> stats =
+                new ArrayList<Collection<TimerBasicStatistics>>(sources.size());
+        List<Collection<ConcurrencyStatistics>> concurrency =
+                new ArrayList<Collection<ConcurrencyStatistics>>(sources.size());
+        for (Map.Entry<String, Source> entry : sources.entrySet()) {
+            trackerNames.add(entry.getKey());
+            stats.add(entry.getValue().statsAction.getAllTimerStatisticsSnapshot());
+            concurrency.add(entry.getValue().tracker.getAllConcurrencyStatistics(false));
+        }
+
+        header(out, DURATION, "summary", "Elapsed time of the timers of a task.");
+        for (int i = 0; i < trackerNames.size(); i++) {
+            for (TimerBasicStatistics stat : stats.get(i)) {
+                String labels = labels(trackerNames.get(i), stat.getTaskName());
+                if (stat.hasHistogram()) {
+                    for (double quantile : QUANTILES) {
+                        sample(out, DURATION, labels, "quantile", quantile,
+                                seconds(stat.getPercentileNanos(quantile * 100.0)));
+                    }
+                }
+                sample(out, DURATION + "_sum", labels, seconds(stat.getTotalElapsedNanos()));
+                sample(out, DURATION + "_count", labels, stat.getCount());
+            }
+        }
+
+        double[] upperBounds = buckets;
+        if (upperBounds.length > 0) {
+            header(out, HISTOGRAM, "histogram", "Elapsed time of the timers of a task.");
+            for (int i = 0; i < trackerNames.size(); i++) {
+                for (TimerBasicStatistics stat : stats.get(i)) {
+                    if (!stat.hasHistogram()) {
+                        continue;
+                    }
+                    String labels = labels(trackerNames.get(i), stat.getTaskName());
+                    LatencyHistogram histogram = stat.getHistogram();
+                    for (double upperBound : upperBounds) {
+                        sample(out, HISTOGRAM + "_bucket", labels, "le", upperBound,
+                                histogram.getCountAtOrBelow((long) (upperBound * NANOS_PER_SECOND)));
+                    }
+                    sample(out, HISTOGRAM + "_bucket", labels, "le", Double.POSITIVE_INFINITY,
+                            histogram.getTotalCount());
+                    sample(out, HISTOGRAM + "_sum", labels, seconds(stat.getTotalElapsedNanos()));
+                    sample(out, HISTOGRAM + "_count", labels, histogram.getTotalCount());
+                }
+            }
+        }
+
+        header(out, MIN, "gauge", "Minimum elapsed time of the timers of a task.");
+        for (int i = 0; i < trackerNames.size(); i++) {
+            for (TimerBasicStatistics stat : stats.get(i)) {
+                sample(out, MIN, labels(trackerNames.get(i), stat.getTaskName()),
+                        seconds(stat.getMinElapsedNanos()));
+            }
+        }
+        header(out, MAX, "gauge", "Maximum elapsed time of the timers of a task.");
+        for (int i = 0; i < trackerNames.size(); i++) {
+            for (TimerBasicStatistics stat : stats.get(i)) {
+                sample(out, MAX, labels(trackerNames.get(i), stat.getTaskName()),
+                        seconds(stat.getMaxElapsedNanos()));
+            }
+        }
+
+        header(out, CONCURRENT, "gauge", "Number of running timers of a task.");
+        for (int i = 0; i < trackerNames.size(); i++) {
+            for (ConcurrencyStatistics stat : concurrency.get(i)) {
+                sample(out, CONCURRENT, labels(trackerNames.get(i), stat.getTaskName()),
+                        stat.getCurrent());
+            }
+        }
+    }
+
+    private static void header(StringBuilder out, String family, String type, String help) {
+        out.append("# HELP ").append(family).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(family).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name).append('{').append(labels).append("} ");
+        appendValue(out, value);
+        out.append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, String label,
+            double labelValue, double value) {
+        out.append(name).append('{').append(labels).append(',').append(label).append("=\"");
+        appendValue(out, labelValue);
+        out.append("\"} ");
+        appendValue(out, value);
+        out.append('\n');
+    }
+
+    private static void appendValue(StringBuilder out, double value) {
+        if (value == Double.POSITIVE_INFINITY) {
+            out.append("+Inf");
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / NANOS_PER_SECOND;
+    }
+
+    /**
+     * Return the tracker and task labels with the values escaped.
+     */
+    private static String labels(String trackerName, String taskName) {
+        StringBuilder sb = new StringBuilder(trackerName.length() + taskName.length() + 20);
+        sb.append("tracker=\"");
+        escape(sb, trackerName);
+        sb.append("\",task=\"");
+        escape(sb, taskName);
+        sb.append('"');
+        return sb.toString();
+    }
+
+    private static void escape(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '\\':
+                sb.append("\\\\");
+                break;
+            case '"':
+                sb.append("\\\"");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            default:
+                sb.append(c);
+            }
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public synchronized String toString() {
+        return "PrometheusExporter [trackers=" + sources.keySet() + ", buckets="
+                + Arrays.toString(buckets) + "]";
+    }
+
+    /**
+     * Tracker and action providing the statistics of the tracker.
+     */
+    private static class Source {
+        private final NamedTimeTracker tracker;
+        private final TimerStatsAction statsAction;
+
+        private Source(NamedTimeTracker tracker, TimerStatsAction statsAction) {
+            this.tracker = tracker;
+            this.statsAction = statsAction;
+        }
+    }
+
+    /**
+     * Serves the cached output.
+     */
+    private class MetricsHandler implements HttpHandler {
+        /*
+         * (non-Javadoc)
+         * 
+         * @see com.sun.net.httpserver.HttpHandler#handle(com.sun.net.httpserver.HttpExchange)
+         */
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                String method = exchange.getRequestMethod();
+                if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+                byte[] body = getMetrics();
+                exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                if ("HEAD".equals(method)) {
+                    exchange.sendResponseHeaders(200, -1);
+                    return;
+                }
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+}
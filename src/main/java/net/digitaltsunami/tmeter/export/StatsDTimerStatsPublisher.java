@@ -0,0 +1,428 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter.export;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import net.digitaltsunami.tmeter.TimerBasicStatistics;
+import net.digitaltsunami.tmeter.action.TimerStatsPublisher;
+import net.digitaltsunami.tmeter.action.TimerStatsPublisherAction;
+
+/**
+ * {@link TimerStatsPublisher} that forwards statistics to a StatsD compatible
+ * server over UDP.
+ * <p>
+ * Statistics provided to {@link #publish(TimerBasicStatistics)} are not sent
+ * immediately. Only the latest statistics of each task are retained and sent
+ * when flushed, so a {@link TimerStatsPublisherAction} publishing upon the
+ * completion of every timer results in a single set of metrics per task per
+ * flush. Pending statistics are flushed every flush interval, when the number
+ * of tasks pending reaches {@link #getMaxPendingTasks()} and when
+ * {@link #flush()} or {@link #close()} is invoked.
+ * <p>
+ * When flushed, the following metrics are sent for each task, with the task
+ * name prefixed by the prefix provided:
+ * <ul>
+ * <li><code>task.count:n|c</code>: number of timers since the last flush.</li>
+ * <li><code>task.mean:ms|g</code>: mean elapsed time of the timers since the
+ * last flush. Only sent if there were timers.</li>
+ * <li><code>task.min:ms|g</code> and <code>task.max:ms|g</code>: minimum and
+ * maximum elapsed time of the statistics.</li>
+ * <li><code>task.p50:ms|g</code>, <code>task.p90:ms|g</code> and
+ * <code>task.p99:ms|g</code>: percentiles of the elapsed time if the
+ * statistics maintain a histogram.</li>
+ * </ul>
+ * Times are in milliseconds. The characters <code>:|@</code> and whitespace
+ * are replaced with an underscore in task names.
+ * <p>
+ * As many metrics as fit are packed into each datagram, separated by
+ * newlines, up to the maximum packet size. The default of
+ * {@link #DEFAULT_MAX_PACKET_SIZE} fits within the MTU of most networks. A
+ * single buffer is reused for every datagram.
+ * <p>
+ * Statistics are cumulative, so the count of each flush is the difference from
+ * the count last sent. If the count decreases, such as following a reset, the
+ * statistics are treated as having restarted from zero. Statistics provided
+ * to {@link #reset(Collection)} are flushed immediately so that the final
+ * values prior to the reset are not lost, and the counts last sent for those
+ * tasks are discarded so that the next flush counts from zero.
+ * <p>
+ * UDP delivery is not guaranteed. Failures sending a datagram are counted and
+ * the datagram is discarded. See {@link #getSendErrorCount()}.
+ * 
+ * @author dhagberg
+ * 
+ */
+public class StatsDTimerStatsPublisher implements TimerStatsPublisher {
+
+    /**
+     * Default maximum number of bytes sent in a single datagram.
+     */
+    public static final int DEFAULT_MAX_PACKET_SIZE = 1432;
+
+    /**
+     * Default number of milliseconds between flushes.
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000L;
+
+    /**
+     * Default number of tasks pending that triggers a flush.
+     */
+    public static final int DEFAULT_MAX_PENDING_TASKS = 64;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final double[] PERCENTILES = { 50.0, 90.0, 99.0 };
+
+    private final InetSocketAddress address;
+    private final String prefix;
+    private final DatagramChannel channel;
+    private final ByteBuffer buffer;
+    private final ScheduledExecutorService flusher;
+
+    private volatile int maxPendingTasks = DEFAULT_MAX_PENDING_TASKS;
+
+    /**
+     * Latest statistics of each task not yet sent. Guarded by this.
+     */
+    private final Map<String, TimerBasicStatistics> pending =
+            new LinkedHashMap<String, TimerBasicStatistics>();
+
+    /**
+     * Count and total elapsed time last sent for each task. Guarded by this.
+     */
+    private final Map<String, long[]> sent = new HashMap<String, long[]>();
+
+    /**
+     * Reused to build each metric. Guarded by this.
+     */
+    private final StringBuilder line = new StringBuilder(128);
+
+    private volatile long packetsSent;
+    private volatile long sendErrorCount;
+    private volatile boolean closed;
+
+    /**
+     * Create a publisher sending to the provided host and port using the
+     * default prefix, <code>tmeter.</code>, packet size and flush interval.
+     * 
+     * @param host
+     *            host name or address of StatsD server.
+     * @param port
+     *            port of StatsD server.
+     * @throws IOException
+     *             if the channel could not be opened.
+     * @throws IllegalArgumentException
+     *             if the host can not be resolved.
+     */
+    public StatsDTimerStatsPublisher(String host, int port) throws IOException {
+        this(new InetSocketAddress(host, port), "tmeter.", DEFAULT_MAX_PACKET_SIZE,
+                DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Create a publisher sending to the provided address.
+     * 
+     * @param address
+     *            address of StatsD server.
+     * @param prefix
+     *            prefix of every metric name, such as <code>app.</code>. May
+     *            be empty.
+     * @param maxPacketSize
+     *            maximum number of bytes sent in a single datagram.
+     * @param flushIntervalMillis
+     *            milliseconds between flushes or 0 to flush only on size or
+     *            when requested.
+     * @throws IOException
+     *             if the channel could not be opened.
+     * @throws IllegalArgumentException
+     *             if the address is unresolved.
+     */
+    public StatsDTimerStatsPublisher(InetSocketAddress address, String prefix,
+            int maxPacketSize, long flushIntervalMillis) throws IOException {
+        if (address == null || prefix == null) {
+            throw new IllegalArgumentException("Address and prefix must not be null");
+        }
+        if (address.isUnresolved()) {
+            throw new IllegalArgumentException("Unable to resolve StatsD host: "
+                    + address.getHostName());
+        }
+        if (maxPacketSize < 64) {
+            throw new IllegalArgumentException("Maximum packet size must be at least 64: "
+                    + maxPacketSize);
+        }
+        if (flushIntervalMillis < 0) {
+            throw new IllegalArgumentException("Flush interval must not be negative");
+        }
+        this.address = address;
+        this.prefix = prefix;
+        this.buffer = ByteBuffer.allocate(maxPacketSize);
+        this.channel = DatagramChannel.open();
+        if (flushIntervalMillis > 0) {
+            flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable target) {
+                    Thread thread = new Thread(target, "StatsDTimerStatsPublisher-flush");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            flusher.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        flush();
+                    } catch (RuntimeException e) {
+                        // An exception would cancel all later flushes.
+                        synchronized (StatsDTimerStatsPublisher.this) {
+                            sendErrorCount++;
+                        }
+                    }
+                }
+            }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see net.digitaltsunami.tmeter.action.TimerStatsPublisher#publish(net.digitaltsunami.tmeter.TimerBasicStatistics)
+     */
+    @Override
+    public synchronized void publish(TimerBasicStatistics stats) {
+        if (closed) {
+            return;
+        }
+        pending.put(stats.getTaskName(), stats);
+        if (pending.size() >= maxPendingTasks) {
+            flush();
+        }
+    }
+
+    /**
+     * Send the statistics prior to the reset and discard the counts last sent
+     * for the tasks reset.
+     * 
+     * @see net.digitaltsunami.tmeter.action.TimerStatsPublisher#reset(java.util.Collection)
+     */
+    @Override
+    public synchronized void reset(Collection<TimerBasicStatistics> stats) {
+        if (closed) {
+            return;
+        }
+        for (TimerBasicStatistics stat : stats) {
+            pending.put(stat.getTaskName(), stat);
+        }
+        flush();
+        for (TimerBasicStatistics stat : stats) {
+            sent.remove(stat.getTaskName());
+        }
+    }
+
+    /**
+     * Send the statistics of all pending tasks.
+     */
+    public synchronized void flush() {
+        if (closed || pending.isEmpty()) {
+            return;
+        }
+        buffer.clear();
+        for (TimerBasicStatistics stat : pending.values()) {
+            String name = metricName(stat.getTaskName());
+            long[] last = sent.get(stat.getTaskName());
+            if (last == null) {
+                last = new long[2];
+                sent.put(stat.getTaskName(), last);
+            }
+            long count = stat.getCount();
+            long total = stat.getTotalElapsedNanos();
+            if (count < last[0]) {
+                // Restarted since last sent.
+                last[0] = 0;
+                last[1] = 0;
+            }
+            long deltaCount = count - last[0];
+            long deltaTotal = total - last[1];
+            last[0] = count;
+            last[1] = total;
+
+            append(name, ".count:", deltaCount, "|c");
+            if (deltaCount > 0) {
+                append(name, ".mean:", deltaTotal / NANOS_PER_MILLI / deltaCount, "|g");
+            }
+            if (count > 0) {
+                append(name, ".min:", stat.getMinElapsedNanos() / NANOS_PER_MILLI, "|g");
+                append(name, ".max:", stat.getMaxElapsedNanos() / NANOS_PER_MILLI, "|g");
+                if (stat.hasHistogram()) {
+                    for (double percentile : PERCENTILES) {
+                        append(name, ".p" + (int) percentile + ":",
+                                stat.getPercentileNanos(percentile) / NANOS_PER_MILLI, "|g");
+                    }
+                }
+            }
+        }
+        pending.clear();
+        send();
+    }
+
+    /**
+     * Flush pending statistics, stop the scheduled flushes and close the
+     * channel. Statistics published after closing are discarded.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        flush();
+        closed = true;
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+        try {
+            channel.close();
+        } catch (IOException ignore) {
+            // Nothing further to send.
+        }
+    }
+
+    /**
+     * @return the address of the StatsD server.
+     */
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * @return the number of tasks pending that triggers a flush.
+     */
+    public int getMaxPendingTasks() {
+        return maxPendingTasks;
+    }
+
+    /**
+     * Set the number of tasks pending that triggers a flush on the publishing
+     * thread.
+     * 
+     * @param maxPendingTasks
+     *            number of tasks. Must be at least 1.
+     */
+    public void setMaxPendingTasks(int maxPendingTasks) {
+        if (maxPendingTasks < 1) {
+            throw new IllegalArgumentException("Maximum pending tasks must be at least 1: "
+                    + maxPendingTasks);
+        }
+        this.maxPendingTasks = maxPendingTasks;
+    }
+
+    /**
+     * @return the number of datagrams sent.
+     */
+    public long getPacketsSent() {
+        return packetsSent;
+    }
+
+    /**
+     * @return the number of datagrams that could not be sent and scheduled
+     *         flushes that failed.
+     */
+    public long getSendErrorCount() {
+        return sendErrorCount;
+    }
+
+    /**
+     * Append a single metric to the buffer, sending the buffer first if the
+     * metric does not fit. Metrics larger than a datagram are discarded.
+     */
+    private void append(String name, String suffix, double value, String type) {
+        line.setLength(0);
+        line.append(name).append(suffix);
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            line.append((long) value);
+        } else {
+            line.append(value);
+        }
+        line.append(type);
+        byte[] bytes = line.toString().getBytes(UTF8);
+        int separator = buffer.position() > 0 ? 1 : 0;
+        if (buffer.remaining() < bytes.length + separator) {
+            send();
+            separator = 0;
+            if (buffer.remaining() < bytes.length) {
+                return;
+            }
+        }
+        if (separator > 0) {
+            buffer.put((byte) '\n');
+        }
+        buffer.put(bytes);
+    }
+
+    /**
+     * Send the contents of the buffer as a single datagram.
+     */
+    private void send() {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        try {
+            channel.send(buffer, address);
+            packetsSent++;
+        } catch (IOException e) {
+            sendErrorCount++;
+        } catch (RuntimeException e) {
+            // Such as an address that is no longer resolvable. Not thrown to
+            // the action chain or the scheduled flush.
+            sendErrorCount++;
+        }
+        buffer.clear();
+    }
+
+    private String metricName(String taskName) {
+        StringBuilder sb = new StringBuilder(prefix.length() + taskName.length());
+        sb.append(prefix);
+        for (int i = 0; i < taskName.length(); i++) {
+            char c = taskName.charAt(i);
+            sb.append(c == ':' || c == '|' || c == '@' || Character.isWhitespace(c) ? '_' : c);
+        }
+        return sb.toString();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "StatsDTimerStatsPublisher [address=" + address + ", prefix=" + prefix
+                + ", maxPacketSize=" + buffer.capacity() + "]";
+    }
+}
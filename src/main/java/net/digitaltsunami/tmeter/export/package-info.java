@@ -0,0 +1,16 @@
+/**
+ * Export of tracker statistics to external monitoring systems.
+ * <p>
+ * {@link net.digitaltsunami.tmeter.export.PrometheusExporter} renders the
+ * statistics of one or more
+ * {@link net.digitaltsunami.tmeter.NamedTimeTracker}s in the Prometheus text
+ * exposition format and optionally serves them over HTTP using the HTTP server
+ * built into the JDK.
+ * <p>
+ * {@link net.digitaltsunami.tmeter.export.StatsDTimerStatsPublisher} forwards
+ * the statistics published by a
+ * {@link net.digitaltsunami.tmeter.action.TimerStatsPublisherAction} to a
+ * StatsD compatible server, aggregating them locally and packing many metrics
+ * into each UDP datagram.
+ */
+package net.digitaltsunami.tmeter.export;
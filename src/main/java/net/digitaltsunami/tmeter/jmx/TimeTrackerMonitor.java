@@ -0,0 +1,402 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter.jmx;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
+import net.digitaltsunami.tmeter.NamedTimeTracker;
+import net.digitaltsunami.tmeter.TimerBasicStatistics;
+import net.digitaltsunami.tmeter.action.TimerStatsAction;
+import net.digitaltsunami.tmeter.level.TimerLevel;
+import net.digitaltsunami.tmeter.level.TimerThreshold;
+
+/**
+ * MBean exposing the statistics of a {@link TimerStatsAction} and runtime
+ * control of a {@link NamedTimeTracker}. Registered using
+ * {@link NamedTimeTracker#registerMBean(TimerStatsAction, TimerLevel...)}.
+ * <p>
+ * Statistics are returned as {@link CompositeData} using
+ * {@link #STATISTICS_TYPE}, so any JMX client can read them without TMeter
+ * classes. Percentiles are -1 if the statistics do not maintain a histogram.
+ * <p>
+ * Snapshots of the statistics are taken at most once per snapshot TTL and
+ * shared by all requests within the TTL. A client polling frequently
+ * therefore does not add to the work of the threads updating the statistics.
+ * The default TTL is {@link #DEFAULT_SNAPSHOT_TTL_MILLIS}.
+ * <p>
+ * Timer levels are enabled and disabled by name. The names of the
+ * {@link TimerThreshold} values, the levels provided when registering and the
+ * levels enabled on the tracker are known. The name of a level is the value
+ * returned by its {@link Object#toString()} method.
+ * 
+ * @author dhagberg
+ * 
+ */
+public class TimeTrackerMonitor implements TimeTrackerMonitorMBean {
+
+    /**
+     * Domain of the object names of all monitors.
+     */
+    public static final String DOMAIN = "net.digitaltsunami.tmeter";
+
+    /**
+     * Default number of milliseconds a snapshot of the statistics is reused.
+     */
+    public static final long DEFAULT_SNAPSHOT_TTL_MILLIS = 1000L;
+
+    private static final String[] STATISTICS_ITEMS = { "taskName", "count",
+            "totalNanos", "minNanos", "maxNanos", "meanNanos", "stdDevNanos", "p50Nanos",
+            "p90Nanos", "p99Nanos" };
+
+    /**
+     * Type of the statistics of a single task.
+     */
+    public static final CompositeType STATISTICS_TYPE;
+
+    /**
+     * Type of the statistics of all tasks, indexed by task name.
+     */
+    public static final TabularType STATISTICS_TABLE_TYPE;
+
+    static {
+        try {
+            STATISTICS_TYPE = new CompositeType("TimerBasicStatistics",
+                    "Basic statistics of the timers of a task", STATISTICS_ITEMS,
+                    new String[] { "Name of task", "Number of executions",
+                            "Total elapsed time in nanoseconds",
+                            "Minimum elapsed time in nanoseconds",
+                            "Maximum elapsed time in nanoseconds",
+                            "Mean elapsed time in nanoseconds",
+                            "Standard deviation of elapsed time in nanoseconds",
+                            "50th percentile elapsed time in nanoseconds or -1",
+                            "90th percentile elapsed time in nanoseconds or -1",
+                            "99th percentile elapsed time in nanoseconds or -1" },
+                    new OpenType<?>[] { SimpleType.STRING, SimpleType.INTEGER,
+                            SimpleType.LONG, SimpleType.LONG, SimpleType.LONG,
+                            SimpleType.DOUBLE, SimpleType.DOUBLE, SimpleType.LONG,
+                            SimpleType.LONG, SimpleType.LONG });
+            STATISTICS_TABLE_TYPE = new TabularType("TimerBasicStatisticsTable",
+                    "Basic statistics of the timers of all tasks", STATISTICS_TYPE,
+                    new String[] { "taskName" });
+        } catch (OpenDataException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private final NamedTimeTracker tracker;
+    private final TimerStatsAction statsAction;
+    private final ObjectName objectName;
+    private final Map<String, TimerLevel> knownLevels;
+
+    private volatile long snapshotTtlNanos = TimeUnit.MILLISECONDS
+            .toNanos(DEFAULT_SNAPSHOT_TTL_MILLIS);
+
+    /**
+     * Statistics by task name from the last snapshot. Guarded by this.
+     */
+    private Map<String, CompositeData> snapshot;
+
+    /**
+     * Time of the last snapshot. Guarded by this.
+     */
+    private long snapshotNanos;
+
+    /**
+     * Create a monitor for the tracker.
+     * 
+     * @param tracker
+     *            tracker controlled by the monitor.
+     * @param statsAction
+     *            source of the statistics.
+     * @param knownLevels
+     *            levels, in addition to the {@link TimerThreshold} values, that
+     *            may be enabled by name.
+     */
+    public TimeTrackerMonitor(NamedTimeTracker tracker, TimerStatsAction statsAction,
+            TimerLevel... knownLevels) {
+        if (statsAction == null) {
+            throw new IllegalArgumentException("Statistics action must not be null");
+        }
+        this.tracker = tracker;
+        this.statsAction = statsAction;
+        this.objectName = createObjectName(tracker.getName());
+        this.knownLevels = new LinkedHashMap<String, TimerLevel>();
+        for (TimerLevel level : TimerThreshold.values()) {
+            this.knownLevels.put(level.toString(), level);
+        }
+        for (TimerLevel level : knownLevels) {
+            this.knownLevels.put(level.toString(), level);
+        }
+    }
+
+    /**
+     * Return the object name of the monitor for the tracker with the provided
+     * name.
+     * 
+     * @param trackerName
+     *            name of tracker.
+     * @return object name in the {@link #DOMAIN} domain.
+     */
+    public static ObjectName createObjectName(String trackerName) {
+        try {
+            return new ObjectName(DOMAIN + ":type=NamedTimeTracker,name="
+                    + ObjectName.quote(trackerName));
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalArgumentException("Invalid tracker name: " + trackerName, e);
+        }
+    }
+
+    /**
+     * @return the object name of this monitor.
+     */
+    public ObjectName getObjectName() {
+        return objectName;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see net.digitaltsunami.tmeter.jmx.TimeTrackerMonitorMBean#getName()
+     */
+    @Override
+    public String getName() {
+        return tracker.getName();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see net.digitaltsunami.tmeter.jmx.TimeTrackerMonitorMBean#isTrackingDisabled()
+     */
+    @Override
+    public boolean isTrackingDisabled() {
+        return tracker.isTrackingDisabled();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see net.digitaltsunami.tmeter.jmx.TimeTrackerMonitorMBean#setTrackingDisabled(boolean)
+     */
+    @Override
+    public void setTrackingDisabled(boolean trackingDisabled) {
+        tracker.setTrackingDisabled(trackingDisabled);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see net.digitaltsunami.tmeter.jmx.TimeTrackerMonitorMBean#getEnabledTimerLevels()
+     */
+    @Override
+    public String[] getEnabledTimerLevels() {
+        List<String> names = new ArrayList<String>();
+        for (TimerLevel level : tracker.getEnabledTimerLevels()) {
+            names.add(level.toString());
+        }
+        Collections.sort(names);
+        return names.toArray(new String[names.size()]);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see net.digitaltsunami.tmeter.jmx.TimeTrackerMonitorMBean#getKnownTimerLevels()
+     */
+    @Override
+    public String[] getKnownTimerLevels() {
+        return knownLevels.keySet().toArray(new String[knownLevels.size()]);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see net.digitaltsunami.tmeter.jmx.TimeTrackerMonitorMBean#getTaskNames()
+     */
+    @Override
+    public String[] getTaskNames() {
+        Collection<String> names = getSnapshot().keySet();
+        return names.toArray(new String[names.size()]);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see net.digitaltsunami.tmeter.jmx.TimeTrackerMonitorMBean#getTaskStatistics()
+     */
+    @Override
+    public TabularData getTaskStatistics() {
+        TabularDataSupport table = new TabularDataSupport(STATISTICS_TABLE_TYPE);
+        for (CompositeData stats : getSnapshot().values()) {
+            table.put(stats);
+        }
+        return table;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see net.digitaltsunami.tmeter.jmx.TimeTrackerMonitorMBean#getTaskStatistics(java.lang.String)
+     */
+    @Override
+    public CompositeData getTaskStatistics(String taskName) {
+        return getSnapshot().get(taskName);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see net.digitaltsunami.tmeter.jmx.TimeTrackerMonitorMBean#getSnapshotTtlMillis()
+     */
+    @Override
+    public long getSnapshotTtlMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(snapshotTtlNanos);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see net.digitaltsunami.tmeter.jmx.TimeTrackerMonitorMBean#setSnapshotTtlMillis(long)
+     */
+    @Override
+    public void setSnapshotTtlMillis(long snapshotTtlMillis) {
+        if (snapshotTtlMillis < 0) {
+            throw new IllegalArgumentException("Snapshot TTL must not be negative");
+        }
+        snapshotTtlNanos = TimeUnit.MILLISECONDS.toNanos(snapshotTtlMillis);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see net.digitaltsunami.tmeter.jmx.TimeTrackerMonitorMBean#enableTimerLevel(java.lang.String)
+     */
+    @Override
+    public boolean enableTimerLevel(String levelName) {
+        TimerLevel level = findLevel(levelName);
+        if (level == null) {
+            return false;
+        }
+        tracker.enableTimerLevel(level);
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see net.digitaltsunami.tmeter.jmx.TimeTrackerMonitorMBean#disableTimerLevel(java.lang.String)
+     */
+    @Override
+    public boolean disableTimerLevel(String levelName) {
+        TimerLevel level = findLevel(levelName);
+        return level != null && tracker.disableTimerLevel(level);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see net.digitaltsunami.tmeter.jmx.TimeTrackerMonitorMBean#clearTimerLevels()
+     */
+    @Override
+    public void clearTimerLevels() {
+        tracker.clearTimerLevels();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see net.digitaltsunami.tmeter.jmx.TimeTrackerMonitorMBean#resetStatistics()
+     */
+    @Override
+    public void resetStatistics() {
+        statsAction.resetState();
+        synchronized (this) {
+            snapshot = null;
+        }
+    }
+
+    /**
+     * Return the known or enabled level with the provided name.
+     */
+    private TimerLevel findLevel(String levelName) {
+        TimerLevel level = knownLevels.get(levelName);
+        if (level == null) {
+            for (TimerLevel enabled : tracker.getEnabledTimerLevels()) {
+                if (enabled.toString().equals(levelName)) {
+                    return enabled;
+                }
+            }
+        }
+        return level;
+    }
+
+    /**
+     * Return the current snapshot, taking a new one if the TTL has expired.
+     */
+    private synchronized Map<String, CompositeData> getSnapshot() {
+        long now = System.nanoTime();
+        if (snapshot == null || now - snapshotNanos >= snapshotTtlNanos) {
+            Map<String, CompositeData> stats = new TreeMap<String, CompositeData>();
+            for (TimerBasicStatistics stat : statsAction.getAllTimerStatisticsSnapshot()) {
+                stats.put(stat.getTaskName(), toCompositeData(stat));
+            }
+            snapshot = Collections.unmodifiableMap(stats);
+            snapshotNanos = now;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Convert the statistics to an instance of {@link #STATISTICS_TYPE}.
+     * 
+     * @param stat
+     *            statistics of a single task.
+     * @return statistics as composite data.
+     */
+    public static CompositeData toCompositeData(TimerBasicStatistics stat) {
+        boolean histogram = stat.hasHistogram();
+        Object[] values = { stat.getTaskName(), stat.getCount(), stat.getTotalElapsedNanos(),
+                stat.getMinElapsedNanos(), stat.getMaxElapsedNanos(),
+                stat.getAverageElapsedNanos(), stat.getStdDevElapsedNanos(),
+                histogram ? stat.getPercentileNanos(50.0) : -1L,
+                histogram ? stat.getPercentileNanos(90.0) : -1L,
+                histogram ? stat.getPercentileNanos(99.0) : -1L };
+        try {
+            return new CompositeDataSupport(STATISTICS_TYPE, STATISTICS_ITEMS, values);
+        } catch (OpenDataException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
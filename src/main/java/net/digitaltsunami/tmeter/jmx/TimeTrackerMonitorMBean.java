@@ -0,0 +1,113 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter.jmx;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+/**
+ * Management interface of {@link TimeTrackerMonitor}.
+ * 
+ * @author dhagberg
+ * 
+ */
+public interface TimeTrackerMonitorMBean {
+
+    /**
+     * @return name of the monitored tracker.
+     */
+    public String getName();
+
+    /**
+     * @return true if the tracker is returning timer shells for all requests.
+     */
+    public boolean isTrackingDisabled();
+
+    /**
+     * @param trackingDisabled
+     *            true to disable tracking, false to enable.
+     */
+    public void setTrackingDisabled(boolean trackingDisabled);
+
+    /**
+     * @return names of the timer levels currently enabled.
+     */
+    public String[] getEnabledTimerLevels();
+
+    /**
+     * @return names of the timer levels that may be enabled by name.
+     */
+    public String[] getKnownTimerLevels();
+
+    /**
+     * @return names of all tasks with statistics.
+     */
+    public String[] getTaskNames();
+
+    /**
+     * @return statistics of all tasks indexed by task name.
+     */
+    public TabularData getTaskStatistics();
+
+    /**
+     * @return number of milliseconds a snapshot of the statistics is reused.
+     */
+    public long getSnapshotTtlMillis();
+
+    /**
+     * @param snapshotTtlMillis
+     *            number of milliseconds a snapshot of the statistics is
+     *            reused.
+     */
+    public void setSnapshotTtlMillis(long snapshotTtlMillis);
+
+    /**
+     * Return the statistics of a single task.
+     * 
+     * @param taskName
+     *            name of task.
+     * @return statistics of the task or null if none.
+     */
+    public CompositeData getTaskStatistics(String taskName);
+
+    /**
+     * Enable the timer level with the provided name.
+     * 
+     * @param levelName
+     *            name of a known timer level.
+     * @return true if the level was known.
+     */
+    public boolean enableTimerLevel(String levelName);
+
+    /**
+     * Disable the timer level with the provided name.
+     * 
+     * @param levelName
+     *            name of a known timer level.
+     * @return true if the level was enabled and has been disabled.
+     */
+    public boolean disableTimerLevel(String levelName);
+
+    /**
+     * Disable all timer levels.
+     */
+    public void clearTimerLevels();
+
+    /**
+     * Discard all accumulated statistics.
+     */
+    public void resetStatistics();
+}
@@ -0,0 +1,11 @@
+/**
+ * JMX support for monitoring and controlling a
+ * {@link net.digitaltsunami.tmeter.NamedTimeTracker} at runtime.
+ * <p>
+ * {@link net.digitaltsunami.tmeter.jmx.TimeTrackerMonitor} is registered with
+ * the platform MBean server using
+ * {@link net.digitaltsunami.tmeter.NamedTimeTracker#registerMBean(net.digitaltsunami.tmeter.action.TimerStatsAction, net.digitaltsunami.tmeter.level.TimerLevel...)}
+ * and exposes per-task statistics as open data along with operations to
+ * enable and disable timer levels, disable tracking and reset statistics.
+ */
+package net.digitaltsunami.tmeter.jmx;
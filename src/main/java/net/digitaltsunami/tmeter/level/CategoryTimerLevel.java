@@ -96,6 +96,13 @@ public class CategoryTimerLevel<E extends Enum<E>> implements TimerLevel {
         return false;
     }
 
+    /**
+     * Return the enum constant represented by this level.
+     */
+    E getLevel() {
+        return level;
+    }
+
     @Override
     public TimerLevelType getLevelType() {
         return TimerLevelType.CATEGORY;
@@ -94,6 +94,13 @@ public class ThresholdTimerLevel<E extends Enum<E>> implements TimerLevel {
         return false;
     }
 
+    /**
+     * Return the enum constant represented by this level.
+     */
+    E getLevel() {
+        return level;
+    }
+
     @Override
     public TimerLevelType getLevelType() {
         return TimerLevelType.THRESHOLD;
@@ -1,10 +1,21 @@
 package net.digitaltsunami.tmeter.level;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
  * Set of {@link TimerLevel}s implementing the {@link TimerLevelCollection}.
+ * <p>
+ * Modifications are serialized and compile the levels into an immutable lookup
+ * that is published for use by {@link #isEnabled(TimerLevel)}. Lookups of
+ * {@link CategoryTimerLevel}, {@link ThresholdTimerLevel} and
+ * {@link TimerThreshold} levels are done using per enum bitsets and threshold
+ * ordinals without locking or iterating over the set. Levels may be enabled or
+ * disabled while timers are being recorded.
  * 
  * @author dhagberg
  * 
@@ -16,6 +27,11 @@ public class TimerLevelSet implements TimerLevelCollection {
      */
     private final Set<TimerLevel> levelSet = new HashSet<TimerLevel>();
 
+    /**
+     * Lookup compiled from the current contents of levelSet.
+     */
+    private volatile CompiledLevels compiled = CompiledLevels.EMPTY;
+
     /**
      * Add one to many {@link TimerLevel} instances based on the rules specified
      * in {@link TimerLevelCollection}.
@@ -32,7 +48,13 @@ public class TimerLevelSet implements TimerLevelCollection {
      * @see net.digitaltsunami.tmeter.level.TimerLevelCollection#addLevel(net.digitaltsunami.tmeter.level.TimerLevel)
      */
     @Override
-    public TimerLevel addLevel(TimerLevel newLevel) {
+    public synchronized TimerLevel addLevel(TimerLevel newLevel) {
+        TimerLevel oldLevel = add(newLevel);
+        compile();
+        return oldLevel;
+    }
+
+    private TimerLevel add(TimerLevel newLevel) {
         if (newLevel == null) {
             return null;
         }
@@ -63,7 +85,7 @@ public class TimerLevelSet implements TimerLevelCollection {
         case SET:
             if (newLevel instanceof TimerLevelCollection) {
                 for(TimerLevel levelElem : ((TimerLevelCollection)newLevel).getLevels()) {
-	                this.addLevel(levelElem);
+	                add(levelElem);
                 }
             }
             else {
@@ -78,11 +100,12 @@ public class TimerLevelSet implements TimerLevelCollection {
      * @see net.digitaltsunami.tmeter.level.TimerLevelCollection#addLevels(net.digitaltsunami.tmeter.level.TimerLevel[])
      */
     @Override
-    public boolean addLevels(TimerLevel... newLevels) {
+    public synchronized boolean addLevels(TimerLevel... newLevels) {
         boolean levelAdded = false;
         for (TimerLevel newLevel : newLevels) {
-            levelAdded |= addLevel(newLevel) == null;
+            levelAdded |= add(newLevel) == null;
         }
+        compile();
         return levelAdded;
     }
 
@@ -90,36 +113,35 @@ public class TimerLevelSet implements TimerLevelCollection {
      * @see net.digitaltsunami.tmeter.level.TimerLevelCollection#removeLevel(net.digitaltsunami.tmeter.level.TimerLevel)
      */
     @Override
-    public boolean removeLevel(TimerLevel level) {
-        return levelSet.remove(level);
+    public synchronized boolean removeLevel(TimerLevel level) {
+        boolean removed = levelSet.remove(level);
+        compile();
+        return removed;
     }
 
     /* (non-Javadoc)
      * @see net.digitaltsunami.tmeter.level.TimerLevelCollection#clear()
      */
     @Override
-    public void clear() {
+    public synchronized void clear() {
         levelSet.clear();
+        compile();
     }
 
     /* (non-Javadoc)
      * @see net.digitaltsunami.tmeter.level.TimerLevel#isEnabled(net.digitaltsunami.tmeter.level.TimerLevel)
      */
     public boolean isEnabled(TimerLevel oLevel) {
-        for (TimerLevel level : levelSet) {
-            if (level.isEnabled(oLevel)) {
-                return true;
-            }
-        }
-        return false;
+        return compiled.isEnabled(oLevel);
     }
 
     /* (non-Javadoc)
      * @see net.digitaltsunami.tmeter.level.TimerLevel#isEnabled(net.digitaltsunami.tmeter.level.TimerLevel[])
      */
     public boolean isEnabled(TimerLevel... oLevels) {
+        CompiledLevels current = compiled;
         for (TimerLevel oLevel : oLevels) {
-            if (isEnabled(oLevel)) {
+            if (current.isEnabled(oLevel)) {
                 return true;
             }
         }
@@ -136,7 +158,7 @@ public class TimerLevelSet implements TimerLevelCollection {
     /* (non-Javadoc)
      * @see net.digitaltsunami.tmeter.level.TimerLevelCollection#getLevels()
      */
-    public Set<TimerLevel> getLevels() {
+    public synchronized Set<TimerLevel> getLevels() {
         // Return a copy of the current level set.
         return new HashSet<TimerLevel>(levelSet);
     }
@@ -148,5 +170,95 @@ public class TimerLevelSet implements TimerLevelCollection {
     public Object getGroup() {
         return this;
     }
-    
+
+    /**
+     * Compile the current contents of the set and publish the result. Must be
+     * invoked while holding the lock on this set.
+     */
+    private void compile() {
+        compiled = levelSet.isEmpty() ? CompiledLevels.EMPTY : new CompiledLevels(levelSet);
+    }
+
+    /**
+     * Immutable lookup of enabled levels.
+     * <p>
+     * A level enabled by a {@link CategoryTimerLevel} is enabled only for the
+     * same enum constant, so categories are held as ordinal bitsets per enum
+     * class. A level enabled by a {@link ThresholdTimerLevel} or
+     * {@link TimerThreshold} is enabled for constants of the same class with
+     * an ordinal less than or equal to it, so thresholds are held as the
+     * highest ordinal per class. Any other implementations of
+     * {@link TimerLevel} are checked individually.
+     */
+    private static final class CompiledLevels {
+        static final CompiledLevels EMPTY = new CompiledLevels(new HashSet<TimerLevel>());
+
+        private static final int NO_THRESHOLD = -1;
+
+        private final Map<Class<?>, long[]> categoryBits = new IdentityHashMap<Class<?>, long[]>();
+        private final Map<Class<?>, Integer> thresholdOrdinals = new IdentityHashMap<Class<?>, Integer>();
+        private final int timerThresholdOrdinal;
+        private final TimerLevel[] otherLevels;
+
+        CompiledLevels(Set<TimerLevel> levels) {
+            int maxTimerThreshold = NO_THRESHOLD;
+            List<TimerLevel> others = new ArrayList<TimerLevel>();
+            for (TimerLevel level : levels) {
+                if (level instanceof CategoryTimerLevel<?>) {
+                    addCategory(((CategoryTimerLevel<?>) level).getLevel());
+                } else if (level instanceof ThresholdTimerLevel<?>) {
+                    Enum<?> threshold = ((ThresholdTimerLevel<?>) level).getLevel();
+                    Integer current = thresholdOrdinals.get(threshold.getClass());
+                    if (current == null || current.intValue() < threshold.ordinal()) {
+                        thresholdOrdinals.put(threshold.getClass(), threshold.ordinal());
+                    }
+                } else if (level instanceof TimerThreshold) {
+                    maxTimerThreshold = Math.max(maxTimerThreshold,
+                            ((TimerThreshold) level).ordinal());
+                } else {
+                    others.add(level);
+                }
+            }
+            this.timerThresholdOrdinal = maxTimerThreshold;
+            this.otherLevels = others.toArray(new TimerLevel[others.size()]);
+        }
+
+        private void addCategory(Enum<?> category) {
+            Class<?> categoryClass = category.getDeclaringClass();
+            int ordinal = category.ordinal();
+            long[] bits = categoryBits.get(categoryClass);
+            if (bits == null) {
+                bits = new long[category.getDeclaringClass().getEnumConstants().length / 64 + 1];
+                categoryBits.put(categoryClass, bits);
+            }
+            bits[ordinal >>> 6] |= 1L << ordinal;
+        }
+
+        boolean isEnabled(TimerLevel level) {
+            if (level instanceof CategoryTimerLevel<?>) {
+                Enum<?> category = ((CategoryTimerLevel<?>) level).getLevel();
+                long[] bits = categoryBits.get(category.getDeclaringClass());
+                int ordinal = category.ordinal();
+                if (bits != null && (bits[ordinal >>> 6] & (1L << ordinal)) != 0) {
+                    return true;
+                }
+            } else if (level instanceof ThresholdTimerLevel<?>) {
+                Enum<?> threshold = ((ThresholdTimerLevel<?>) level).getLevel();
+                Integer maxOrdinal = thresholdOrdinals.get(threshold.getClass());
+                if (maxOrdinal != null && threshold.ordinal() <= maxOrdinal.intValue()) {
+                    return true;
+                }
+            } else if (level instanceof TimerThreshold) {
+                if (((TimerThreshold) level).ordinal() <= timerThresholdOrdinal) {
+                    return true;
+                }
+            }
+            for (TimerLevel otherLevel : otherLevels) {
+                if (otherLevel.isEnabled(level)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
 }
@@ -0,0 +1,26 @@
+package net.digitaltsunami.tmeter.record;
+
+import java.util.List;
+
+import net.digitaltsunami.tmeter.Timer;
+import net.digitaltsunami.tmeter.action.TimeRecorderAction;
+
+/**
+ * A {@link TimeRecorder} that can record a batch of timers more efficiently
+ * than recording each individually, such as by writing them with a single
+ * I/O operation.
+ * <p>
+ * Used by {@link TimeRecorderAction} when processing batches of timers from
+ * the action chain.
+ */
+public interface BatchTimeRecorder extends TimeRecorder {
+    /**
+     * Record each of the provided timers in order.
+     * <p>
+     * The timers may be recycled once this method returns. See
+     * {@link TimeRecorder#record(Timer)}.
+     * 
+     * @param timers Completed timers to record.
+     */
+    void recordAll(List<Timer> timers);
+}
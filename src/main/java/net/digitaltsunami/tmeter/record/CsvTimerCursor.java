@@ -0,0 +1,480 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter.record;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import net.digitaltsunami.tmeter.Timer;
+import net.digitaltsunami.tmeter.TimerLogType;
+import net.digitaltsunami.tmeter.TimerNotes;
+import net.digitaltsunami.tmeter.TimerNotesParser;
+
+/**
+ * Cursor over timers recorded in the {@link TimerLogType#CSV} format, such as
+ * by {@link FileTimeRecorder}, that parses each record directly from a memory
+ * mapped file.
+ * <p>
+ * Unlike {@link Timer#fromCsv(String)}, reading a record does not create any
+ * objects. Numeric fields are parsed from the file contents when requested.
+ * Task and thread names, notes and {@link Timer} instances are only created
+ * when requested using {@link #getTaskName()}, {@link #getThreadName()},
+ * {@link #getNotes()} or {@link #toTimer()}. Names are cached so that the same
+ * {@link String} instance is returned for repeated names. Records may be
+ * filtered by task without creating the name using
+ * {@link #isTaskName(String)}.
+ * <p>
+ * The file is mapped a window at a time so files larger than the address
+ * space of a single mapping may be read. Header lines, as provided by
+ * {@link Timer#getCsvHeader()}, and blank lines are skipped.
+ * <p>
+ * Example:
+ * 
+ * <pre>
+ * <code>
+ *     CsvTimerCursor cursor = new CsvTimerCursor("timers.csv");
+ *     long total = 0;
+ *     while (cursor.next()) {
+ *         if (cursor.isTaskName("BuildResults")) {
+ *             total += cursor.getElapsedNanos();
+ *         }
+ *     }
+ *     cursor.close();
+ * </code>
+ * </pre>
+ * <p>
+ * Instances are not thread safe.
+ * 
+ * @author dhagberg
+ * 
+ */
+public class CsvTimerCursor implements Closeable {
+
+    /**
+     * Default number of bytes of the file mapped at a time.
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int START_TIME = 0;
+    private static final int TASK = 1;
+    private static final int THREAD = 2;
+    private static final int ELAPSED_MILLIS = 3;
+    private static final int ELAPSED_NANOS = 4;
+    private static final int CONCURRENT = 5;
+    private static final int NOTES = 6;
+    private static final int FIELD_COUNT = 7;
+
+    private static final byte[] HEADER_PREFIX = "start_time_ms,".getBytes(UTF8);
+
+    private static final int NAME_CACHE_SIZE = 1024;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long fileSize;
+    private final int windowSize;
+
+    /**
+     * Currently mapped portion of the file.
+     */
+    private MappedByteBuffer window;
+
+    /**
+     * Offset within the file of the start of the window.
+     */
+    private long windowOffset;
+
+    /**
+     * Offset within the file of the start of the next line.
+     */
+    private long nextLineOffset;
+
+    /**
+     * Start and end, relative to the window, of each field in the current
+     * record.
+     */
+    private final int[] fieldStart = new int[FIELD_COUNT];
+    private final int[] fieldEnd = new int[FIELD_COUNT];
+    private int fieldCount;
+    private boolean onRecord;
+    private long lineNumber;
+
+    private String taskName;
+    private String threadName;
+    private TimerNotes notes;
+    private boolean notesParsed;
+
+    private byte[] scratch = new byte[256];
+    private final String[] cachedNames = new String[NAME_CACHE_SIZE];
+    private final byte[][] cachedNameBytes = new byte[NAME_CACHE_SIZE][];
+
+    /**
+     * Create a cursor for the named CSV file using the default window size.
+     * 
+     * @param fileName
+     *            name of file containing CSV timer records.
+     * @throws IOException
+     *             if the file could not be opened.
+     */
+    public CsvTimerCursor(String fileName) throws IOException {
+        this(fileName, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Create a cursor for the named CSV file.
+     * 
+     * @param fileName
+     *            name of file containing CSV timer records.
+     * @param windowSize
+     *            number of bytes of the file mapped at a time. Will be
+     *            increased if required to hold a single record.
+     * @throws IOException
+     *             if the file could not be opened.
+     */
+    public CsvTimerCursor(String fileName, int windowSize) throws IOException {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Window size must be positive: " + windowSize);
+        }
+        this.windowSize = windowSize;
+        this.file = new RandomAccessFile(new File(fileName), "r");
+        this.channel = file.getChannel();
+        this.fileSize = channel.size();
+    }
+
+    /**
+     * Advance to the next timer record.
+     * 
+     * @return true if positioned on a record, false if the end of the file has
+     *         been reached.
+     * @throws IOException
+     *             if the file could not be read or a record has fewer fields
+     *             than expected.
+     */
+    public boolean next() throws IOException {
+        onRecord = false;
+        taskName = null;
+        threadName = null;
+        notes = null;
+        notesParsed = false;
+        while (nextLineOffset < fileSize) {
+            int lineStart = readLine();
+            lineNumber++;
+            int lineEnd = fieldEnd[fieldCount - 1];
+            if (lineEnd == lineStart || isHeader(lineStart, lineEnd)) {
+                continue;
+            }
+            if (fieldCount < CONCURRENT + 1) {
+                throw new IOException("Malformed timer record at line " + lineNumber);
+            }
+            onRecord = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Return the line number within the file of the current record.
+     */
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    public long getStartTimeMillis() {
+        return parseLong(START_TIME);
+    }
+
+    public long getElapsedMillis() {
+        return parseLong(ELAPSED_MILLIS);
+    }
+
+    public long getElapsedNanos() {
+        return parseLong(ELAPSED_NANOS);
+    }
+
+    public int getConcurrent() {
+        return (int) parseLong(CONCURRENT);
+    }
+
+    /**
+     * Return the task name of the current record. The name is created upon
+     * first request.
+     */
+    public String getTaskName() {
+        if (taskName == null) {
+            taskName = decodeName(TASK);
+        }
+        return taskName;
+    }
+
+    /**
+     * Return the thread name of the current record. The name is created upon
+     * first request.
+     */
+    public String getThreadName() {
+        if (threadName == null) {
+            threadName = decodeName(THREAD);
+        }
+        return threadName;
+    }
+
+    /**
+     * Returns true if the task name of the current record is equal to the
+     * provided name. The task name is not created unless either name contains
+     * characters outside of US-ASCII.
+     */
+    public boolean isTaskName(String name) {
+        checkRecord();
+        int start = fieldStart[TASK];
+        int length = fieldEnd[TASK] - start;
+        if (length != name.length()) {
+            // Multi-byte characters require decoding to compare.
+            return hasMultiByte(TASK) && name.equals(getTaskName());
+        }
+        for (int i = 0; i < length; i++) {
+            byte b = window.get(start + i);
+            if (b < 0) {
+                return name.equals(getTaskName());
+            }
+            if (b != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the current record contains notes.
+     */
+    public boolean hasNotes() {
+        checkRecord();
+        return fieldCount > NOTES && fieldEnd[NOTES] > fieldStart[NOTES];
+    }
+
+    /**
+     * Return the notes of the current record or null if the record has no
+     * notes. The notes are parsed upon first request.
+     */
+    public TimerNotes getNotes() {
+        if (!notesParsed) {
+            notes = hasNotes() ? TimerNotesParser.parse(decode(NOTES)) : null;
+            notesParsed = true;
+        }
+        return notes;
+    }
+
+    /**
+     * Create a {@link Timer} populated using the current record in the same
+     * manner as {@link Timer#fromCsv(String)}.
+     */
+    public Timer toTimer() {
+        return Timer.fromRecordedValues(getStartTimeMillis(), getTaskName(), getThreadName(),
+                getElapsedNanos(), getConcurrent(), getNotes());
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        onRecord = false;
+        channel.close();
+        file.close();
+    }
+
+    /**
+     * Map the line starting at nextLineOffset and locate its fields. The
+     * window is moved or enlarged as required so that the entire line is
+     * mapped.
+     * 
+     * @return start of the line relative to the window.
+     */
+    private int readLine() throws IOException {
+        int size = windowSize;
+        if (window == null || nextLineOffset >= windowOffset + window.limit()) {
+            map(nextLineOffset, size);
+        }
+        while (true) {
+            int start = (int) (nextLineOffset - windowOffset);
+            if (scanLine(start)) {
+                return start;
+            }
+            if (windowOffset + window.limit() >= fileSize) {
+                // Last line without a line terminator.
+                nextLineOffset = fileSize;
+                return start;
+            }
+            if (start == 0) {
+                // Line is larger than the window.
+                size = (int) Math.min(Integer.MAX_VALUE, (long) size * 2);
+            }
+            map(nextLineOffset, size);
+        }
+    }
+
+    /**
+     * Locate the fields of the line beginning at start. The notes field
+     * extends to the end of the line.
+     * 
+     * @return true if the line terminator was found within the window.
+     */
+    private boolean scanLine(int start) {
+        int limit = window.limit();
+        fieldCount = 0;
+        fieldStart[0] = start;
+        for (int i = start; i < limit; i++) {
+            byte b = window.get(i);
+            if (b == '\n') {
+                int end = i > fieldStart[fieldCount] && window.get(i - 1) == '\r' ? i - 1 : i;
+                fieldEnd[fieldCount++] = end;
+                nextLineOffset = windowOffset + i + 1;
+                return true;
+            }
+            if (b == ',' && fieldCount < NOTES) {
+                fieldEnd[fieldCount++] = i;
+                fieldStart[fieldCount] = i + 1;
+            }
+        }
+        fieldEnd[fieldCount++] = limit;
+        return false;
+    }
+
+    private void map(long offset, int size) throws IOException {
+        windowOffset = offset;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                Math.min(size, fileSize - offset));
+    }
+
+    private boolean isHeader(int start, int end) {
+        if (end - start < HEADER_PREFIX.length) {
+            return false;
+        }
+        for (int i = 0; i < HEADER_PREFIX.length; i++) {
+            if (window.get(start + i) != HEADER_PREFIX[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void checkRecord() {
+        if (!onRecord) {
+            throw new IllegalStateException("Cursor is not positioned on a record");
+        }
+    }
+
+    /**
+     * Parse the field as a long, ignoring surrounding spaces.
+     * 
+     * @throws NumberFormatException
+     *             if the field is not a valid number.
+     */
+    private long parseLong(int field) {
+        checkRecord();
+        int i = fieldStart[field];
+        int end = fieldEnd[field];
+        while (i < end && window.get(i) == ' ') {
+            i++;
+        }
+        while (end > i && window.get(end - 1) == ' ') {
+            end--;
+        }
+        boolean negative = i < end && window.get(i) == '-';
+        if (negative) {
+            i++;
+        }
+        if (i == end) {
+            throw new NumberFormatException("Missing value at line " + lineNumber);
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = window.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Invalid number at line " + lineNumber);
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    private boolean hasMultiByte(int field) {
+        for (int i = fieldStart[field]; i < fieldEnd[field]; i++) {
+            if (window.get(i) < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copy the field into the scratch buffer.
+     * 
+     * @return length of the field.
+     */
+    private int copyField(int field) {
+        int start = fieldStart[field];
+        int length = fieldEnd[field] - start;
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        for (int i = 0; i < length; i++) {
+            scratch[i] = window.get(start + i);
+        }
+        return length;
+    }
+
+    private String decode(int field) {
+        checkRecord();
+        int length = copyField(field);
+        return new String(scratch, 0, length, UTF8);
+    }
+
+    /**
+     * Decode the name field, returning the cached instance if the same name
+     * has been decoded previously.
+     */
+    private String decodeName(int field) {
+        checkRecord();
+        int length = copyField(field);
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + scratch[i];
+        }
+        int slot = (hash ^ (hash >>> 16)) & (NAME_CACHE_SIZE - 1);
+        byte[] cached = cachedNameBytes[slot];
+        if (cached != null && cached.length == length && matchesScratch(cached)) {
+            return cachedNames[slot];
+        }
+        byte[] nameBytes = new byte[length];
+        System.arraycopy(scratch, 0, nameBytes, 0, length);
+        String name = new String(nameBytes, UTF8);
+        cachedNameBytes[slot] = nameBytes;
+        cachedNames[slot] = name;
+        return name;
+    }
+
+    private boolean matchesScratch(byte[] cached) {
+        for (int i = 0; i < cached.length; i++) {
+            if (cached[i] != scratch[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,39 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter.record;
+
+/**
+ * Determines when a {@link RollingFileTimeRecorder} forces written timers to
+ * storage. Timers are always written to the file at least once per flush
+ * interval; the sync policy controls whether the operating system is also
+ * asked to persist them.
+ * <li> {@link #NEVER}: Written timers are left to the operating system to
+ * persist. Fastest, but timers written shortly before a system crash may be
+ * lost.
+ * <li> {@link #INTERVAL}: Written timers are forced to storage at most once per
+ * sync interval and when a segment is closed.
+ * <li> {@link #ALWAYS}: Each group of written timers is forced to storage
+ * before the buffer holding them is reused.
+ *
+ * @author dhagberg
+ *
+ * @see RollingFileTimeRecorder#setSyncPolicy(FileSyncPolicy)
+ */
+public enum FileSyncPolicy {
+    NEVER,
+    INTERVAL,
+    ALWAYS
+}
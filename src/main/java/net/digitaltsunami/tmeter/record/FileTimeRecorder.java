@@ -4,6 +4,8 @@ import java.io.BufferedOutputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.List;
 
 import net.digitaltsunami.tmeter.Timer;
 import net.digitaltsunami.tmeter.TimerLogType;
@@ -12,16 +14,26 @@ import net.digitaltsunami.tmeter.TimerLogType;
  * Record all timers to the provided output stream.
  * <p>
  * Output of timer data is specfied by providing a {@link TimerLogType} value,
- * with the default being {@link TimerLogType#TEXT}
+ * with the default being {@link TimerLogType#TEXT}. Timers written using
+ * {@link TimerLogType#BINARY} may be read using {@link TimerJournalReader}. For
+ * binary output to a file, {@link MappedTimeRecorder} avoids a write per timer.
  * 
  * @author dhagberg
  * 
  */
-public class FileTimeRecorder implements TimeRecorder {
+public class FileTimeRecorder implements BatchTimeRecorder {
+
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
 
     protected final PrintStream out;
     protected final TimerLogType logType;
 
+    /**
+     * Encoder for {@link TimerLogType#BINARY}. Also used to synchronize binary
+     * output as the encoder maintains the state of the journal.
+     */
+    private final TimerJournalEncoder encoder = new TimerJournalEncoder();
+
     /**
      * Create a new FileTimeRecorder with the output stream to which all timers will be written.
      * 
@@ -88,11 +100,48 @@ public class FileTimeRecorder implements TimeRecorder {
             out.println(timer.toCsv());
             break;
 
+        case BINARY:
+            synchronized (encoder) {
+                writeBinary(timer);
+            }
+            break;
+
         default:
             break;
         }
     }
 
+    /**
+     * Record all timers using a single write to the output stream.
+     */
+    @Override
+    public void recordAll(List<Timer> timers) {
+        if (logType == TimerLogType.BINARY) {
+            synchronized (encoder) {
+                for (int i = 0, size = timers.size(); i < size; i++) {
+                    writeBinary(timers.get(i));
+                }
+            }
+            return;
+        }
+        if (logType != TimerLogType.TEXT && logType != TimerLogType.CSV) {
+            return;
+        }
+        StringBuilder lines = new StringBuilder(timers.size() * 128);
+        for (int i = 0, size = timers.size(); i < size; i++) {
+            Timer timer = timers.get(i);
+            lines.append(logType == TimerLogType.CSV ? timer.toCsv() : timer.toString());
+            lines.append(LINE_SEPARATOR);
+        }
+        out.print(lines);
+    }
+
+    private void writeBinary(Timer timer) {
+        ByteBuffer encoded = encoder.encode(timer);
+        out.write(encoded.array(), encoded.arrayOffset() + encoded.position(),
+                encoded.remaining());
+    }
+
     public TimerLogType getLogType() {
         return this.logType;
     }
@@ -0,0 +1,233 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter.record;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+import net.digitaltsunami.tmeter.Timer;
+import net.digitaltsunami.tmeter.TimerLogType;
+
+/**
+ * Record all timers to a file in the {@link TimerLogType#BINARY} format using
+ * memory mapped I/O.
+ * <p>
+ * The file is extended a segment at a time. Each segment is pre-sized and
+ * mapped into memory so that recording a timer is a copy into the mapped
+ * region rather than a system call. Task and thread names are written once
+ * and referred to by id thereafter. Upon {@link #prepareForShutdown()}, the
+ * mapped data is forced to storage, the mapping released and the file
+ * truncated to the recorded length. If the runtime does not permit releasing
+ * the mapping, the file is not truncated and the unused remainder of the last
+ * segment, which is zero filled, is read as the end of the journal. Files may
+ * be read using {@link TimerJournalReader}.
+ * <p>
+ * Instances are thread safe.
+ * 
+ * @author dhagberg
+ * 
+ */
+public class MappedTimeRecorder implements BatchTimeRecorder {
+
+    /**
+     * Default size of each mapped segment in bytes.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int segmentSize;
+    private final TimerJournalEncoder encoder = new TimerJournalEncoder();
+
+    /**
+     * Current mapped segment.
+     */
+    private MappedByteBuffer segment;
+
+    /**
+     * Offset within the file of the current segment.
+     */
+    private long segmentOffset;
+
+    /**
+     * Number of bytes recorded.
+     */
+    private long length;
+
+    private boolean closed;
+
+    /**
+     * Create a recorder writing to the named file using the default segment
+     * size.
+     * 
+     * @param fileName
+     *            Name of file to open for recording. Will be overwritten if
+     *            already exists.
+     * @throws IOException
+     *             if the file could not be opened or mapped.
+     */
+    public MappedTimeRecorder(String fileName) throws IOException {
+        this(fileName, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Create a recorder writing to the named file.
+     * 
+     * @param fileName
+     *            Name of file to open for recording. Will be overwritten if
+     *            already exists.
+     * @param segmentSize
+     *            number of bytes by which the file is extended and mapped at a
+     *            time.
+     * @throws IOException
+     *             if the file could not be opened or mapped.
+     */
+    public MappedTimeRecorder(String fileName, int segmentSize) throws IOException {
+        if (segmentSize < 1) {
+            throw new IllegalArgumentException("Segment size must be positive: " + segmentSize);
+        }
+        this.segmentSize = segmentSize;
+        this.file = new RandomAccessFile(new File(fileName), "rw");
+        this.file.setLength(0);
+        this.channel = file.getChannel();
+        this.segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    }
+
+    @Override
+    public synchronized void record(Timer timer) {
+        if (closed) {
+            return;
+        }
+        write(timer);
+    }
+
+    @Override
+    public synchronized void recordAll(List<Timer> timers) {
+        if (closed) {
+            return;
+        }
+        for (int i = 0, size = timers.size(); i < size; i++) {
+            write(timers.get(i));
+        }
+    }
+
+    /**
+     * Return the number of bytes recorded.
+     */
+    public synchronized long getLength() {
+        return length;
+    }
+
+    /**
+     * Force recorded timers to storage, truncate the file to the recorded
+     * length and close it. Timers recorded after this point are discarded.
+     */
+    @Override
+    public synchronized void prepareForShutdown() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            segment.force();
+            // The file may only be truncated once the mapping is released.
+            boolean released = unmap(segment);
+            segment = null;
+            if (released) {
+                file.setLength(length);
+            }
+            channel.close();
+            file.close();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to close timer journal", e);
+        }
+    }
+
+    /**
+     * Encode the timer and copy the encoded entries to the current segment,
+     * mapping a new segment if there is not enough space remaining. Entries
+     * are never split across segments. If a new segment can not be mapped,
+     * the names defined with the timer are discarded by the encoder so that
+     * they are written with a later timer.
+     */
+    private void write(Timer timer) {
+        ByteBuffer encoded = encoder.encode(timer);
+        int size = encoded.remaining();
+        if (segment.remaining() < size) {
+            try {
+                nextSegment(size);
+            } catch (IllegalStateException e) {
+                encoder.rollback();
+                throw e;
+            }
+        }
+        segment.put(encoded);
+        length += size;
+    }
+
+    private void nextSegment(int required) {
+        MappedByteBuffer previous = segment;
+        long offset = segmentOffset + previous.position();
+        try {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, offset,
+                    Math.max(segmentSize, required));
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to extend timer journal", e);
+        }
+        segmentOffset = offset;
+        unmap(previous);
+    }
+
+    /**
+     * Release the mapping of the segment rather than waiting for it to be
+     * garbage collected. The segment must not be used afterwards. Uses the
+     * unsupported, but widely available, cleaner of the runtime.
+     * 
+     * @return true if the mapping was released.
+     */
+    private static boolean unmap(MappedByteBuffer mapped) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            try {
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), mapped);
+                return true;
+            } catch (NoSuchMethodException e) {
+                // Prior to Java 9, the buffer provides its cleaner.
+                Method cleanerMethod = mapped.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(mapped);
+                if (cleaner == null) {
+                    return false;
+                }
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+                return true;
+            }
+        } catch (Exception e) {
+            // Released once garbage collected.
+            return false;
+        }
+    }
+}
@@ -0,0 +1,950 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter.record;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPOutputStream;
+
+import net.digitaltsunami.tmeter.Timer;
+import net.digitaltsunami.tmeter.TimerLogType;
+import net.digitaltsunami.tmeter.TimerNotes;
+
+/**
+ * Record all timers to a file that is rolled over by size or age, writing on
+ * a background thread.
+ * <p>
+ * Timers are formatted on the recording thread into one of two reusable
+ * direct buffers. A background writer thread writes the other buffer to the
+ * file using a {@link FileChannel}. Buffers are exchanged when the buffer
+ * being filled is full or at least once per flush interval, so all timers
+ * recorded between two writes are committed using a single write and, if
+ * required by the {@link FileSyncPolicy}, a single force to storage. If both
+ * buffers are in use, recording waits until the writer has written one of
+ * them.
+ * <p>
+ * The current segment is written to the file name provided. When the segment
+ * exceeds the maximum size or age, it is closed and renamed to the file name
+ * followed by a sequence number (e.g., timers.log.1, timers.log.2) and a new
+ * segment is started. Each timer is written entirely within one segment and
+ * each {@link TimerLogType#BINARY} segment is a complete journal that may be
+ * read using {@link TimerJournalReader}. Rolled segments may optionally be
+ * compressed using gzip on a separate background thread. A non-empty file left
+ * by a previous run is rolled prior to recording.
+ * <p>
+ * The age of a segment is checked when timers are recorded. Upon
+ * {@link #prepareForShutdown()}, all recorded timers are written and the file
+ * closed. Timers recorded within the last flush interval are lost if the
+ * recorder is not shut down.
+ * <p>
+ * Instances are thread safe.
+ *
+ * @author dhagberg
+ *
+ */
+public class RollingFileTimeRecorder implements BatchTimeRecorder {
+
+    /**
+     * Default size in bytes of each of the two buffers.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Default maximum size in bytes of each segment.
+     */
+    public static final long DEFAULT_MAX_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    private static final byte[] LINE_SEPARATOR = System.getProperty("line.separator").getBytes(
+            TimerJournalEncoder.UTF8);
+
+    private static final String COMPRESSED_SUFFIX = ".gz";
+
+    private final File file;
+    private final TimerLogType logType;
+
+    /**
+     * Guards the exchange of buffers between the recording threads and the
+     * writer along with the segment state. Recording threads are serialized
+     * using the monitor of this instance so that each timer is appended
+     * entirely before another is started.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * Signaled when a buffer is ready to be written.
+     */
+    private final Condition workAvailable = lock.newCondition();
+    /**
+     * Signaled when the writer has written a buffer and returned it.
+     */
+    private final Condition bufferReturned = lock.newCondition();
+
+    /**
+     * Buffer being filled by recording threads.
+     */
+    private Batch active;
+    /**
+     * Buffer waiting to be written or null if none.
+     */
+    private Batch pending;
+    /**
+     * Buffer available to replace the active buffer or null if in use by the
+     * writer.
+     */
+    private Batch spare;
+    private long handOffCount;
+    private long writtenCount;
+
+    private TimerJournalEncoder journalEncoder = new TimerJournalEncoder();
+    private final CharsetEncoder charEncoder = TimerJournalEncoder.UTF8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private ByteBuffer scratch = ByteBuffer.allocateDirect(512);
+    /**
+     * Start time formatted for the text log, cached by second as the format
+     * has a resolution of one second.
+     */
+    private long formattedSecond = Long.MIN_VALUE;
+    private String formattedStart;
+
+    /**
+     * Number of bytes appended to the current segment.
+     */
+    private long segmentLength;
+    private long segmentStartMillis;
+    private boolean closed;
+
+    private volatile long maxSegmentSize = DEFAULT_MAX_SEGMENT_SIZE;
+    private volatile long maxSegmentAgeMillis;
+    private volatile long flushIntervalNanos = TimeUnit.SECONDS.toNanos(1);
+    private volatile FileSyncPolicy syncPolicy = FileSyncPolicy.INTERVAL;
+    private volatile long syncIntervalMillis = TimeUnit.SECONDS.toMillis(1);
+    private volatile boolean compressRolledSegments;
+
+    /**
+     * Members used only by the writer thread after construction.
+     */
+    private FileChannel channel;
+    private long lastSyncMillis;
+    private long nextSequence;
+    private ExecutorService compressor;
+
+    /**
+     * First failure writing to the file. Once set, timers are discarded.
+     */
+    private volatile IOException failure;
+
+    private final Thread writer;
+
+    /**
+     * Create a recorder writing timers in the {@link TimerLogType#TEXT}
+     * format to the named file.
+     *
+     * @param fileName
+     *            Name of file to open for recording.
+     * @throws IOException
+     *             if the file could not be opened.
+     */
+    public RollingFileTimeRecorder(String fileName) throws IOException {
+        this(fileName, TimerLogType.TEXT);
+    }
+
+    /**
+     * Create a recorder writing timers in the provided format to the named
+     * file.
+     *
+     * @param fileName
+     *            Name of file to open for recording.
+     * @param logType
+     *            format used to write timers.
+     * @throws IOException
+     *             if the file could not be opened.
+     */
+    public RollingFileTimeRecorder(String fileName, TimerLogType logType) throws IOException {
+        this(fileName, logType, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create a recorder writing timers in the provided format to the named
+     * file.
+     *
+     * @param fileName
+     *            Name of file to open for recording. If the file exists and is
+     *            not empty, it is rolled prior to recording.
+     * @param logType
+     *            format used to write timers.
+     * @param bufferSize
+     *            size in bytes of each of the two direct buffers.
+     * @throws IOException
+     *             if the file could not be opened.
+     */
+    public RollingFileTimeRecorder(String fileName, TimerLogType logType, int bufferSize)
+            throws IOException {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Buffer size must be positive: " + bufferSize);
+        }
+        this.file = new File(fileName).getAbsoluteFile();
+        this.logType = logType;
+        this.nextSequence = findNextSequence();
+        if (file.length() > 0) {
+            rename(file, nextRolledFile());
+        }
+        this.channel = new FileOutputStream(file).getChannel();
+        this.active = new Batch(bufferSize);
+        this.spare = new Batch(bufferSize);
+        this.segmentStartMillis = System.currentTimeMillis();
+        this.lastSyncMillis = segmentStartMillis;
+        this.writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeBatches();
+            }
+        }, "RollingFileTimeRecorder-" + file.getName());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public synchronized void record(Timer timer) {
+        if (!logType.isLoggingEnabled()) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            rollIfAged(System.currentTimeMillis());
+            append(timer);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Record all timers while holding the buffer once.
+     */
+    @Override
+    public synchronized void recordAll(List<Timer> timers) {
+        if (!logType.isLoggingEnabled()) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            rollIfAged(System.currentTimeMillis());
+            for (int i = 0, size = timers.size(); i < size; i++) {
+                append(timers.get(i));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Write all timers recorded prior to this invocation to the file,
+     * forcing them to storage if required by the {@link FileSyncPolicy}, and
+     * wait for the write to complete.
+     *
+     * @throws IllegalStateException
+     *             if the timers could not be written.
+     */
+    public synchronized void flush() {
+        lock.lock();
+        try {
+            if (!closed && active.buffer.position() > 0) {
+                handOff();
+            }
+            awaitWritten(handOffCount);
+        } finally {
+            lock.unlock();
+        }
+        checkFailure();
+    }
+
+    /**
+     * Write all recorded timers, close the file and wait for the compression
+     * of rolled segments to complete. Timers recorded after this point are
+     * discarded.
+     *
+     * @throws IllegalStateException
+     *             if the timers could not be written.
+     */
+    @Override
+    public synchronized void prepareForShutdown() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            active.last = true;
+            handOff();
+            awaitWritten(handOffCount);
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join();
+            if (compressor != null) {
+                compressor.shutdown();
+                compressor.awaitTermination(1, TimeUnit.MINUTES);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        checkFailure();
+    }
+
+    public TimerLogType getLogType() {
+        return logType;
+    }
+
+    /**
+     * Return the file to which the current segment is written.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Return the maximum size of a segment in bytes or zero if segments are
+     * not rolled by size.
+     */
+    public long getMaxSegmentSize() {
+        return maxSegmentSize;
+    }
+
+    /**
+     * Set the size in bytes at which the current segment is rolled. A segment
+     * may be smaller than this size if the next timer would exceed it, or
+     * larger if a single timer exceeds it.
+     *
+     * @param maxSegmentSize
+     *            maximum size of a segment in bytes or zero to disable rolling
+     *            by size.
+     */
+    public void setMaxSegmentSize(long maxSegmentSize) {
+        if (maxSegmentSize < 0) {
+            throw new IllegalArgumentException("Segment size must not be negative: "
+                    + maxSegmentSize);
+        }
+        this.maxSegmentSize = maxSegmentSize;
+    }
+
+    /**
+     * Return the maximum age of a segment in milliseconds or zero if segments
+     * are not rolled by age.
+     */
+    public long getMaxSegmentAgeMillis() {
+        return maxSegmentAgeMillis;
+    }
+
+    /**
+     * Set the age at which the current segment is rolled. The age is checked
+     * when timers are recorded, so a segment is rolled by the first timer
+     * recorded after it has reached the maximum age.
+     *
+     * @param maxSegmentAge
+     *            maximum age of a segment or zero to disable rolling by age.
+     * @param timeUnit
+     *            unit of the maximum age.
+     */
+    public void setMaxSegmentAge(long maxSegmentAge, TimeUnit timeUnit) {
+        if (maxSegmentAge < 0) {
+            throw new IllegalArgumentException("Segment age must not be negative: "
+                    + maxSegmentAge);
+        }
+        this.maxSegmentAgeMillis = timeUnit.toMillis(maxSegmentAge);
+    }
+
+    /**
+     * Return the longest time in nanoseconds that a recorded timer waits in a
+     * buffer before being written.
+     */
+    public long getFlushIntervalNanos() {
+        return flushIntervalNanos;
+    }
+
+    /**
+     * Set the longest time that a recorded timer waits in a buffer before
+     * being written. Timers are written sooner if the buffer fills. Takes
+     * effect after the current interval.
+     *
+     * @param flushInterval
+     *            maximum time between writes.
+     * @param timeUnit
+     *            unit of the flush interval.
+     */
+    public void setFlushInterval(long flushInterval, TimeUnit timeUnit) {
+        long nanos = timeUnit.toNanos(flushInterval);
+        if (nanos < 1) {
+            throw new IllegalArgumentException("Flush interval must be positive: "
+                    + flushInterval);
+        }
+        this.flushIntervalNanos = nanos;
+    }
+
+    public FileSyncPolicy getSyncPolicy() {
+        return syncPolicy;
+    }
+
+    /**
+     * Set when written timers are forced to storage. The default is
+     * {@link FileSyncPolicy#INTERVAL}.
+     *
+     * @param syncPolicy
+     */
+    public void setSyncPolicy(FileSyncPolicy syncPolicy) {
+        if (syncPolicy == null) {
+            throw new IllegalArgumentException("Sync policy must be provided");
+        }
+        this.syncPolicy = syncPolicy;
+    }
+
+    /**
+     * Return the minimum time in milliseconds between forcing written timers
+     * to storage when using {@link FileSyncPolicy#INTERVAL}.
+     */
+    public long getSyncIntervalMillis() {
+        return syncIntervalMillis;
+    }
+
+    /**
+     * Set the minimum time between forcing written timers to storage when
+     * using {@link FileSyncPolicy#INTERVAL}.
+     *
+     * @param syncInterval
+     * @param timeUnit
+     *            unit of the sync interval.
+     */
+    public void setSyncInterval(long syncInterval, TimeUnit timeUnit) {
+        if (syncInterval < 0) {
+            throw new IllegalArgumentException("Sync interval must not be negative: "
+                    + syncInterval);
+        }
+        this.syncIntervalMillis = timeUnit.toMillis(syncInterval);
+    }
+
+    public boolean isCompressRolledSegments() {
+        return compressRolledSegments;
+    }
+
+    /**
+     * Indicate whether or not rolled segments are compressed using gzip. If
+     * enabled, each rolled segment is replaced by a file of the same name
+     * with a suffix of .gz. Compression is performed on a separate background
+     * thread and the uncompressed segment is retained if compression fails.
+     *
+     * @param compressRolledSegments
+     */
+    public void setCompressRolledSegments(boolean compressRolledSegments) {
+        this.compressRolledSegments = compressRolledSegments;
+    }
+
+    /**
+     * Roll the current segment if it has reached its maximum age. Caller must
+     * hold the lock.
+     */
+    private void rollIfAged(long now) {
+        long maxAge = maxSegmentAgeMillis;
+        if (maxAge > 0 && segmentLength > 0 && now - segmentStartMillis >= maxAge) {
+            roll(now);
+        }
+    }
+
+    /**
+     * Format the timer and copy it to the active buffer, rolling the segment
+     * first if the timer would exceed the maximum size. Caller must hold the
+     * lock.
+     */
+    private void append(Timer timer) {
+        ByteBuffer encoded = encode(timer);
+        long maxSize = maxSegmentSize;
+        if (maxSize > 0 && segmentLength > 0 && segmentLength + encoded.remaining() > maxSize) {
+            roll(System.currentTimeMillis());
+            if (logType == TimerLogType.BINARY) {
+                // Names must be defined again within the new segment.
+                encoded = encode(timer);
+            }
+        }
+        segmentLength += encoded.remaining();
+        while (encoded.hasRemaining()) {
+            ByteBuffer buffer = active.buffer;
+            if (!buffer.hasRemaining()) {
+                handOff();
+                continue;
+            }
+            int count = Math.min(buffer.remaining(), encoded.remaining());
+            int limit = encoded.limit();
+            encoded.limit(encoded.position() + count);
+            buffer.put(encoded);
+            encoded.limit(limit);
+        }
+    }
+
+    /**
+     * Mark the active buffer as the end of the current segment and start a
+     * new segment. Caller must hold the lock.
+     */
+    private void roll(long now) {
+        active.rollAfter = true;
+        handOff();
+        segmentLength = 0;
+        segmentStartMillis = now;
+        journalEncoder = new TimerJournalEncoder();
+    }
+
+    /**
+     * Pass the active buffer to the writer and replace it with the spare
+     * buffer, waiting for the writer to return a buffer if required. Caller
+     * must hold the lock.
+     */
+    private void handOff() {
+        while (spare == null) {
+            bufferReturned.awaitUninterruptibly();
+        }
+        pending = active;
+        active = spare;
+        spare = null;
+        handOffCount++;
+        workAvailable.signal();
+    }
+
+    /**
+     * Wait until the provided number of buffers have been written. Caller
+     * must hold the lock.
+     */
+    private void awaitWritten(long count) {
+        while (writtenCount < count) {
+            bufferReturned.awaitUninterruptibly();
+        }
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new IllegalStateException("Unable to write timer log " + file, failure);
+        }
+    }
+
+    /**
+     * Return the timer formatted according to the log type. The returned
+     * buffer is reused by the next invocation.
+     */
+    private ByteBuffer encode(Timer timer) {
+        switch (logType) {
+        case BINARY:
+            return journalEncoder.encode(timer);
+        case CSV:
+            return encodeCsv(timer);
+        default:
+            return encodeText(timer);
+        }
+    }
+
+    /**
+     * Format the timer as written by {@link Timer#toCsv()} followed by a line
+     * separator directly into the scratch buffer. Only the notes are
+     * formatted into an intermediate string.
+     */
+    private ByteBuffer encodeCsv(Timer timer) {
+        scratch.clear();
+        putLong(timer.getStartTimeMillis());
+        putByte(',');
+        putChars(timer.getTaskName());
+        putByte(',');
+        String threadName = timer.getThreadName();
+        if (threadName != null) {
+            putChars(threadName);
+        } else if (timer.getThreadId() != Timer.UNKNOWN_THREAD_ID) {
+            putByte('#');
+            putLong(timer.getThreadId());
+        }
+        putByte(',');
+        putLong(timer.getElapsedMillis());
+        putByte(',');
+        putLong(timer.getElapsedNanos());
+        putByte(',');
+        putLong(timer.getConcurrent());
+        putByte(',');
+        if (timer.getNotes() != null) {
+            putChars(timer.getNotes().toSingleValue());
+        }
+        return endLine();
+    }
+
+    /**
+     * Format the timer as written by {@link Timer#toString()} followed by a
+     * line separator directly into the scratch buffer. Only the notes are
+     * formatted into intermediate strings.
+     */
+    private ByteBuffer encodeText(Timer timer) {
+        scratch.clear();
+        putChars("Task: ");
+        putChars(timer.getTaskName());
+        putChars(" Start: ");
+        putChars(formatStart(timer.getStartTimeMillis()));
+        putChars(" Elapsed (ms): ");
+        putLong(timer.getElapsedMillis());
+        putChars(" Elapsed (ns): ");
+        putLong(timer.getElapsedNanos());
+        TimerNotes notes = timer.getNotes();
+        if (notes != null) {
+            putChars(" Notes: ");
+            for (int i = 0; i < notes.getLength(); i++) {
+                if (i > 0) {
+                    putByte(',');
+                }
+                putChars(notes.getFormattedNote(i));
+            }
+        }
+        return endLine();
+    }
+
+    private String formatStart(long startTimeMillis) {
+        long second = startTimeMillis >= 0 ? startTimeMillis / 1000
+                : (startTimeMillis - 999) / 1000;
+        if (second != formattedSecond || formattedStart == null) {
+            formattedStart = new Date(startTimeMillis).toString();
+            formattedSecond = second;
+        }
+        return formattedStart;
+    }
+
+    private ByteBuffer endLine() {
+        if (scratch.remaining() < LINE_SEPARATOR.length) {
+            growScratch(LINE_SEPARATOR.length);
+        }
+        scratch.put(LINE_SEPARATOR);
+        scratch.flip();
+        return scratch;
+    }
+
+    private void putByte(char c) {
+        if (!scratch.hasRemaining()) {
+            growScratch(1);
+        }
+        scratch.put((byte) c);
+    }
+
+    /**
+     * Write the decimal digits of the value without formatting a string.
+     */
+    private void putLong(long value) {
+        if (scratch.remaining() < 20) {
+            growScratch(20);
+        }
+        if (value == Long.MIN_VALUE) {
+            putChars(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            scratch.put((byte) '-');
+            value = -value;
+        }
+        int digits = 1;
+        for (long bound = 10; digits < 19 && value >= bound; bound *= 10) {
+            digits++;
+        }
+        int end = scratch.position() + digits;
+        for (int i = end - 1; i >= scratch.position(); i--) {
+            scratch.put(i, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        scratch.position(end);
+    }
+
+    /**
+     * Write the characters as UTF-8. ASCII characters are written directly;
+     * the encoder is only used from the first character outside that range.
+     * A null value is written as <code>null</code> as done when formatting
+     * the timer as a string.
+     */
+    private void putChars(CharSequence chars) {
+        if (chars == null) {
+            chars = "null";
+        }
+        int length = chars.length();
+        if (scratch.remaining() < length) {
+            growScratch(length);
+        }
+        for (int i = 0; i < length; i++) {
+            char c = chars.charAt(i);
+            if (c >= 0x80) {
+                encodeChars(CharBuffer.wrap(chars, i, length));
+                return;
+            }
+            scratch.put((byte) c);
+        }
+    }
+
+    private void encodeChars(CharBuffer chars) {
+        charEncoder.reset();
+        CoderResult result;
+        do {
+            result = charEncoder.encode(chars, scratch, true);
+            if (result.isOverflow()) {
+                growScratch(chars.remaining() * 3);
+            }
+        } while (result.isOverflow());
+        while (charEncoder.flush(scratch).isOverflow()) {
+            growScratch(16);
+        }
+    }
+
+    private void growScratch(int additional) {
+        ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(scratch.capacity() * 2,
+                scratch.position() + additional));
+        scratch.flip();
+        larger.put(scratch);
+        scratch = larger;
+    }
+
+    /**
+     * Body of the writer thread. Writes each buffer passed by the recording
+     * threads, or the active buffer if nothing has been passed within the
+     * flush interval, until the last buffer has been written.
+     */
+    private void writeBatches() {
+        for (;;) {
+            Batch batch;
+            lock.lock();
+            try {
+                long remaining = flushIntervalNanos;
+                while (pending == null) {
+                    if (remaining <= 0) {
+                        if (active.buffer.position() > 0) {
+                            // The writer is idle, so the spare is available.
+                            handOff();
+                            break;
+                        }
+                        remaining = flushIntervalNanos;
+                    }
+                    try {
+                        remaining = workAvailable.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        // Only stopped by the last buffer.
+                        remaining = 0;
+                    }
+                }
+                batch = pending;
+                pending = null;
+            } finally {
+                lock.unlock();
+            }
+
+            write(batch);
+
+            lock.lock();
+            try {
+                boolean last = batch.last;
+                batch.reset();
+                spare = batch;
+                writtenCount++;
+                bufferReturned.signalAll();
+                if (last) {
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Write the buffer to the current segment and roll or close the segment
+     * if the buffer ends it. Discards the buffer if a previous write failed.
+     */
+    private void write(Batch batch) {
+        if (failure != null) {
+            return;
+        }
+        ByteBuffer buffer = batch.buffer;
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            FileSyncPolicy policy = syncPolicy;
+            long now = System.currentTimeMillis();
+            if (policy == FileSyncPolicy.ALWAYS
+                    || (policy == FileSyncPolicy.INTERVAL && now - lastSyncMillis >= syncIntervalMillis)) {
+                channel.force(false);
+                lastSyncMillis = now;
+            }
+            if (batch.rollAfter) {
+                closeSegment();
+                File rolled = nextRolledFile();
+                rename(file, rolled);
+                if (compressRolledSegments) {
+                    compress(rolled);
+                }
+                channel = new FileOutputStream(file).getChannel();
+            } else if (batch.last) {
+                closeSegment();
+            }
+        } catch (IOException e) {
+            failure = e;
+            try {
+                channel.close();
+            } catch (IOException ignore) {
+                // Already failed.
+            }
+        }
+    }
+
+    private void closeSegment() throws IOException {
+        if (syncPolicy != FileSyncPolicy.NEVER) {
+            channel.force(false);
+            lastSyncMillis = System.currentTimeMillis();
+        }
+        channel.close();
+    }
+
+    /**
+     * Return the file to which the next segment is rolled.
+     */
+    private File nextRolledFile() {
+        return new File(file.getPath() + "." + nextSequence++);
+    }
+
+    /**
+     * Return the sequence number following the highest sequence number of any
+     * segment previously rolled from the file.
+     */
+    private long findNextSequence() {
+        File directory = file.getParentFile();
+        String[] names = directory == null ? null : directory.list();
+        long highest = 0;
+        if (names != null) {
+            String prefix = file.getName() + ".";
+            for (String name : names) {
+                if (!name.startsWith(prefix)) {
+                    continue;
+                }
+                String sequence = name.substring(prefix.length());
+                if (sequence.endsWith(COMPRESSED_SUFFIX)) {
+                    sequence = sequence.substring(0, sequence.length()
+                            - COMPRESSED_SUFFIX.length());
+                }
+                try {
+                    highest = Math.max(highest, Long.parseLong(sequence));
+                } catch (NumberFormatException e) {
+                    // Not a rolled segment.
+                }
+            }
+        }
+        return highest + 1;
+    }
+
+    private static void rename(File from, File to) throws IOException {
+        if (!from.renameTo(to)) {
+            throw new IOException("Unable to roll " + from + " to " + to);
+        }
+    }
+
+    /**
+     * Compress the rolled segment on the compressor thread.
+     */
+    private void compress(final File rolled) {
+        if (compressor == null) {
+            compressor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable target) {
+                    Thread thread = new Thread(target, "RollingFileTimeRecorder-gzip-"
+                            + file.getName());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        compressor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File compressed = new File(rolled.getPath() + COMPRESSED_SUFFIX);
+                try {
+                    gzip(rolled, compressed);
+                    rolled.delete();
+                } catch (IOException e) {
+                    // Retain the uncompressed segment.
+                    compressed.delete();
+                }
+            }
+        });
+    }
+
+    private static void gzip(File source, File target) throws IOException {
+        InputStream in = new FileInputStream(source);
+        try {
+            OutputStream out = new GZIPOutputStream(new FileOutputStream(target), 64 * 1024);
+            try {
+                byte[] buffer = new byte[64 * 1024];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * A direct buffer exchanged between the recording threads and the writer.
+     */
+    private static final class Batch {
+        private final ByteBuffer buffer;
+        /**
+         * Indicates that the buffer ends the current segment.
+         */
+        private boolean rollAfter;
+        /**
+         * Indicates that the buffer is the last to be written.
+         */
+        private boolean last;
+
+        private Batch(int size) {
+            buffer = ByteBuffer.allocateDirect(size);
+        }
+
+        private void reset() {
+            buffer.clear();
+            rollAfter = false;
+            last = false;
+        }
+    }
+}
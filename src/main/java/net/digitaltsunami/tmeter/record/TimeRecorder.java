@@ -14,6 +14,10 @@ public interface TimeRecorder {
      * processing should be kept to a minimum. For recording options that
      * require more processing or resources that may cause swapping or delay,
      * the timer should instead be processed using the {@link ActionChain}.
+     * <p>
+     * The timer may be recycled once this method returns. Implementations
+     * that retain the timer must retain a copy using {@link Timer#copy()} or
+     * use {@link Timer#retain()} and {@link Timer#release()}.
      * 
      * @param timer Completed timer to record.
      */
@@ -0,0 +1,176 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter.record;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.digitaltsunami.tmeter.Timer;
+import net.digitaltsunami.tmeter.TimerLogType;
+import net.digitaltsunami.tmeter.TimerNotes;
+
+/**
+ * Encodes timers in the {@link TimerLogType#BINARY} journal format.
+ * <p>
+ * A journal consists of a header followed by a sequence of entries, each
+ * starting with a single byte tag. All values are big endian.
+ * <ul>
+ * <li>Header: magic number (int) and format version (short).
+ * <li>Name entry: tag {@link #TAG_NAME}, id (int), length in bytes (int) and
+ * the UTF-8 bytes of the name. Written once for each distinct task or thread
+ * name prior to the first timer that refers to it.
+ * <li>Timer entry: tag {@link #TAG_TIMER}, start time in milliseconds (long),
+ * elapsed time in nanoseconds (long), concurrent count (int), task name id
+ * (int), thread name id (int), notes length in bytes (int) and the UTF-8 bytes
+ * of {@link TimerNotes#toSingleValue()}. A name id of -1 indicates a null name
+ * and a notes length of -1 indicates no notes.
+ * <li>A tag of {@link #TAG_END} or the end of the data indicates the end of the
+ * journal.
+ * </ul>
+ * <p>
+ * Each instance maintains the name dictionary for a single journal and is not
+ * thread safe. The dictionary assumes that every encoded buffer is written; if
+ * writing the buffer fails, {@link #rollback()} must be invoked prior to the
+ * next timer so that its names are defined again.
+ * 
+ * @author dhagberg
+ * 
+ */
+final class TimerJournalEncoder {
+
+    static final int MAGIC = 0x544D4A4C; // "TMJL"
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 6;
+
+    static final byte TAG_END = 0;
+    static final byte TAG_NAME = 1;
+    static final byte TAG_TIMER = 2;
+
+    /**
+     * Size of a timer entry excluding the notes.
+     */
+    static final int TIMER_ENTRY_SIZE = 1 + 8 + 8 + 4 + 4 + 4 + 4;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+    private boolean headerWritten;
+
+    /**
+     * Header and names defined by the last invocation of encode. Discarded by
+     * rollback.
+     */
+    private boolean headerEncoded;
+    private final List<String> namesEncoded = new ArrayList<String>();
+    private ByteBuffer scratch = ByteBuffer.allocate(512);
+
+    /**
+     * Encode the timer, preceded by the header if not yet written and a name
+     * entry for each name not yet defined.
+     * 
+     * @return buffer containing the encoded entries, ready to be read. The
+     *         buffer is reused by the next invocation.
+     */
+    ByteBuffer encode(Timer timer) {
+        scratch.clear();
+        headerEncoded = false;
+        namesEncoded.clear();
+        if (!headerWritten) {
+            ensureCapacity(HEADER_SIZE);
+            scratch.putInt(MAGIC);
+            scratch.putShort(VERSION);
+            headerWritten = true;
+            headerEncoded = true;
+        }
+        int taskId = nameId(timer.getTaskName());
+        String thread = timer.getThreadIdentity();
+        int threadId = nameId(thread.length() == 0 ? null : thread);
+        TimerNotes notes = timer.getNotes();
+        byte[] notesBytes = notes == null ? null : notes.toSingleValue().getBytes(UTF8);
+        ensureCapacity(TIMER_ENTRY_SIZE + (notesBytes == null ? 0 : notesBytes.length));
+        scratch.put(TAG_TIMER);
+        scratch.putLong(timer.getStartTimeMillis());
+        scratch.putLong(timer.getElapsedNanos());
+        scratch.putInt(timer.getConcurrent());
+        scratch.putInt(taskId);
+        scratch.putInt(threadId);
+        if (notesBytes == null) {
+            scratch.putInt(-1);
+        } else {
+            scratch.putInt(notesBytes.length);
+            scratch.put(notesBytes);
+        }
+        scratch.flip();
+        return scratch;
+    }
+
+    /**
+     * Return the id for the name, adding a name entry to the scratch buffer if
+     * the name has not yet been defined.
+     */
+    private int nameId(String name) {
+        if (name == null) {
+            return -1;
+        }
+        Integer id = dictionary.get(name);
+        if (id == null) {
+            id = dictionary.size();
+            dictionary.put(name, id);
+            namesEncoded.add(name);
+            byte[] nameBytes = name.getBytes(UTF8);
+            ensureCapacity(1 + 4 + 4 + nameBytes.length);
+            scratch.put(TAG_NAME);
+            scratch.putInt(id);
+            scratch.putInt(nameBytes.length);
+            scratch.put(nameBytes);
+        }
+        return id;
+    }
+
+    /**
+     * Discard the header and names defined by the last invocation of
+     * {@link #encode(Timer)} as its buffer was not written. They will be
+     * encoded again with the next timer that requires them.
+     */
+    void rollback() {
+        for (String name : namesEncoded) {
+            dictionary.remove(name);
+        }
+        namesEncoded.clear();
+        if (headerEncoded) {
+            headerWritten = false;
+            headerEncoded = false;
+        }
+    }
+
+    /**
+     * Grow the scratch buffer if required to hold the additional bytes,
+     * preserving its contents.
+     */
+    private void ensureCapacity(int additional) {
+        if (scratch.remaining() < additional) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(scratch.capacity() * 2,
+                    scratch.position() + additional));
+            scratch.flip();
+            larger.put(scratch);
+            scratch = larger;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter.record;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.digitaltsunami.tmeter.Timer;
+import net.digitaltsunami.tmeter.TimerLogType;
+import net.digitaltsunami.tmeter.TimerNotes;
+import net.digitaltsunami.tmeter.TimerNotesParser;
+
+/**
+ * Read timers recorded in the {@link TimerLogType#BINARY} format, such as by
+ * {@link MappedTimeRecorder} or {@link FileTimeRecorder}.
+ * <p>
+ * Each timer is returned in a {@link Timer.TimerStatus#STOPPED} state with no
+ * handlers or completion listeners, in the same manner as
+ * {@link Timer#fromCsv(String)}.
+ * 
+ * @author dhagberg
+ * 
+ */
+public class TimerJournalReader implements Closeable {
+
+    private final DataInputStream in;
+    private final List<String> names = new ArrayList<String>();
+    private boolean headerRead;
+    private boolean endOfJournal;
+
+    /**
+     * Create a reader for the named journal file.
+     * 
+     * @param fileName
+     *            name of file containing the journal.
+     * @throws IOException
+     *             if the file could not be opened.
+     */
+    public TimerJournalReader(String fileName) throws IOException {
+        this(new FileInputStream(fileName));
+    }
+
+    /**
+     * Create a reader for the journal contained in the provided stream.
+     * 
+     * @param in
+     *            stream positioned at the start of the journal.
+     */
+    public TimerJournalReader(InputStream in) {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+    }
+
+    /**
+     * Read the next timer from the journal.
+     * 
+     * @return the next timer or null if the end of the journal has been
+     *         reached.
+     * @throws IOException
+     *             if the journal could not be read or is not in the expected
+     *             format.
+     */
+    public Timer read() throws IOException {
+        if (endOfJournal) {
+            return null;
+        }
+        if (!headerRead) {
+            readHeader();
+        }
+        while (true) {
+            int tag = in.read();
+            switch (tag) {
+            case TimerJournalEncoder.TAG_NAME:
+                readName();
+                break;
+
+            case TimerJournalEncoder.TAG_TIMER:
+                return readTimer();
+
+            case -1:
+            case TimerJournalEncoder.TAG_END:
+                endOfJournal = true;
+                return null;
+
+            default:
+                throw new IOException("Invalid journal entry tag: " + tag);
+            }
+        }
+    }
+
+    /**
+     * Read all remaining timers in the journal.
+     * 
+     * @return list of timers in the order recorded.
+     * @throws IOException
+     *             if the journal could not be read or is not in the expected
+     *             format.
+     */
+    public List<Timer> readAll() throws IOException {
+        List<Timer> timers = new ArrayList<Timer>();
+        for (Timer timer = read(); timer != null; timer = read()) {
+            timers.add(timer);
+        }
+        return timers;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void readHeader() throws IOException {
+        headerRead = true;
+        int magic;
+        try {
+            magic = in.readInt();
+        } catch (EOFException e) {
+            // Empty journal.
+            endOfJournal = true;
+            return;
+        }
+        if (magic == 0) {
+            // Mapped journal not yet written.
+            endOfJournal = true;
+            return;
+        }
+        if (magic != TimerJournalEncoder.MAGIC) {
+            throw new IOException("Not a timer journal");
+        }
+        short version = in.readShort();
+        if (version != TimerJournalEncoder.VERSION) {
+            throw new IOException("Unsupported timer journal version: " + version);
+        }
+    }
+
+    private void readName() throws IOException {
+        int id = in.readInt();
+        if (id != names.size()) {
+            throw new IOException("Unexpected name id: " + id);
+        }
+        names.add(readString(in.readInt()));
+    }
+
+    private Timer readTimer() throws IOException {
+        long startTimeMillis = in.readLong();
+        long elapsedNanos = in.readLong();
+        int concurrent = in.readInt();
+        String taskName = name(in.readInt());
+        String threadName = name(in.readInt());
+        int notesLength = in.readInt();
+        TimerNotes notes = null;
+        if (notesLength >= 0) {
+            notes = TimerNotesParser.parse(readString(notesLength));
+        }
+        return Timer.fromRecordedValues(startTimeMillis, taskName, threadName, elapsedNanos,
+                concurrent, notes);
+    }
+
+    private String name(int id) throws IOException {
+        if (id == -1) {
+            return null;
+        }
+        if (id < 0 || id >= names.size()) {
+            throw new IOException("Undefined name id: " + id);
+        }
+        return names.get(id);
+    }
+
+    private String readString(int length) throws IOException {
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, TimerJournalEncoder.UTF8);
+    }
+}
@@ -0,0 +1,122 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class ConcurrencyCounterTest {
+    private static final String TASK_NAME = "TASK";
+
+    @Test
+    public void testIncrementDecrement() {
+        ConcurrencyCounter counter = new ConcurrencyCounter(1);
+        assertEquals(1, counter.increment());
+        assertEquals(2, counter.increment());
+        long now = System.nanoTime();
+        counter.decrement(now, now);
+        assertEquals(1, counter.getCurrent());
+        ConcurrencyStatistics stats = counter.getStatistics(TASK_NAME, false);
+        assertEquals(TASK_NAME, stats.getTaskName());
+        assertEquals(1, stats.getCurrent());
+        assertEquals(2, stats.getPeak());
+    }
+
+    @Test
+    public void testRunningTimeClippedToInterval() {
+        ConcurrencyCounter counter = new ConcurrencyCounter(1);
+        long start = System.nanoTime();
+        counter.increment();
+        counter.increment();
+        // One timer started well before the interval.
+        counter.decrement(start - 1000000000L, start + 1000);
+        counter.decrement(start, start + 1000);
+        ConcurrencyStatistics stats = counter.getStatistics(TASK_NAME, false);
+        assertTrue("Time before the interval excluded",
+                stats.getRunningNanos() < 1000000000L);
+        assertTrue(stats.getRunningNanos() >= 2000);
+    }
+
+    @Test
+    public void testStartInterval() {
+        ConcurrencyCounter counter = new ConcurrencyCounter(4);
+        counter.increment();
+        counter.increment();
+        long now = System.nanoTime();
+        counter.decrement(now - 1000, now);
+        ConcurrencyStatistics first = counter.getStatistics(TASK_NAME, true);
+        assertEquals(2, first.getPeak());
+        assertTrue(first.getRunningNanos() > 0);
+        ConcurrencyStatistics second = counter.getStatistics(TASK_NAME, false);
+        assertEquals("Peak should restart at the current count", 1, second.getPeak());
+        assertEquals(0L, second.getRunningNanos());
+    }
+
+    @Test
+    public void testPeakAcrossCells() throws InterruptedException {
+        final ConcurrencyCounter counter = new ConcurrencyCounter(8);
+        counter.increment();
+        Thread other = new Thread(new Runnable() {
+            public void run() {
+                counter.increment();
+            }
+        });
+        other.start();
+        other.join();
+        long now = System.nanoTime();
+        counter.decrement(now, now);
+        counter.decrement(now, now);
+        ConcurrencyStatistics stats = counter.getStatistics(TASK_NAME, true);
+        assertEquals(0, stats.getCurrent());
+        assertEquals(2, stats.getPeak());
+        assertEquals(0, counter.getStatistics(TASK_NAME, false).getPeak());
+    }
+
+    @Test
+    public void testAverage() {
+        ConcurrencyStatistics stats = new ConcurrencyStatistics(TASK_NAME, 0, 4, 2000, 1000);
+        assertEquals(2.0, stats.getAverage(), 0.0);
+        assertEquals(0.0, new ConcurrencyStatistics(TASK_NAME, 0, 0, 0, 0).getAverage(), 0.0);
+    }
+
+    @Test
+    public void testStripedConcurrentUpdates() throws InterruptedException {
+        final ConcurrencyCounter counter = new ConcurrencyCounter(8);
+        final int threads = 4;
+        final int iterations = 10000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < iterations; i++) {
+                        counter.increment();
+                        long now = System.nanoTime();
+                        counter.decrement(now, now);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        assertEquals(0, counter.getCurrent());
+        int peak = counter.getStatistics(TASK_NAME, false).getPeak();
+        assertTrue(peak >= 1 && peak <= threads);
+    }
+}
@@ -0,0 +1,126 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author dhagberg
+ * 
+ */
+public class LatencyHistogramTest {
+
+    private LatencyHistogram histogram;
+
+    @Before
+    public void setUp() {
+        histogram = new LatencyHistogram(3, 1, TimeUnit.HOURS);
+    }
+
+    @Test
+    public void testEmpty() {
+        assertEquals(0, histogram.getTotalCount());
+        assertEquals(0, histogram.getValueAtPercentile(99.0));
+    }
+
+    @Test
+    public void testPercentiles() {
+        // 1 to 10,000 microseconds
+        for (long i = 1; i <= 10000; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+        assertEquals(10000, histogram.getTotalCount());
+        assertWithinPrecision(TimeUnit.MICROSECONDS.toNanos(5000), histogram.getValueAtPercentile(50.0));
+        assertWithinPrecision(TimeUnit.MICROSECONDS.toNanos(9900), histogram.getValueAtPercentile(99.0));
+        assertWithinPrecision(TimeUnit.MICROSECONDS.toNanos(10000), histogram.getValueAtPercentile(100.0));
+        assertWithinPrecision(TimeUnit.MICROSECONDS.toNanos(1), histogram.getValueAtPercentile(0.0));
+        assertEquals(9, histogram.getValueAtPercentile(90.0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testSmallValuesExact() {
+        for (long i = 0; i < 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(49, histogram.getValueAtPercentile(50.0));
+        assertEquals(99, histogram.getValueAtPercentile(100.0));
+    }
+
+    @Test
+    public void testCountAtOrBelow() {
+        for (long i = 0; i < 100; i++) {
+            histogram.record(i);
+        }
+        histogram.record(TimeUnit.SECONDS.toNanos(2));
+        assertEquals(0, histogram.getCountAtOrBelow(-1));
+        assertEquals(1, histogram.getCountAtOrBelow(0));
+        assertEquals(50, histogram.getCountAtOrBelow(49));
+        assertEquals(100, histogram.getCountAtOrBelow(TimeUnit.SECONDS.toNanos(1)));
+        assertEquals(101, histogram.getCountAtOrBelow(TimeUnit.HOURS.toNanos(1)));
+    }
+
+    @Test
+    public void testOutOfRangeValues() {
+        histogram.record(-5);
+        histogram.record(TimeUnit.HOURS.toNanos(2));
+        assertEquals(2, histogram.getTotalCount());
+        assertEquals(0, histogram.getValueAtPercentile(50.0));
+        assertEquals(TimeUnit.HOURS.toNanos(1), histogram.getValueAtPercentile(100.0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPercentile() {
+        histogram.getValueAtPercentile(101.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSignificantDigits() {
+        new LatencyHistogram(6, 1, TimeUnit.HOURS);
+    }
+
+    @Test
+    public void testAddCopyReset() {
+        LatencyHistogram other = histogram.newEmpty();
+        histogram.record(1000);
+        other.record(3000);
+        other.record(5000);
+        LatencyHistogram copy = histogram.copy();
+        histogram.add(other);
+        assertEquals(3, histogram.getTotalCount());
+        assertWithinPrecision(5000, histogram.getValueAtPercentile(100.0));
+        assertEquals(1, copy.getTotalCount());
+        histogram.reset();
+        assertEquals(0, histogram.getTotalCount());
+        assertEquals(0, histogram.getValueAtPercentile(100.0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddDifferentConfiguration() {
+        histogram.add(new LatencyHistogram(2, 1, TimeUnit.HOURS));
+    }
+
+    private void assertWithinPrecision(long expected, long actual) {
+        // Three significant digits.
+        assertTrue("Expected " + expected + " but was " + actual,
+                Math.abs(expected - actual) <= expected / 1000);
+    }
+}
@@ -20,14 +20,20 @@ package net.digitaltsunami.tmeter;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import net.digitaltsunami.tmeter.Timer.TimerStatus;
 import net.digitaltsunami.tmeter.action.ActionChain;
+import net.digitaltsunami.tmeter.action.ActionChainOverflowPolicy;
 import net.digitaltsunami.tmeter.action.TimerAction;
+import net.digitaltsunami.tmeter.action.TimerStatsAction;
+import net.digitaltsunami.tmeter.level.TimerThreshold;
 import net.digitaltsunami.tmeter.record.ConsoleTimeRecorder;
 import net.digitaltsunami.tmeter.record.NullTimeRecorder;
 
@@ -104,6 +110,209 @@ public class NamedTimeTrackerTest {
         timeTrackerInst.setTrackConcurrent(false);
     }
 
+    /**
+     * Test that peak and time-weighted concurrency are available for each task
+     * and that striped counts are equivalent.
+     */
+    @Test
+    public void testConcurrencyStatistics() throws InterruptedException {
+        NamedTimeTracker tracker = new NamedTimeTracker("CONCURRENCY_TRACKER");
+        tracker.setConcurrencyStripes(4);
+        assertEquals(4, tracker.getConcurrencyStripes());
+        tracker.setTrackConcurrent(true);
+        tracker.setStampStripedConcurrent(true);
+        assertNull(tracker.getConcurrencyStatistics("CONCURRENCY_TASK"));
+        Timer t1 = tracker.startRecording("CONCURRENCY_TASK");
+        Timer t2 = tracker.startRecording("CONCURRENCY_TASK");
+        assertEquals(2, t2.getConcurrent());
+        Thread.sleep(5);
+        t1.stop();
+        t2.stop();
+        Timer t3 = tracker.startRecording("CONCURRENCY_TASK");
+        assertEquals(1, t3.getConcurrent());
+
+        ConcurrencyStatistics stats = tracker.getConcurrencyStatistics("CONCURRENCY_TASK");
+        assertEquals(1, stats.getCurrent());
+        assertEquals(2, stats.getPeak());
+        assertEquals(t1.getElapsedNanos() + t2.getElapsedNanos(), stats.getRunningNanos());
+        assertTrue(stats.getAverage() > 0.0 && stats.getAverage() <= 2.0);
+
+        ConcurrencyStatistics ended = null;
+        for (ConcurrencyStatistics each : tracker.getAllConcurrencyStatistics(true)) {
+            if (each.getTaskName().equals("CONCURRENCY_TASK")) {
+                ended = each;
+            }
+        }
+        assertEquals(2, ended.getPeak());
+        t3.stop();
+        stats = tracker.getConcurrencyStatistics("CONCURRENCY_TASK");
+        assertEquals(0, stats.getCurrent());
+        assertEquals("Peak restarts with the interval", 1, stats.getPeak());
+        assertTrue(stats.getRunningNanos() <= t3.getElapsedNanos());
+    }
+
+    /**
+     * Test that timers of striped counts are only set with the running count
+     * if enabled.
+     */
+    @Test
+    public void testStripedConcurrentNotStamped() {
+        NamedTimeTracker tracker = new NamedTimeTracker("CONCURRENCY_TRACKER");
+        tracker.setConcurrencyStripes(4);
+        tracker.setTrackConcurrent(true);
+        assertFalse(tracker.isStampStripedConcurrent());
+        Timer t1 = tracker.startRecording("CONCURRENCY_TASK");
+        Timer t2 = tracker.startRecording("CONCURRENCY_TASK");
+        assertEquals(0, t2.getConcurrent());
+        assertEquals(2, tracker.getConcurrencyStatistics("CONCURRENCY_TASK").getCurrent());
+        t1.stop();
+        t2.stop();
+    }
+
+    /**
+     * Test that invalid stripe counts are rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testConcurrencyStripesInvalid() {
+        new NamedTimeTracker("CONCURRENCY_TRACKER").setConcurrencyStripes(0);
+    }
+
+    /**
+     * Test method for
+     * {@link net.digitaltsunami.tmeter.NamedTimeTracker#startRecording(int)}
+     * .
+     */
+    @Test
+    public void testStartRecordingTaskId() {
+        int taskId = timeTrackerInst.registerTask(TEST_TASK_NAME);
+        timeTrackerInst.setTrackConcurrent(true);
+        Timer t1 = timeTrackerInst.startRecording(taskId);
+        Timer t2 = timeTrackerInst.startRecording(TEST_TASK_NAME);
+        assertEquals(TEST_TASK_NAME, t1.getTaskName());
+        assertEquals(taskId, t1.getTaskId());
+        assertEquals(taskId, t2.getTaskId());
+        // Counts are shared between the name and id paths.
+        assertEquals(2, t2.getConcurrent());
+        t1.stop();
+        t2.stop();
+        Timer t3 = timeTrackerInst.startRecording(taskId);
+        assertEquals(1, t3.getConcurrent());
+        t3.stop();
+        // Timer level is not enabled.
+        assertTrue(timeTrackerInst.startRecording(TimerThreshold.FINE, taskId) instanceof TimerShell);
+        timeTrackerInst.clear();
+        assertEquals(1, timeTrackerInst.startRecording(taskId).getConcurrent());
+        timeTrackerInst.setTrackConcurrent(false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testStartRecordingUnregisteredTaskId() {
+        timeTrackerInst.startRecording(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Test method for
+     * {@link net.digitaltsunami.tmeter.NamedTimeTracker#setTaskSampling(String, int, TimerSamplingMode)}
+     * .
+     */
+    @Test
+    public void testTaskSampling() {
+        NamedTimeTracker tracker = new NamedTimeTracker("SAMPLING_TRACKER");
+        assertEquals(1, tracker.getTaskSampleRate(TEST_TASK_NAME));
+        tracker.setTaskSampling(TEST_TASK_NAME, 4, TimerSamplingMode.COUNTER);
+        assertEquals(4, tracker.getTaskSampleRate(TEST_TASK_NAME));
+
+        TimerStatsAction stats = new TimerStatsAction();
+        int sampled = 0;
+        for (int i = 0; i < 8; i++) {
+            Timer timer = tracker.startRecording(TEST_TASK_NAME);
+            timer.stop();
+            if (!(timer instanceof TimerShell)) {
+                sampled++;
+                assertEquals(4, timer.getSampleWeight());
+                stats.timerComplete(timer);
+            }
+        }
+        assertEquals(2, sampled);
+        // Statistics are scaled to the number of executions.
+        assertEquals(8, stats.getTimerStatistics(TEST_TASK_NAME).getCount());
+
+        // Other tasks are not sampled.
+        Timer other = tracker.startRecording(TEST_TASK_NAME + "_OTHER");
+        assertFalse(other instanceof TimerShell);
+        assertEquals(1, other.getSampleWeight());
+
+        // A rate of one removes sampling.
+        tracker.setTaskSampling(TEST_TASK_NAME, 1, TimerSamplingMode.COUNTER);
+        assertEquals(1, tracker.getTaskSampleRate(TEST_TASK_NAME));
+        assertEquals(1, tracker.startRecording(TEST_TASK_NAME).getSampleWeight());
+    }
+
+    /**
+     * Test method for
+     * {@link net.digitaltsunami.tmeter.NamedTimeTracker#setLevelSampling(net.digitaltsunami.tmeter.level.TimerLevel, int, TimerSamplingMode)}
+     * .
+     */
+    @Test
+    public void testLevelSampling() {
+        NamedTimeTracker tracker = new NamedTimeTracker("SAMPLING_TRACKER");
+        tracker.enableTimerLevel(TimerThreshold.FINE);
+        tracker.setLevelSampling(TimerThreshold.FINE, 3, TimerSamplingMode.COUNTER);
+        assertEquals(3, tracker.getLevelSampleRate(TimerThreshold.FINE));
+        assertEquals(1, tracker.getLevelSampleRate(TimerThreshold.COURSE));
+
+        int sampled = 0;
+        for (int i = 0; i < 9; i++) {
+            Timer timer = tracker.startRecording(TimerThreshold.FINE, TEST_TASK_NAME);
+            if (!(timer instanceof TimerShell)) {
+                sampled++;
+                assertEquals(3, timer.getSampleWeight());
+            }
+            assertEquals(1, tracker.startRecording(TimerThreshold.COURSE, TEST_TASK_NAME)
+                    .getSampleWeight());
+        }
+        assertEquals(3, sampled);
+
+        // Task sampling takes precedence over level sampling.
+        tracker.setTaskSampling(TEST_TASK_NAME, 2, TimerSamplingMode.COUNTER);
+        assertEquals(2, tracker.startRecording(TimerThreshold.FINE, TEST_TASK_NAME)
+                .getSampleWeight());
+
+        tracker.clearSampling();
+        assertEquals(1, tracker.getLevelSampleRate(TimerThreshold.FINE));
+        assertEquals(1, tracker.getTaskSampleRate(TEST_TASK_NAME));
+        for (int i = 0; i < 3; i++) {
+            assertFalse(tracker.startRecording(TimerThreshold.FINE, TEST_TASK_NAME) instanceof TimerShell);
+        }
+    }
+
+    /**
+     * Test method for
+     * {@link net.digitaltsunami.tmeter.NamedTimeTracker#setTaskSampling(String, int, TimerSamplingMode)}
+     * using {@link TimerSamplingMode#RANDOM}.
+     */
+    @Test
+    public void testRandomSampling() {
+        NamedTimeTracker tracker = new NamedTimeTracker("SAMPLING_TRACKER");
+        int taskId = tracker.registerTask(TEST_TASK_NAME);
+        tracker.setTaskSampling(TEST_TASK_NAME, 10, TimerSamplingMode.RANDOM);
+        int sampled = 0;
+        for (int i = 0; i < 10000; i++) {
+            Timer timer = tracker.startRecording(taskId);
+            if (!(timer instanceof TimerShell)) {
+                sampled++;
+                assertEquals(10, timer.getSampleWeight());
+            }
+        }
+        // Expect 1000 with a standard deviation of 30.
+        assertTrue("Sampled " + sampled, sampled > 800 && sampled < 1200);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTaskSamplingInvalidRate() {
+        timeTrackerInst.setTaskSampling(TEST_TASK_NAME, 0, TimerSamplingMode.COUNTER);
+    }
+
     /**
      * Test method for
      * {@link net.digitaltsunami.tmeter.NamedTimeTracker#getLogType()} and
@@ -238,6 +447,313 @@ public class NamedTimeTrackerTest {
         assertTrue("Timer list does not contain the timer. ", listOfTimers.contains(t2));
     }
 
+    /**
+     * Test method for
+     * {@link net.digitaltsunami.tmeter.NamedTimeTracker#setPoolTimers(boolean)}
+     * .
+     */
+    @Test
+    public void testPoolTimers() {
+        NamedTimeTracker tracker = new NamedTimeTracker("POOL_TRACKER");
+        assertFalse("Pool timers should default to false", tracker.isPoolTimers());
+        tracker.setPoolTimers(true);
+        tracker.setTimerPoolSize(1);
+        Timer t1 = tracker.startRecording(TEST_TASK_NAME);
+        assertTrue(t1.isPooled());
+        assertEquals(TEST_TASK_NAME, t1.getTaskName());
+        assertEquals(Thread.currentThread().getName(), t1.getThreadName());
+        assertEquals(TimerStatus.RUNNING, t1.getStatus());
+        // Pool exhausted while t1 is running.
+        Timer t2 = tracker.startRecording(TEST_TASK_NAME);
+        assertFalse(t2.isPooled());
+        t2.stop();
+        t1.stop();
+        // t1 released on stop and should be reused.
+        Timer t3 = tracker.startRecording("OTHER_TASK");
+        assertTrue(t1 == t3);
+        assertEquals("OTHER_TASK", t3.getTaskName());
+        assertEquals(TimerStatus.RUNNING, t3.getStatus());
+        assertEquals(null, t3.getNotes());
+        t3.stop();
+    }
+
+    /**
+     * Test that the thread identity mode is applied to new and pooled timers.
+     */
+    @Test
+    public void testThreadIdentityMode() {
+        NamedTimeTracker tracker = new NamedTimeTracker("IDENTITY_TRACKER");
+        assertEquals(ThreadIdentityMode.NAME, tracker.getThreadIdentityMode());
+        tracker.setThreadIdentityMode(ThreadIdentityMode.ID);
+        Timer t1 = tracker.startRecording(TEST_TASK_NAME);
+        t1.stop();
+        assertNull(t1.getThreadName());
+        assertEquals(Thread.currentThread().getId(), t1.getThreadId());
+
+        tracker.setPoolTimers(true);
+        tracker.setThreadIdentityMode(ThreadIdentityMode.NONE);
+        Timer t2 = tracker.startRecording(TEST_TASK_NAME);
+        assertTrue(t2.isPooled());
+        assertNull(t2.getThreadName());
+        assertEquals(Timer.UNKNOWN_THREAD_ID, t2.getThreadId());
+        t2.stop();
+
+        tracker.setThreadIdentityMode(ThreadIdentityMode.NAME);
+        Timer t3 = tracker.startRecording(TEST_TASK_NAME);
+        assertEquals(Thread.currentThread().getName(), t3.getThreadName());
+        t3.stop();
+    }
+
+    /**
+     * Test that a null thread identity mode is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testThreadIdentityModeNull() {
+        new NamedTimeTracker("IDENTITY_TRACKER").setThreadIdentityMode(null);
+    }
+
+    /**
+     * Test that nested timers are assigned call paths and that the elapsed
+     * time of children is accumulated into the parent.
+     */
+    @Test
+    public void testTrackNesting() {
+        NamedTimeTracker tracker = new NamedTimeTracker("NESTING_TRACKER");
+        assertFalse("Track nesting should default to false", tracker.isTrackNesting());
+        tracker.setTrackNesting(true);
+        Timer request = tracker.startRecording("request");
+        Timer service = tracker.startRecording("service");
+        Timer dao = tracker.startRecording("dao");
+        dao.stop();
+        Timer dao2 = tracker.startRecording("dao");
+        dao2.stop();
+        service.stop();
+        Timer other = tracker.startRecording("other");
+        other.stop();
+        request.stop();
+
+        assertEquals("request", request.getCallPath().toString());
+        assertEquals("request/service", service.getCallPath().toString());
+        assertEquals("request/service/dao", dao.getCallPath().toString());
+        assertTrue("Path should be reused", dao.getCallPath() == dao2.getCallPath());
+        assertEquals(3, dao.getCallPath().getDepth());
+        assertTrue(service.getCallPath() == dao.getCallPath().getParent());
+        assertNull(request.getCallPath().getParent());
+
+        assertEquals(0L, dao.getChildElapsedNanos());
+        assertEquals(dao.getElapsedNanos() + dao2.getElapsedNanos(),
+                service.getChildElapsedNanos());
+        assertEquals(service.getElapsedNanos() + other.getElapsedNanos(),
+                request.getChildElapsedNanos());
+        assertEquals(request.getElapsedNanos() - request.getChildElapsedNanos(),
+                request.getSelfElapsedNanos());
+
+        // A new outermost timer after all have stopped.
+        Timer next = tracker.startRecording("request");
+        next.stop();
+        assertTrue(next.getCallPath() == request.getCallPath());
+    }
+
+    /**
+     * Test that timers not stopped, or stopped out of order, do not remain
+     * the parent of later timers.
+     */
+    @Test
+    public void testTrackNestingOutOfOrder() {
+        NamedTimeTracker tracker = new NamedTimeTracker("NESTING_TRACKER");
+        tracker.setTrackNesting(true);
+        Timer outer = tracker.startRecording("outer");
+        Timer abandoned = tracker.startRecording("abandoned");
+        outer.stop();
+        Timer next = tracker.startRecording("next");
+        next.stop();
+        assertEquals("next", next.getCallPath().toString());
+        assertEquals(TimerStatus.RUNNING, abandoned.getStatus());
+        abandoned.stop();
+        assertEquals(0L, outer.getChildElapsedNanos());
+    }
+
+    /**
+     * Test that depth and path limits are applied.
+     */
+    @Test
+    public void testTrackNestingLimits() {
+        NamedTimeTracker tracker = new NamedTimeTracker("NESTING_TRACKER");
+        tracker.setTrackNesting(true);
+        tracker.setMaxNestingDepth(2);
+        tracker.setMaxCallPaths(3);
+        Timer a = tracker.startRecording("a");
+        Timer b = tracker.startRecording("b");
+        Timer c = tracker.startRecording("c");
+        c.stop();
+        b.stop();
+        a.stop();
+        assertEquals("a/b", b.getCallPath().toString());
+        assertNull("Beyond max depth", c.getCallPath());
+
+        Timer d = tracker.startRecording("d");
+        d.stop();
+        assertEquals("d", d.getCallPath().toString());
+        Timer e = tracker.startRecording("e");
+        e.stop();
+        assertTrue(e.getCallPath().isOverflow());
+        assertEquals(CallPath.OVERFLOW_TASK_NAME, e.getCallPath().toString());
+    }
+
+    /**
+     * Test that pooling is bypassed while keeping a list of timers.
+     */
+    @Test
+    public void testPoolTimersKeepList() {
+        NamedTimeTracker tracker = new NamedTimeTracker("POOL_TRACKER");
+        tracker.setPoolTimers(true);
+        tracker.setKeepList(true);
+        Timer t1 = tracker.startRecording(TEST_TASK_NAME);
+        assertFalse(t1.isPooled());
+        t1.stop();
+        assertEquals(1, tracker.getCurrentTimers().length);
+    }
+
+    /**
+     * Test that pooled timers are retained until the action chain has
+     * completed processing.
+     */
+    @Test
+    public void testPoolTimersActionChain() throws InterruptedException {
+        NamedTimeTracker tracker = new NamedTimeTracker("POOL_TRACKER");
+        tracker.setPoolTimers(true);
+        tracker.setTimerPoolSize(1);
+        final List<Timer> listOfTimers = new ArrayList<Timer>();
+        final CountDownLatch processing = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        tracker.addCompletionAction(new TimerAction() {
+            @Override
+            protected void processTimer(Timer timer) {
+                listOfTimers.add(timer.copy());
+                processing.countDown();
+                try {
+                    proceed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        Timer t1 = tracker.startRecording(TEST_TASK_NAME);
+        t1.stop(1, 2);
+        processing.await();
+        // Still owned by the action chain.
+        assertFalse(tracker.startRecording(TEST_TASK_NAME).isPooled());
+        proceed.countDown();
+        Thread.sleep(100); // Allow the action chain to release the timer.
+        assertTrue(tracker.startRecording(TEST_TASK_NAME) == t1);
+
+        Timer copy = listOfTimers.get(0);
+        assertFalse(copy.isPooled());
+        assertEquals(TEST_TASK_NAME, copy.getTaskName());
+        assertEquals(TimerStatus.STOPPED, copy.getStatus());
+        assertEquals(2, copy.getNotes().getLength());
+        tracker.shutdown();
+    }
+
+    /**
+     * Test method for
+     * {@link net.digitaltsunami.tmeter.NamedTimeTracker#setActionChainQueue(int, ActionChainOverflowPolicy)}
+     * .
+     */
+    @Test
+    public void testSetActionChainQueue() throws InterruptedException {
+        NamedTimeTracker tracker = new NamedTimeTracker("BOUNDED_TRACKER");
+        tracker.setActionChainQueue(64, ActionChainOverflowPolicy.DROP_NEWEST);
+        assertEquals(64, tracker.getActionChain().getQueueCapacity());
+        assertEquals(ActionChainOverflowPolicy.DROP_NEWEST,
+                tracker.getActionChain().getOverflowPolicy());
+        final List<Timer> listOfTimers = new ArrayList<Timer>();
+        tracker.addCompletionAction(new TimerAction() {
+            @Override
+            protected void processTimer(Timer timer) {
+                listOfTimers.add(timer);
+            }
+        });
+        tracker.startRecording(TEST_TASK_NAME).stop();
+        Thread.sleep(100); // Allow the action chain to process the timer.
+        assertEquals(1, listOfTimers.size());
+        try {
+            tracker.setActionChainQueue(128, ActionChainOverflowPolicy.BLOCK);
+            fail("Queue may not be changed after adding actions.");
+        } catch (IllegalStateException expected) {
+        }
+        tracker.shutdown();
+    }
+
+    /**
+     * Test method for
+     * {@link net.digitaltsunami.tmeter.NamedTimeTracker#setActionChainShards(int)}
+     * .
+     */
+    @Test
+    public void testSetActionChainShards() throws InterruptedException {
+        NamedTimeTracker tracker = new NamedTimeTracker("SHARDED_TRACKER");
+        tracker.setActionChainQueue(64, ActionChainOverflowPolicy.DROP_NEWEST);
+        tracker.setActionChainShards(4);
+        ActionChain chain = tracker.getActionChain();
+        assertEquals(4, chain.getShardCount());
+        assertEquals(64, chain.getQueueCapacity());
+        assertEquals(ActionChainOverflowPolicy.DROP_NEWEST, chain.getOverflowPolicy());
+        TimerStatsAction statsAction = new TimerStatsAction();
+        tracker.addCompletionAction(statsAction);
+        for (int i = 0; i < 8; i++) {
+            tracker.startRecording(TEST_TASK_NAME + i).stop();
+        }
+        Thread.sleep(100); // Allow the action chain to process the timers.
+        assertEquals(8, statsAction.getAllTimerStatistics().size());
+        try {
+            tracker.setActionChainShards(2);
+            fail("Shards may not be changed after adding actions.");
+        } catch (IllegalStateException expected) {
+        }
+        tracker.shutdown();
+    }
+
+    /**
+     * Test method for
+     * {@link net.digitaltsunami.tmeter.NamedTimeTracker#startTiming()} and
+     * {@link net.digitaltsunami.tmeter.NamedTimeTracker#stopTiming(String, long)}
+     * .
+     */
+    @Test
+    public void testTimingTokens() throws InterruptedException {
+        NamedTimeTracker tracker = new NamedTimeTracker("TOKEN_TRACKER");
+        TimerStatsAction stats = new TimerStatsAction();
+        tracker.addCompletionAction(stats);
+        long token = tracker.startTiming();
+        Thread.sleep(1);
+        long elapsed = tracker.stopTiming(TEST_TASK_NAME, token);
+        assertTrue(elapsed > 0);
+        Thread.sleep(100); // Sleep to allow actionChain to process the elapsed time.
+        TimerBasicStatistics stat = stats.getTimerStatistics(TEST_TASK_NAME);
+        assertEquals(1, stat.getCount());
+        assertEquals(elapsed, stat.getTotalElapsedNanos());
+
+        tracker.setTrackingDisabled(true);
+        token = tracker.startTiming();
+        assertEquals(NamedTimeTracker.TIMING_DISABLED, token);
+        assertEquals(0, tracker.stopTiming(TEST_TASK_NAME, token));
+        Thread.sleep(100);
+        assertEquals(1, stat.getCount());
+        tracker.shutdown();
+    }
+
+    /**
+     * Test that timing tokens honor the timer level filter.
+     */
+    @Test
+    public void testTimingTokensLevel() {
+        NamedTimeTracker tracker = new NamedTimeTracker("TOKEN_TRACKER");
+        tracker.enableTimerLevel(TimerThreshold.MEDIUM);
+        assertEquals(NamedTimeTracker.TIMING_DISABLED, tracker.startTiming(TimerThreshold.FINE));
+        assertTrue(tracker.startTiming(TimerThreshold.COURSE) != NamedTimeTracker.TIMING_DISABLED);
+    }
+
     /**
      * 
      */
@@ -0,0 +1,83 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Runs the keyed notes tests against {@link PrimitiveTimerNotes} to ensure the
+ * same values are returned as {@link KeyedTimerNotes}.
+ */
+public class PrimitiveTimerNotesTest extends KeyedTimerNotesTest {
+
+    @Override
+    protected TimerNotes createTimerNotes(String[] keys, Object[] vals) {
+        PrimitiveTimerNotes notes = new PrimitiveTimerNotes();
+        for (int i = 0; i < keys.length; i++) {
+            if (vals[i] instanceof Integer) {
+                notes.add(keys[i], ((Integer) vals[i]).intValue());
+            } else if (vals[i] instanceof Long) {
+                notes.add(keys[i], ((Long) vals[i]).longValue());
+            } else if (vals[i] instanceof Double) {
+                notes.add(keys[i], ((Double) vals[i]).doubleValue());
+            } else {
+                notes.add(keys[i], vals[i]);
+            }
+        }
+        return notes;
+    }
+
+    @Test
+    public void testLongValues() {
+        PrimitiveTimerNotes notes = new PrimitiveTimerNotes();
+        notes.add("Long", Long.MAX_VALUE);
+        notes.add("Negative", -0.5);
+        assertEquals(Long.valueOf(Long.MAX_VALUE), notes.getValue("Long"));
+        assertEquals(String.valueOf(Long.MAX_VALUE), notes.getStringValue(0));
+        assertEquals("Negative=-0.5", notes.getFormattedNote(1));
+        assertEquals("null", notes.getStringValue("NotFound"));
+    }
+
+    @Test
+    public void testGrow() {
+        PrimitiveTimerNotes notes = new PrimitiveTimerNotes();
+        for (int i = 0; i < 10; i++) {
+            notes.add("Key" + i, i);
+        }
+        notes.add("Last", "Value");
+        assertEquals(11, notes.getLength());
+        assertEquals(9, notes.getValue("Key9"));
+        assertEquals("Value", notes.getValue(10));
+        assertEquals(11, notes.getKeys().length);
+        assertEquals(11, notes.getNotes().length);
+    }
+
+    @Test(expected = ArrayIndexOutOfBoundsException.class)
+    public void testIndexBeyondLength() {
+        testTimerNotes.getValue(4);
+    }
+
+    @Test
+    public void testMatchesKeyedTimerNotes() {
+        TimerNotes keyed = new KeyedTimerNotes("Int", 1, "Char", 'a', "String", "Test", "Double",
+                3.4);
+        assertEquals(keyed.toSingleValue(), testTimerNotes.toSingleValue());
+        assertArrayEquals(keyed.getNotes(), testTimerNotes.getNotes());
+        assertArrayEquals(keyed.getKeys(), testTimerNotes.getKeys());
+    }
+}
@@ -0,0 +1,151 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RollingTimerBasicStatisticsTest {
+    private static final String TASK_NAME = "TEST_TASK";
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private RollingTimerBasicStatistics rolling;
+
+    @Before
+    public void setUp() {
+        rolling = new RollingTimerBasicStatistics(TASK_NAME, 10, 1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testWindow() {
+        // One elapsed time per second with an elapsed time of the second.
+        for (int i = 1; i <= 10; i++) {
+            rolling.addElapsed(i * 1000L, 1, i * SECOND);
+        }
+        TimerBasicStatistics stats = rolling.getStatistics(3, TimeUnit.SECONDS, 10 * SECOND);
+        assertEquals(3, stats.getCount());
+        assertEquals(27000, stats.getTotalElapsedNanos());
+        assertEquals(8000, stats.getMinElapsedNanos());
+        assertEquals(10000, stats.getMaxElapsedNanos());
+        assertEquals(9000.0, stats.getAverageElapsedNanos(), .01);
+        assertEquals(1000000.0, stats.getVarianceElapsedNanos(), .01);
+
+        stats = rolling.getStatistics(10, TimeUnit.SECONDS, 10 * SECOND);
+        assertEquals(10, stats.getCount());
+        assertEquals(1000, stats.getMinElapsedNanos());
+    }
+
+    @Test
+    public void testExpiredBucketsReused() {
+        rolling.addElapsed(1000, 1, 0);
+        rolling.addElapsed(2000, 1, 5 * SECOND);
+        // Reuses the bucket of the first elapsed time.
+        rolling.addElapsed(3000, 1, 10 * SECOND);
+        TimerBasicStatistics stats = rolling.getStatistics(10, TimeUnit.SECONDS, 10 * SECOND);
+        assertEquals(2, stats.getCount());
+        assertEquals(5000, stats.getTotalElapsedNanos());
+        // Beyond the span, nothing remains.
+        stats = rolling.getStatistics(10, TimeUnit.SECONDS, 30 * SECOND);
+        assertEquals(0, stats.getCount());
+        // Elapsed times older than the span are ignored.
+        rolling.addElapsed(4000, 1, 0);
+        stats = rolling.getStatistics(10, TimeUnit.SECONDS, 10 * SECOND);
+        assertEquals(2, stats.getCount());
+    }
+
+    @Test
+    public void testNegativeTimes() {
+        rolling.addElapsed(1000, 1, -SECOND / 2);
+        rolling.addElapsed(2000, 1, SECOND / 2);
+        assertEquals(1, rolling.getStatistics(1, TimeUnit.SECONDS, SECOND / 2).getCount());
+        assertEquals(2, rolling.getStatistics(2, TimeUnit.SECONDS, SECOND / 2).getCount());
+    }
+
+    @Test
+    public void testWeighted() {
+        Timer timer = new Timer(TASK_NAME);
+        timer.setSampleWeight(4);
+        timer.stop();
+        rolling.addTimer(timer, SECOND);
+        assertEquals(4, rolling.getStatistics(1, TimeUnit.SECONDS, SECOND).getCount());
+    }
+
+    @Test
+    public void testPercentiles() {
+        rolling = new RollingTimerBasicStatistics(TASK_NAME, 10, 1, TimeUnit.SECONDS, 2, 1,
+                TimeUnit.MINUTES);
+        assertTrue(rolling.hasHistogram());
+        for (int i = 1; i <= 100; i++) {
+            rolling.addElapsed(TimeUnit.MILLISECONDS.toNanos(i), 1, (i % 2) * SECOND);
+        }
+        TimerBasicStatistics stats = rolling.getStatistics(2, TimeUnit.SECONDS, SECOND);
+        assertEquals(100, stats.getHistogram().getTotalCount());
+        assertEquals(50, stats.getPercentile(50.0, TimeUnit.MILLISECONDS));
+        // Only odd values in the latest bucket.
+        stats = rolling.getStatistics(1, TimeUnit.SECONDS, SECOND);
+        assertEquals(50, stats.getCount());
+        assertEquals(99, stats.getPercentile(100.0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testClear() {
+        rolling.addElapsed(1000);
+        rolling.clear();
+        assertEquals(0, rolling.getStatistics(10, TimeUnit.SECONDS).getCount());
+        assertFalse(rolling.hasHistogram());
+    }
+
+    @Test
+    public void testMerge() {
+        RollingTimerBasicStatistics other = new RollingTimerBasicStatistics(TASK_NAME, 10, 1,
+                TimeUnit.SECONDS);
+        rolling.addElapsed(1000, 1, 0);
+        rolling.addElapsed(2000, 1, 9 * SECOND);
+        other.addElapsed(3000, 1, 9 * SECOND);
+        // Replaces the bucket of the first elapsed time.
+        other.addElapsed(4000, 1, 10 * SECOND);
+        rolling.merge(other);
+        TimerBasicStatistics stats = rolling.getStatistics(10, TimeUnit.SECONDS, 10 * SECOND);
+        assertEquals(3, stats.getCount());
+        assertEquals(9000, stats.getTotalElapsedNanos());
+        assertEquals(2000, stats.getMinElapsedNanos());
+        assertEquals(2, other.getStatistics(10, TimeUnit.SECONDS, 10 * SECOND).getCount());
+
+        RollingTimerBasicStatistics merged = RollingTimerBasicStatistics.merge(TASK_NAME,
+                java.util.Arrays.asList(rolling, other));
+        assertEquals(5, merged.getStatistics(10, TimeUnit.SECONDS, 10 * SECOND).getCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeDifferentBuckets() {
+        rolling.merge(new RollingTimerBasicStatistics(TASK_NAME, 5, 1, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWindowExceedsSpan() {
+        rolling.getStatistics(11, TimeUnit.SECONDS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBucketCount() {
+        new RollingTimerBasicStatistics(TASK_NAME, 0, 1, TimeUnit.SECONDS);
+    }
+}
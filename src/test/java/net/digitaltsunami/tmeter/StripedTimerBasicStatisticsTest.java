@@ -0,0 +1,154 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link StripedTimerBasicStatistics} against the values accumulated by
+ * {@link TimerBasicStatistics}.
+ * 
+ * @author dhagberg
+ * 
+ */
+public class StripedTimerBasicStatisticsTest {
+
+    private static final String TASK_NAME = "Query";
+    private static final double DELTA = 1e-6;
+
+    @Test
+    public void testEmpty() {
+        StripedTimerBasicStatistics stats = new StripedTimerBasicStatistics(TASK_NAME, 4);
+        assertEquals(0, stats.getCount());
+        assertEquals(0, stats.getTotalElapsedNanos());
+        assertEquals(Long.MAX_VALUE, stats.getMinElapsedNanos());
+        assertEquals(Long.MIN_VALUE, stats.getMaxElapsedNanos());
+        assertEquals(0.0, stats.getVarianceElapsedNanos(), DELTA);
+    }
+
+    @Test
+    public void testSingleThread() {
+        StripedTimerBasicStatistics striped = new StripedTimerBasicStatistics(TASK_NAME, 4);
+        TimerBasicStatistics basic = new TimerBasicStatistics(TASK_NAME);
+        for (long elapsed : new long[] { 5000000, 10000000, 15000000 }) {
+            striped.addElapsed(elapsed);
+            basic.addElapsed(elapsed);
+        }
+        assertSameStatistics(basic, striped);
+    }
+
+    @Test
+    public void testMultipleThreads() throws InterruptedException {
+        final int threads = 8;
+        final int samples = 10000;
+        final StripedTimerBasicStatistics striped = new StripedTimerBasicStatistics(TASK_NAME, 4);
+        final TimerBasicStatistics basic = new TimerBasicStatistics(TASK_NAME);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final long seed = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < samples; i++) {
+                        long elapsed = 1000 + random.nextInt(1000000);
+                        striped.addElapsed(elapsed);
+                        basic.addElapsed(elapsed);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        assertEquals(threads * samples, striped.getCount());
+        assertSameStatistics(basic, striped);
+    }
+
+    @Test
+    public void testSnapshot() {
+        StripedTimerBasicStatistics striped = new StripedTimerBasicStatistics(TASK_NAME);
+        striped.addElapsed(10);
+        TimerBasicStatistics snapshot = striped.getSnapshot();
+        assertFalse(snapshot instanceof StripedTimerBasicStatistics);
+        striped.addElapsed(20);
+        assertEquals(1, snapshot.getCount());
+        assertEquals(2, striped.getCount());
+        assertTrue(snapshot.equals(striped));
+    }
+
+    @Test
+    public void testWeighted() {
+        StripedTimerBasicStatistics striped = new StripedTimerBasicStatistics(TASK_NAME, 4);
+        TimerBasicStatistics basic = new TimerBasicStatistics(TASK_NAME);
+        striped.addElapsed(5000000);
+        basic.addElapsed(5000000);
+        striped.addElapsed(10000000, 4);
+        basic.addElapsed(10000000, 4);
+        striped.addElapsed(15000000, 2);
+        basic.addElapsed(15000000, 2);
+        assertEquals(7, striped.getCount());
+        assertSameStatistics(basic, striped);
+    }
+
+    @Test
+    public void testMerge() {
+        StripedTimerBasicStatistics striped = new StripedTimerBasicStatistics(TASK_NAME, 4, 2, 1,
+                TimeUnit.MINUTES);
+        TimerBasicStatistics other = new TimerBasicStatistics(TASK_NAME, 2, 1, TimeUnit.MINUTES);
+        TimerBasicStatistics basic = new TimerBasicStatistics(TASK_NAME);
+        striped.addElapsed(5000000);
+        basic.addElapsed(5000000);
+        other.addElapsed(10000000);
+        other.addElapsed(25000000);
+        basic.addElapsed(10000000);
+        basic.addElapsed(25000000);
+        striped.merge(other);
+        assertSameStatistics(basic, striped);
+        assertEquals(3, striped.getHistogram().getTotalCount());
+
+        TimerBasicStatistics merged = new TimerBasicStatistics(TASK_NAME);
+        merged.merge(striped);
+        assertSameStatistics(basic, merged);
+    }
+
+    @Test
+    public void testToString() {
+        StripedTimerBasicStatistics striped = new StripedTimerBasicStatistics(TASK_NAME, 4, 2, 1,
+                TimeUnit.MINUTES);
+        striped.addElapsed(5000000);
+        striped.addElapsed(15000000);
+        assertEquals(striped.getSnapshot().toString(), striped.toString());
+    }
+
+    private void assertSameStatistics(TimerBasicStatistics expected, TimerBasicStatistics actual) {
+        assertEquals(expected.getCount(), actual.getCount());
+        assertEquals(expected.getTotalElapsedNanos(), actual.getTotalElapsedNanos());
+        assertEquals(expected.getMinElapsedNanos(), actual.getMinElapsedNanos());
+        assertEquals(expected.getMaxElapsedNanos(), actual.getMaxElapsedNanos());
+        assertEquals(expected.getAverageElapsedNanos(), actual.getAverageElapsedNanos(),
+                expected.getAverageElapsedNanos() * DELTA);
+        assertEquals(expected.getVarianceElapsedNanos(), actual.getVarianceElapsedNanos(),
+                expected.getVarianceElapsedNanos() * DELTA);
+    }
+}
@@ -0,0 +1,68 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author dhagberg
+ * 
+ */
+public class TaskRegistryTest {
+
+    private final TaskRegistry registry = new TaskRegistry();
+
+    /**
+     * Test method for
+     * {@link net.digitaltsunami.tmeter.TaskRegistry#register(String)}.
+     */
+    @Test
+    public void testRegister() {
+        int id = registry.register("TaskRegistryTest_1");
+        assertTrue(id >= 0);
+        assertEquals(id, registry.register(new String("TaskRegistryTest_1")));
+        assertEquals(id, registry.getTaskId("TaskRegistryTest_1"));
+        assertEquals("TaskRegistryTest_1", registry.getTaskName(id));
+
+        // Ids are assigned densely.
+        int size = registry.size();
+        int nextId = registry.register("TaskRegistryTest_2");
+        assertEquals(size, nextId);
+        assertEquals(size + 1, registry.size());
+    }
+
+    @Test
+    public void testRegisterMany() {
+        int first = registry.register("TaskRegistryTest_Many_0");
+        for (int i = 1; i < 200; i++) {
+            int id = registry.register("TaskRegistryTest_Many_" + i);
+            assertEquals("TaskRegistryTest_Many_" + i, registry.getTaskName(id));
+        }
+        assertEquals("TaskRegistryTest_Many_0", registry.getTaskName(first));
+    }
+
+    @Test
+    public void testUnregistered() {
+        assertEquals(TaskRegistry.UNREGISTERED, registry.getTaskId("TaskRegistryTest_Unknown"));
+        assertEquals(TaskRegistry.UNREGISTERED, registry.register(null));
+        assertNull(registry.getTaskName(TaskRegistry.UNREGISTERED));
+        assertNull(registry.getTaskName(Integer.MAX_VALUE));
+    }
+}
@@ -25,6 +25,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import org.junit.BeforeClass;
@@ -294,4 +295,171 @@ public class TimerBasicStatisticsTest {
     public void testToString() {
         assertNotNull(stats.toString());
     }
+
+    /**
+     * Test method for
+     * {@link net.digitaltsunami.tmeter.TimerBasicStatistics#getPercentile(double, TimeUnit)}
+     * .
+     */
+    @Test
+    public void testGetPercentile() {
+        TimerBasicStatistics testStat = new TimerBasicStatistics(TASK_NAME, 3, 1, TimeUnit.MINUTES);
+        assertTrue(testStat.hasHistogram());
+        for (Timer t : timers) {
+            if (TASK_NAME.equals(t.getTaskName())) {
+                testStat.addTimer(t);
+            }
+        }
+        assertEquals(5, testStat.getPercentile(0.0, TimeUnit.MILLISECONDS));
+        assertEquals(10, testStat.getPercentile(50.0, TimeUnit.MILLISECONDS));
+        assertEquals(15, testStat.getPercentile(99.0, TimeUnit.MILLISECONDS));
+
+        // Snapshot retains its own copy of the histogram.
+        TimerBasicStatistics snapshot = testStat.getSnapshot();
+        testStat.addElapsed(TimeUnit.SECONDS.toNanos(30));
+        assertEquals(15, snapshot.getPercentile(100.0, TimeUnit.MILLISECONDS));
+        assertEquals(30, testStat.getPercentile(100.0, TimeUnit.SECONDS));
+        assertEquals(timerCount, snapshot.getHistogram().getTotalCount());
+    }
+
+    /**
+     * Test method for
+     * {@link net.digitaltsunami.tmeter.TimerBasicStatistics#addElapsed(long, int)}
+     * . Weighted elapsed times must be the same as adding the elapsed time
+     * once per occurrence.
+     */
+    @Test
+    public void testAddElapsedWeighted() {
+        TimerBasicStatistics weighted = new TimerBasicStatistics(TASK_NAME, 3, 1, TimeUnit.MINUTES);
+        TimerBasicStatistics repeated = new TimerBasicStatistics(TASK_NAME, 3, 1, TimeUnit.MINUTES);
+        long[] elapsed = { 5000000, 10000000, 15000000 };
+        int[] weights = { 3, 1, 6 };
+        for (int i = 0; i < elapsed.length; i++) {
+            weighted.addElapsed(elapsed[i], weights[i]);
+            for (int j = 0; j < weights[i]; j++) {
+                repeated.addElapsed(elapsed[i]);
+            }
+        }
+        assertEquals(10, weighted.getCount());
+        assertEquals(repeated.getTotalElapsedNanos(), weighted.getTotalElapsedNanos());
+        assertEquals(5000000, weighted.getMinElapsedNanos());
+        assertEquals(15000000, weighted.getMaxElapsedNanos());
+        assertEquals(repeated.getAverageElapsedNanos(), weighted.getAverageElapsedNanos(), .1);
+        assertEquals(repeated.getVarianceElapsedNanos(), weighted.getVarianceElapsedNanos(), 1.0);
+        assertEquals(10, weighted.getHistogram().getTotalCount());
+        assertEquals(15, weighted.getPercentile(50.0, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Test method for
+     * {@link net.digitaltsunami.tmeter.TimerBasicStatistics#merge(TimerBasicStatistics)}
+     * . Merged statistics must be the same as adding all elapsed times to a
+     * single instance.
+     */
+    @Test
+    public void testMerge() {
+        TimerBasicStatistics first = new TimerBasicStatistics(TASK_NAME, 3, 1, TimeUnit.MINUTES);
+        TimerBasicStatistics second = new TimerBasicStatistics(TASK_NAME, 3, 1, TimeUnit.MINUTES);
+        TimerBasicStatistics all = new TimerBasicStatistics(TASK_NAME, 3, 1, TimeUnit.MINUTES);
+        long[] elapsed = { 5000000, 12000000, 7000000, 30000000, 15000000, 1000000, 9000000 };
+        for (int i = 0; i < elapsed.length; i++) {
+            (i < 3 ? first : second).addElapsed(elapsed[i]);
+            all.addElapsed(elapsed[i]);
+        }
+        first.merge(second);
+        assertMerged(all, first);
+        assertEquals(4, second.getCount());
+        assertEquals(elapsed.length, first.getHistogram().getTotalCount());
+        assertEquals(all.getPercentile(50.0, TimeUnit.MILLISECONDS),
+                first.getPercentile(50.0, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Test that merging with an empty instance has no effect and that merging
+     * into an empty instance copies the values.
+     */
+    @Test
+    public void testMergeEmpty() {
+        TimerBasicStatistics empty = new TimerBasicStatistics(TASK_NAME);
+        TimerBasicStatistics merged = new TimerBasicStatistics(TASK_NAME);
+        merged.merge(empty);
+        assertEquals(0, merged.getCount());
+        assertEquals(Long.MAX_VALUE, merged.getMinElapsedNanos());
+        merged.merge(stats);
+        assertMerged(stats, merged);
+        merged.merge(empty);
+        assertMerged(stats, merged);
+    }
+
+    /**
+     * Test method for
+     * {@link net.digitaltsunami.tmeter.TimerBasicStatistics#merge(String, java.util.Collection)}
+     * and
+     * {@link net.digitaltsunami.tmeter.TimerBasicStatistics#mergeByTask(java.util.Collection)}
+     * .
+     */
+    @Test
+    public void testMergeCollection() {
+        List<TimerBasicStatistics> sources = new ArrayList<TimerBasicStatistics>();
+        TimerBasicStatistics allQuery = new TimerBasicStatistics(TASK_NAME);
+        TimerBasicStatistics allUpdate = new TimerBasicStatistics("Update", 2, 1, TimeUnit.MINUTES);
+        for (int i = 0; i < 3; i++) {
+            TimerBasicStatistics query = new TimerBasicStatistics(TASK_NAME);
+            TimerBasicStatistics update = new TimerBasicStatistics("Update", 2, 1, TimeUnit.MINUTES);
+            for (int j = 1; j <= i + 2; j++) {
+                query.addElapsed(j * 1000000L * (i + 1));
+                allQuery.addElapsed(j * 1000000L * (i + 1));
+                update.addElapsed(j * 3000000L + i);
+                allUpdate.addElapsed(j * 3000000L + i);
+            }
+            sources.add(query);
+            sources.add(update);
+        }
+        Map<String, TimerBasicStatistics> byTask = TimerBasicStatistics.mergeByTask(sources);
+        assertEquals(2, byTask.size());
+        assertMerged(allQuery, byTask.get(TASK_NAME));
+        assertFalse(byTask.get(TASK_NAME).hasHistogram());
+        assertMerged(allUpdate, byTask.get("Update"));
+        assertEquals(allUpdate.getCount(), byTask.get("Update").getHistogram().getTotalCount());
+
+        TimerBasicStatistics combined = TimerBasicStatistics.merge("All", sources);
+        assertEquals("All", combined.getTaskName());
+        assertEquals(allQuery.getCount() + allUpdate.getCount(), combined.getCount());
+        assertEquals(allQuery.getMinElapsedNanos(), combined.getMinElapsedNanos());
+        assertEquals(0, TimerBasicStatistics.merge(TASK_NAME, new ArrayList<TimerBasicStatistics>())
+                .getCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeDifferentHistograms() {
+        TimerBasicStatistics first = new TimerBasicStatistics(TASK_NAME, 3, 1, TimeUnit.MINUTES);
+        TimerBasicStatistics second = new TimerBasicStatistics(TASK_NAME, 2, 1, TimeUnit.MINUTES);
+        first.addElapsed(1000);
+        second.addElapsed(2000);
+        first.merge(second);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddElapsedInvalidWeight() {
+        new TimerBasicStatistics(TASK_NAME).addElapsed(1000, 0);
+    }
+
+    /**
+     * Test that percentiles are not available without a histogram.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testGetPercentileNoHistogram() {
+        assertFalse(stats.hasHistogram());
+        stats.getPercentile(99.0, TimeUnit.MILLISECONDS);
+    }
+
+    private void assertMerged(TimerBasicStatistics expected, TimerBasicStatistics actual) {
+        assertEquals(expected.getCount(), actual.getCount());
+        assertEquals(expected.getTotalElapsedNanos(), actual.getTotalElapsedNanos());
+        assertEquals(expected.getMinElapsedNanos(), actual.getMinElapsedNanos());
+        assertEquals(expected.getMaxElapsedNanos(), actual.getMaxElapsedNanos());
+        assertEquals(expected.getAverageElapsedNanos(), actual.getAverageElapsedNanos(), .1);
+        assertEquals(expected.getVarianceElapsedNanos(), actual.getVarianceElapsedNanos(),
+                expected.getVarianceElapsedNanos() * 1e-9);
+    }
 }
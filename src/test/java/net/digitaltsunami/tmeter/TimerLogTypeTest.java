@@ -40,6 +40,8 @@ public class TimerLogTypeTest {
         assertTrue("Logging should be enabled for type: CSV", type.isLoggingEnabled());
         type = TimerLogType.TEXT;
         assertTrue("Logging should be enabled for type: TEXT", type.isLoggingEnabled());
+        type = TimerLogType.BINARY;
+        assertTrue("Logging should be enabled for type: BINARY", type.isLoggingEnabled());
     }
 
 }
@@ -20,6 +20,8 @@ package net.digitaltsunami.tmeter;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import net.digitaltsunami.tmeter.Timer.TimerStatus;
 import net.digitaltsunami.tmeter.record.FileTimeRecorder;
@@ -207,6 +209,15 @@ public class TimerShellTest {
         assertEquals(1, notes[2]);
     }
 
+    /**
+     * Test that added notes are discarded by the shell.
+     */
+    @Test
+    public void testAddNote() {
+        assertSame(timer, timer.addNote("k1", 1).addNote("k2", 2L).addNote("k3", 3.0));
+        assertNull(timer.getNotes());
+    }
+
     /**
      * Test that output is not written when a valid {@link TimeRecorder} is set.
      * This is a shell timer and should not write any output.
@@ -173,6 +173,54 @@ public class TimerTest {
         assertEquals(2, notes[1]);
     }
 
+    /**
+     * Test method for {@link Timer#addNote(String, long)} and its variants.
+     */
+    @Test
+    public void testAddNote() {
+        timer.addNote("k1", 1L).addNote("k2", 2).addNote("k3", 3.5).addNote("k4", "d");
+        timer.stop();
+        TimerNotes notes = timer.getNotes();
+        assertTrue(notes.isKeyed());
+        assertEquals(4, notes.getLength());
+        assertEquals(Long.valueOf(1), notes.getValue("k1"));
+        assertEquals(Integer.valueOf(2), notes.getValue("k2"));
+        assertEquals(Double.valueOf(3.5), notes.getValue("k3"));
+        assertEquals("d", notes.getValue("k4"));
+        assertEquals(new KeyedTimerNotes("k1", 1L, "k2", 2, "k3", 3.5, "k4", "d").toSingleValue(),
+                notes.toSingleValue());
+
+        // Notes cannot be added once stopped.
+        timer.addNote("k5", 5);
+        assertEquals(4, timer.getNotes().getLength());
+    }
+
+    /**
+     * Test that notes set on the timer replace added notes and vice versa.
+     */
+    @Test
+    public void testAddNoteReplacesNotes() {
+        timer.setNotes("a", "b");
+        timer.addNote("k1", 1);
+        assertEquals(1, timer.getNotes().getLength());
+        timer.setKeyedNotes("k2", 2);
+        assertEquals(2, timer.getNotes().getValue("k2"));
+        assertNull(timer.getNotes().getValue("k1"));
+    }
+
+    /**
+     * Test that added notes are output correctly.
+     */
+    @Test
+    public void testAddNoteOutputText() {
+        timer.addNote("k1", 1).addNote("k2", 2.5);
+        timer.setTimeRecorder(textRecorder);
+        String suffix = "Notes: k1=1,k2=2.5";
+        String output = TestUtils.getTimerLogOutput(timer, TimerLogType.TEXT, true);
+
+        assertTrue("TEXT output of timer should end with timer notes.", output.endsWith(suffix));
+    }
+
     /**
      * Test method for {@link net.digitaltsunami.tmeter.Timer#getThreadName()}.
      */
@@ -181,6 +229,137 @@ public class TimerTest {
         assertEquals(Thread.currentThread().getName(), timer.getThreadName());
     }
 
+    /**
+     * Test method for {@link net.digitaltsunami.tmeter.Timer#getThreadId()}.
+     */
+    /**
+     * Test that the default string format is unchanged by thread capture.
+     */
+    @Test
+    public void testToStringDefaultFormat() {
+        assertTrue(timer.toString().startsWith("Task: " + TASK_NAME + " Start: "));
+        assertFalse(timer.toString().contains("Thread:"));
+    }
+
+    @Test
+    public void testGetThreadId() {
+        assertEquals(Thread.currentThread().getId(), timer.getThreadId());
+        assertEquals(Thread.currentThread().getName(), timer.getThreadIdentity());
+    }
+
+    /**
+     * Test that only the thread id is captured in ID mode and that it is
+     * written to and read from CSV.
+     */
+    @Test
+    public void testThreadIdentityId() {
+        Timer idTimer = new Timer(TASK_NAME, false, null, null, ThreadIdentityMode.ID);
+        idTimer.stop();
+        long id = Thread.currentThread().getId();
+        assertNull(idTimer.getThreadName());
+        assertEquals(id, idTimer.getThreadId());
+        assertEquals("#" + id, idTimer.getThreadIdentity());
+        // The string format is unchanged by the thread identity.
+        assertFalse(idTimer.toString().contains("Thread:"));
+
+        Timer restored = Timer.fromCsv(idTimer.toCsv());
+        assertNull(restored.getThreadName());
+        assertEquals(id, restored.getThreadId());
+        assertEquals(idTimer.toCsv(), restored.toCsv());
+    }
+
+    /**
+     * Test that the thread is not captured in NONE mode.
+     */
+    @Test
+    public void testThreadIdentityNone() {
+        Timer noneTimer = new Timer(TASK_NAME, false, null, null, ThreadIdentityMode.NONE);
+        noneTimer.stop();
+        assertNull(noneTimer.getThreadName());
+        assertEquals(Timer.UNKNOWN_THREAD_ID, noneTimer.getThreadId());
+        assertEquals("", noneTimer.getThreadIdentity());
+        assertFalse(noneTimer.toString().contains("Thread:"));
+        assertTrue(noneTimer.toCsv().contains("," + TASK_NAME + ",,"));
+
+        Timer restored = Timer.fromCsv(noneTimer.toCsv());
+        assertNull(restored.getThreadName());
+        assertEquals(Timer.UNKNOWN_THREAD_ID, restored.getThreadId());
+    }
+
+    /**
+     * Test that the thread name is resolved when first requested in LAZY_NAME
+     * mode.
+     */
+    @Test
+    public void testThreadIdentityLazyName() throws InterruptedException {
+        final Timer[] lazyTimer = new Timer[1];
+        Thread worker = new Thread(new Runnable() {
+            public void run() {
+                lazyTimer[0] = new Timer(TASK_NAME, false, null, null,
+                        ThreadIdentityMode.LAZY_NAME);
+                lazyTimer[0].stop();
+                Thread.currentThread().setName("renamed");
+            }
+        }, "original");
+        worker.start();
+        worker.join();
+        assertEquals(worker.getId(), lazyTimer[0].getThreadId());
+        assertEquals("renamed", lazyTimer[0].getThreadName());
+        worker.setName("renamed again");
+        assertEquals("Name should not change once resolved", "renamed",
+                lazyTimer[0].getThreadName());
+    }
+
+    /**
+     * Test that a lazily captured name is resolved when the timer is copied or
+     * serialized.
+     */
+    @Test
+    public void testThreadIdentityLazyNameDetached() throws IOException,
+            ClassNotFoundException {
+        Timer lazyTimer = new Timer(TASK_NAME, false, null, null, ThreadIdentityMode.LAZY_NAME);
+        lazyTimer.stop();
+        assertEquals(Thread.currentThread().getName(), lazyTimer.copy().getThreadName());
+
+        lazyTimer = new Timer(TASK_NAME, false, null, null, ThreadIdentityMode.LAZY_NAME);
+        lazyTimer.stop();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(lazyTimer);
+        out.close();
+        Timer restored = (Timer) new ObjectInputStream(new ByteArrayInputStream(
+                bytes.toByteArray())).readObject();
+        assertEquals(Thread.currentThread().getName(), restored.getThreadName());
+        assertEquals(Thread.currentThread().getId(), restored.getThreadId());
+    }
+
+    /**
+     * Test that platform threads are captured by name in CARRIER mode and that
+     * carrier aware identities are read from CSV.
+     */
+    @Test
+    public void testThreadIdentityCarrier() {
+        Timer carrierTimer = new Timer(TASK_NAME, false, null, null, ThreadIdentityMode.CARRIER);
+        carrierTimer.stop();
+        assertEquals(Thread.currentThread().getName(), carrierTimer.getThreadName());
+        assertEquals(Thread.currentThread().getId(), carrierTimer.getThreadId());
+
+        Timer restored = Timer.fromCsv("1000," + TASK_NAME
+                + ",#42@ForkJoinPool-1-worker-3,0,5000,0,");
+        assertEquals("#42@ForkJoinPool-1-worker-3", restored.getThreadName());
+        assertEquals(42L, restored.getThreadId());
+        restored = Timer.fromCsv("1000," + TASK_NAME + ",worker#x,0,5000,0,");
+        assertEquals("worker#x", restored.getThreadName());
+        assertEquals(Timer.UNKNOWN_THREAD_ID, restored.getThreadId());
+        // Thread names containing '#' are not read as ids.
+        restored = Timer.fromCsv("1000," + TASK_NAME + ",worker#5,0,5000,0,");
+        assertEquals("worker#5", restored.getThreadName());
+        assertEquals(Timer.UNKNOWN_THREAD_ID, restored.getThreadId());
+        restored = Timer.fromCsv("1000," + TASK_NAME + ",pool#1#7@carrier,0,5000,0,");
+        assertEquals("pool#1#7@carrier", restored.getThreadName());
+        assertEquals(7L, restored.getThreadId());
+    }
+
     /**
      * Test method for {@link net.digitaltsunami.tmeter.Timer#getTaskName()}.
      */
@@ -539,4 +718,72 @@ public class TimerTest {
         TimerNotes copyNotes = timerCopy.getNotes();
         assertEquals(origNotes.toSingleValue(), copyNotes.toSingleValue());
     }
+
+    /**
+     * Test method for {@link net.digitaltsunami.tmeter.Timer#copy()}.
+     */
+    @Test
+    public void testCopy() {
+        Timer testTimer = new Timer(TASK_NAME, TimerThreshold.MEDIUM);
+        testTimer.setConcurrent(3);
+        testTimer.setSampleWeight(5);
+        testTimer.setTimeRecorder(textRecorder);
+        testTimer.stop("a", 1);
+
+        Timer timerCopy = testTimer.copy();
+        assertFalse(timerCopy.isPooled());
+        assertEquals(testTimer.getTaskName(), timerCopy.getTaskName());
+        assertEquals(testTimer.getThreadName(), timerCopy.getThreadName());
+        assertEquals(testTimer.getTimerLevel(), timerCopy.getTimerLevel());
+        assertEquals(testTimer.getStatus(), timerCopy.getStatus());
+        assertEquals(testTimer.getStartTimeMillis(), timerCopy.getStartTimeMillis());
+        assertEquals(testTimer.getElapsedNanos(), timerCopy.getElapsedNanos());
+        assertEquals(testTimer.getConcurrent(), timerCopy.getConcurrent());
+        assertEquals(testTimer.getNotes().toSingleValue(), timerCopy.getNotes().toSingleValue());
+        assertEquals(testTimer.getTaskId(), timerCopy.getTaskId());
+        assertEquals(5, timerCopy.getSampleWeight());
+    }
+
+    /**
+     * Test method for {@link net.digitaltsunami.tmeter.Timer#getTaskId()}.
+     */
+    @Test
+    public void testGetTaskId() throws Exception {
+        // Ids are assigned only by the tracker creating the timer.
+        assertEquals(TaskRegistry.UNREGISTERED, new Timer(TASK_NAME).getTaskId());
+        NamedTimeTracker tracker = new NamedTimeTracker("TimerTest");
+        int taskId = tracker.registerTask(TASK_NAME);
+        Timer testTimer = tracker.startRecording(taskId);
+        testTimer.stop();
+        assertEquals(taskId, testTimer.getTaskId());
+        assertEquals(tracker.getTaskRegistry().getTaskId(TASK_NAME), taskId);
+
+        // Ids are not retained by serialization.
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(testTimer);
+        out.close();
+        Timer restored = (Timer) new ObjectInputStream(new ByteArrayInputStream(
+                bytes.toByteArray())).readObject();
+        assertEquals(TaskRegistry.UNREGISTERED, restored.getTaskId());
+    }
+
+    /**
+     * Test method for
+     * {@link net.digitaltsunami.tmeter.Timer#fromRecordedValues(long, String, String, long, int, TimerNotes)}
+     * .
+     */
+    @Test
+    public void testFromRecordedValues() {
+        Timer restored = Timer.fromRecordedValues(1000L, TASK_NAME, "main", 5000L, 2,
+                new TimerNoteList("a", 1));
+        assertEquals(TimerStatus.STOPPED, restored.getStatus());
+        assertEquals(1000L, restored.getStartTimeMillis());
+        assertEquals(TASK_NAME, restored.getTaskName());
+        assertEquals("main", restored.getThreadName());
+        assertEquals(5000L, restored.getElapsedNanos());
+        assertEquals(2, restored.getConcurrent());
+        assertEquals("a", restored.getNotes().getStringValue(0));
+        assertNull(Timer.fromRecordedValues(1000L, TASK_NAME, "main", 5000L, 2, null).getNotes());
+    }
 }
@@ -21,6 +21,13 @@ package net.digitaltsunami.tmeter.action;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import net.digitaltsunami.tmeter.Timer;
 import net.digitaltsunami.tmeter.TimerShell;
 import net.digitaltsunami.tmeter.record.NullTimeRecorder;
@@ -187,4 +194,160 @@ public class ActionChainTest {
         testActionChain.reset();
         assertEquals(0, actionCount.getCallCount()); 
     }
+
+    /**
+     * Test that timers queued while an action is processing are provided to
+     * the actions as a single batch.
+     */
+    @Test
+    public void testBatchProcessing() throws InterruptedException {
+        BatchSizeAction batchAction = new BatchSizeAction();
+        testActionChain.addAction(batchAction);
+        submitWhileStalled(batchAction, 10);
+        assertEquals(Arrays.asList(1, 10), batchAction.batchSizes);
+        assertEquals(11, actionCount.getCallCount());
+    }
+
+    /**
+     * Test method for
+     * {@link net.digitaltsunami.tmeter.action.ActionChain#setBatchSize(int)}.
+     */
+    @Test
+    public void testSetBatchSize() throws InterruptedException {
+        assertEquals(ActionChain.DEFAULT_BATCH_SIZE, testActionChain.getBatchSize());
+        testActionChain.setBatchSize(4);
+        BatchSizeAction batchAction = new BatchSizeAction();
+        testActionChain.addAction(batchAction);
+        submitWhileStalled(batchAction, 10);
+        assertEquals(Arrays.asList(1, 4, 4, 2), batchAction.batchSizes);
+        assertEquals(11, actionCount.getCallCount());
+    }
+
+    /**
+     * Test method for
+     * {@link net.digitaltsunami.tmeter.action.ActionChain#getStatistics()}.
+     */
+    @Test
+    public void testStatistics() throws InterruptedException {
+        BatchSizeAction batchAction = new BatchSizeAction();
+        testActionChain.addAction(batchAction);
+        testActionChain.setStatisticsEnabled(true);
+        ActionChainStatistics initial = testActionChain.getStatistics();
+        assertEquals(0, initial.getSubmittedCount());
+        assertEquals(0, initial.getMaxLagNanos());
+
+        testTimer.start();
+        testTimer.stop();
+        testActionChain.submitCompletedTimer(testTimer);
+        assertTrue(batchAction.processing.await(1, TimeUnit.SECONDS));
+        for (int i = 0; i < 10; i++) {
+            testActionChain.submitCompletedTimer(testTimer);
+        }
+        ActionChainStatistics stalled = testActionChain.getStatistics();
+        assertEquals(10, stalled.getQueueDepth());
+        assertEquals(1, stalled.getDequeuedCount());
+        assertEquals(11, stalled.getSubmittedCount());
+        assertTrue(stalled.getSubmitRate(initial) > 0.0);
+        Thread.sleep(50); // Lag of the queued timers.
+        batchAction.proceed.countDown();
+        Thread.sleep(500); // Give the queue time to process the timers.
+
+        ActionChainStatistics stats = testActionChain.getStatistics();
+        assertEquals(0, stats.getQueueDepth());
+        assertEquals(11, stats.getDequeuedCount());
+        assertEquals(2, stats.getBatchCount());
+        assertTrue(stats.getDequeueRate(stalled) > 0.0);
+        assertTrue("Lag includes the stalled batch",
+                stats.getMaxLagNanos() >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue(stats.getLagPercentile(99.0, TimeUnit.MILLISECONDS) >= 50);
+        assertEquals(11, stats.getLagHistogram().getTotalCount());
+        assertEquals(2, stats.getActionStatistics().size());
+        assertEquals(2, stats.getActionStatistics(batchAction).getCount());
+        assertEquals("BatchSizeAction", stats.getActionStatistics(batchAction).getTaskName());
+        assertEquals(2, stats.getActionStatistics(actionCount).getCount());
+        assertTrue(stats.getActionStatistics(batchAction).getMaxElapsedNanos() > stats
+                .getActionStatistics(actionCount).getMaxElapsedNanos());
+    }
+
+    /**
+     * Only counts are maintained unless statistics are enabled.
+     */
+    @Test
+    public void testStatisticsDisabled() throws InterruptedException {
+        assertFalse(testActionChain.isStatisticsEnabled());
+        testTimer.start();
+        testTimer.stop();
+        testActionChain.submitCompletedTimer(testTimer);
+        Thread.sleep(200); // Give the queue time to process the timer.
+        ActionChainStatistics stats = testActionChain.getStatistics();
+        assertEquals(1, stats.getDequeuedCount());
+        assertEquals(1, stats.getBatchCount());
+        assertEquals(0, stats.getLagHistogram().getTotalCount());
+        assertEquals(0, stats.getMaxLagNanos());
+        assertEquals(0, stats.getActionStatistics(actionCount).getCount());
+    }
+
+    /**
+     * Actions added directly to an action in the chain are processed.
+     */
+    @Test
+    public void testActionAddedToChainedAction() throws InterruptedException {
+        testTimer.start();
+        testTimer.stop();
+        testActionChain.submitCompletedTimer(testTimer);
+        Thread.sleep(200); // Give the queue time to process the timer.
+        TimerActionCount added = new TimerActionCount();
+        actionCount.addAction(added);
+        testActionChain.submitCompletedTimer(testTimer);
+        Thread.sleep(200); // Give the queue time to process the timer.
+        assertEquals(2, actionCount.getCallCount());
+        assertEquals(1, added.getCallCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetBatchSizeInvalid() {
+        testActionChain.setBatchSize(0);
+    }
+
+    /**
+     * Submit a timer, wait for the action to begin processing it and then
+     * submit additional timers before allowing processing to continue.
+     */
+    private void submitWhileStalled(BatchSizeAction batchAction, int count)
+            throws InterruptedException {
+        testTimer.start();
+        testTimer.stop();
+        testActionChain.submitCompletedTimer(testTimer);
+        assertTrue(batchAction.processing.await(1, TimeUnit.SECONDS));
+        for (int i = 0; i < count; i++) {
+            testActionChain.submitCompletedTimer(testTimer);
+        }
+        batchAction.proceed.countDown();
+        Thread.sleep(500); // Give the queue time to process the timers.
+    }
+
+    /**
+     * Records the size of each batch, blocking on the first until allowed to
+     * proceed.
+     */
+    private static class BatchSizeAction extends TimerAction {
+        private final CountDownLatch processing = new CountDownLatch(1);
+        private final CountDownLatch proceed = new CountDownLatch(1);
+        private final List<Integer> batchSizes = new ArrayList<Integer>();
+
+        @Override
+        protected void processTimer(Timer timer) {
+        }
+
+        @Override
+        protected void processTimers(List<Timer> timers) {
+            batchSizes.add(timers.size());
+            processing.countDown();
+            try {
+                proceed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 }
@@ -0,0 +1,100 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter.action;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import net.digitaltsunami.tmeter.CallPathStatistics;
+import net.digitaltsunami.tmeter.NamedTimeTracker;
+import net.digitaltsunami.tmeter.Timer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CallTreeStatsActionTest {
+    private NamedTimeTracker tracker;
+    private CallTreeStatsAction action;
+
+    @Before
+    public void setup() {
+        tracker = new NamedTimeTracker("CALL_TREE_TRACKER");
+        tracker.setTrackNesting(true);
+        action = new CallTreeStatsAction();
+    }
+
+    @Test
+    public void testProcessTimers() {
+        Timer request = tracker.startRecording("request");
+        Timer dao = tracker.startRecording("dao");
+        dao.stop();
+        request.stop();
+        action.processTimers(Arrays.asList(dao, request));
+        action.processTimer(dao);
+
+        CallPathStatistics daoStats = action.getCallPathStatistics("request/dao");
+        assertEquals(2, daoStats.getTotalStatistics().getCount());
+        assertEquals(2 * dao.getElapsedNanos(), daoStats.getSelfStatistics()
+                .getTotalElapsedNanos());
+        CallPathStatistics requestStats = action.getCallPathStatistics(request.getCallPath());
+        assertEquals(1, requestStats.getTotalStatistics().getCount());
+        assertEquals(request.getElapsedNanos(), requestStats.getTotalStatistics()
+                .getTotalElapsedNanos());
+        assertEquals(request.getElapsedNanos() - dao.getElapsedNanos(), requestStats
+                .getSelfStatistics().getTotalElapsedNanos());
+        assertEquals(2, action.getAllCallPathStatistics().size());
+        assertNull(action.getCallPathStatistics("dao"));
+    }
+
+    @Test
+    public void testUnnestedTimerIgnored() {
+        Timer timer = new Timer("plain");
+        timer.stop();
+        action.processTimer(timer);
+        action.processElapsed("plain", 1000);
+        assertTrue(action.getAllCallPathStatistics().isEmpty());
+    }
+
+    @Test
+    public void testSnapshotAndReset() {
+        Timer request = tracker.startRecording("request");
+        request.stop();
+        action.processTimer(request);
+        CallPathStatistics snapshot = action.getAllCallPathStatisticsSnapshot().iterator()
+                .next();
+        action.processTimer(request);
+        assertEquals(1, snapshot.getTotalStatistics().getCount());
+        assertEquals(2, action.getCallPathStatistics("request").getTotalStatistics()
+                .getCount());
+        action.reset();
+        assertNull(action.getCallPathStatistics("request"));
+    }
+
+    @Test
+    public void testShards() {
+        TimerAction shard = action.createShard();
+        Timer request = tracker.startRecording("request");
+        request.stop();
+        shard.processTimer(request);
+        assertEquals(1, action.getCallPathStatistics("request").getTotalStatistics()
+                .getCount());
+        action.reset();
+        assertNull(action.getCallPathStatistics("request"));
+    }
+}
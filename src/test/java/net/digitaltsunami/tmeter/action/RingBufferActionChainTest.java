@@ -0,0 +1,350 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter.action;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.digitaltsunami.tmeter.Timer;
+import net.digitaltsunami.tmeter.TimerShell;
+import net.digitaltsunami.tmeter.record.NullTimeRecorder;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the {@link ActionChainTest} tests against an action chain using a
+ * bounded ring buffer queue, and tests each {@link ActionChainOverflowPolicy}.
+ * 
+ * @author dhagberg
+ * 
+ */
+public class RingBufferActionChainTest extends ActionChainTest {
+
+    @Override
+    @Before
+    public void setup() {
+        testTimer = new Timer("TEST_TIMER", false, NullTimeRecorder.getInstance());
+        actionCount = new TimerActionCount();
+        testActionChain = new ActionChain(actionCount,
+                ActionChainShutdownType.TERMINATE_AFTER_COMPLETION, 16,
+                ActionChainOverflowPolicy.BLOCK);
+    }
+
+    @Test
+    public void testQueueCapacity() {
+        assertEquals(16, testActionChain.getQueueCapacity());
+        ActionChain chain = new ActionChain(ActionChainShutdownType.TERMINATE_IMMEDIATELY, 10,
+                ActionChainOverflowPolicy.DROP_NEWEST);
+        chain.addAction(new TimerActionCount());
+        assertEquals(16, chain.getQueueCapacity());
+        assertEquals(ActionChainOverflowPolicy.DROP_NEWEST, chain.getOverflowPolicy());
+        assertEquals(0, new ActionChain().getQueueCapacity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeCapacity() {
+        new ActionChain(ActionChainShutdownType.TERMINATE_IMMEDIATELY, -1,
+                ActionChainOverflowPolicy.BLOCK);
+    }
+
+    @Test
+    public void testSubmitElapsed() throws InterruptedException {
+        final AtomicInteger elapsedCount = new AtomicInteger();
+        testActionChain.addAction(new TimerAction() {
+            @Override
+            protected void processTimer(Timer timer) {
+            }
+
+            @Override
+            protected void processElapsed(String taskName, long elapsedNanos) {
+                assertEquals("TEST_TIMER", taskName);
+                elapsedCount.addAndGet((int) elapsedNanos);
+            }
+        });
+        for (int i = 0; i < 100; i++) {
+            testActionChain.submitElapsed("TEST_TIMER", 1);
+        }
+        Thread.sleep(1000); // Give the queue time to process the samples.
+        assertEquals(100, elapsedCount.get());
+    }
+
+    @Test
+    public void testDropNewest() throws InterruptedException {
+        GateAction gate = new GateAction();
+        ActionChain chain = createStalledChain(gate, 4, ActionChainOverflowPolicy.DROP_NEWEST);
+        ReleaseCountTimer[] timers = new ReleaseCountTimer[6];
+        for (int i = 0; i < timers.length; i++) {
+            timers[i] = new ReleaseCountTimer("T" + i);
+            chain.submitCompletedTimer(timers[i]);
+        }
+        assertEquals(2, chain.getDroppedCount());
+        // Submissions include those dropped and the timer being processed.
+        assertEquals(7, chain.getStatistics().getSubmittedCount());
+        // Dropped timers are released immediately.
+        assertEquals(1, timers[4].releaseCount.get());
+        assertEquals(1, timers[5].releaseCount.get());
+        assertEquals(0, timers[0].releaseCount.get());
+
+        gate.open();
+        Thread.sleep(500); // Give the queue time to process the timers.
+        assertEquals(Integer.valueOf(5), Integer.valueOf(gate.processed.size()));
+        assertEquals("T3", gate.processed.get(4));
+        assertEquals(1, timers[0].releaseCount.get());
+        chain.shutdown();
+    }
+
+    @Test
+    public void testDropOldest() throws InterruptedException {
+        GateAction gate = new GateAction();
+        ActionChain chain = createStalledChain(gate, 4, ActionChainOverflowPolicy.DROP_OLDEST);
+        ReleaseCountTimer[] timers = new ReleaseCountTimer[6];
+        for (int i = 0; i < timers.length; i++) {
+            timers[i] = new ReleaseCountTimer("T" + i);
+            chain.submitCompletedTimer(timers[i]);
+        }
+        assertEquals(2, chain.getDroppedCount());
+        assertEquals(1, timers[0].releaseCount.get());
+        assertEquals(1, timers[1].releaseCount.get());
+
+        gate.open();
+        Thread.sleep(500); // Give the queue time to process the timers.
+        assertEquals(Integer.valueOf(5), Integer.valueOf(gate.processed.size()));
+        assertEquals("T2", gate.processed.get(1));
+        assertEquals("T5", gate.processed.get(4));
+        chain.shutdown();
+    }
+
+    @Test
+    public void testSample() throws InterruptedException {
+        GateAction gate = new GateAction();
+        ActionChain chain = new ActionChain(ActionChainShutdownType.TERMINATE_IMMEDIATELY, 8,
+                ActionChainOverflowPolicy.SAMPLE);
+        chain.setOverflowSampleRate(2);
+        stall(chain, gate);
+        // Below half full all are accepted, then one of every two until full.
+        for (int i = 0; i < 14; i++) {
+            chain.submitCompletedTimer(new ReleaseCountTimer("T" + i));
+        }
+        assertEquals(6, chain.getDroppedCount());
+
+        gate.open();
+        Thread.sleep(500); // Give the queue time to process the timers.
+        assertEquals(Integer.valueOf(9), Integer.valueOf(gate.processed.size()));
+        assertEquals("T3", gate.processed.get(4));
+        assertEquals("T5", gate.processed.get(5));
+        chain.shutdown();
+    }
+
+    @Test
+    public void testBlock() throws InterruptedException {
+        GateAction gate = new GateAction();
+        final ActionChain chain = createStalledChain(gate, 2, ActionChainOverflowPolicy.BLOCK);
+        chain.submitCompletedTimer(new ReleaseCountTimer("T0"));
+        chain.submitCompletedTimer(new ReleaseCountTimer("T1"));
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                chain.submitCompletedTimer(new ReleaseCountTimer("T2"));
+            }
+        });
+        producer.start();
+        producer.join(300);
+        assertTrue("Producer should block while queue is full.", producer.isAlive());
+
+        gate.open();
+        producer.join(1000);
+        assertFalse(producer.isAlive());
+        Thread.sleep(500); // Give the queue time to process the timers.
+        assertEquals(Integer.valueOf(4), Integer.valueOf(gate.processed.size()));
+        assertEquals(0, chain.getDroppedCount());
+        chain.shutdown();
+    }
+
+    /**
+     * Shutdown must not be discarded by the overflow policy, and timers
+     * submitted after shutdown are not processed.
+     */
+    @Test
+    public void testShutdownWhenFull() throws InterruptedException {
+        GateAction gate = new GateAction();
+        final ActionChain chain = createStalledChain(gate, 2,
+                ActionChainOverflowPolicy.DROP_NEWEST);
+        chain.submitCompletedTimer(new ReleaseCountTimer("T0"));
+        chain.submitCompletedTimer(new ReleaseCountTimer("T1"));
+        Thread stopper = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                chain.shutdown();
+            }
+        });
+        stopper.start();
+        stopper.join(300);
+        assertTrue("Shutdown should wait for space.", stopper.isAlive());
+        ReleaseCountTimer late = new ReleaseCountTimer("LATE");
+        chain.submitCompletedTimer(late);
+        assertEquals(0, late.releaseCount.get());
+
+        gate.open();
+        stopper.join(1000);
+        assertFalse(stopper.isAlive());
+        Thread.sleep(500); // Give the queue time to process the timers.
+        assertEquals(Integer.valueOf(3), Integer.valueOf(gate.processed.size()));
+        assertFalse(gate.processed.contains("LATE"));
+    }
+
+    /**
+     * An action throwing an exception must not stop the queue from being
+     * consumed, otherwise producers would block once it is full.
+     */
+    @Test
+    public void testFailingActionKeepsConsuming() throws InterruptedException {
+        ActionChain chain = new ActionChain(ActionChainShutdownType.TERMINATE_IMMEDIATELY, 2,
+                ActionChainOverflowPolicy.BLOCK);
+        chain.addAction(new TimerAction() {
+            @Override
+            protected void processTimer(Timer timer) {
+                throw new IllegalStateException("Failing action");
+            }
+        });
+        TimerActionCount count = new TimerActionCount();
+        chain.addAction(count);
+        for (int i = 0; i < 20; i++) {
+            chain.submitCompletedTimer(new ReleaseCountTimer("T" + i));
+        }
+        Thread.sleep(500); // Give the queue time to process the timers.
+        assertEquals(20, count.getCallCount());
+        chain.shutdown();
+    }
+
+    /**
+     * A shutdown request submitted as a timer is not subject to the overflow
+     * policy.
+     */
+    @Test
+    public void testSubmittedShellNotDropped() throws InterruptedException {
+        GateAction gate = new GateAction();
+        ActionChain chain = createStalledChain(gate, 2, ActionChainOverflowPolicy.DROP_NEWEST);
+        chain.submitCompletedTimer(new ReleaseCountTimer("T0"));
+        chain.submitCompletedTimer(new ReleaseCountTimer("T1"));
+        final TimerShell shell = new TimerShell("Shutdown");
+        shell.stop();
+        final ActionChain stalled = chain;
+        Thread submitter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                stalled.submitCompletedTimer(shell);
+            }
+        });
+        submitter.start();
+        submitter.join(300);
+        assertTrue("Shell should wait for space.", submitter.isAlive());
+        gate.open();
+        submitter.join(1000);
+        assertFalse(submitter.isAlive());
+        assertEquals(0, chain.getDroppedCount());
+    }
+
+    /**
+     * Timers remaining on the queue when the actions are cleared are released.
+     */
+    @Test
+    public void testClearActionsReleasesQueued() throws InterruptedException {
+        GateAction gate = new GateAction();
+        ActionChain chain = createStalledChain(gate, 8, ActionChainOverflowPolicy.BLOCK);
+        ReleaseCountTimer[] timers = new ReleaseCountTimer[4];
+        for (int i = 0; i < timers.length; i++) {
+            timers[i] = new ReleaseCountTimer("T" + i);
+            chain.submitCompletedTimer(timers[i]);
+        }
+        chain.clearActions();
+        Thread.sleep(500); // Give the processing thread time to terminate.
+        for (ReleaseCountTimer timer : timers) {
+            assertEquals(1, timer.releaseCount.get());
+        }
+        assertEquals(Integer.valueOf(1), Integer.valueOf(gate.processed.size()));
+    }
+
+    /**
+     * Create a chain and block its processing thread on the first timer.
+     */
+    private ActionChain createStalledChain(GateAction gate, int capacity,
+            ActionChainOverflowPolicy policy) throws InterruptedException {
+        ActionChain chain = new ActionChain(ActionChainShutdownType.TERMINATE_IMMEDIATELY,
+                capacity, policy);
+        stall(chain, gate);
+        return chain;
+    }
+
+    private void stall(ActionChain chain, GateAction gate) throws InterruptedException {
+        chain.addAction(gate);
+        chain.submitCompletedTimer(new ReleaseCountTimer("STALL"));
+        assertTrue(gate.entered.await(1, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Action that records task names and blocks until opened.
+     */
+    private static class GateAction extends TimerAction {
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private final List<String> processed = new ArrayList<String>();
+
+        @Override
+        protected void processTimer(Timer timer) {
+            synchronized (processed) {
+                processed.add(timer.getTaskName());
+            }
+            entered.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void open() {
+            gate.countDown();
+        }
+    }
+
+    /**
+     * Stopped timer that counts the number of times it is released.
+     */
+    private static class ReleaseCountTimer extends Timer {
+        private static final long serialVersionUID = 4470531259823146705L;
+        private final AtomicInteger releaseCount = new AtomicInteger();
+
+        ReleaseCountTimer(String taskName) {
+            super(taskName, false, NullTimeRecorder.getInstance());
+            stop();
+            // Stopping an unpooled timer releases it; only count queue releases.
+            releaseCount.set(0);
+        }
+
+        @Override
+        public void release() {
+            releaseCount.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter.action;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import net.digitaltsunami.tmeter.Timer;
+import net.digitaltsunami.tmeter.TimerBasicStatistics;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RollingTimerStatsActionTest {
+    private static final String TEST_TIMER = "TEST_TIMER";
+    private RollingTimerStatsAction action;
+
+    @Before
+    public void setup() {
+        action = new RollingTimerStatsAction();
+    }
+
+    @Test
+    public void testProcessTimer() {
+        Timer timer = new Timer(TEST_TIMER);
+        timer.stop();
+        action.processTimer(timer);
+        action.processTimers(Arrays.asList(timer, timer));
+        action.processElapsed(TEST_TIMER, 1000);
+        TimerBasicStatistics stats = action.getTimerStatistics(TEST_TIMER, 1, TimeUnit.MINUTES);
+        assertEquals(4, stats.getCount());
+        assertEquals(4, action.getTimerStatistics(TEST_TIMER, 15, TimeUnit.MINUTES).getCount());
+        assertNull(action.getTimerStatistics("UNKNOWN", 1, TimeUnit.MINUTES));
+    }
+
+    @Test
+    public void testAllTimerStatistics() {
+        action.processElapsed(TEST_TIMER, 1000);
+        action.processElapsed(TEST_TIMER + "2", 1000);
+        Collection<TimerBasicStatistics> all = action.getAllTimerStatistics(5, TimeUnit.MINUTES);
+        assertEquals(2, all.size());
+    }
+
+    @Test
+    public void testHistogram() {
+        action.enableHistogram(2, 1, TimeUnit.MINUTES);
+        action.processElapsed(TEST_TIMER, TimeUnit.MILLISECONDS.toNanos(10));
+        TimerBasicStatistics stats = action.getTimerStatistics(TEST_TIMER, 1, TimeUnit.MINUTES);
+        assertTrue(stats.hasHistogram());
+        assertEquals(10, stats.getPercentile(50.0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testReset() {
+        action.processElapsed(TEST_TIMER, 1000);
+        action.resetState();
+        assertNull(action.getRollingStatistics(TEST_TIMER));
+    }
+
+    @Test
+    public void testShards() {
+        TimerAction shard = action.createShard();
+        shard.elapsedComplete(TEST_TIMER, 1000);
+        assertEquals(1, action.getTimerStatistics(TEST_TIMER, 1, TimeUnit.MINUTES).getCount());
+        assertEquals(1, action.getAllTimerStatistics(1, TimeUnit.MINUTES).size());
+    }
+
+    @Test
+    public void testReleasedShardsMerged() {
+        TimerAction shard = action.createShard();
+        shard.elapsedComplete(TEST_TIMER, 1000);
+        action.releaseShard(shard);
+        // A new shard for the same task after the first is released.
+        shard = action.createShard();
+        shard.elapsedComplete(TEST_TIMER, 3000);
+        TimerBasicStatistics stats = action.getTimerStatistics(TEST_TIMER, 1, TimeUnit.MINUTES);
+        assertEquals(2, stats.getCount());
+        assertEquals(4000, stats.getTotalElapsedNanos());
+        assertEquals(1, action.getAllTimerStatistics(1, TimeUnit.MINUTES).size());
+        action.releaseShard(shard);
+        assertEquals(2, action.getTimerStatistics(TEST_TIMER, 1, TimeUnit.MINUTES).getCount());
+    }
+}
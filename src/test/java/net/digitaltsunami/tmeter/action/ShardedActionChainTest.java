@@ -0,0 +1,212 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter.action;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.digitaltsunami.tmeter.Timer;
+import net.digitaltsunami.tmeter.TimerBasicStatistics;
+import net.digitaltsunami.tmeter.record.NullTimeRecorder;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the {@link ActionChainTest} tests against an action chain using
+ * multiple shards and tests partitioning of timers across the shards.
+ * 
+ * @author dhagberg
+ * 
+ */
+public class ShardedActionChainTest extends ActionChainTest {
+    private static final int SHARDS = 4;
+    private static final int TASKS = 16;
+
+    @Override
+    @Before
+    public void setup() {
+        testTimer = new Timer("TEST_TIMER", false, NullTimeRecorder.getInstance());
+        actionCount = new TimerActionCount();
+        testActionChain = new ActionChain(actionCount,
+                ActionChainShutdownType.TERMINATE_AFTER_COMPLETION, 0,
+                ActionChainOverflowPolicy.BLOCK, SHARDS);
+    }
+
+    @Test
+    public void testShardCount() {
+        assertEquals(SHARDS, testActionChain.getShardCount());
+        assertEquals(1, new ActionChain().getShardCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidShardCount() {
+        new ActionChain(ActionChainShutdownType.TERMINATE_IMMEDIATELY, 0,
+                ActionChainOverflowPolicy.BLOCK, 0);
+    }
+
+    /**
+     * Timers for each task must be processed in the order submitted, by a
+     * single thread.
+     */
+    @Test
+    public void testPerTaskOrdering() throws InterruptedException {
+        OrderRecordingAction recording = new OrderRecordingAction();
+        testActionChain.addAction(recording);
+        Map<String, List<Timer>> submitted = new HashMap<String, List<Timer>>();
+        for (int i = 0; i < 2000; i++) {
+            String taskName = "TASK_" + (i % TASKS);
+            Timer timer = new Timer(taskName);
+            timer.stop();
+            List<Timer> timers = submitted.get(taskName);
+            if (timers == null) {
+                timers = new ArrayList<Timer>();
+                submitted.put(taskName, timers);
+            }
+            timers.add(timer);
+            testActionChain.submitCompletedTimer(timer);
+        }
+        Thread.sleep(1000); // Give the queues time to process the timers.
+        assertEquals(submitted, recording.timersByTask);
+        assertTrue("Timers should be processed by multiple threads.",
+                recording.allThreads.size() > 1);
+        for (Set<Thread> threads : recording.threadsByTask.values()) {
+            assertEquals(1, threads.size());
+        }
+    }
+
+    /**
+     * Each shard should accumulate statistics using its own instance and the
+     * statistics should be available from the action added to the chain.
+     */
+    @Test
+    public void testTimerStatsAction() throws InterruptedException {
+        TimerStatsAction statsAction = new TimerStatsAction();
+        testActionChain.addAction(statsAction);
+        for (int i = 0; i < TASKS * 10; i++) {
+            Timer timer = new Timer("TASK_" + (i % TASKS));
+            timer.stop();
+            testActionChain.submitCompletedTimer(timer);
+            testActionChain.submitElapsed("TASK_" + (i % TASKS), 1000);
+        }
+        Thread.sleep(1000); // Give the queues time to process the timers.
+        assertEquals(TASKS, statsAction.getAllTimerStatistics().size());
+        assertEquals(TASKS, statsAction.getAllTimerStatisticsSnapshot().size());
+        for (int i = 0; i < TASKS; i++) {
+            TimerBasicStatistics stats = statsAction.getTimerStatistics("TASK_" + i);
+            assertEquals(20, stats.getCount());
+            assertTrue(stats.getTotalElapsedNanos() >= 10 * 1000);
+            assertEquals(20, statsAction.getTimerStatisticsSnapshot("TASK_" + i).getCount());
+        }
+        testActionChain.reset();
+        assertNull(statsAction.getTimerStatistics("TASK_0"));
+        assertEquals(0, statsAction.getAllTimerStatistics().size());
+    }
+
+    /**
+     * Statistics accumulated by shards that are released when the actions are
+     * cleared must be merged with those of the shards created when the action
+     * is added again.
+     */
+    @Test
+    public void testTimerStatsActionAfterClearActions() throws InterruptedException {
+        TimerStatsAction statsAction = new TimerStatsAction();
+        testActionChain.addAction(statsAction);
+        submitTasks(TASKS * 10);
+        Thread.sleep(500); // Give the queues time to process the timers.
+        testActionChain.clearActions();
+        Thread.sleep(200); // Give the shards time to terminate.
+        testActionChain.addAction(statsAction);
+        submitTasks(TASKS * 5);
+        Thread.sleep(500); // Give the queues time to process the timers.
+        assertEquals(TASKS, statsAction.getAllTimerStatistics().size());
+        for (TimerBasicStatistics stats : statsAction.getAllTimerStatistics()) {
+            assertEquals(15, stats.getCount());
+        }
+        for (int i = 0; i < TASKS; i++) {
+            assertEquals(15, statsAction.getTimerStatistics("TASK_" + i).getCount());
+        }
+        testActionChain.reset();
+        assertEquals(0, statsAction.getAllTimerStatistics().size());
+    }
+
+    private void submitTasks(int count) {
+        for (int i = 0; i < count; i++) {
+            Timer timer = new Timer("TASK_" + (i % TASKS));
+            timer.stop();
+            testActionChain.submitCompletedTimer(timer);
+        }
+    }
+
+    @Test
+    public void testTimerStatsPublisherAction() throws InterruptedException {
+        final AtomicInteger published = new AtomicInteger();
+        TimerStatsPublisherAction publisherAction = new TimerStatsPublisherAction(
+                new TimerStatsPublisher() {
+                    @Override
+                    public void publish(TimerBasicStatistics stats) {
+                        published.incrementAndGet();
+                    }
+
+                    @Override
+                    public void reset(java.util.Collection<TimerBasicStatistics> stats) {
+                    }
+                });
+        testActionChain.addAction(publisherAction);
+        for (int i = 0; i < TASKS; i++) {
+            Timer timer = new Timer("TASK_" + i);
+            timer.stop();
+            testActionChain.submitCompletedTimer(timer);
+        }
+        Thread.sleep(1000); // Give the queues time to process the timers.
+        assertEquals(TASKS, published.get());
+        assertNotNull(publisherAction.getTimerStatistics("TASK_1"));
+    }
+
+    /**
+     * Thread safe action recording the order and processing thread of timers
+     * for each task.
+     */
+    private static class OrderRecordingAction extends TimerAction {
+        private final Map<String, List<Timer>> timersByTask = new HashMap<String, List<Timer>>();
+        private final Map<String, Set<Thread>> threadsByTask = new HashMap<String, Set<Thread>>();
+        private final Set<Thread> allThreads = Collections.synchronizedSet(new HashSet<Thread>());
+
+        @Override
+        protected synchronized void processTimer(Timer timer) {
+            List<Timer> timers = timersByTask.get(timer.getTaskName());
+            if (timers == null) {
+                timers = new ArrayList<Timer>();
+                timersByTask.put(timer.getTaskName(), timers);
+                threadsByTask.put(timer.getTaskName(), new HashSet<Thread>());
+            }
+            timers.add(timer);
+            threadsByTask.get(timer.getTaskName()).add(Thread.currentThread());
+            allThreads.add(Thread.currentThread());
+        }
+    }
+}
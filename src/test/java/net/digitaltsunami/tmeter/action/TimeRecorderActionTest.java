@@ -2,8 +2,14 @@ package net.digitaltsunami.tmeter.action;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+
 import net.digitaltsunami.tmeter.Timer;
+import net.digitaltsunami.tmeter.TimerLogType;
 import net.digitaltsunami.tmeter.record.CountTimeRecorder;
+import net.digitaltsunami.tmeter.record.FileTimeRecorder;
 
 import org.junit.Test;
 
@@ -18,4 +24,25 @@ public class TimeRecorderActionTest {
         assertEquals(1, tr.getCount());
     }
 
+    @Test
+    public void testProcessTimers() {
+        CountTimeRecorder tr = new CountTimeRecorder();
+        TimeRecorderAction tra = new TimeRecorderAction(tr);
+        tra.processTimers(Arrays.asList(new Timer("test"), new Timer("test")));
+        assertEquals(2, tr.getCount());
+    }
+
+    @Test
+    public void testProcessTimersBatchRecorder() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TimeRecorderAction tra = new TimeRecorderAction(new FileTimeRecorder(
+                new PrintStream(out), TimerLogType.CSV));
+        Timer timer = new Timer("test");
+        timer.stop();
+        tra.processTimers(Arrays.asList(timer, timer, timer));
+        String[] lines = out.toString().split(System.getProperty("line.separator"));
+        assertEquals(3, lines.length);
+        assertEquals(timer.toCsv(), lines[2]);
+    }
+
 }
@@ -24,6 +24,7 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import net.digitaltsunami.tmeter.Timer;
@@ -153,4 +154,23 @@ public class TimerActionTest {
         assertEquals(0, action2.getCallCount());
     }
 
+
+    /**
+     * Test method for
+     * {@link net.digitaltsunami.tmeter.action.TimerAction#timersComplete(List)}
+     * .
+     */
+    @Test
+    public void testTimersComplete() {
+        TimerActionCount action2 = new TimerActionCount();
+        action.addAction(action2);
+        Timer timer1 = new Timer("TIMER_1");
+        Timer timer2 = new Timer("TIMER_2");
+        action.timersComplete(Arrays.asList(timer1, timer2));
+        // Default batch processing falls back to processTimer for each.
+        assertEquals(2, listOfTimers.size());
+        assertEquals(timer1, listOfTimers.get(0));
+        assertEquals(timer2, listOfTimers.get(1));
+        assertEquals(2, action2.getCallCount());
+    }
 }
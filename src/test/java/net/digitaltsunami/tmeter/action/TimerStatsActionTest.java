@@ -19,11 +19,17 @@ __copyright_end__ */
 package net.digitaltsunami.tmeter.action;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.concurrent.TimeUnit;
 
+import net.digitaltsunami.tmeter.NamedTimeTracker;
+import net.digitaltsunami.tmeter.StripedTimerBasicStatistics;
 import net.digitaltsunami.tmeter.Timer;
 import net.digitaltsunami.tmeter.TimerBasicStatistics;
 
@@ -85,6 +91,82 @@ public class TimerStatsActionTest {
 
     }
 
+    /**
+     * Test method for
+     * {@link net.digitaltsunami.tmeter.action.TimerStatsAction#processTimers(java.util.List)}
+     * .
+     */
+    @Test
+    public void testProcessTimers() {
+        Timer otherTimer = new Timer(TEST_TIMER + "_2");
+        otherTimer.stop();
+        action.processTimers(Arrays.asList(timer, timer, otherTimer, timer));
+        TimerBasicStatistics timerStat = action.getTimerStatistics(TEST_TIMER);
+        assertEquals(3, timerStat.getCount());
+        assertEquals(timer.getElapsedNanos() * 3, timerStat.getTotalElapsedNanos());
+        timerStat = action.getTimerStatistics(TEST_TIMER + "_2");
+        assertEquals(1, timerStat.getCount());
+        assertEquals(otherTimer.getElapsedNanos(), timerStat.getTotalElapsedNanos());
+    }
+
+    /**
+     * Test method for
+     * {@link net.digitaltsunami.tmeter.action.TimerStatsAction#processElapsed(String, long)}
+     * .
+     */
+    @Test
+    public void testProcessElapsed() {
+        action.processTimer(timer);
+        action.processElapsed(TEST_TIMER, 1000);
+        TimerBasicStatistics timerStat = action.getTimerStatistics(TEST_TIMER);
+        assertEquals(2, timerStat.getCount());
+        assertEquals(timer.getElapsedNanos() + 1000, timerStat.getTotalElapsedNanos());
+        assertEquals(1000, timerStat.getMinElapsedNanos());
+    }
+
+    /**
+     * Test method for
+     * {@link net.digitaltsunami.tmeter.action.TimerStatsAction#enableHistogram(int, long, TimeUnit)}
+     * .
+     */
+    @Test
+    public void testEnableHistogram() {
+        action.enableHistogram(2, 1, TimeUnit.MINUTES);
+        action.processElapsed(TEST_TIMER, 1000000);
+        action.processElapsed(TEST_TIMER, 2000000);
+        TimerBasicStatistics snapshot = action.getTimerStatisticsSnapshot(TEST_TIMER);
+        assertTrue(snapshot.hasHistogram());
+        assertEquals(2, snapshot.getPercentile(100.0, TimeUnit.MILLISECONDS));
+
+        TimerStatsAction stripedAction = new TimerStatsAction(true);
+        stripedAction.enableHistogram(2, 1, TimeUnit.MINUTES);
+        stripedAction.processElapsed(TEST_TIMER, 1000000);
+        assertEquals(1, stripedAction.getTimerStatistics(TEST_TIMER).getPercentile(50.0,
+                TimeUnit.MILLISECONDS));
+
+        action.reset();
+        action.disableHistogram();
+        action.processElapsed(TEST_TIMER, 1000000);
+        assertFalse(action.getTimerStatistics(TEST_TIMER).hasHistogram());
+    }
+
+    /**
+     * Test method for
+     * {@link net.digitaltsunami.tmeter.action.TimerStatsAction#TimerStatsAction(boolean)}
+     * .
+     */
+    @Test
+    public void testStriped() {
+        TimerStatsAction stripedAction = new TimerStatsAction(true);
+        stripedAction.processTimer(timer);
+        stripedAction.processElapsed(TEST_TIMER, 1000);
+        TimerBasicStatistics timerStat = stripedAction.getTimerStatistics(TEST_TIMER);
+        assertTrue(timerStat instanceof StripedTimerBasicStatistics);
+        assertEquals(2, timerStat.getCount());
+        assertEquals(timer.getElapsedNanos() + 1000, timerStat.getTotalElapsedNanos());
+        assertEquals(2, stripedAction.getTimerStatisticsSnapshot(TEST_TIMER).getCount());
+    }
+
     /**
      * Test method for
      * {@link net.digitaltsunami.tmeter.action.TimerStatsAction#getTimerStatistics(String)}
@@ -212,5 +294,31 @@ public class TimerStatsActionTest {
         action.reset();
         assertEquals(0, action.getAllTimerStatistics().size());
 
+        // Statistics located by task id must also be discarded.
+        action.processTimer(timer);
+        assertEquals(1, action.getTimerStatistics(TEST_TIMER).getCount());
+
+    }
+
+    /**
+     * Task ids are assigned by each tracker, so the same id may represent
+     * different tasks.
+     */
+    @Test
+    public void testTaskIdsFromSeparateTrackers() {
+        NamedTimeTracker first = new NamedTimeTracker("first");
+        NamedTimeTracker second = new NamedTimeTracker("second");
+        int firstId = first.registerTask(TEST_TIMER);
+        int secondId = second.registerTask(TEST_TIMER + "_2");
+        assertEquals(firstId, secondId);
+        for (int i = 0; i < 3; i++) {
+            Timer firstTimer = first.startRecording(firstId);
+            firstTimer.stop();
+            Timer secondTimer = second.startRecording(secondId);
+            secondTimer.stop();
+            action.processTimers(Arrays.asList(firstTimer, secondTimer));
+        }
+        assertEquals(3, action.getTimerStatistics(TEST_TIMER).getCount());
+        assertEquals(3, action.getTimerStatistics(TEST_TIMER + "_2").getCount());
     }
 }
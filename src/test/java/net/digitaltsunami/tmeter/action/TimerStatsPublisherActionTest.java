@@ -2,9 +2,12 @@ package net.digitaltsunami.tmeter.action;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import net.digitaltsunami.tmeter.Timer;
@@ -62,6 +65,18 @@ public class TimerStatsPublisherActionTest {
         assertEquals("Publisher should have remaind unchanged for timer1", 2, timerCounts.get(TEST_TIMER_1).get());
     }
 
+    @Test
+    public void testTimersComplete() {
+        Timer t1 = new Timer(TEST_TIMER_1);
+        t1.stop();
+        Timer t2 = new Timer(TEST_TIMER_2);
+        t2.stop();
+        pubAction.timersComplete(Arrays.asList(t1, t1, t2));
+        assertEquals("Publisher should have been called for each timer1", 2, timerCounts.get(TEST_TIMER_1).get());
+        assertEquals("Publisher should have been called for timer2", 1, timerCounts.get(TEST_TIMER_2).get());
+        assertEquals(2, pubAction.getTimerStatistics(TEST_TIMER_1).getCount());
+    }
+
     @Test
     public void testReset() {
         Timer t = null;
@@ -78,4 +93,144 @@ public class TimerStatsPublisherActionTest {
         assertEquals("Stats should have entries for 2 timers", 2, statAtReset.size());
     }
 
+    @Test
+    public void testIntervalPublishing() {
+        pubAction = new TimerStatsPublisherAction(pub, false, TimeUnit.HOURS.toMillis(1));
+        assertEquals(TimeUnit.HOURS.toMillis(1), pubAction.getPublishIntervalMillis());
+        Timer t1 = new Timer(TEST_TIMER_1);
+        t1.stop();
+        Timer t2 = new Timer(TEST_TIMER_2);
+        t2.stop();
+        pubAction.timersComplete(Arrays.asList(t1, t1, t2));
+        pubAction.timerComplete(t1);
+        assertTrue("Nothing published until the interval", timerCounts.isEmpty());
+        pubAction.publishChanged();
+        assertEquals("Published once for timer1", 1, timerCounts.get(TEST_TIMER_1).get());
+        assertEquals("Published once for timer2", 1, timerCounts.get(TEST_TIMER_2).get());
+        pubAction.publishChanged();
+        assertEquals("Unchanged tasks not published", 1, timerCounts.get(TEST_TIMER_1).get());
+        assertEquals(3, pubAction.getTimerStatistics(TEST_TIMER_1).getCount());
+        pubAction.close();
+    }
+
+    @Test
+    public void testIntervalPublishingOnReset() {
+        pubAction = new TimerStatsPublisherAction(pub, false, TimeUnit.HOURS.toMillis(1));
+        Timer t = new Timer(TEST_TIMER_1);
+        t.stop();
+        pubAction.timerComplete(t);
+        pubAction.resetState();
+        assertEquals("Changed task published prior to reset", 1,
+                timerCounts.get(TEST_TIMER_1).get());
+        assertEquals(1, statAtReset.size());
+        pubAction.close();
+    }
+
+    @Test
+    public void testIntervalPublishingOnClose() {
+        pubAction = new TimerStatsPublisherAction(pub, false, TimeUnit.HOURS.toMillis(1));
+        Timer t = new Timer(TEST_TIMER_1);
+        t.stop();
+        pubAction.timerComplete(t);
+        pubAction.close();
+        assertEquals(1, timerCounts.get(TEST_TIMER_1).get());
+    }
+
+    @Test
+    public void testIntervalPublishingScheduled() throws InterruptedException {
+        final CountDownLatch published = new CountDownLatch(1);
+        pubAction = new TimerStatsPublisherAction(new TimerStatsPublisher() {
+            @Override
+            public void reset(Collection<TimerBasicStatistics> stats) {
+            }
+
+            @Override
+            public void publish(TimerBasicStatistics stats) {
+                published.countDown();
+            }
+        }, false, 20);
+        Timer t = new Timer(TEST_TIMER_1);
+        t.stop();
+        pubAction.timerComplete(t);
+        assertTrue(published.await(2, TimeUnit.SECONDS));
+        pubAction.close();
+    }
+
+    @Test
+    public void testIntervalPublishingAfterFailure() throws InterruptedException {
+        final AtomicInteger attempts = new AtomicInteger();
+        final CountDownLatch published = new CountDownLatch(1);
+        pubAction = new TimerStatsPublisherAction(new TimerStatsPublisher() {
+            @Override
+            public void reset(Collection<TimerBasicStatistics> stats) {
+            }
+
+            @Override
+            public void publish(TimerBasicStatistics stats) {
+                if (attempts.incrementAndGet() == 1) {
+                    throw new IllegalStateException("Publisher failure");
+                }
+                published.countDown();
+            }
+        }, false, 20);
+        Timer t = new Timer(TEST_TIMER_1);
+        t.stop();
+        pubAction.timerComplete(t);
+        Thread.sleep(200); // Allow the failing interval to run.
+        pubAction.timerComplete(t);
+        assertTrue(published.await(2, TimeUnit.SECONDS));
+        pubAction.close();
+    }
+
+    @Test
+    public void testIntervalPublishingOnChainShutdown() throws InterruptedException {
+        pubAction = new TimerStatsPublisherAction(pub, false, TimeUnit.HOURS.toMillis(1));
+        ActionChain chain = new ActionChain(pubAction, ActionChainShutdownType.TERMINATE_MANUALLY,
+                0, ActionChainOverflowPolicy.BLOCK, 2);
+        for (int i = 0; i < 5; i++) {
+            Timer t = new Timer(i % 2 == 0 ? TEST_TIMER_1 : TEST_TIMER_2);
+            t.stop();
+            chain.submitCompletedTimer(t);
+        }
+        chain.shutdown();
+        Thread.sleep(500); // Give the queues time to drain.
+        synchronized (timerCounts) {
+            assertEquals(1, timerCounts.get(TEST_TIMER_1).get());
+            assertEquals(1, timerCounts.get(TEST_TIMER_2).get());
+        }
+        assertEquals(3, pubAction.getTimerStatistics(TEST_TIMER_1).getCount());
+    }
+
+    @Test
+    public void testShardedResetPublishedOnce() throws InterruptedException {
+        final AtomicInteger resets = new AtomicInteger();
+        pubAction = new TimerStatsPublisherAction(new TimerStatsPublisher() {
+            @Override
+            public void reset(Collection<TimerBasicStatistics> stats) {
+                resets.incrementAndGet();
+                statAtReset = stats;
+            }
+
+            @Override
+            public void publish(TimerBasicStatistics stats) {
+            }
+        });
+        ActionChain chain = new ActionChain(pubAction, ActionChainShutdownType.TERMINATE_MANUALLY,
+                0, ActionChainOverflowPolicy.BLOCK, 4);
+        for (int i = 0; i < 8; i++) {
+            Timer t = new Timer("PUB_SHARD_" + i);
+            t.stop();
+            chain.submitCompletedTimer(t);
+        }
+        chain.shutdown();
+        Thread.sleep(500); // Give the queues time to drain.
+        chain.reset();
+        assertEquals(1, resets.get());
+        assertEquals(8, statAtReset.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPublishInterval() {
+        new TimerStatsPublisherAction(pub, false, -1);
+    }
 }
@@ -0,0 +1,167 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter.export;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import net.digitaltsunami.tmeter.NamedTimeTracker;
+import net.digitaltsunami.tmeter.Timer;
+import net.digitaltsunami.tmeter.action.TimerStatsAction;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PrometheusExporterTest {
+    private static final String TRACKER_NAME = "EXPORT_TRACKER";
+    private static final String TASK_NAME = "EXPORT_TASK";
+
+    private NamedTimeTracker tracker;
+    private TimerStatsAction statsAction;
+    private PrometheusExporter exporter;
+
+    @Before
+    public void setup() {
+        tracker = new NamedTimeTracker(TRACKER_NAME);
+        statsAction = new TimerStatsAction();
+        exporter = new PrometheusExporter();
+        exporter.addTracker(tracker, statsAction);
+    }
+
+    @After
+    public void tearDown() {
+        exporter.stop();
+    }
+
+    @Test
+    public void testSummary() {
+        statsAction.timerComplete(stoppedTimer(TASK_NAME, 1000000L));
+        statsAction.timerComplete(stoppedTimer(TASK_NAME, 3000000L));
+        String metrics = metrics();
+        assertTrue(metrics.contains("# TYPE tmeter_task_duration_seconds summary\n"));
+        assertTrue(metrics.contains("tmeter_task_duration_seconds_sum{tracker=\"EXPORT_TRACKER\","
+                + "task=\"EXPORT_TASK\"} 0.004\n"));
+        assertTrue(metrics.contains("tmeter_task_duration_seconds_count{tracker=\"EXPORT_TRACKER\","
+                + "task=\"EXPORT_TASK\"} 2\n"));
+        assertTrue(metrics.contains("tmeter_task_duration_max_seconds{tracker=\"EXPORT_TRACKER\","
+                + "task=\"EXPORT_TASK\"} 0.003\n"));
+        assertFalse("No quantiles without a histogram", metrics.contains("quantile="));
+        assertFalse("No histogram without a histogram", metrics.contains("_bucket"));
+    }
+
+    @Test
+    public void testHistogram() {
+        statsAction.enableHistogram(2, 1, TimeUnit.MINUTES);
+        statsAction.timerComplete(stoppedTimer(TASK_NAME, TimeUnit.MILLISECONDS.toNanos(2)));
+        statsAction.timerComplete(stoppedTimer(TASK_NAME, TimeUnit.MILLISECONDS.toNanos(200)));
+        exporter.setBuckets(0.001, 0.01, 1.0);
+        String metrics = metrics();
+        String labels = "{tracker=\"EXPORT_TRACKER\",task=\"EXPORT_TASK\"";
+        assertTrue(metrics.contains("# TYPE tmeter_task_duration_histogram_seconds histogram\n"));
+        assertTrue(metrics.contains("tmeter_task_duration_histogram_seconds_bucket" + labels
+                + ",le=\"0.001\"} 0\n"));
+        assertTrue(metrics.contains("tmeter_task_duration_histogram_seconds_bucket" + labels
+                + ",le=\"0.01\"} 1\n"));
+        assertTrue(metrics.contains("tmeter_task_duration_histogram_seconds_bucket" + labels
+                + ",le=\"1\"} 2\n"));
+        assertTrue(metrics.contains("tmeter_task_duration_histogram_seconds_bucket" + labels
+                + ",le=\"+Inf\"} 2\n"));
+        assertTrue(metrics.contains("tmeter_task_duration_seconds" + labels
+                + ",quantile=\"0.5\"} 0.002"));
+    }
+
+    @Test
+    public void testConcurrent() {
+        tracker.setTrackConcurrent(true);
+        Timer timer = tracker.startRecording(TASK_NAME);
+        assertTrue(metrics().contains("tmeter_task_concurrent{tracker=\"EXPORT_TRACKER\","
+                + "task=\"EXPORT_TASK\"} 1\n"));
+        timer.stop();
+    }
+
+    @Test
+    public void testLabelsEscaped() {
+        statsAction.timerComplete(stoppedTimer("a\"b\\c\nd", 1000L));
+        assertTrue(metrics().contains("task=\"a\\\"b\\\\c\\nd\""));
+    }
+
+    @Test
+    public void testCachedWithinInterval() {
+        statsAction.timerComplete(stoppedTimer(TASK_NAME, 1000L));
+        byte[] first = exporter.getMetrics();
+        statsAction.timerComplete(stoppedTimer(TASK_NAME, 1000L));
+        assertSame("Output reused within the interval", first, exporter.getMetrics());
+        exporter.setScrapeIntervalMillis(0);
+        assertEquals(0L, exporter.getScrapeIntervalMillis());
+        assertTrue(new String(exporter.getMetrics()).contains("_count{tracker=\"EXPORT_TRACKER\","
+                + "task=\"EXPORT_TASK\"} 2\n"));
+    }
+
+    @Test
+    public void testRemoveTracker() {
+        statsAction.timerComplete(stoppedTimer(TASK_NAME, 1000L));
+        assertTrue(exporter.removeTracker(TRACKER_NAME));
+        assertFalse(exporter.removeTracker(TRACKER_NAME));
+        assertFalse(metrics().contains(TASK_NAME));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBuckets() {
+        exporter.setBuckets(1.0, 0.5);
+    }
+
+    @Test
+    public void testServer() throws Exception {
+        statsAction.timerComplete(stoppedTimer(TASK_NAME, 1000L));
+        assertNull(exporter.getAddress());
+        InetSocketAddress address = exporter.start(new InetSocketAddress("127.0.0.1", 0));
+        URL url = new URL("http", "127.0.0.1", address.getPort(), PrometheusExporter.METRICS_PATH);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        assertEquals(200, connection.getResponseCode());
+        assertEquals(PrometheusExporter.CONTENT_TYPE, connection.getContentType());
+        InputStream in = connection.getInputStream();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        for (int len = in.read(buf); len >= 0; len = in.read(buf)) {
+            body.write(buf, 0, len);
+        }
+        in.close();
+        assertEquals(new String(exporter.getMetrics(), "UTF-8"), body.toString("UTF-8"));
+        exporter.stop();
+        assertNull(exporter.getAddress());
+    }
+
+    private String metrics() {
+        exporter.setScrapeIntervalMillis(0);
+        return new String(exporter.getMetrics());
+    }
+
+    private Timer stoppedTimer(String taskName, long elapsedNanos) {
+        return Timer.fromRecordedValues(System.currentTimeMillis(), taskName, null,
+                elapsedNanos, 0, null);
+    }
+}
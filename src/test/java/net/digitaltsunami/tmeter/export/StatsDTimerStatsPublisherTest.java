@@ -0,0 +1,205 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter.export;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.digitaltsunami.tmeter.Timer;
+import net.digitaltsunami.tmeter.TimerBasicStatistics;
+import net.digitaltsunami.tmeter.action.TimerStatsPublisherAction;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StatsDTimerStatsPublisherTest {
+    private static final String TASK_NAME = "STATSD_TASK";
+
+    private DatagramSocket listener;
+    private StatsDTimerStatsPublisher publisher;
+
+    @Before
+    public void setup() throws Exception {
+        listener = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        listener.setSoTimeout(2000);
+    }
+
+    @After
+    public void tearDown() {
+        if (publisher != null) {
+            publisher.close();
+        }
+        listener.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnresolvedAddress() throws Exception {
+        new StatsDTimerStatsPublisher(InetSocketAddress.createUnresolved("localhost", 8125),
+                "tmeter.", StatsDTimerStatsPublisher.DEFAULT_MAX_PACKET_SIZE, 0);
+    }
+
+    @Test
+    public void testFlush() throws Exception {
+        publisher = createPublisher(StatsDTimerStatsPublisher.DEFAULT_MAX_PACKET_SIZE, 0);
+        publisher.publish(stats(TASK_NAME, 1000000L, 3000000L));
+        assertNull("Nothing sent until flushed", receive(200));
+        publisher.flush();
+        List<String> metrics = Arrays.asList(receive(2000).split("\n"));
+        assertEquals(Arrays.asList("test.STATSD_TASK.count:2|c", "test.STATSD_TASK.mean:2|g",
+                "test.STATSD_TASK.min:1|g", "test.STATSD_TASK.max:3|g"), metrics);
+        assertEquals(1, publisher.getPacketsSent());
+        publisher.flush();
+        assertNull("Nothing pending", receive(200));
+    }
+
+    @Test
+    public void testLatestStatisticsPerTask() throws Exception {
+        publisher = createPublisher(StatsDTimerStatsPublisher.DEFAULT_MAX_PACKET_SIZE, 0);
+        publisher.publish(stats(TASK_NAME, 1000000L));
+        publisher.publish(stats(TASK_NAME, 1000000L, 1000000L));
+        publisher.flush();
+        assertTrue(receive(2000).startsWith("test.STATSD_TASK.count:2|c\n"));
+        publisher.publish(stats(TASK_NAME, 1000000L, 1000000L, 4000000L));
+        publisher.flush();
+        String metrics = receive(2000);
+        assertTrue("Count since last flush", metrics.startsWith("test.STATSD_TASK.count:1|c\n"));
+        assertTrue("Mean since last flush", metrics.contains("test.STATSD_TASK.mean:4|g"));
+    }
+
+    @Test
+    public void testPacketsLimitedToMaxSize() throws Exception {
+        publisher = createPublisher(100, 0);
+        for (int i = 0; i < 10; i++) {
+            publisher.publish(stats(TASK_NAME + i, 1000000L));
+        }
+        publisher.flush();
+        int metrics = 0;
+        for (String packet = receive(2000); packet != null; packet = receive(200)) {
+            assertTrue(packet.length() <= 100);
+            metrics += packet.split("\n").length;
+        }
+        assertEquals(40, metrics);
+        assertTrue(publisher.getPacketsSent() > 1);
+    }
+
+    @Test
+    public void testFlushOnPendingTasks() throws Exception {
+        publisher = createPublisher(StatsDTimerStatsPublisher.DEFAULT_MAX_PACKET_SIZE, 0);
+        publisher.setMaxPendingTasks(2);
+        publisher.publish(stats(TASK_NAME + 1, 1000L));
+        assertNull(receive(200));
+        publisher.publish(stats(TASK_NAME + 2, 1000L));
+        assertTrue(receive(2000).contains(TASK_NAME + 2));
+    }
+
+    @Test
+    public void testFlushOnInterval() throws Exception {
+        publisher = createPublisher(StatsDTimerStatsPublisher.DEFAULT_MAX_PACKET_SIZE, 50);
+        publisher.publish(stats(TASK_NAME, 1000L));
+        assertTrue(receive(2000).contains(TASK_NAME));
+    }
+
+    @Test
+    public void testPublisherAction() throws Exception {
+        publisher = createPublisher(StatsDTimerStatsPublisher.DEFAULT_MAX_PACKET_SIZE, 0);
+        TimerStatsPublisherAction action = new TimerStatsPublisherAction(publisher);
+        action.enableHistogram(2, 1, TimeUnit.MINUTES);
+        for (int i = 0; i < 5; i++) {
+            action.timerComplete(stoppedTimer("a:b|c"));
+        }
+        publisher.flush();
+        String metrics = receive(2000);
+        assertTrue(metrics.startsWith("test.a_b_c.count:5|c\n"));
+        assertTrue(metrics.contains("test.a_b_c.p99:"));
+        assertEquals(1, publisher.getPacketsSent());
+    }
+
+    @Test
+    public void testResetSendsFinalValues() throws Exception {
+        publisher = createPublisher(StatsDTimerStatsPublisher.DEFAULT_MAX_PACKET_SIZE, 0);
+        TimerStatsPublisherAction action = new TimerStatsPublisherAction(publisher);
+        action.timerComplete(stoppedTimer(TASK_NAME));
+        action.timerComplete(stoppedTimer(TASK_NAME));
+        action.resetState();
+        assertTrue(receive(2000).startsWith("test.STATSD_TASK.count:2|c\n"));
+        // Counts past the count prior to the reset must not be reduced by it.
+        for (int i = 0; i < 3; i++) {
+            action.timerComplete(stoppedTimer(TASK_NAME));
+        }
+        publisher.flush();
+        assertTrue("Restarted after reset",
+                receive(2000).startsWith("test.STATSD_TASK.count:3|c\n"));
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        publisher = createPublisher(StatsDTimerStatsPublisher.DEFAULT_MAX_PACKET_SIZE, 0);
+        publisher.publish(stats(TASK_NAME, 1000L));
+        publisher.close();
+        assertTrue("Pending sent on close", receive(2000).contains(TASK_NAME));
+        publisher.publish(stats(TASK_NAME, 1000L));
+        publisher.flush();
+        assertNull(receive(200));
+        assertFalse(publisher.getSendErrorCount() > 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPacketSize() throws Exception {
+        createPublisher(10, 0);
+    }
+
+    private StatsDTimerStatsPublisher createPublisher(int maxPacketSize, long flushIntervalMillis)
+            throws Exception {
+        return new StatsDTimerStatsPublisher(new InetSocketAddress("127.0.0.1",
+                listener.getLocalPort()), "test.", maxPacketSize, flushIntervalMillis);
+    }
+
+    private String receive(int timeoutMillis) throws Exception {
+        listener.setSoTimeout(timeoutMillis);
+        DatagramPacket packet = new DatagramPacket(new byte[2048], 2048);
+        try {
+            listener.receive(packet);
+        } catch (SocketTimeoutException e) {
+            return null;
+        }
+        return new String(packet.getData(), 0, packet.getLength(), "UTF-8");
+    }
+
+    private TimerBasicStatistics stats(String taskName, long... elapsedNanos) {
+        TimerBasicStatistics stats = new TimerBasicStatistics(taskName);
+        for (long elapsed : elapsedNanos) {
+            stats.addElapsed(elapsed);
+        }
+        return stats;
+    }
+
+    private Timer stoppedTimer(String taskName) {
+        return Timer.fromRecordedValues(System.currentTimeMillis(), taskName, null, 1000000L, 0,
+                null);
+    }
+}
@@ -0,0 +1,147 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter.jmx;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import net.digitaltsunami.tmeter.NamedTimeTracker;
+import net.digitaltsunami.tmeter.Timer;
+import net.digitaltsunami.tmeter.TimerShell;
+import net.digitaltsunami.tmeter.action.TimerStatsAction;
+import net.digitaltsunami.tmeter.level.TimerThreshold;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimeTrackerMonitorTest {
+    private static final String TRACKER_NAME = "MONITOR_TRACKER";
+    private static final String TASK_NAME = "MONITOR_TASK";
+
+    private NamedTimeTracker tracker;
+    private TimerStatsAction statsAction;
+    private TimeTrackerMonitor monitor;
+
+    @Before
+    public void setup() {
+        tracker = new NamedTimeTracker(TRACKER_NAME);
+        statsAction = new TimerStatsAction();
+        monitor = tracker.registerMBean(statsAction);
+    }
+
+    @After
+    public void tearDown() {
+        tracker.unregisterMBean();
+    }
+
+    @Test
+    public void testRegistration() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = TimeTrackerMonitor.createObjectName(TRACKER_NAME);
+        assertEquals(name, monitor.getObjectName());
+        assertSame(monitor, tracker.getMBean());
+        assertTrue(server.isRegistered(name));
+        assertEquals(TRACKER_NAME, server.getAttribute(name, "Name"));
+        tracker.unregisterMBean();
+        assertFalse(server.isRegistered(name));
+        assertNull(tracker.getMBean());
+        // No effect once unregistered.
+        tracker.unregisterMBean();
+    }
+
+    @Test
+    public void testTaskStatistics() throws Exception {
+        statsAction.timerComplete(stoppedTimer());
+        statsAction.timerComplete(stoppedTimer());
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        TabularData table = (TabularData) server.getAttribute(monitor.getObjectName(),
+                "TaskStatistics");
+        CompositeData row = table.get(new Object[] { TASK_NAME });
+        assertEquals(2, row.get("count"));
+        assertEquals(-1L, row.get("p99Nanos"));
+        assertArrayEquals(new String[] { TASK_NAME }, monitor.getTaskNames());
+        CompositeData single = (CompositeData) server.invoke(monitor.getObjectName(),
+                "getTaskStatistics", new Object[] { TASK_NAME },
+                new String[] { String.class.getName() });
+        assertEquals(row, single);
+        assertNull(monitor.getTaskStatistics("UNKNOWN"));
+    }
+
+    @Test
+    public void testSnapshotTtl() {
+        statsAction.timerComplete(stoppedTimer());
+        assertEquals(1, monitor.getTaskStatistics(TASK_NAME).get("count"));
+        statsAction.timerComplete(stoppedTimer());
+        assertEquals("Snapshot reused within the TTL", 1,
+                monitor.getTaskStatistics(TASK_NAME).get("count"));
+        monitor.setSnapshotTtlMillis(0);
+        assertEquals(0L, monitor.getSnapshotTtlMillis());
+        assertEquals(2, monitor.getTaskStatistics(TASK_NAME).get("count"));
+    }
+
+    @Test
+    public void testResetStatistics() {
+        statsAction.timerComplete(stoppedTimer());
+        assertEquals(1, monitor.getTaskStatistics(TASK_NAME).get("count"));
+        monitor.resetStatistics();
+        assertNull(monitor.getTaskStatistics(TASK_NAME));
+    }
+
+    @Test
+    public void testTimerLevels() throws Exception {
+        assertTrue(monitor.enableTimerLevel("FINE"));
+        assertArrayEquals(new String[] { "FINE" }, monitor.getEnabledTimerLevels());
+        assertFalse(tracker.startRecording(TimerThreshold.FINE, TASK_NAME) instanceof TimerShell);
+        assertFalse(monitor.enableTimerLevel("UNKNOWN"));
+        assertTrue(monitor.disableTimerLevel("FINE"));
+        assertFalse(monitor.disableTimerLevel("FINE"));
+        assertTrue(tracker.startRecording(TimerThreshold.FINE, TASK_NAME) instanceof TimerShell);
+        monitor.enableTimerLevel("COURSE");
+        monitor.clearTimerLevels();
+        assertEquals(0, monitor.getEnabledTimerLevels().length);
+        assertEquals(TimerThreshold.values().length, monitor.getKnownTimerLevels().length);
+    }
+
+    @Test
+    public void testTrackingDisabled() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.setAttribute(monitor.getObjectName(), new Attribute(
+                "TrackingDisabled", Boolean.TRUE));
+        assertTrue(tracker.isTrackingDisabled());
+        assertTrue(tracker.startRecording(TASK_NAME) instanceof TimerShell);
+        monitor.setTrackingDisabled(false);
+        assertFalse(monitor.isTrackingDisabled());
+    }
+
+    private Timer stoppedTimer() {
+        Timer timer = new Timer(TASK_NAME);
+        timer.stop();
+        return timer;
+    }
+}
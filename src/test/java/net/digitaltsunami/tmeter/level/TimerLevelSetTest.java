@@ -3,6 +3,8 @@ package net.digitaltsunami.tmeter.level;
 import static org.junit.Assert.*;
 import static net.digitaltsunami.tmeter.level.TimerLevelTestData.*;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import org.junit.Test;
 
 public class TimerLevelSetTest {
@@ -207,4 +209,73 @@ public class TimerLevelSetTest {
         assertEquals("Group value for set is the set itself", tls, tls.getGroup());
     }
 
+    @Test
+    public void testIsEnabledTimerThresholdAndCustomLevel() {
+        // Custom level enabling only cat2x by delegating to a category level.
+        TimerLevel custom = new TimerLevel() {
+            @Override
+            public boolean isEnabled(TimerLevel... levels) {
+                return cat2x.isEnabled(levels);
+            }
+
+            @Override
+            public boolean isEnabled(TimerLevel level) {
+                return cat2x.isEnabled(level);
+            }
+
+            @Override
+            public TimerLevelType getLevelType() {
+                return TimerLevelType.CATEGORY;
+            }
+
+            @Override
+            public Object getGroup() {
+                return this;
+            }
+        };
+        TimerLevelSet tlset = new TimerLevelSet(TimerThreshold.MEDIUM, custom, warn);
+        assertTrue("COURSE is above MEDIUM. Should have been true",
+                tlset.isEnabled(TimerThreshold.COURSE));
+        assertFalse("FINE is below MEDIUM. Should have been false",
+                tlset.isEnabled(TimerThreshold.FINE));
+        assertTrue("cat2x is enabled by the custom level", tlset.isEnabled(cat2x));
+        assertFalse("cat2y is not enabled by the custom level", tlset.isEnabled(cat2y));
+        assertTrue("severe is above warn. Should have been true", tlset.isEnabled(severe));
+        assertFalse("terse is of another threshold group", tlset.isEnabled(terse));
+        tlset.removeLevel(TimerThreshold.MEDIUM);
+        assertFalse("Threshold removed. Should have been false",
+                tlset.isEnabled(TimerThreshold.COURSE));
+    }
+
+    /**
+     * Levels may be enabled and disabled while other threads check the set.
+     */
+    @Test
+    public void testConcurrentModification() throws InterruptedException {
+        final TimerLevelSet tlset = new TimerLevelSet(cat1x);
+        final AtomicBoolean failed = new AtomicBoolean();
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!done.get()) {
+                    if (!tlset.isEnabled(cat1x)) {
+                        failed.set(true);
+                    }
+                    tlset.isEnabled(cat2y);
+                }
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 10000; i++) {
+            tlset.addLevels(cat2y, normal);
+            tlset.removeLevel(cat2y);
+            tlset.getLevels();
+        }
+        done.set(true);
+        reader.join();
+        assertFalse("cat1x should have remained enabled", failed.get());
+        assertFalse(tlset.isEnabled(cat2y));
+        assertTrue(tlset.isEnabled(normal));
+    }
 }
@@ -0,0 +1,134 @@
+package net.digitaltsunami.tmeter.record;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.digitaltsunami.tmeter.Timer;
+import net.digitaltsunami.tmeter.TimerLogType;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CsvTimerCursorTest {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    /**
+     * Records written by {@link FileTimeRecorder} should match those parsed
+     * by {@link Timer#fromCsv(String)}. A small window forces records to span
+     * windows.
+     */
+    @Test
+    public void testReadFileTimeRecorderOutput() throws IOException {
+        File file = tempFolder.newFile("timers.csv");
+        PrintStream out = new PrintStream(new FileOutputStream(file), false, "UTF-8");
+        out.println(Timer.getCsvHeader());
+        FileTimeRecorder recorder = new FileTimeRecorder(out, TimerLogType.CSV);
+        List<Timer> timers = new ArrayList<Timer>();
+        for (int i = 0; i < 40; i++) {
+            Timer timer = new Timer("TASK_" + (i % 3));
+            timer.setConcurrent(i);
+            if (i % 4 == 0) {
+                timer.setKeyedNotes("k", i, "name", "v" + i);
+                timer.stop();
+            } else if (i % 4 == 1) {
+                timer.stop();
+            } else {
+                timer.stop("note", i);
+            }
+            timers.add(timer);
+            recorder.record(timer);
+        }
+        out.close();
+
+        CsvTimerCursor cursor = new CsvTimerCursor(file.getPath(), 64);
+        for (Timer timer : timers) {
+            assertTrue(cursor.next());
+            Timer expected = Timer.fromCsv(timer.toCsv());
+            assertEquals(timer.getStartTimeMillis(), cursor.getStartTimeMillis());
+            assertEquals(timer.getElapsedMillis(), cursor.getElapsedMillis());
+            assertEquals(timer.getElapsedNanos(), cursor.getElapsedNanos());
+            assertEquals(timer.getConcurrent(), cursor.getConcurrent());
+            assertTrue(cursor.isTaskName(timer.getTaskName()));
+            assertFalse(cursor.isTaskName("TASK_X"));
+            MappedTimeRecorderTest.assertTimerEquals(expected, cursor.toTimer());
+        }
+        assertFalse(cursor.next());
+        cursor.close();
+    }
+
+    /**
+     * Names are created once per record and reused across records.
+     */
+    @Test
+    public void testNamesCached() throws IOException {
+        File file = writeLines("1,TEST,main,0,10,1\n2,TEST,main,0,20,1\n");
+        CsvTimerCursor cursor = new CsvTimerCursor(file.getPath());
+        assertTrue(cursor.next());
+        String taskName = cursor.getTaskName();
+        assertEquals("TEST", taskName);
+        assertEquals("main", cursor.getThreadName());
+        assertFalse(cursor.hasNotes());
+        assertNull(cursor.getNotes());
+        assertTrue(cursor.next());
+        assertSame(taskName, cursor.getTaskName());
+        assertEquals(20, cursor.getElapsedNanos());
+        assertEquals(2, cursor.getLineNumber());
+        cursor.close();
+    }
+
+    /**
+     * Windows line terminators, blank lines, multi-byte names and a final line
+     * without a terminator.
+     */
+    @Test
+    public void testLineHandling() throws IOException {
+        File file = writeLines(Timer.getCsvHeader() + "\r\n\r\n"
+                + "1,Täsk,main,0,10,1,a\r\n" + "\n" + "2,TEST,main,0,-5,2");
+        CsvTimerCursor cursor = new CsvTimerCursor(file.getPath(), 8);
+        assertTrue(cursor.next());
+        assertTrue(cursor.isTaskName("Täsk"));
+        assertFalse(cursor.isTaskName("Täsx"));
+        assertEquals("a", cursor.getNotes().getStringValue(0));
+        assertTrue(cursor.next());
+        assertEquals("TEST", cursor.getTaskName());
+        assertEquals(-5, cursor.getElapsedNanos());
+        assertEquals(2, cursor.getConcurrent());
+        assertFalse(cursor.next());
+        cursor.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void testMalformedRecord() throws IOException {
+        File file = writeLines("1,TEST,main\n");
+        CsvTimerCursor cursor = new CsvTimerCursor(file.getPath());
+        cursor.next();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNotOnRecord() throws IOException {
+        File file = writeLines("");
+        CsvTimerCursor cursor = new CsvTimerCursor(file.getPath());
+        assertFalse(cursor.next());
+        cursor.getElapsedNanos();
+    }
+
+    private File writeLines(String lines) throws IOException {
+        File file = tempFolder.newFile("lines.csv");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(lines.getBytes("UTF-8"));
+        out.close();
+        return file;
+    }
+}
@@ -10,6 +10,7 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.Arrays;
 
 import net.digitaltsunami.tmeter.NamedTimeTracker;
 import net.digitaltsunami.tmeter.TimeTracker;
@@ -37,6 +38,20 @@ public class FileTimeRecorderTest {
         assertTrue("Failed to write to recorder", outputLine.length() > 0);
     }
     
+    @Test
+    public void testRecordAll() {
+        Timer timer = new Timer("TEST");
+        timer.stop();
+        Timer timer2 = new Timer("TEST2");
+        timer2.stop();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FileTimeRecorder recorder = new FileTimeRecorder(new PrintStream(out), TimerLogType.TEXT);
+        recorder.recordAll(Arrays.asList(timer, timer2));
+        String separator = System.getProperty("line.separator");
+        assertEquals(timer.toString() + separator + timer2.toString() + separator,
+                out.toString());
+    }
+    
     @Test
     public void testDefaultLogType() {
         FileTimeRecorder recorder = new FileTimeRecorder(System.out);
@@ -0,0 +1,105 @@
+package net.digitaltsunami.tmeter.record;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.digitaltsunami.tmeter.Timer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedTimeRecorderTest {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testRecord() throws IOException {
+        String fileName = new File(tempFolder.getRoot(), "timers.tmj").getPath();
+        MappedTimeRecorder recorder = new MappedTimeRecorder(fileName);
+        Timer timer = new Timer("TEST");
+        timer.stop("a", 1);
+        Timer keyedTimer = new Timer("TEST2");
+        keyedTimer.setConcurrent(3);
+        keyedTimer.setKeyedNotes("k1", "v1", "k2", 2);
+        keyedTimer.stop();
+        Timer noNotesTimer = new Timer("TEST");
+        noNotesTimer.stop();
+        recorder.record(timer);
+        recorder.record(keyedTimer);
+        recorder.record(noNotesTimer);
+        long length = recorder.getLength();
+        recorder.prepareForShutdown();
+        assertEquals("File should be truncated to the recorded length", length,
+                new File(fileName).length());
+        assertEquals("Length is available after shutdown", length, recorder.getLength());
+
+        TimerJournalReader reader = new TimerJournalReader(fileName);
+        assertTimerEquals(timer, reader.read());
+        Timer restored = reader.read();
+        assertTimerEquals(keyedTimer, restored);
+        assertEquals("v1", restored.getNotes().getStringValue("k1"));
+        assertTimerEquals(noNotesTimer, reader.read());
+        assertNull(reader.read());
+        reader.close();
+    }
+
+    /**
+     * Ensure recording continues across segments when the initial segment is
+     * exhausted and names are written only once.
+     */
+    @Test
+    public void testRecordAllMultipleSegments() throws IOException {
+        String fileName = new File(tempFolder.getRoot(), "segments.tmj").getPath();
+        MappedTimeRecorder recorder = new MappedTimeRecorder(fileName, 100);
+        List<Timer> timers = new ArrayList<Timer>();
+        for (int i = 0; i < 50; i++) {
+            Timer timer = new Timer("TASK_" + (i % 3));
+            timer.stop(i);
+            timers.add(timer);
+        }
+        recorder.recordAll(timers.subList(0, 25));
+        for (Timer timer : timers.subList(25, 50)) {
+            recorder.record(timer);
+        }
+        recorder.prepareForShutdown();
+        // Recording after shutdown is ignored.
+        recorder.record(timers.get(0));
+
+        TimerJournalReader reader = new TimerJournalReader(fileName);
+        List<Timer> restored = reader.readAll();
+        reader.close();
+        assertEquals(timers.size(), restored.size());
+        for (int i = 0; i < timers.size(); i++) {
+            assertTimerEquals(timers.get(i), restored.get(i));
+        }
+    }
+
+    @Test
+    public void testEmptyJournal() throws IOException {
+        String fileName = new File(tempFolder.getRoot(), "empty.tmj").getPath();
+        MappedTimeRecorder recorder = new MappedTimeRecorder(fileName);
+        recorder.prepareForShutdown();
+        TimerJournalReader reader = new TimerJournalReader(fileName);
+        assertNull(reader.read());
+        reader.close();
+    }
+
+    static void assertTimerEquals(Timer expected, Timer actual) {
+        assertEquals(expected.getStartTimeMillis(), actual.getStartTimeMillis());
+        assertEquals(expected.getTaskName(), actual.getTaskName());
+        assertEquals(expected.getThreadName(), actual.getThreadName());
+        assertEquals(expected.getElapsedNanos(), actual.getElapsedNanos());
+        assertEquals(expected.getConcurrent(), actual.getConcurrent());
+        if (expected.getNotes() == null) {
+            assertNull(actual.getNotes());
+        } else {
+            assertEquals(expected.getNotes().toSingleValue(), actual.getNotes().toSingleValue());
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/* __copyright_begin__
+   Copyright 2011 Dan Hagberg
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+__copyright_end__ */
+package net.digitaltsunami.tmeter.record;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import net.digitaltsunami.tmeter.Timer;
+import net.digitaltsunami.tmeter.TimerLogType;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RollingFileTimeRecorderTest {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testRecord() throws IOException {
+        File file = new File(tempFolder.getRoot(), "timers.csv");
+        RollingFileTimeRecorder recorder = new RollingFileTimeRecorder(file.getPath(),
+                TimerLogType.CSV);
+        Timer timer = createTimer("TEST", 1);
+        Timer timer2 = createTimer("TEST2", 2);
+        recorder.record(timer);
+        recorder.recordAll(Arrays.asList(timer2, timer));
+        recorder.flush();
+        assertEquals(Arrays.asList(timer.toCsv(), timer2.toCsv(), timer.toCsv()), readLines(file));
+        recorder.prepareForShutdown();
+        // Recording after shutdown is ignored.
+        recorder.record(timer);
+        assertEquals(3, readLines(file).size());
+    }
+
+    /**
+     * Ensure lines formatted directly into the buffers match the timer's own
+     * formatting, including characters outside of ASCII and missing notes.
+     */
+    @Test
+    public void testLineFormat() throws IOException {
+        Timer timer = createTimer("T\u00e4sk \u65e5\u672c", -42);
+        Timer noNotes = new Timer("NO_NOTES");
+        noNotes.stop();
+        for (TimerLogType logType : Arrays.asList(TimerLogType.CSV, TimerLogType.TEXT)) {
+            File file = new File(tempFolder.getRoot(), "timers." + logType);
+            RollingFileTimeRecorder recorder = new RollingFileTimeRecorder(file.getPath(),
+                    logType, 16);
+            recorder.recordAll(Arrays.asList(timer, noNotes));
+            recorder.prepareForShutdown();
+            List<String> expected = logType == TimerLogType.CSV ? Arrays.asList(timer.toCsv(),
+                    noNotes.toCsv()) : Arrays.asList(timer.toString(), noNotes.toString());
+            assertEquals(expected, readUtf8Lines(file));
+        }
+    }
+
+    /**
+     * Ensure timers spanning multiple buffers are written in order.
+     */
+    @Test
+    public void testSmallBuffers() throws IOException {
+        File file = new File(tempFolder.getRoot(), "timers.log");
+        RollingFileTimeRecorder recorder = new RollingFileTimeRecorder(file.getPath(),
+                TimerLogType.TEXT, 16);
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            Timer timer = createTimer("TASK_" + i, i);
+            expected.add(timer.toString());
+            recorder.record(timer);
+        }
+        recorder.prepareForShutdown();
+        assertEquals(expected, readLines(file));
+    }
+
+    /**
+     * Ensure timers recorded without a flush are written within the flush
+     * interval.
+     */
+    @Test
+    public void testFlushInterval() throws Exception {
+        File file = new File(tempFolder.getRoot(), "timers.log");
+        RollingFileTimeRecorder recorder = new RollingFileTimeRecorder(file.getPath());
+        recorder.setFlushInterval(10, TimeUnit.MILLISECONDS);
+        recorder.setSyncPolicy(FileSyncPolicy.ALWAYS);
+        recorder.record(createTimer("TEST", 1));
+        for (int i = 0; i < 500 && file.length() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertTrue("Timer should be written without a flush", file.length() > 0);
+        recorder.prepareForShutdown();
+    }
+
+    /**
+     * Ensure binary segments are rolled by size and each is a complete
+     * journal.
+     */
+    @Test
+    public void testRollBySize() throws IOException {
+        File file = new File(tempFolder.getRoot(), "timers.tmj");
+        RollingFileTimeRecorder recorder = new RollingFileTimeRecorder(file.getPath(),
+                TimerLogType.BINARY, 128);
+        recorder.setMaxSegmentSize(200);
+        List<Timer> timers = new ArrayList<Timer>();
+        for (int i = 0; i < 20; i++) {
+            Timer timer = createTimer("TASK_" + (i % 2), i);
+            timers.add(timer);
+            recorder.record(timer);
+        }
+        recorder.prepareForShutdown();
+
+        List<Timer> restored = new ArrayList<Timer>();
+        int segments = 0;
+        for (long sequence = 1;; sequence++) {
+            File rolled = new File(file.getPath() + "." + sequence);
+            if (!rolled.exists()) {
+                break;
+            }
+            assertTrue(rolled.length() <= 200);
+            restored.addAll(readJournal(rolled));
+            segments++;
+        }
+        restored.addAll(readJournal(file));
+        assertTrue("Expected multiple segments: " + segments, segments > 1);
+        assertEquals(timers.size(), restored.size());
+        for (int i = 0; i < timers.size(); i++) {
+            MappedTimeRecorderTest.assertTimerEquals(timers.get(i), restored.get(i));
+        }
+    }
+
+    @Test
+    public void testRollByAge() throws Exception {
+        File file = new File(tempFolder.getRoot(), "timers.log");
+        RollingFileTimeRecorder recorder = new RollingFileTimeRecorder(file.getPath());
+        recorder.setMaxSegmentAge(1, TimeUnit.MILLISECONDS);
+        Timer first = createTimer("FIRST", 1);
+        recorder.record(first);
+        Thread.sleep(5);
+        Timer second = createTimer("SECOND", 2);
+        recorder.record(second);
+        recorder.prepareForShutdown();
+        assertEquals(Arrays.asList(first.toString()), readLines(new File(file.getPath() + ".1")));
+        assertEquals(Arrays.asList(second.toString()), readLines(file));
+    }
+
+    @Test
+    public void testCompressRolledSegments() throws IOException {
+        File file = new File(tempFolder.getRoot(), "timers.log");
+        RollingFileTimeRecorder recorder = new RollingFileTimeRecorder(file.getPath());
+        recorder.setCompressRolledSegments(true);
+        recorder.setMaxSegmentSize(1);
+        Timer first = createTimer("FIRST", 1);
+        recorder.record(first);
+        recorder.record(createTimer("SECOND", 2));
+        recorder.prepareForShutdown();
+        assertFalse(new File(file.getPath() + ".1").exists());
+        File compressed = new File(file.getPath() + ".1.gz");
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(
+                new FileInputStream(compressed)), "UTF-8"));
+        assertEquals(first.toString(), reader.readLine());
+        reader.close();
+    }
+
+    /**
+     * Ensure a file left by a previous run is rolled rather than overwritten.
+     */
+    @Test
+    public void testExistingFileRolled() throws IOException {
+        File file = new File(tempFolder.getRoot(), "timers.log");
+        assertTrue(new File(file.getPath() + ".3.gz").createNewFile());
+        PrintWriter previous = new PrintWriter(file);
+        previous.println("previous");
+        previous.close();
+        RollingFileTimeRecorder recorder = new RollingFileTimeRecorder(file.getPath());
+        recorder.prepareForShutdown();
+        assertEquals(Arrays.asList("previous"), readLines(new File(file.getPath() + ".4")));
+        assertEquals(0, file.length());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBufferSize() throws IOException {
+        new RollingFileTimeRecorder(new File(tempFolder.getRoot(), "timers.log").getPath(),
+                TimerLogType.TEXT, 0);
+    }
+
+    private static Timer createTimer(String taskName, int note) {
+        Timer timer = new Timer(taskName);
+        timer.stop("note", note);
+        return timer;
+    }
+
+    private static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+        reader.close();
+        return lines;
+    }
+
+    private static List<String> readUtf8Lines(File file) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "UTF-8"));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+        reader.close();
+        return lines;
+    }
+
+    private static List<Timer> readJournal(File file) throws IOException {
+        TimerJournalReader reader = new TimerJournalReader(file.getPath());
+        List<Timer> timers = reader.readAll();
+        reader.close();
+        return timers;
+    }
+}
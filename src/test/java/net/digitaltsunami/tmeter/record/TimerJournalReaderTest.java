@@ -0,0 +1,79 @@
+package net.digitaltsunami.tmeter.record;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import net.digitaltsunami.tmeter.Timer;
+import net.digitaltsunami.tmeter.TimerLogType;
+
+import org.junit.Test;
+
+public class TimerJournalReaderTest {
+
+    /**
+     * Timers written by {@link FileTimeRecorder} using
+     * {@link TimerLogType#BINARY} should be readable.
+     */
+    @Test
+    public void testReadFileTimeRecorderOutput() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FileTimeRecorder recorder = new FileTimeRecorder(new PrintStream(out), TimerLogType.BINARY);
+        Timer timer = new Timer("TEST");
+        timer.stop("a", "b");
+        Timer timer2 = new Timer("TEST2");
+        timer2.stop();
+        recorder.record(timer);
+        recorder.recordAll(Arrays.asList(timer2, timer));
+
+        TimerJournalReader reader = new TimerJournalReader(new ByteArrayInputStream(
+                out.toByteArray()));
+        List<Timer> timers = reader.readAll();
+        assertEquals(3, timers.size());
+        MappedTimeRecorderTest.assertTimerEquals(timer, timers.get(0));
+        MappedTimeRecorderTest.assertTimerEquals(timer2, timers.get(1));
+        MappedTimeRecorderTest.assertTimerEquals(timer, timers.get(2));
+        assertNull(reader.read());
+    }
+
+    /**
+     * Names defined with a timer that could not be written are defined again
+     * with the next timer.
+     */
+    @Test
+    public void testRollback() throws IOException {
+        TimerJournalEncoder encoder = new TimerJournalEncoder();
+        Timer timer = new Timer("TEST");
+        timer.stop();
+        encoder.encode(timer);
+        encoder.rollback();
+        ByteBuffer encoded = encoder.encode(timer);
+        byte[] bytes = new byte[encoded.remaining()];
+        encoded.get(bytes);
+
+        TimerJournalReader reader = new TimerJournalReader(new ByteArrayInputStream(bytes));
+        List<Timer> timers = reader.readAll();
+        assertEquals(1, timers.size());
+        MappedTimeRecorderTest.assertTimerEquals(timer, timers.get(0));
+    }
+
+    @Test
+    public void testReadEmpty() throws IOException {
+        TimerJournalReader reader = new TimerJournalReader(new ByteArrayInputStream(new byte[0]));
+        assertNull(reader.read());
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadInvalid() throws IOException {
+        TimerJournalReader reader = new TimerJournalReader(new ByteArrayInputStream(
+                "start_time_ms,task".getBytes()));
+        reader.read();
+    }
+}